@@ -0,0 +1,60 @@
+package org.motechproject.nms.api.domain;
+
+import org.motechproject.mds.annotations.Entity;
+import org.motechproject.mds.annotations.Field;
+
+import javax.jdo.annotations.Column;
+import javax.jdo.annotations.Unique;
+
+/**
+ * Records that a write request from the IVR for a given call has been accepted, so that retries of the same request
+ * can be recognised and dropped. The unique index is what guarantees each (service, callingNumber, callId) is only
+ * processed once.
+ */
+@Entity(tableName = "nms_api_processed_calls")
+@Unique(name = "UNIQUE_SERVICE_CALLING_NUMBER_CALL_ID_COMPOSITE_IDX",
+        members = { "service", "callingNumber", "callId" })
+public class ProcessedCall {
+
+    @Field
+    @Column(allowsNull = "false", length = 64)
+    private String service;
+
+    @Field
+    @Column(allowsNull = "false")
+    private Long callingNumber;
+
+    @Field
+    @Column(allowsNull = "false")
+    private Long callId;
+
+    public ProcessedCall(String service, Long callingNumber, Long callId) {
+        this.service = service;
+        this.callingNumber = callingNumber;
+        this.callId = callId;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public void setService(String service) {
+        this.service = service;
+    }
+
+    public Long getCallingNumber() {
+        return callingNumber;
+    }
+
+    public void setCallingNumber(Long callingNumber) {
+        this.callingNumber = callingNumber;
+    }
+
+    public Long getCallId() {
+        return callId;
+    }
+
+    public void setCallId(Long callId) {
+        this.callId = callId;
+    }
+}
@@ -0,0 +1,13 @@
+package org.motechproject.nms.api.repository;
+
+import org.motechproject.mds.annotations.Lookup;
+import org.motechproject.mds.annotations.LookupField;
+import org.motechproject.mds.service.MotechDataService;
+import org.motechproject.nms.api.domain.ProcessedCall;
+
+public interface ProcessedCallDataService extends MotechDataService<ProcessedCall> {
+    @Lookup
+    ProcessedCall findByServiceCallingNumberAndCallId(@LookupField(name = "service") String service,
+                                                      @LookupField(name = "callingNumber") Long callingNumber,
+                                                      @LookupField(name = "callId") Long callId);
+}
@@ -0,0 +1,38 @@
+package org.motechproject.nms.api.service;
+
+import java.util.Map;
+
+/**
+ * Latency statistics for the IVR facing APIs: a histogram per endpoint and outcome (HTTP status), and per endpoint
+ * a histogram for each downstream service call made while serving it. Recording is cheap enough to be done on every
+ * request.
+ */
+public interface ApiStatsService {
+
+    /**
+     * @param endpoint the endpoint that was served, eg: GET /kilkari/user
+     * @param status the HTTP status it was served with
+     * @param durationNanos how long it took
+     */
+    void recordRequest(String endpoint, int status, long durationNanos);
+
+    /**
+     * @param endpoint the endpoint being served when the call was made
+     * @param call the downstream call, eg: SubscriberService.getSubscriberSummary
+     * @param durationNanos how long the call took
+     */
+    void recordDownstreamCall(String endpoint, String call, long durationNanos);
+
+    /**
+     * Snapshot of the statistics, keyed by endpoint then by outcome ("outcomes") and downstream call ("downstream").
+     * Each histogram is summarised as count, mean, p50, p90, p99, p999 and max, in microseconds.
+     *
+     * @return the statistics, ready to be serialised as JSON
+     */
+    Map<String, Object> getStats();
+
+    /**
+     * Forget everything recorded so far.
+     */
+    void reset();
+}
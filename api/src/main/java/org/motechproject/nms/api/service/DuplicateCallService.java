@@ -0,0 +1,51 @@
+package org.motechproject.nms.api.service;
+
+import java.util.Map;
+
+/**
+ * Idempotency guard for the IVR write APIs. The IVR retries its posts on timeouts, so the same request for a given
+ * call may arrive more than once; only the first one should be processed.
+ */
+public interface DuplicateCallService {
+
+    String PURGE_PROCESSED_CALLS_EVENT = "nms.api.purge_processed_calls";
+
+    /**
+     * Claim the right to process a request. Must be called once the request has been validated, right before its
+     * data is written. The claim is recorded in the background.
+     *
+     * @param service the API the request was made to, eg: mobileacademy/callDetails
+     * @param callingNumber the calling number from the request
+     * @param callId the call id from the request
+     * @return true if this is the first time the request is seen and it should be processed, false if it is a
+     *         duplicate and should be dropped
+     */
+    boolean claim(String service, long callingNumber, long callId);
+
+    /**
+     * Give up a claim, so that a retry of the request is processed. Must be called when the request fails after it
+     * was claimed, before the failure is returned to the IVR.
+     *
+     * @param service the API the request was made to
+     * @param callingNumber the calling number from the request
+     * @param callId the call id from the request
+     */
+    void release(String service, long callingNumber, long callId);
+
+    /**
+     * Synchronously record every claim still queued
+     */
+    void flush();
+
+    /**
+     * Forget the requests processed more than api.processed_call_retention_days days ago. Runs daily.
+     *
+     * @return the number of processed requests forgotten
+     */
+    long purgeProcessedCalls();
+
+    /**
+     * @return the number of duplicate requests dropped since the bundle started, by service
+     */
+    Map<String, Long> getDuplicateCounts();
+}
@@ -0,0 +1,16 @@
+package org.motechproject.nms.api.service.impl;
+
+/**
+ * JMX view of the {@link org.motechproject.nms.api.service.ApiStatsService} statistics.
+ */
+public interface ApiStatsMBean {
+
+    long getRequestCount();
+
+    /**
+     * @return one line per endpoint and outcome, then per endpoint and downstream call
+     */
+    String[] getSummaries();
+
+    void reset();
+}
@@ -0,0 +1,171 @@
+package org.motechproject.nms.api.service.impl;
+
+import org.motechproject.nms.api.service.ApiStatsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementation of the {@link ApiStatsService} interface, also registered with the platform MBean server as
+ * org.motechproject.nms.api:type=ApiStats.
+ *
+ * Histograms are created on first use and never removed (short of a reset), so endpoint and call names must come
+ * from a small fixed set.
+ */
+@Service("apiStatsService")
+public class ApiStatsServiceImpl implements ApiStatsService, ApiStatsMBean {
+
+    public static final String OBJECT_NAME = "org.motechproject.nms.api:type=ApiStats";
+
+    private static final String OUTCOMES = "outcomes";
+    private static final String DOWNSTREAM = "downstream";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ApiStatsServiceImpl.class);
+
+    // endpoint -> OUTCOMES or DOWNSTREAM -> status or call -> histogram
+    private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>>> histograms =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    @PostConstruct
+    public void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(new StandardMBean(this, ApiStatsMBean.class), objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Unable to register {}, API stats won't be available through JMX", OBJECT_NAME, e);
+        }
+    }
+
+    @PreDestroy
+    public void unregisterMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Unable to unregister {}", OBJECT_NAME, e);
+        }
+    }
+
+    @Override
+    public void recordRequest(String endpoint, int status, long durationNanos) {
+        requestCount.incrementAndGet();
+        getHistogram(endpoint, OUTCOMES, String.valueOf(status)).record(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+    }
+
+    @Override
+    public void recordDownstreamCall(String endpoint, String call, long durationNanos) {
+        getHistogram(endpoint, DOWNSTREAM, call).record(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new TreeMap<>();
+
+        for (Map.Entry<String, ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>>> endpoint :
+                histograms.entrySet()) {
+            Map<String, Object> endpointStats = new TreeMap<>();
+            for (Map.Entry<String, ConcurrentMap<String, LatencyHistogram>> group : endpoint.getValue().entrySet()) {
+                Map<String, Object> groupStats = new TreeMap<>();
+                for (Map.Entry<String, LatencyHistogram> histogram : group.getValue().entrySet()) {
+                    groupStats.put(histogram.getKey(), summarise(histogram.getValue()));
+                }
+                endpointStats.put(group.getKey(), groupStats);
+            }
+            stats.put(endpoint.getKey(), endpointStats);
+        }
+
+        return stats;
+    }
+
+    @Override
+    public void reset() {
+        histograms.clear();
+        requestCount.set(0);
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public String[] getSummaries() {
+        List<String> summaries = new ArrayList<>();
+
+        for (Map.Entry<String, ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>>> endpoint :
+                new TreeMap<>(histograms).entrySet()) {
+            for (String group : new String[] {OUTCOMES, DOWNSTREAM}) {
+                Map<String, LatencyHistogram> groupHistograms = endpoint.getValue().get(group);
+                if (groupHistograms == null) {
+                    continue;
+                }
+                for (Map.Entry<String, LatencyHistogram> histogram : new TreeMap<>(groupHistograms).entrySet()) {
+                    summaries.add(String.format("%s %s %s", endpoint.getKey(), histogram.getKey(),
+                            summarise(histogram.getValue())));
+                }
+            }
+        }
+
+        return summaries.toArray(new String[summaries.size()]);
+    }
+
+    private LatencyHistogram getHistogram(String endpoint, String group, String name) {
+        ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> endpointHistograms = histograms.get(endpoint);
+        if (endpointHistograms == null) {
+            histograms.putIfAbsent(endpoint, new ConcurrentHashMap<String, ConcurrentMap<String, LatencyHistogram>>());
+            endpointHistograms = histograms.get(endpoint);
+        }
+
+        ConcurrentMap<String, LatencyHistogram> groupHistograms = endpointHistograms.get(group);
+        if (groupHistograms == null) {
+            endpointHistograms.putIfAbsent(group, new ConcurrentHashMap<String, LatencyHistogram>());
+            groupHistograms = endpointHistograms.get(group);
+        }
+
+        LatencyHistogram histogram = groupHistograms.get(name);
+        if (histogram == null) {
+            groupHistograms.putIfAbsent(name, new LatencyHistogram());
+            histogram = groupHistograms.get(name);
+        }
+
+        return histogram;
+    }
+
+    private static Map<String, Long> summarise(LatencyHistogram histogram) {
+        Map<String, Long> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.getCount());
+        summary.put("mean", histogram.getMean());
+        summary.put("p50", histogram.getValueAtPercentile(50));
+        summary.put("p90", histogram.getValueAtPercentile(90));
+        summary.put("p99", histogram.getValueAtPercentile(99));
+        summary.put("p999", histogram.getValueAtPercentile(99.9));
+        summary.put("max", histogram.getMax());
+        return summary;
+    }
+}
@@ -0,0 +1,255 @@
+package org.motechproject.nms.api.service.impl;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.motechproject.event.MotechEvent;
+import org.motechproject.event.listener.annotations.MotechListener;
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
+import org.motechproject.nms.api.domain.ProcessedCall;
+import org.motechproject.nms.api.repository.ProcessedCallDataService;
+import org.motechproject.nms.api.service.DuplicateCallService;
+import org.motechproject.nms.props.queue.WriteBehindQueueService;
+import org.motechproject.scheduler.contract.RepeatingSchedulableJob;
+import org.motechproject.scheduler.service.MotechSchedulerService;
+import org.motechproject.server.config.SettingsFacade;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+import javax.jdo.Query;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementation of the {@link DuplicateCallService} interface.
+ *
+ * Requests seen in the last hour or so are remembered in a sliding bloom filter. A claim is recorded as a
+ * {@link ProcessedCall} by a write-behind queue, so claiming doesn't touch the database unless the filter reports a
+ * possible duplicate: the claims still queued, then the database, rule out false positives. The unique index on
+ * ProcessedCall is the backstop for what neither can see, eg: the same request claimed on two servers at once, in
+ * which case the second insert fails and is logged.
+ *
+ * A claim is released, by deleting its row once it's written, when the request fails before it's acknowledged or its
+ * data can't be written, so that the IVR's retry goes through. The filter may still report the released request,
+ * which only costs the database read ruling it out. Processed calls older than api.processed_call_retention_days are
+ * purged daily, at api.processed_call_purge_time.
+ */
+@Service("duplicateCallService")
+public class DuplicateCallServiceImpl extends WriteBehindQueueService<ProcessedCall> implements DuplicateCallService {
+
+    public static final int QUEUE_CAPACITY = 10000;
+    public static final int MAX_BATCH_SIZE = 500;
+
+    // Four 15 minute generations: requests are remembered for 45 to 60 minutes
+    private static final int FILTER_GENERATIONS = 4;
+    private static final long FILTER_GENERATION_MS = 15 * 60 * 1000;
+
+    // 4M bits (512KB) per generation gives ~1% false positives at 400K requests per generation
+    private static final int FILTER_BITS_PER_GENERATION = 1 << 22;
+    private static final int FILTER_HASHES = 7;
+
+    private static final String PROCESSED_CALL_RETENTION_DAYS = "api.processed_call_retention_days";
+    private static final String PROCESSED_CALL_PURGE_TIME = "api.processed_call_purge_time";
+    private static final long PURGE_INTERVAL_MS = 24 * 60 * 60 * 1000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DuplicateCallServiceImpl.class);
+
+    private SettingsFacade settingsFacade;
+    private MotechSchedulerService schedulerService;
+    private ProcessedCallDataService processedCallDataService;
+
+    private final SlidingBloomFilter recentCalls = new SlidingBloomFilter(FILTER_GENERATIONS, FILTER_GENERATION_MS,
+            FILTER_BITS_PER_GENERATION, FILTER_HASHES);
+
+    // Claims queued but not written yet, by key
+    private final ConcurrentMap<String, ProcessedCall> pendingClaims = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, AtomicLong> duplicateCounts = new ConcurrentHashMap<>();
+
+    @Autowired
+    public DuplicateCallServiceImpl(@Qualifier("apiSettings") SettingsFacade settingsFacade,
+                                    MotechSchedulerService schedulerService,
+                                    ProcessedCallDataService processedCallDataService) {
+        super("processed-calls", QUEUE_CAPACITY, MAX_BATCH_SIZE, 0);
+        this.settingsFacade = settingsFacade;
+        this.schedulerService = schedulerService;
+        this.processedCallDataService = processedCallDataService;
+
+        schedulePurge();
+    }
+
+    /**
+     * Use the MOTECH scheduler to purge old processed calls every day at api.processed_call_purge_time
+     */
+    private void schedulePurge() {
+        DateTime time = DateTimeFormat.forPattern("H:m").parseDateTime(
+                settingsFacade.getProperty(PROCESSED_CALL_PURGE_TIME));
+        DateTime today = DateTime.now()
+                .withHourOfDay(time.getHourOfDay())
+                .withMinuteOfHour(time.getMinuteOfHour())
+                .withSecondOfMinute(0)
+                .withMillisOfSecond(0);
+
+        RepeatingSchedulableJob job = new RepeatingSchedulableJob(
+                new MotechEvent(PURGE_PROCESSED_CALLS_EVENT),
+                today.toDate(),     //startTime
+                null,               //endTime, null means no end time
+                null,               //repeatCount, null means infinity
+                PURGE_INTERVAL_MS,  //repeatIntervalInMilliseconds
+                true);              //ignorePastFiresAtStart
+        schedulerService.safeScheduleRepeatingJob(job);
+    }
+
+    @Override
+    public boolean claim(String service, long callingNumber, long callId) {
+        long hash1 = mix(callingNumber ^ mix(callId + service.hashCode()));
+        long hash2 = mix(hash1 + callId) | 1;
+
+        String key = key(service, callingNumber, callId);
+
+        if (recentCalls.mightContain(hash1, hash2)
+                && (pendingClaims.containsKey(key) || isProcessed(service, callingNumber, callId))) {
+            countDuplicate(service, callingNumber, callId);
+            return false;
+        }
+
+        ProcessedCall processedCall = new ProcessedCall(service, callingNumber, callId);
+        recentCalls.put(hash1, hash2);
+        if (pendingClaims.putIfAbsent(key, processedCall) != null) {
+            // A concurrent retry got there first
+            countDuplicate(service, callingNumber, callId);
+            return false;
+        }
+
+        getQueue().enqueue(processedCall);
+        return true;
+    }
+
+    @Override
+    public void release(String service, long callingNumber, long callId) {
+        try {
+            // The claim may still be queued: write it so there's a row to delete
+            flush();
+
+            ProcessedCall processedCall = processedCallDataService.findByServiceCallingNumberAndCallId(service,
+                    callingNumber, callId);
+            if (processedCall != null) {
+                processedCallDataService.delete(processedCall);
+            }
+        } catch (RuntimeException e) {
+            // Don't hide the failure the claim is released for: the retry will be dropped as a duplicate
+            LOGGER.error("Unable to release {} request for callingNumber {}, callId {}", service, callingNumber,
+                    callId, e);
+        }
+    }
+
+    @Override
+    public void write(final List<ProcessedCall> batch) {
+        processedCallDataService.doInTransaction(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                for (ProcessedCall processedCall : batch) {
+                    processedCallDataService.create(processedCall);
+                }
+            }
+        });
+
+        for (ProcessedCall processedCall : batch) {
+            forget(processedCall);
+        }
+    }
+
+    @Override
+    public void failed(ProcessedCall processedCall, RuntimeException e) {
+        // Most likely the unique index: the same request was claimed elsewhere, and processed twice
+        LOGGER.error("Unable to record {} request for callingNumber {}, callId {}", processedCall.getService(),
+                processedCall.getCallingNumber(), processedCall.getCallId(), e);
+        forget(processedCall);
+    }
+
+    @Override
+    public long purgeProcessedCalls() {
+        int retentionDays = Integer.parseInt(settingsFacade.getProperty(PROCESSED_CALL_RETENTION_DAYS));
+        final DateTime cutoff = DateTime.now().minusDays(retentionDays);
+
+        QueryExecution<Long> queryExecution = new QueryExecution<Long>() {
+            @Override
+            public Long execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("creationDate < cutoff");
+                query.declareParameters("org.joda.time.DateTime cutoff");
+
+                return query.deletePersistentAll(cutoff);
+            }
+        };
+
+        long startTime = System.currentTimeMillis();
+        long purged = processedCallDataService.executeQuery(queryExecution);
+        LOGGER.info("Purged {} processed calls older than {} in {}ms", purged, cutoff,
+                System.currentTimeMillis() - startTime);
+        return purged;
+    }
+
+    @MotechListener(subjects = { PURGE_PROCESSED_CALLS_EVENT })
+    public void handlePurgeEvent(MotechEvent event) {
+        LOGGER.info(event.toString());
+
+        purgeProcessedCalls();
+    }
+
+    @Override
+    public Map<String, Long> getDuplicateCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : duplicateCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    private void forget(ProcessedCall processedCall) {
+        pendingClaims.remove(key(processedCall.getService(), processedCall.getCallingNumber(),
+                processedCall.getCallId()), processedCall);
+    }
+
+    private static String key(String service, long callingNumber, long callId) {
+        return String.format("%s:%d:%d", service, callingNumber, callId);
+    }
+
+    private boolean isProcessed(String service, long callingNumber, long callId) {
+        return processedCallDataService.findByServiceCallingNumberAndCallId(service, callingNumber, callId) != null;
+    }
+
+    private void countDuplicate(String service, long callingNumber, long callId) {
+        AtomicLong count = duplicateCounts.get(service);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = duplicateCounts.putIfAbsent(service, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+
+        LOGGER.info("Dropping duplicate {} request for callingNumber {}, callId {} ({} so far)", service,
+                callingNumber, callId, count.incrementAndGet());
+    }
+
+    // 64 bit finalizer from MurmurHash3
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,94 @@
+package org.motechproject.nms.api.service.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free log-linear latency histogram in the spirit of HdrHistogram. Values below 128 are counted exactly; above
+ * that, every power of two range is split into 64 equal buckets, so any recorded value is reported to within 1/64
+ * (~1.6%) of its true value. Values are in microseconds and anything above MAX_VALUE is counted as MAX_VALUE.
+ *
+ * Recording is a handful of atomic increments; reading percentiles walks the ~1.8K buckets and may be slightly
+ * inconsistent with concurrent recordings, which is fine for monitoring.
+ */
+public class LatencyHistogram {
+
+    // One hour
+    public static final long MAX_VALUE = 60L * 60 * 1000 * 1000;
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT_BUCKET_COUNT = 2 * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public void record(long value) {
+        long clamped = Math.max(0, Math.min(value, MAX_VALUE));
+
+        counts.incrementAndGet(indexOf(clamped));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(clamped);
+
+        long max = maxValue.get();
+        while (clamped > max && !maxValue.compareAndSet(max, clamped)) {
+            max = maxValue.get();
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    public long getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : totalValue.get() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value at or below which the given percentage of recorded values fall, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    private static int indexOf(long value) {
+        if (value < EXACT_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        // value >> shift lands in [SUB_BUCKET_COUNT, 2 * SUB_BUCKET_COUNT)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return EXACT_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_COUNT + (int) (value >> shift) - SUB_BUCKET_COUNT;
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < EXACT_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = (index - EXACT_BUCKET_COUNT) / SUB_BUCKET_COUNT + 1;
+        long subBucket = (index - EXACT_BUCKET_COUNT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
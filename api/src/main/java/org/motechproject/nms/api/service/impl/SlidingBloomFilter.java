@@ -0,0 +1,104 @@
+package org.motechproject.nms.api.service.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Time-bounded bloom filter: a ring of generations, each covering generationMillis. Keys are added to the current
+ * generation and looked up in all of them; when the current generation has aged, the oldest one is cleared and
+ * takes its place. Keys are therefore remembered for between (generations - 1) and generations times
+ * generationMillis. Lookups and insertions are lock free; only the rotation is synchronized.
+ *
+ * Callers provide two independent 64 bit hashes of the key, from which the bit positions are derived by double
+ * hashing.
+ */
+public class SlidingBloomFilter {
+
+    private static final int BITS_PER_WORD_SHIFT = 6;
+
+    private final int bitMask;
+    private final int hashCount;
+    private final long generationMillis;
+    private final AtomicReferenceArray<AtomicLongArray> generations;
+
+    private volatile int current;
+    private volatile long currentStart;
+
+    /**
+     * @param generationCount number of generations kept
+     * @param generationMillis how long, in milliseconds, each generation receives new keys
+     * @param bitsPerGeneration size of each generation, must be a power of two no smaller than 64
+     * @param hashCount number of bits set per key
+     */
+    public SlidingBloomFilter(int generationCount, long generationMillis, int bitsPerGeneration, int hashCount) {
+        if (Integer.bitCount(bitsPerGeneration) != 1 || bitsPerGeneration < Long.SIZE) {
+            throw new IllegalArgumentException("bitsPerGeneration must be a power of two no smaller than 64");
+        }
+
+        this.bitMask = bitsPerGeneration - 1;
+        this.hashCount = hashCount;
+        this.generationMillis = generationMillis;
+        this.generations = new AtomicReferenceArray<>(generationCount);
+        for (int i = 0; i < generationCount; i++) {
+            generations.set(i, new AtomicLongArray(bitsPerGeneration >>> BITS_PER_WORD_SHIFT));
+        }
+        this.currentStart = System.currentTimeMillis();
+    }
+
+    public boolean mightContain(long hash1, long hash2) {
+        rotateIfNeeded();
+
+        for (int i = 0; i < generations.length(); i++) {
+            if (contains(generations.get(i), hash1, hash2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void put(long hash1, long hash2) {
+        rotateIfNeeded();
+
+        AtomicLongArray bits = generations.get(current);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (int) (hash1 + i * hash2) & bitMask;
+            int word = bit >>> BITS_PER_WORD_SHIFT;
+            long mask = 1L << bit;
+
+            long oldValue;
+            long newValue;
+            do {
+                oldValue = bits.get(word);
+                newValue = oldValue | mask;
+            } while (oldValue != newValue && !bits.compareAndSet(word, oldValue, newValue));
+        }
+    }
+
+    private boolean contains(AtomicLongArray bits, long hash1, long hash2) {
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (int) (hash1 + i * hash2) & bitMask;
+            if ((bits.get(bit >>> BITS_PER_WORD_SHIFT) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rotateIfNeeded() {
+        if (System.currentTimeMillis() - currentStart < generationMillis) {
+            return;
+        }
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - currentStart < generationMillis) {
+                return;
+            }
+
+            int next = (current + 1) % generations.length();
+            generations.set(next, new AtomicLongArray(generations.get(next).length()));
+            current = next;
+            currentStart = now;
+        }
+    }
+}
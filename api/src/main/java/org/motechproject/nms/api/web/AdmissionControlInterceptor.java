@@ -0,0 +1,134 @@
+package org.motechproject.nms.api.web;
+
+import org.motechproject.nms.api.web.exception.ServiceUnavailableException;
+import org.motechproject.server.config.SettingsFacade;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the number of requests the controllers serve at the same time, separately for reads (GET) and writes
+ * (everything else), so that a burst of one kind can neither exhaust the database connection pool nor hold up the
+ * latency critical reads (/user, /inbox). A request which can't get a slot within a short wait is turned away right
+ * away with a 503 rather than left to time out on IMI's side. The batch user lookup is a POST and so counts against
+ * the writes, which keeps IVR pre-warming from competing with live callers.
+ */
+@Component("admissionControlInterceptor")
+public class AdmissionControlInterceptor extends HandlerInterceptorAdapter {
+
+    public static final String READS = "reads";
+    public static final String WRITES = "writes";
+
+    private static final String MAX_CONCURRENT_READS = "api.max_concurrent_reads";
+    private static final String READ_QUEUE_MS = "api.read_queue_ms";
+    private static final String MAX_CONCURRENT_WRITES = "api.max_concurrent_writes";
+    private static final String WRITE_QUEUE_MS = "api.write_queue_ms";
+
+    private static final String PERMIT_ATTRIBUTE = AdmissionControlInterceptor.class.getName() + ".permit";
+    private static final String BUSY = "<%s: Busy>";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionControlInterceptor.class);
+
+    private final EndpointClass reads;
+    private final EndpointClass writes;
+
+    @Autowired
+    public AdmissionControlInterceptor(@Qualifier("apiSettings") SettingsFacade settingsFacade) {
+        reads = new EndpointClass(READS, Integer.parseInt(settingsFacade.getProperty(MAX_CONCURRENT_READS)),
+                Long.parseLong(settingsFacade.getProperty(READ_QUEUE_MS)));
+        writes = new EndpointClass(WRITES, Integer.parseInt(settingsFacade.getProperty(MAX_CONCURRENT_WRITES)),
+                Long.parseLong(settingsFacade.getProperty(WRITE_QUEUE_MS)));
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // Stats must stay reachable when we're overloaded, that's when they're needed most
+        if (!(handler instanceof HandlerMethod) ||
+                StatsController.class.isAssignableFrom(((HandlerMethod) handler).getBeanType())) {
+            return true;
+        }
+
+        EndpointClass endpointClass = "GET".equals(request.getMethod()) ? reads : writes;
+        if (!endpointClass.tryAcquire()) {
+            throw new ServiceUnavailableException(String.format(BUSY, endpointClass.name));
+        }
+
+        request.setAttribute(PERMIT_ATTRIBUTE, endpointClass);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        EndpointClass endpointClass = (EndpointClass) request.getAttribute(PERMIT_ATTRIBUTE);
+        if (endpointClass != null) {
+            request.removeAttribute(PERMIT_ATTRIBUTE);
+            endpointClass.release();
+        }
+    }
+
+    /**
+     * @return the number of requests turned away since the bundle started, by endpoint class
+     */
+    public Map<String, Long> getShedCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        counts.put(READS, reads.shed.get());
+        counts.put(WRITES, writes.shed.get());
+        return counts;
+    }
+
+    /**
+     * @return the number of requests currently being served, by endpoint class
+     */
+    public Map<String, Integer> getInFlightCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        counts.put(READS, reads.maxConcurrent - reads.permits.availablePermits());
+        counts.put(WRITES, writes.maxConcurrent - writes.permits.availablePermits());
+        return counts;
+    }
+
+    private static final class EndpointClass {
+        private final String name;
+        private final int maxConcurrent;
+        private final long queueMs;
+        private final Semaphore permits;
+        private final AtomicLong shed = new AtomicLong();
+
+        private EndpointClass(String name, int maxConcurrent, long queueMs) {
+            this.name = name;
+            this.maxConcurrent = maxConcurrent;
+            this.queueMs = queueMs;
+            this.permits = new Semaphore(maxConcurrent);
+        }
+
+        private boolean tryAcquire() {
+            try {
+                if (permits.tryAcquire(queueMs, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            long count = shed.incrementAndGet();
+            LOGGER.debug("Shedding {} request, {} shed so far", name, count);
+            return false;
+        }
+
+        private void release() {
+            permits.release();
+        }
+    }
+}
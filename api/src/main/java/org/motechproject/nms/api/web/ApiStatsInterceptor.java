@@ -0,0 +1,122 @@
+package org.motechproject.nms.api.web;
+
+import org.motechproject.nms.api.service.ApiStatsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.method.annotation.ExceptionHandlerMethodResolver;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Times every request handled by the controllers and records it with the {@link ApiStatsService}, by endpoint and
+ * outcome. Also resolves exceptions first (without handling them) so that the outcome of a request which failed can
+ * be worked out from the @ResponseStatus of the @ExceptionHandler the controller has for it.
+ */
+@Component("apiStatsInterceptor")
+public class ApiStatsInterceptor extends HandlerInterceptorAdapter implements HandlerExceptionResolver, Ordered {
+
+    private static final String EXCEPTION_ATTRIBUTE = ApiStatsInterceptor.class.getName() + ".exception";
+    private static final String SERVICE_NAME_VARIABLE = "{" + UserController.SERVICE_NAME + "}";
+
+    // Anything else is left as {serviceName} so junk urls can't create histograms
+    private static final Set<String> SERVICE_NAMES = new HashSet<>(Arrays.asList(BaseController.MOBILE_ACADEMY,
+            BaseController.MOBILE_KUNJI, BaseController.KILKARI));
+
+    @Autowired
+    private ApiStatsService apiStatsService;
+
+    private final ConcurrentMap<Class<?>, ExceptionHandlerMethodResolver> exceptionHandlerResolvers =
+            new ConcurrentHashMap<>();
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (handler instanceof HandlerMethod) {
+            RequestTiming.start(getEndpoint(request, (HandlerMethod) handler));
+        }
+        return true;
+    }
+
+    @Override
+    public ModelAndView resolveException(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                         Exception ex) {
+        request.setAttribute(EXCEPTION_ATTRIBUTE, ex);
+        return null;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        RequestTiming timing = RequestTiming.stop();
+        if (timing == null) {
+            return;
+        }
+
+        int status;
+        if (ex != null) {
+            // Nobody handled it
+            status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+        } else {
+            Exception handled = (Exception) request.getAttribute(EXCEPTION_ATTRIBUTE);
+            status = getStatus((HandlerMethod) handler, handled);
+        }
+
+        apiStatsService.recordRequest(timing.getEndpoint(), status, timing.getElapsedNanos());
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    private String getEndpoint(HttpServletRequest request, HandlerMethod handler) {
+        String pattern = (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (pattern == null) {
+            return String.format("%s.%s", handler.getBeanType().getSimpleName(), handler.getMethod().getName());
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, String> variables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String serviceName = variables == null ? null : variables.get(UserController.SERVICE_NAME);
+        if (serviceName != null && SERVICE_NAMES.contains(serviceName)) {
+            pattern = pattern.replace(SERVICE_NAME_VARIABLE, serviceName);
+        }
+
+        return String.format("%s %s", request.getMethod(), pattern);
+    }
+
+    private int getStatus(HandlerMethod handler, Exception handled) {
+        Method method = handler.getMethod();
+        if (handled != null) {
+            ExceptionHandlerMethodResolver resolver = exceptionHandlerResolvers.get(handler.getBeanType());
+            if (resolver == null) {
+                resolver = new ExceptionHandlerMethodResolver(handler.getBeanType());
+                exceptionHandlerResolvers.putIfAbsent(handler.getBeanType(), resolver);
+            }
+            method = resolver.resolveMethod(handled);
+            if (method == null) {
+                return HttpStatus.INTERNAL_SERVER_ERROR.value();
+            }
+        }
+
+        ResponseStatus responseStatus = AnnotationUtils.findAnnotation(method, ResponseStatus.class);
+        return responseStatus == null ? HttpStatus.OK.value() : responseStatus.value().value();
+    }
+}
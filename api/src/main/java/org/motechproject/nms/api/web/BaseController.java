@@ -4,13 +4,14 @@ import org.joda.time.DateTime;
 import org.motechproject.nms.api.web.contract.BadRequest;
 import org.motechproject.nms.api.web.exception.NotAuthorizedException;
 import org.motechproject.nms.api.web.exception.NotFoundException;
+import org.motechproject.nms.api.web.exception.ServiceUnavailableException;
+import org.motechproject.nms.api.web.validation.Check;
+import org.motechproject.nms.api.web.validation.RequestValidator;
 import org.motechproject.nms.flw.domain.FrontLineWorker;
 import org.motechproject.nms.flw.service.WhitelistService;
 import org.motechproject.nms.location.domain.District;
 import org.motechproject.nms.location.domain.State;
 import org.motechproject.nms.location.service.LocationService;
-import org.motechproject.nms.props.domain.CallDisconnectReason;
-import org.motechproject.nms.props.domain.CallStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,15 +33,15 @@ public class BaseController {
     public static final String MOBILE_KUNJI = "mobilekunji";
     public static final String KILKARI = "kilkari";
 
-    public static final String NOT_PRESENT = "<%s: Not Present>";
-    public static final String INVALID = "<%s: Invalid>";
+    public static final String NOT_PRESENT = RequestValidator.NOT_PRESENT;
+    public static final String INVALID = RequestValidator.INVALID;
     public static final String NOT_FOUND = "<%s: Not Found>";
     public static final String NOT_AUTHORIZED = "<%s: Not Authorized>";
 
-    public static final long SMALLEST_10_DIGIT_NUMBER = 1000000000L;
-    public static final long LARGEST_10_DIGIT_NUMBER  = 9999999999L;
-    public static final long SMALLEST_15_DIGIT_NUMBER = 100000000000000L;
-    public static final long LARGEST_15_DIGIT_NUMBER  = 999999999999999L;
+    public static final long SMALLEST_10_DIGIT_NUMBER = Check.SMALLEST_10_DIGIT_NUMBER;
+    public static final long LARGEST_10_DIGIT_NUMBER  = Check.LARGEST_10_DIGIT_NUMBER;
+    public static final long SMALLEST_15_DIGIT_NUMBER = Check.SMALLEST_15_DIGIT_NUMBER;
+    public static final long LARGEST_15_DIGIT_NUMBER  = Check.LARGEST_15_DIGIT_NUMBER;
     public static final int MAX_LENGTH_255 = 255;
 
     public static final String CALLING_NUMBER = "callingNumber";
@@ -60,28 +61,6 @@ public class BaseController {
         return false;
     }
 
-    protected static boolean validateFieldString(StringBuilder errors, String fieldName, String value) {
-        if (!validateFieldPresent(errors, fieldName, value)) {
-            return false;
-        }
-        if (value.length() > 0) {
-            return true;
-        }
-        errors.append(String.format(INVALID, fieldName));
-        return false;
-    }
-
-    protected static boolean validateFieldPositiveLong(StringBuilder errors, String fieldName, Long value) {
-        if (!validateFieldPresent(errors, fieldName, value)) {
-            return false;
-        }
-        if (value >= 0) {
-            return true;
-        }
-        errors.append(String.format(INVALID, fieldName));
-        return false;
-    }
-
     protected static boolean validateField10Digits(StringBuilder errors, String fieldName, Long value) {
         if (!validateFieldPresent(errors, fieldName, value)) {
             return false;
@@ -104,40 +83,6 @@ public class BaseController {
         return false;
     }
 
-    protected static boolean validateFieldCallStatus(StringBuilder errors, String fieldName, Integer value) {
-        if (!validateFieldPresent(errors, fieldName, value)) {
-            return false;
-        }
-        if (CallStatus.isValid(value)) {
-            return true;
-        }
-        errors.append(String.format(INVALID, fieldName));
-        return false;
-    }
-
-    protected static boolean validateFieldCallDisconnectReason(StringBuilder errors, String fieldName,
-                                                               Integer value) {
-        if (!validateFieldPresent(errors, fieldName, value)) {
-            return false;
-        }
-        if (CallDisconnectReason.isValid(value)) {
-            return true;
-        }
-        errors.append(String.format(INVALID, fieldName));
-        return false;
-    }
-
-    protected boolean validateFieldExactLength(StringBuilder errors, String fieldName, String value, int length) {
-        if (!validateFieldPresent(errors, fieldName, value)) {
-            return false;
-        }
-        if (value.length() != length) {
-            errors.append(String.format(INVALID, fieldName));
-            return false;
-        }
-        return true;
-    }
-
     protected boolean validateFieldMaxLength(StringBuilder errors, String fieldName, String value, int length) {
         if (!validateFieldPresent(errors, fieldName, value)) {
             return false;
@@ -212,6 +157,17 @@ public class BaseController {
     }
 
 
+    /**
+     * Requests turned away by the {@link AdmissionControlInterceptor} when we're overloaded
+     */
+    @ExceptionHandler(ServiceUnavailableException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ResponseBody
+    public BadRequest handleException(ServiceUnavailableException e) {
+        return new BadRequest(e.getMessage());
+    }
+
+
     @ExceptionHandler(NullPointerException.class)
     @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
     @ResponseBody
@@ -0,0 +1,59 @@
+package org.motechproject.nms.api.web;
+
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
+import org.motechproject.nms.api.web.contract.CallContentRequest;
+import org.motechproject.nms.api.web.contract.CallDetailRecordRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming reader for the callDetails request body. The CDR's own fields are bound as usual, but the content items
+ * are handed to a {@link ContentHandler} one at a time as they are parsed, instead of first being collected into
+ * the request's content list (which is left null). Only one content item is ever held in its request form.
+ */
+public final class CallDetailRecordRequestReader {
+
+    private static final String CONTENT = "content";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * Receives each content item of the request, in order, as soon as it has been parsed.
+     */
+    public interface ContentHandler {
+        void handle(CallContentRequest callContentRequest);
+    }
+
+    private CallDetailRecordRequestReader() { }
+
+    public static CallDetailRecordRequest read(InputStream in, ContentHandler contentHandler) throws IOException {
+        JsonParser parser = OBJECT_MAPPER.getJsonFactory().createJsonParser(in);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException("Expected a JSON object", parser.getCurrentLocation());
+            }
+
+            // Everything but the content is small, bind it the usual way once we've seen it all
+            ObjectNode fields = OBJECT_MAPPER.createObjectNode();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.START_ARRAY && CONTENT.equals(name)) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        contentHandler.handle(OBJECT_MAPPER.readValue(parser, CallContentRequest.class));
+                    }
+                } else {
+                    fields.put(name, OBJECT_MAPPER.readTree(parser));
+                }
+            }
+
+            return OBJECT_MAPPER.readValue(fields, CallDetailRecordRequest.class);
+        } finally {
+            parser.close();
+        }
+    }
+}
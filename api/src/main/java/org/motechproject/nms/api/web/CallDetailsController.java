@@ -1,39 +1,51 @@
 package org.motechproject.nms.api.web;
 
+import org.codehaus.jackson.JsonProcessingException;
 import org.joda.time.DateTime;
+import org.motechproject.event.MotechEvent;
+import org.motechproject.event.listener.annotations.MotechListener;
+import org.motechproject.nms.api.service.DuplicateCallService;
 import org.motechproject.nms.api.web.contract.CallDetailRecordRequest;
 import org.motechproject.nms.api.web.contract.CallContentRequest;
 import org.motechproject.nms.api.web.exception.NotFoundException;
+import org.motechproject.nms.api.web.validation.RequestValidator;
 import org.motechproject.nms.flw.domain.CallContent;
 import org.motechproject.nms.flw.domain.CallDetailRecord;
 import org.motechproject.nms.flw.domain.FrontLineWorker;
 import org.motechproject.nms.flw.domain.Service;
-import org.motechproject.nms.flw.service.CallContentService;
-import org.motechproject.nms.flw.service.CallDetailRecordService;
+import org.motechproject.nms.flw.service.CallDetailRecordQueueService;
 import org.motechproject.nms.flw.service.FrontLineWorkerService;
+import org.motechproject.nms.mobileacademy.service.MobileAcademyService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.stereotype.Controller;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 @Controller
 public class CallDetailsController extends BaseController {
 
     public static final int MILLISECONDS_PER_SECOND = 1000;
 
     @Autowired
-    private CallDetailRecordService callDetailRecordService;
+    private CallDetailRecordQueueService callDetailRecordQueueService;
 
     @Autowired
-    private CallContentService callContentService;
+    private FrontLineWorkerService frontLineWorkerService;
 
     @Autowired
-    private FrontLineWorkerService frontLineWorkerService;
+    private DuplicateCallService duplicateCallService;
+
+    @Autowired
+    private MobileAcademyService mobileAcademyService;
 
     /**
      * 2.2.6 Save CallDetails API
@@ -45,47 +57,38 @@ public class CallDetailsController extends BaseController {
      *    for reporting purpose.
      * /api/mobilekunji/callDetails
      *
+     * The body is read as a stream: each content item is validated and converted to the CallContent that will be
+     * persisted as soon as it is parsed, see {@link CallDetailRecordRequestReader}.
+     *
+     * The request is acknowledged once it has been validated and handed to the CDR write-behind queue, the record
+     * itself is persisted in the background. Retries of a request which was already accepted are acknowledged and
+     * dropped, unless its record couldn't be written, see {@link #handleCallDetailRecordFailed}.
      */
     @RequestMapping(value = "/{serviceName}/callDetails",
             method = RequestMethod.POST,
             headers = { "Content-type=application/json" })
     @ResponseStatus(HttpStatus.OK)
-    @Transactional
-    public void saveCallDetails(@PathVariable String serviceName,
-                                @RequestBody CallDetailRecordRequest callDetailRecordRequest) {
-        Service service = null;
-        StringBuilder failureReasons;
-
-        if (!(MOBILE_ACADEMY.equals(serviceName) || MOBILE_KUNJI.equals(serviceName))) {
-            throw new IllegalArgumentException(String.format(INVALID, "serviceName"));
-        }
-
-        failureReasons = validate(callDetailRecordRequest.getCallingNumber(),
-                callDetailRecordRequest.getCallId(), callDetailRecordRequest.getOperator(),
-                callDetailRecordRequest.getCircle());
-
-        // Verify common elements
-        // (callStartTime, callEndTime, callDurationInPulses, endOfUsagePromptCount, callStatus,
-        // callDisconnectReason)
-        failureReasons.append(validateCallDetailsCommonElements(callDetailRecordRequest));
+    public void saveCallDetails(@PathVariable String serviceName, HttpServletRequest request) throws IOException {
+        final Service service;
 
         if (MOBILE_ACADEMY.equals(serviceName)) {
             service = Service.MOBILE_ACADEMY;
-        }
-
-        if (MOBILE_KUNJI.equals(serviceName)) {
+        } else if (MOBILE_KUNJI.equals(serviceName)) {
             service = Service.MOBILE_KUNJI;
-
-            // Verify MK elements (welcomeMessagePromptFlag)
-            failureReasons.append(validateCallDetailsMobileKunjiElements(callDetailRecordRequest));
+        } else {
+            throw new IllegalArgumentException(String.format(INVALID, "serviceName"));
         }
 
-        for (CallContentRequest callContentRequest : callDetailRecordRequest.getContent()) {
-            failureReasons.append(validateCallContentRequest(service, callContentRequest));
-        }
+        ContentCollector contentCollector = new ContentCollector(service, serviceName);
+        CallDetailRecordRequest callDetailRecordRequest = readCallDetailRecordRequest(request, contentCollector);
 
-        if (failureReasons.length() > 0) {
-            throw new IllegalArgumentException(failureReasons.toString());
+        // Common elements (callingNumber, callId, operator, circle, callStartTime, callEndTime,
+        // callDurationInPulses, endOfUsagePromptCount, callStatus, callDisconnectReason) and for MK
+        // welcomeMessagePromptFlag, then the content
+        String failureReasons = RequestValidator.validate(callDetailRecordRequest, serviceName);
+        if (failureReasons != null || contentCollector.failureReasons != null) {
+            throw new IllegalArgumentException((failureReasons == null ? "" : failureReasons) +
+                    (contentCollector.failureReasons == null ? "" : contentCollector.failureReasons));
         }
 
         FrontLineWorker flw = frontLineWorkerService.getByContactNumber(callDetailRecordRequest.getCallingNumber());
@@ -93,13 +96,58 @@ public class CallDetailsController extends BaseController {
             throw new NotFoundException(String.format(NOT_FOUND, "callingNumber"));
         }
 
-        createCallDetailRecord(flw, callDetailRecordRequest, service);
+        String claimedService = claimedService(serviceName);
+        if (!duplicateCallService.claim(claimedService, callDetailRecordRequest.getCallingNumber(),
+                callDetailRecordRequest.getCallId())) {
+            return;
+        }
+
+        try {
+            // The call is over: write the bookmark the IVR saved during it
+            if (service == Service.MOBILE_ACADEMY) {
+                mobileAcademyService.flushBookmark(callDetailRecordRequest.getCallingNumber());
+            }
+
+            createCallDetailRecord(flw, callDetailRecordRequest, service, contentCollector.contents);
+        } catch (RuntimeException e) {
+            // The IVR gets an error and will retry: don't drop the retry as a duplicate
+            duplicateCallService.release(claimedService, callDetailRecordRequest.getCallingNumber(),
+                    callDetailRecordRequest.getCallId());
+            throw e;
+        }
+    }
+
+    /**
+     * A record accepted from the IVR couldn't be written: release its claim, so that the IVR's retry is processed
+     * rather than dropped as a duplicate
+     */
+    @MotechListener(subjects = { CallDetailRecordQueueService.CALL_DETAIL_RECORD_FAILED_EVENT })
+    public void handleCallDetailRecordFailed(MotechEvent event) {
+        String service = (String) event.getParameters().get("service");
+        String serviceName = Service.MOBILE_KUNJI.name().equals(service) ? MOBILE_KUNJI : MOBILE_ACADEMY;
+        duplicateCallService.release(claimedService(serviceName), (Long) event.getParameters().get("callingNumber"),
+                (Long) event.getParameters().get("callId"));
+    }
+
+    private static String claimedService(String serviceName) {
+        return serviceName + "/callDetails";
+    }
+
+    private CallDetailRecordRequest readCallDetailRecordRequest(HttpServletRequest request,
+            CallDetailRecordRequestReader.ContentHandler contentHandler) throws IOException {
+        try {
+            return CallDetailRecordRequestReader.read(request.getInputStream(), contentHandler);
+        } catch (JsonProcessingException e) {
+            // Same as when Spring binds the body itself
+            throw new HttpMessageNotReadableException("Could not read JSON: " + e.getMessage(), e);
+        }
     }
 
     private void createCallDetailRecord(FrontLineWorker flw, CallDetailRecordRequest callDetailRecordRequest,
-                                        Service service) {
+                                        Service service, List<CallContent> contents) {
         CallDetailRecord cdr = new CallDetailRecord();
         cdr.setFrontLineWorker(flw);
+        cdr.setService(service);
         cdr.setCallingNumber(callDetailRecordRequest.getCallingNumber());
         cdr.setCallId(callDetailRecordRequest.getCallId());
         cdr.setOperator(callDetailRecordRequest.getOperator());
@@ -115,111 +163,62 @@ public class CallDetailsController extends BaseController {
             cdr.setWelcomePrompt(callDetailRecordRequest.getWelcomeMessagePromptFlag());
         }
 
-        callDetailRecordService.add(cdr);
-
-        for (CallContentRequest callContentRequest : callDetailRecordRequest.getContent()) {
-            CallContent content = new CallContent();
-
-            content.setContentName(callContentRequest.getContentName());
-            content.setContentFile(callContentRequest.getContentFileName());
-            content.setStartTime(new DateTime(callContentRequest.getStartTime() * MILLISECONDS_PER_SECOND));
-            content.setEndTime(new DateTime(callContentRequest.getEndTime() * MILLISECONDS_PER_SECOND));
-
-            if (service == Service.MOBILE_KUNJI) {
-                content.setMobileKunjiCardNumber(callContentRequest.getMkCardNumber());
-            }
-
-            if (service == Service.MOBILE_ACADEMY) {
-                content.setType(callContentRequest.getType());
-                content.setCompletionFlag(callContentRequest.getCompletionFlag());
-            }
-
+        for (CallContent content : contents) {
             content.setCallDetailRecord(cdr);
-
-            callContentService.add(content);
-        }
-    }
-
-    // (callStartTime, callEndTime, callDurationInPulses, endOfUsagePromptCount, callStatus, callDisconnectReason)
-    private String validateCallDetailsCommonElements(CallDetailRecordRequest callDetailRecordRequest) {
-        StringBuilder failureReasons = new StringBuilder();
-
-        if (null == callDetailRecordRequest.getCallStartTime()) {
-            failureReasons.append(String.format(NOT_PRESENT, "callStartTime"));
         }
+        cdr.setContent(contents);
 
-        if (null == callDetailRecordRequest.getCallEndTime()) {
-            failureReasons.append(String.format(NOT_PRESENT, "callEndTime"));
-        }
-
-        if (null == callDetailRecordRequest.getCallDurationInPulses()) {
-            failureReasons.append(String.format(NOT_PRESENT, "callDurationInPulses"));
-        }
-
-        if (null == callDetailRecordRequest.getEndOfUsagePromptCounter()) {
-            failureReasons.append(String.format(NOT_PRESENT, "endOfUsagePromptCount"));
-        }
-
-        if (null == callDetailRecordRequest.getCallStatus()) {
-            failureReasons.append(String.format(NOT_PRESENT, "callStatus"));
-        }
-
-        if (null == callDetailRecordRequest.getCallDisconnectReason()) {
-            failureReasons.append(String.format(NOT_PRESENT, "callDisconnectReason"));
-        }
-
-        return failureReasons.toString();
+        callDetailRecordQueueService.enqueue(cdr);
     }
 
-    // welcomeMessagePromptFlag
-    private String validateCallDetailsMobileKunjiElements(CallDetailRecordRequest callDetailRecordRequest) {
-        StringBuilder failureReasons = new StringBuilder();
+    private CallContent createCallContent(Service service, CallContentRequest callContentRequest) {
+        CallContent content = new CallContent();
 
-        if (null == callDetailRecordRequest.getWelcomeMessagePromptFlag()) {
-            failureReasons.append(String.format(NOT_PRESENT, "welcomeMessagePromptFlag"));
-        }
+        content.setContentName(callContentRequest.getContentName());
+        content.setContentFile(callContentRequest.getContentFileName());
+        content.setStartTime(new DateTime(callContentRequest.getStartTime() * MILLISECONDS_PER_SECOND));
+        content.setEndTime(new DateTime(callContentRequest.getEndTime() * MILLISECONDS_PER_SECOND));
 
-        return failureReasons.toString();
-    }
-
-    private String validateCallContentRequest(Service service, CallContentRequest callContentRequest) {
-        StringBuilder failureReasons = new StringBuilder();
-
-        // Common elements (contentName, contentFile, startTime, endTime)
-        if (null == callContentRequest.getContentName()) {
-            failureReasons.append(String.format(NOT_PRESENT, "contentName"));
-        }
-
-        if (null == callContentRequest.getContentFileName()) {
-            failureReasons.append(String.format(NOT_PRESENT, "contentFile"));
-        }
-
-        if (null == callContentRequest.getStartTime()) {
-            failureReasons.append(String.format(NOT_PRESENT, "startTime"));
-        }
-
-        if (null == callContentRequest.getEndTime()) {
-            failureReasons.append(String.format(NOT_PRESENT, "endTime"));
-        }
-
-        // MK elements (mkCardNumber)
         if (service == Service.MOBILE_KUNJI) {
-            if (null == callContentRequest.getMkCardNumber()) {
-                failureReasons.append(String.format(NOT_PRESENT, "mkCardNumber"));
-            }
+            content.setMobileKunjiCardNumber(callContentRequest.getMkCardNumber());
         }
 
-        // MA elements (type, completionFlag)
         if (service == Service.MOBILE_ACADEMY) {
-            if (null == callContentRequest.getType()) {
-                failureReasons.append(String.format(NOT_PRESENT, "type"));
-            }
+            content.setType(callContentRequest.getType());
+            content.setCompletionFlag(callContentRequest.getCompletionFlag());
+        }
 
-            if (null == callContentRequest.getCompletionFlag()) {
-                failureReasons.append(String.format(NOT_PRESENT, "completionFlag"));
+        return content;
+    }
+
+    /**
+     * Validates each content item as it is read and converts it to the CallContent that will be persisted, unless
+     * an item has already failed validation.
+     */
+    private final class ContentCollector implements CallDetailRecordRequestReader.ContentHandler {
+        private final Service service;
+        private final String serviceName;
+        private final List<CallContent> contents = new ArrayList<>();
+        private StringBuilder failureReasons;
+
+        private ContentCollector(Service service, String serviceName) {
+            this.service = service;
+            this.serviceName = serviceName;
+        }
+
+        @Override
+        public void handle(CallContentRequest callContentRequest) {
+            // Common elements (contentName, contentFile, startTime, endTime), mkCardNumber for MK and type,
+            // completionFlag for MA
+            String contentFailureReasons = RequestValidator.validate(callContentRequest, serviceName);
+            if (contentFailureReasons != null) {
+                if (failureReasons == null) {
+                    failureReasons = new StringBuilder();
+                }
+                failureReasons.append(contentFailureReasons);
+            } else if (failureReasons == null) {
+                contents.add(createCallContent(service, callContentRequest));
             }
         }
-
-        return failureReasons.toString();
     }
 }
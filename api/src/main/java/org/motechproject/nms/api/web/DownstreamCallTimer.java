@@ -0,0 +1,101 @@
+package org.motechproject.nms.api.web;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.motechproject.nms.api.service.ApiStatsService;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Wraps the NMS services the controllers call (the OSGi service references as well as the api module's own) so that
+ * time spent in each of them while serving a request is recorded against the request's endpoint. Only the beans
+ * listed in TIMED_BEANS are wrapped, every other bean of the context is left alone. Only the outermost call is timed
+ * when they call each other. Calls made outside of a request are not recorded.
+ */
+@Component
+public class DownstreamCallTimer implements BeanPostProcessor, BeanClassLoaderAware {
+
+    private static final String NMS_PACKAGE = "org.motechproject.nms.";
+
+    // The services the controllers call, by bean name: add to it when a controller starts using a new one
+    private static final Set<String> TIMED_BEANS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "subscriberService", "subscriptionService", "subscriptionLifecycleService", "inboxService",
+            "inboxCallDetailsQueueService", "languageService", "locationService", "frontLineWorkerService",
+            "serviceUsageService", "serviceUsageCapService", "callDetailRecordQueueService", "whitelistService",
+            "mobileAcademyService", "smsDeliveryStatusService", "duplicateCallService")));
+
+    @Autowired
+    private ApiStatsService apiStatsService;
+
+    private ClassLoader beanClassLoader = ClassUtils.getDefaultClassLoader();
+
+    @Override
+    public void setBeanClassLoader(ClassLoader classLoader) {
+        this.beanClassLoader = classLoader;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!TIMED_BEANS.contains(beanName)) {
+            return bean;
+        }
+
+        // Only proxy the NMS interfaces: the OSGi proxies also implement infrastructure ones we can't see
+        List<Class<?>> interfaces = new ArrayList<>();
+        for (Class<?> candidate : ClassUtils.getAllInterfaces(bean)) {
+            String name = candidate.getName();
+            if (name.startsWith(NMS_PACKAGE) && name.contains(".service.")) {
+                interfaces.add(candidate);
+            }
+        }
+
+        if (interfaces.isEmpty()) {
+            return bean;
+        }
+
+        final String prefix = interfaces.get(0).getSimpleName() + ".";
+
+        ProxyFactory proxyFactory = new ProxyFactory();
+        proxyFactory.setTarget(bean);
+        proxyFactory.setInterfaces(interfaces.toArray(new Class<?>[interfaces.size()]));
+        proxyFactory.addAdvice(new MethodInterceptor() {
+            @Override
+            public Object invoke(MethodInvocation invocation) throws Throwable { // NO CHECKSTYLE IllegalThrows
+                RequestTiming timing = RequestTiming.current();
+                if (timing == null) {
+                    return invocation.proceed();
+                }
+
+                boolean outermost = timing.enterDownstreamCall();
+                long startNanos = System.nanoTime();
+                try {
+                    return invocation.proceed();
+                } finally {
+                    timing.exitDownstreamCall();
+                    if (outermost) {
+                        apiStatsService.recordDownstreamCall(timing.getEndpoint(),
+                                prefix + invocation.getMethod().getName(), System.nanoTime() - startNanos);
+                    }
+                }
+            }
+        });
+
+        return proxyFactory.getProxy(beanClassLoader);
+    }
+}
@@ -1,19 +1,25 @@
 package org.motechproject.nms.api.web;
 
+import org.motechproject.nms.api.service.DuplicateCallService;
+import org.motechproject.nms.api.web.contract.kilkari.BulkDeactivationRequest;
 import org.motechproject.nms.api.web.contract.kilkari.CallDataRequest;
 import org.motechproject.nms.api.web.contract.kilkari.InboxCallDetailsRequest;
 import org.motechproject.nms.api.web.contract.kilkari.InboxResponse;
 import org.motechproject.nms.api.web.contract.kilkari.InboxSubscriptionDetailResponse;
 import org.motechproject.nms.api.web.contract.kilkari.SubscriptionRequest;
 import org.motechproject.nms.api.web.exception.NotFoundException;
+import org.motechproject.nms.api.web.validation.RequestValidator;
 import org.motechproject.nms.kilkari.domain.DeactivationReason;
 import org.motechproject.nms.kilkari.domain.InboxCallData;
 import org.motechproject.nms.kilkari.domain.InboxCallDetails;
-import org.motechproject.nms.kilkari.domain.Subscriber;
 import org.motechproject.nms.kilkari.domain.Subscription;
 import org.motechproject.nms.kilkari.domain.SubscriptionMode;
 import org.motechproject.nms.kilkari.domain.SubscriptionPack;
-import org.motechproject.nms.kilkari.service.SubscriberService;
+import org.motechproject.nms.kilkari.dto.BulkDeactivationResult;
+import org.motechproject.nms.kilkari.dto.InboxEntry;
+import org.motechproject.nms.kilkari.service.InboxCallDetailsQueueService;
+import org.motechproject.nms.kilkari.service.InboxService;
+import org.motechproject.nms.kilkari.service.SubscriptionLifecycleService;
 import org.motechproject.nms.kilkari.service.SubscriptionService;
 import org.motechproject.nms.language.domain.Language;
 import org.motechproject.nms.language.service.LanguageService;
@@ -29,6 +35,8 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -44,12 +52,24 @@ public class KilkariController extends BaseController {
     public static final int SUBSCRIPTION_ID_LENGTH = 36;
     public static final Set<String> SUBSCRIPTION_PACK_SET = new HashSet<>(Arrays.asList("48WeeksPack", "72WeeksPack"));
 
+    // Service name duplicate inbox call details are recognised under
+    private static final String INBOX_CALL_DETAILS = "kilkari/inboxCallDetails";
+
+    @Autowired
+    private InboxService inboxService;
+
     @Autowired
-    private SubscriberService subscriberService;
+    private InboxCallDetailsQueueService inboxCallDetailsQueueService;
+
+    @Autowired
+    private DuplicateCallService duplicateCallService;
 
     @Autowired
     private SubscriptionService subscriptionService;
 
+    @Autowired
+    private SubscriptionLifecycleService subscriptionLifecycleService;
+
     @Autowired
     private LanguageService languageService;
 
@@ -69,70 +89,80 @@ public class KilkariController extends BaseController {
             throw new IllegalArgumentException(failureReasons.toString());
         }
 
-        Subscriber subscriber = subscriberService.getSubscriber(callingNumber);
-        if (subscriber == null) {
+        List<InboxEntry> inbox = inboxService.getInbox(callingNumber);
+        if (inbox == null) {
             throw new NotFoundException(String.format(NOT_FOUND, "callingNumber"));
         }
 
-        Set<Subscription> subscriptions = subscriber.getActiveSubscriptions();
-        Set<InboxSubscriptionDetailResponse> subscriptionDetails = new HashSet<>();
-        for (Subscription subscription : subscriptions) {
-            //todo: something tells me this is not complete/real code
-            subscriptionDetails.add(new InboxSubscriptionDetailResponse(subscription.getSubscriptionId(),
-                    subscription.getSubscriptionPack().getName(),
-                    "10_1",
-                    "xyz.wav"));
+        // In inbox order: each subscription's current message, then its previous week's
+        Set<InboxSubscriptionDetailResponse> subscriptionDetails = new LinkedHashSet<>();
+        for (InboxEntry entry : inbox) {
+            subscriptionDetails.add(new InboxSubscriptionDetailResponse(entry.getSubscriptionId(),
+                    entry.getSubscriptionPackName(),
+                    entry.getWeekId(),
+                    entry.getContentFileName()));
         }
 
         return new InboxResponse(subscriptionDetails);
     }
 
-    private void validateSaveInboxCallDetailsContent(StringBuilder failureReasons,
-                                                     Set<CallDataRequest> content) {
+    private String validateSaveInboxCallDetailsContent(Set<CallDataRequest> content) {
         if (content == null || content.size() == 0) {
             // Empty content is acceptable (when the IVR vendor plays promotional content)
-            return;
+            return null;
         }
         if (content.size() != 2) {
             // Valid content must contain two elements
-            failureReasons.append(String.format(INVALID, "content"));
-            return;
+            return String.format(INVALID, "content");
         }
-        int failureReasonsLength = failureReasons.length();
-        Set<String> subscriptionPacks = new HashSet<>();
+
+        StringBuilder failureReasons = null;
+        String previousSubscriptionPack = null;
+        boolean subscriptionPacksValid = true;
         for (CallDataRequest data : content) {
-            validateFieldExactLength(failureReasons, "subscriptionId", data.getSubscriptionId(), SUBSCRIPTION_ID_LENGTH);
-            subscriptionPacks.add(data.getSubscriptionPack());
-            validateFieldString(failureReasons, "inboxWeekId", data.getInboxWeekId());
-            validateFieldString(failureReasons, "contentFileName", data.getContentFileName());
-            validateFieldPositiveLong(failureReasons, "startTime", data.getStartTime());
-            validateFieldPositiveLong(failureReasons, "endTime", data.getEndTime());
+            // subscriptionId, inboxWeekId, contentFileName, startTime, endTime
+            String dataFailureReasons = RequestValidator.validate(data);
+            if (dataFailureReasons != null) {
+                if (failureReasons == null) {
+                    failureReasons = new StringBuilder();
+                }
+                failureReasons.append(dataFailureReasons);
+            }
+
+            //check we have all required subscription packs: with two elements that's two different valid packs
+            String subscriptionPack = data.getSubscriptionPack();
+            if (!SUBSCRIPTION_PACK_SET.contains(subscriptionPack) ||
+                    subscriptionPack.equals(previousSubscriptionPack)) {
+                subscriptionPacksValid = false;
+            }
+            previousSubscriptionPack = subscriptionPack;
         }
 
-        //check we have all required subscription packs
-        if (!SUBSCRIPTION_PACK_SET.equals(subscriptionPacks)) {
+        if (failureReasons == null && subscriptionPacksValid) {
+            return null;
+        }
+        if (failureReasons == null) {
+            failureReasons = new StringBuilder();
+        }
+        if (!subscriptionPacksValid) {
             failureReasons.append(String.format(INVALID, "subscriptionPack"));
         }
 
         //some field error occurred, add an error on the "content" parent field
-        if (failureReasonsLength != failureReasons.length()) {
-            failureReasons.append(String.format(INVALID, "content"));
-        }
-
+        failureReasons.append(String.format(INVALID, "content"));
+        return failureReasons.toString();
     }
 
-    private StringBuilder validateSaveInboxCallDetails(InboxCallDetailsRequest request) {
-        StringBuilder failureReasons = validate(request.getCallingNumber(), request.getCallId(),
-                request.getOperator(), request.getCircle());
+    private String validateSaveInboxCallDetails(InboxCallDetailsRequest request) {
+        // callingNumber, callId, operator, circle, callStartTime, callEndTime, callDurationInPulses, callStatus,
+        // callDisconnectReason
+        String failureReasons = RequestValidator.validate(request);
+        String contentFailureReasons = validateSaveInboxCallDetailsContent(request.getContent());
 
-        validateFieldPresent(failureReasons, "callStartTime", request.getCallStartTime());
-        validateFieldPresent(failureReasons, "callEndTime", request.getCallEndTime());
-        validateFieldPresent(failureReasons, "callDurationInPulses", request.getCallDurationInPulses());
-        validateFieldCallStatus(failureReasons, "callStatus", request.getCallStatus());
-        validateFieldCallDisconnectReason(failureReasons, "callDisconnectReason", request.getCallDisconnectReason());
-        validateSaveInboxCallDetailsContent(failureReasons, request.getContent());
-
-        return failureReasons;
+        if (contentFailureReasons == null) {
+            return failureReasons;
+        }
+        return failureReasons == null ? contentFailureReasons : failureReasons + contentFailureReasons;
     }
 
 
@@ -142,44 +172,56 @@ public class KilkariController extends BaseController {
      *    which inbox message(s) is played.
      * /api/kilkari/inboxCallDetails
      *
+     * The call details are queued and written in batches in the background: the IVR gets its response as soon as
+     * the record is enqueued. Retries of a request which was already accepted are acknowledged and dropped.
      */
     @RequestMapping(value = "/inboxCallDetails",
             method = RequestMethod.POST,
             headers = { "Content-type=application/json" })
     @ResponseStatus(HttpStatus.OK)
     public void saveInboxCallDetails(@RequestBody InboxCallDetailsRequest request) {
-        StringBuilder failureReasons = validateSaveInboxCallDetails(request);
-        if (failureReasons.length() > 0) {
-            throw new IllegalArgumentException(failureReasons.toString());
+        String failureReasons = validateSaveInboxCallDetails(request);
+        if (failureReasons != null) {
+            throw new IllegalArgumentException(failureReasons);
         }
 
-        Set<InboxCallData> content = new HashSet<>();
-        if (request.getContent() != null && request.getContent().size() > 0) {
-            for (CallDataRequest inboxCallDetailsRequestCallData : request.getContent()) {
-                content.add(new InboxCallData(
-                        inboxCallDetailsRequestCallData.getSubscriptionId(),
-                        inboxCallDetailsRequestCallData.getSubscriptionPack(),
-                        inboxCallDetailsRequestCallData.getInboxWeekId(),
-                        inboxCallDetailsRequestCallData.getContentFileName(),
-                        epochToDateTime(inboxCallDetailsRequestCallData.getStartTime()),
-                        epochToDateTime(inboxCallDetailsRequestCallData.getEndTime())
-                ));
-            }
+        if (!duplicateCallService.claim(INBOX_CALL_DETAILS, request.getCallingNumber(), request.getCallId())) {
+            return;
         }
 
-        InboxCallDetails inboxCallDetails = new InboxCallDetails(
-                request.getCallingNumber(),
-                request.getOperator(),
-                request.getCircle(),
-                request.getCallId(),
-                epochToDateTime(request.getCallStartTime()),
-                epochToDateTime(request.getCallEndTime()),
-                request.getCallDurationInPulses(),
-                request.getCallStatus(),
-                request.getCallDisconnectReason(),
-                content);
+        try {
+            Set<InboxCallData> content = new HashSet<>();
+            if (request.getContent() != null && request.getContent().size() > 0) {
+                for (CallDataRequest inboxCallDetailsRequestCallData : request.getContent()) {
+                    content.add(new InboxCallData(
+                            inboxCallDetailsRequestCallData.getSubscriptionId(),
+                            inboxCallDetailsRequestCallData.getSubscriptionPack(),
+                            inboxCallDetailsRequestCallData.getInboxWeekId(),
+                            inboxCallDetailsRequestCallData.getContentFileName(),
+                            epochToDateTime(inboxCallDetailsRequestCallData.getStartTime()),
+                            epochToDateTime(inboxCallDetailsRequestCallData.getEndTime())
+                    ));
+                }
+            }
 
-        subscriptionService.addInboxCallDetails(inboxCallDetails);
+            InboxCallDetails inboxCallDetails = new InboxCallDetails(
+                    request.getCallingNumber(),
+                    request.getOperator(),
+                    request.getCircle(),
+                    request.getCallId(),
+                    epochToDateTime(request.getCallStartTime()),
+                    epochToDateTime(request.getCallEndTime()),
+                    request.getCallDurationInPulses(),
+                    request.getCallStatus(),
+                    request.getCallDisconnectReason(),
+                    content);
+
+            inboxCallDetailsQueueService.enqueue(inboxCallDetails);
+        } catch (RuntimeException e) {
+            // The IVR gets an error and will retry: don't drop the retry as a duplicate
+            duplicateCallService.release(INBOX_CALL_DETAILS, request.getCallingNumber(), request.getCallId());
+            throw e;
+        }
     }
 
     /**
@@ -192,16 +234,9 @@ public class KilkariController extends BaseController {
             headers = { "Content-type=application/json" })
     @ResponseStatus(HttpStatus.OK)
     public void createSubscription(@RequestBody SubscriptionRequest subscriptionRequest) {
-        StringBuilder failureReasons = validate(subscriptionRequest.getCallingNumber(),
-                                                subscriptionRequest.getCallId(),
-                                                subscriptionRequest.getOperator(),
-                                                subscriptionRequest.getCircle());
-        validateFieldPresent(failureReasons, "subscriptionPack", subscriptionRequest.getSubscriptionPack());
-        validateFieldPresent(failureReasons, "languageLocationCode",
-                             subscriptionRequest.getLanguageLocationCode());
-
-        if (failureReasons.length() > 0) {
-            throw new IllegalArgumentException(failureReasons.toString());
+        String failureReasons = RequestValidator.validate(subscriptionRequest, SubscriptionRequest.CREATE);
+        if (failureReasons != null) {
+            throw new IllegalArgumentException(failureReasons);
         }
 
         Language language = languageService.getLanguage(subscriptionRequest.getLanguageLocationCode());
@@ -230,14 +265,9 @@ public class KilkariController extends BaseController {
             headers = { "Content-type=application/json" })
     @ResponseStatus(HttpStatus.OK)
     public void deactivateSubscription(@RequestBody SubscriptionRequest subscriptionRequest) {
-        StringBuilder failureReasons = validate(subscriptionRequest.getCallingNumber(),
-                subscriptionRequest.getCallId(), subscriptionRequest.getOperator(),
-                subscriptionRequest.getCircle());
-
-        validateFieldPresent(failureReasons, "subscriptionId", subscriptionRequest.getSubscriptionId());
-
-        if (failureReasons.length() > 0) {
-            throw new IllegalArgumentException(failureReasons.toString());
+        String failureReasons = RequestValidator.validate(subscriptionRequest, SubscriptionRequest.DEACTIVATE);
+        if (failureReasons != null) {
+            throw new IllegalArgumentException(failureReasons);
         }
 
         Subscription subscription = subscriptionService.getSubscription(subscriptionRequest.getSubscriptionId());
@@ -248,4 +278,65 @@ public class KilkariController extends BaseController {
 
         subscriptionService.deactivateSubscription(subscription, DeactivationReason.DEACTIVATED_BY_USER);
     }
+
+    private static String validateBulkDeactivation(BulkDeactivationRequest request) {
+        StringBuilder failureReasons = new StringBuilder();
+
+        if (validateFieldPresent(failureReasons, "deactivationReason", request.getDeactivationReason())) {
+            try {
+                DeactivationReason.valueOf(request.getDeactivationReason());
+            } catch (IllegalArgumentException e) {
+                failureReasons.append(String.format(INVALID, "deactivationReason"));
+            }
+        }
+
+        List<Long> callingNumbers = request.getCallingNumbers();
+        List<String> subscriptionIds = request.getSubscriptionIds();
+        if (callingNumbers == null && subscriptionIds == null) {
+            failureReasons.append(String.format(NOT_PRESENT, "callingNumbers"));
+        } else if (callingNumbers != null && subscriptionIds != null) {
+            // Either calling numbers or subscription ids, not both
+            failureReasons.append(String.format(INVALID, "subscriptionIds"));
+        } else if (callingNumbers != null) {
+            for (Long callingNumber : callingNumbers) {
+                if (callingNumber == null || callingNumber < SMALLEST_10_DIGIT_NUMBER ||
+                        callingNumber > LARGEST_10_DIGIT_NUMBER) {
+                    failureReasons.append(String.format(INVALID, "callingNumbers"));
+                    break;
+                }
+            }
+        } else {
+            for (String subscriptionId : subscriptionIds) {
+                if (subscriptionId == null || subscriptionId.length() != SUBSCRIPTION_ID_LENGTH) {
+                    failureReasons.append(String.format(INVALID, "subscriptionIds"));
+                    break;
+                }
+            }
+        }
+
+        return failureReasons.length() == 0 ? null : failureReasons.toString();
+    }
+
+    /**
+     * Bulk Deactivation
+     * Admin API to deactivate the subscriptions of many beneficiaries at once, given either their calling numbers or
+     * the subscription ids. The subscriptions are deactivated in batches, and their call retries purged.
+     * /api/kilkari/deactivations
+     */
+    @RequestMapping(value = "/deactivations",
+            method = RequestMethod.POST,
+            headers = { "Content-type=application/json" })
+    @ResponseBody
+    public BulkDeactivationResult deactivateSubscriptions(@RequestBody BulkDeactivationRequest request) {
+        String failureReasons = validateBulkDeactivation(request);
+        if (failureReasons != null) {
+            throw new IllegalArgumentException(failureReasons);
+        }
+
+        DeactivationReason reason = DeactivationReason.valueOf(request.getDeactivationReason());
+        if (request.getCallingNumbers() != null) {
+            return subscriptionLifecycleService.deactivateSubscribers(request.getCallingNumbers(), reason);
+        }
+        return subscriptionLifecycleService.deactivateSubscriptions(request.getSubscriptionIds(), reason);
+    }
 }
@@ -1,8 +1,10 @@
 package org.motechproject.nms.api.web;
 
+import org.motechproject.nms.api.service.DuplicateCallService;
 import org.motechproject.nms.api.web.contract.UserLanguageRequest;
 import org.motechproject.nms.api.web.exception.NotAuthorizedException;
 import org.motechproject.nms.api.web.exception.NotFoundException;
+import org.motechproject.nms.api.web.validation.RequestValidator;
 import org.motechproject.nms.flw.domain.FrontLineWorker;
 import org.motechproject.nms.flw.service.FrontLineWorkerService;
 import org.motechproject.nms.language.domain.Language;
@@ -28,6 +30,9 @@ public class LanguageController extends BaseController {
     @Autowired
     private LanguageService languageService;
 
+    @Autowired
+    private DuplicateCallService duplicateCallService;
+
     /**
      * 2.2.7 Set User Language Location Code API
      * IVR shall invoke this API to provide user languageLocation preference to MoTech.
@@ -37,6 +42,7 @@ public class LanguageController extends BaseController {
      * IVR shall invoke this API to set the language location code of the user in NMS database.
      * /api/mobilekunji/languageLocationCode
      *
+     * Retries of a request which was already accepted are acknowledged and dropped.
      */
     @RequestMapping(value = "/{serviceName}/languageLocationCode",
             method = RequestMethod.POST,
@@ -48,15 +54,15 @@ public class LanguageController extends BaseController {
         Long callId = userLanguageRequest.getCallId();
         String languageLocationCode = userLanguageRequest.getLanguageLocationCode();
 
-        StringBuilder failureReasons = validate(callingNumber, callId);
-        validateFieldPresent(failureReasons, LANGUAGE_LOCATION_CODE, userLanguageRequest.getLanguageLocationCode());
+        // callingNumber, callId, languageLocationCode
+        String failureReasons = RequestValidator.validate(userLanguageRequest);
 
         if (!(MOBILE_ACADEMY.equals(serviceName) || MOBILE_KUNJI.equals(serviceName))) {
-            failureReasons.append(String.format(INVALID, SERVICE_NAME));
+            failureReasons = (failureReasons == null ? "" : failureReasons) + String.format(INVALID, SERVICE_NAME);
         }
 
-        if (failureReasons.length() > 0) {
-            throw new IllegalArgumentException(failureReasons.toString());
+        if (failureReasons != null) {
+            throw new IllegalArgumentException(failureReasons);
         }
 
         FrontLineWorker flw = frontLineWorkerService.getByContactNumber(callingNumber);
@@ -75,11 +81,22 @@ public class LanguageController extends BaseController {
             throw new NotAuthorizedException(String.format(NOT_AUTHORIZED, CALLING_NUMBER));
         }
 
-        // MOTECH-1667 added to get an upsert method included
-        if (flw.getId() == null) {
-            frontLineWorkerService.add(flw);
-        } else {
-            frontLineWorkerService.update(flw);
+        String claimedService = serviceName + "/languageLocationCode";
+        if (!duplicateCallService.claim(claimedService, callingNumber, callId)) {
+            return;
+        }
+
+        try {
+            // MOTECH-1667 added to get an upsert method included
+            if (flw.getId() == null) {
+                frontLineWorkerService.add(flw);
+            } else {
+                frontLineWorkerService.update(flw);
+            }
+        } catch (RuntimeException e) {
+            // The IVR gets an error and will retry: don't drop the retry as a duplicate
+            duplicateCallService.release(claimedService, callingNumber, callId);
+            throw e;
         }
     }
 
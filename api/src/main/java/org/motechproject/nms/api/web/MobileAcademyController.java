@@ -1,24 +1,39 @@
 package org.motechproject.nms.api.web;
 
-import org.apache.commons.lang.NotImplementedException;
-
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.motechproject.nms.api.web.contract.mobileAcademy.SaveBookmarkRequest;
 import org.motechproject.nms.api.web.contract.mobileAcademy.GetBookmarkResponse;
-import org.motechproject.nms.api.web.contract.mobileAcademy.CourseResponse;
 import org.motechproject.nms.api.web.contract.mobileAcademy.CourseVersionResponse;
+import org.motechproject.nms.api.web.contract.mobileAcademy.SmsStatusRequest;
+import org.motechproject.nms.api.web.exception.NotFoundException;
+import org.motechproject.nms.api.web.validation.RequestValidator;
+import org.motechproject.nms.mobileacademy.domain.DeliveryStatus;
+import org.motechproject.nms.mobileacademy.dto.CachedCourse;
 import org.motechproject.nms.mobileacademy.dto.MaBookmark;
+import org.motechproject.nms.mobileacademy.dto.SmsDeliveryReceipt;
 import org.motechproject.nms.mobileacademy.service.MobileAcademyService;
+import org.motechproject.nms.mobileacademy.service.SmsDeliveryStatusService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.stereotype.Controller;
 
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Mobile Academy controller
@@ -27,63 +42,105 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 @Controller
 public class MobileAcademyController extends BaseController {
 
+    public static final int MAX_SMS_STATUS_BATCH = 1000;
+
+    // The gateway may send more than the fields we need
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
     /**
      * MA service to handle all business logic
      */
     private MobileAcademyService mobileAcademyService;
 
+    /**
+     * SMS delivery receipts ingestion
+     */
+    private SmsDeliveryStatusService smsDeliveryStatusService;
+
     /**
      * Constructor for controller
      * @param mobileAcademyService mobile academy service
+     * @param smsDeliveryStatusService SMS delivery status service
      */
     @Autowired
-    public MobileAcademyController(MobileAcademyService mobileAcademyService) {
+    public MobileAcademyController(MobileAcademyService mobileAcademyService,
+                                   SmsDeliveryStatusService smsDeliveryStatusService) {
         this.mobileAcademyService = mobileAcademyService;
+        this.smsDeliveryStatusService = smsDeliveryStatusService;
     }
 
     /**
      *
      * 2.2.2.1 Get MA Course – Request
      *
-     * Get course
-     * @return course response object
+     * Get course, straight from the JSON cached by the MA service. The response carries an ETag: a request whose
+     * If-None-Match matches it gets a 304 and no body.
+     * @param ifNoneMatch entity tag(s) of the course the caller already has
+     * @return course response
      */
     @RequestMapping(
             value = "/course",
             method = RequestMethod.GET)
-    @ResponseBody
-    public CourseResponse getCourse() {
+    public ResponseEntity<byte[]> getCourse(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
 
-        // TODO: hook up to get course in MA service
-        return new CourseResponse();
+        CachedCourse course = mobileAcademyService.getCachedCourse();
+        if (course == null) {
+            throw new NotFoundException(String.format(NOT_FOUND, "course"));
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(course.getEtag());
+
+        if (ifNoneMatch != null && (ifNoneMatch.contains(course.getEtag()) || "*".equals(ifNoneMatch.trim()))) {
+            return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+        }
+
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setContentLength(course.getJson().length);
+        return new ResponseEntity<>(course.getJson(), headers, HttpStatus.OK);
     }
 
     /**
-     * Get the version of the course
-     * @return Integer representing the timestamp since epoch
+     * Get the version of the course, which only changes when the course does: the IVR can keep its copy of the
+     * course for as long as the version it was served with is current
+     * @return epoch seconds of when the course was last set
      */
     @RequestMapping(
             value = "/courseVersion",
             method = RequestMethod.GET)
     @ResponseBody
     public CourseVersionResponse getCourseVersion() {
-        
+
         return new CourseVersionResponse(mobileAcademyService.getCourseVersion());
     }
 
     /**
-     * Get bookmark for a user
+     * Get bookmark for a user, including what was saved earlier in the same call
      * @param callingNumber number of the caller
      * @param callId unique tracking id for the call
-     * @return serialized json bookmark response
+     * @return serialized json bookmark response, empty if the user has no bookmark yet
      */
     @RequestMapping(
             value = "/bookmarkWithScore",
             method = RequestMethod.GET)
-    public GetBookmarkResponse getBookmarkWithScore(@RequestParam Long callingNumber,
-                                                 @RequestParam Long callId) {
+    @ResponseBody
+    public GetBookmarkResponse getBookmarkWithScore(@RequestParam(required = false) Long callingNumber,
+                                                 @RequestParam(required = false) Long callId) {
+
+        StringBuilder failureReasons = validate(callingNumber, callId);
+        if (failureReasons.length() > 0) {
+            throw new IllegalArgumentException(failureReasons.toString());
+        }
 
-        return new GetBookmarkResponse();
+        GetBookmarkResponse response = new GetBookmarkResponse();
+        MaBookmark bookmark = mobileAcademyService.getBookmark(callingNumber, callId);
+        if (bookmark != null) {
+            response.setBookmark(bookmark.getBookmark());
+            response.setScoresByChapter(bookmark.getScoresByChapter());
+        }
+        return response;
     }
 
     /**
@@ -98,12 +155,10 @@ public class MobileAcademyController extends BaseController {
     @ResponseStatus(HttpStatus.OK)
     public void saveBookmarkWithScore(@RequestBody SaveBookmarkRequest bookmarkRequest) {
 
-        Long callingNumber = bookmarkRequest.getCallingNumber();
-        if (callingNumber == null || callingNumber < SMALLEST_10_DIGIT_NUMBER || callingNumber > LARGEST_10_DIGIT_NUMBER ) {
-            throw new IllegalArgumentException(String.format(INVALID, "callingNumber"));
-        }
-        if (bookmarkRequest.getCallId() == null || bookmarkRequest.getCallId() < SMALLEST_15_DIGIT_NUMBER) {
-            throw new IllegalArgumentException(String.format(INVALID, "callId"));
+        // callingNumber, callId
+        String failureReasons = RequestValidator.validate(bookmarkRequest);
+        if (failureReasons != null) {
+            throw new IllegalArgumentException(failureReasons);
         }
 
         MaBookmark bookmark = new MaBookmark(bookmarkRequest.getCallingNumber(), bookmarkRequest.getCallId(),
@@ -112,7 +167,8 @@ public class MobileAcademyController extends BaseController {
     }
 
     /**
-     * Save sms
+     * Save sms delivery receipts, one or a JSON array of up to MAX_SMS_STATUS_BATCH of them. Either all the
+     * receipts are valid and they are queued for writing, or none is.
      * @param smsDeliveryStatusRequest sms delivery details
      * @return OK or exception
      */
@@ -122,10 +178,46 @@ public class MobileAcademyController extends BaseController {
     @ResponseStatus(HttpStatus.OK)
     public void saveSmsStatus(@RequestBody String smsDeliveryStatusRequest) {
 
-        // placeholder for void returns
-        // TBD in Sprint 2: https://github.com/motech-implementations/mim/issues/150 and will be implemented
-        // using the SMS module
-        throw new NotImplementedException();
+        List<SmsStatusRequest> requests = readSmsStatusRequests(smsDeliveryStatusRequest);
+        if (requests.isEmpty() || requests.size() > MAX_SMS_STATUS_BATCH) {
+            throw new IllegalArgumentException(String.format(INVALID, "receipts"));
+        }
+
+        long receivedAt = System.currentTimeMillis();
+        StringBuilder failureReasons = new StringBuilder();
+        List<SmsDeliveryReceipt> receipts = new ArrayList<>(requests.size());
+        for (SmsStatusRequest request : requests) {
+            String requestFailureReasons = RequestValidator.validate(request);
+            if (requestFailureReasons != null) {
+                failureReasons.append(requestFailureReasons);
+            } else {
+                receipts.add(new SmsDeliveryReceipt(request.getMessageId(), request.getCallingNumber(),
+                        DeliveryStatus.valueOf(request.getDeliveryStatus()), receivedAt));
+            }
+        }
+        if (failureReasons.length() > 0) {
+            throw new IllegalArgumentException(failureReasons.toString());
+        }
+
+        smsDeliveryStatusService.enqueue(receipts);
+    }
+
+    private List<SmsStatusRequest> readSmsStatusRequests(String body) {
+        List<SmsStatusRequest> requests = new ArrayList<>();
+        try {
+            JsonNode root = MAPPER.readTree(body);
+            if (root != null && root.isArray()) {
+                for (JsonNode node : root) {
+                    requests.add(MAPPER.readValue(node, SmsStatusRequest.class));
+                }
+            } else if (root != null) {
+                requests.add(MAPPER.readValue(root, SmsStatusRequest.class));
+            }
+        } catch (IOException e) {
+            // Same as when Spring binds the body itself
+            throw new HttpMessageNotReadableException("Could not read JSON: " + e.getMessage(), e);
+        }
+        return requests;
     }
 
 }
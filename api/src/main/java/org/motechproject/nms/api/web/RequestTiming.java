@@ -0,0 +1,58 @@
+package org.motechproject.nms.api.web;
+
+/**
+ * Timing of the request being served on the current thread: which endpoint it is for, when it started, and how deep
+ * in downstream calls we currently are (so that only the outermost call of a nested chain is timed).
+ */
+final class RequestTiming {
+
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+
+    private final String endpoint;
+    private final long startNanos;
+    private int downstreamDepth;
+
+    private RequestTiming(String endpoint, long startNanos) {
+        this.endpoint = endpoint;
+        this.startNanos = startNanos;
+    }
+
+    static void start(String endpoint) {
+        CURRENT.set(new RequestTiming(endpoint, System.nanoTime()));
+    }
+
+    /**
+     * @return the timing of the request being served on this thread, or null if there is none
+     */
+    static RequestTiming current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the timing of the request that was being served on this thread, or null if there was none
+     */
+    static RequestTiming stop() {
+        RequestTiming timing = CURRENT.get();
+        CURRENT.remove();
+        return timing;
+    }
+
+    String getEndpoint() {
+        return endpoint;
+    }
+
+    long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return true if this is the outermost downstream call
+     */
+    boolean enterDownstreamCall() {
+        return downstreamDepth++ == 0;
+    }
+
+    void exitDownstreamCall() {
+        downstreamDepth--;
+    }
+}
@@ -0,0 +1,74 @@
+package org.motechproject.nms.api.web;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent computations of the same key: while a computation for a key is in flight, other callers asking
+ * for that key wait for it and share its result (or its exception) instead of starting their own. Nothing is cached
+ * once the computation completes, so the result must not be modified by its callers.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public V execute(K key, Callable<V> computation) {
+        calls.incrementAndGet();
+
+        FutureTask<V> task = new FutureTask<>(computation);
+        FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return getResult(existing);
+        }
+
+        try {
+            task.run();
+            return getResult(task);
+        } finally {
+            inFlight.remove(key, task);
+        }
+    }
+
+    /**
+     * @return the number of calls made to {@link #execute(Object, Callable)}
+     */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * @return the number of calls which shared another call's in-flight computation instead of running their own
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private V getResult(FutureTask<V> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an in-flight computation", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
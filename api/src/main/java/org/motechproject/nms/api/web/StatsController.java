@@ -0,0 +1,61 @@
+package org.motechproject.nms.api.web;
+
+import org.motechproject.nms.api.service.ApiStatsService;
+import org.motechproject.nms.api.service.DuplicateCallService;
+import org.motechproject.nms.mobileacademy.service.SmsDeliveryStatusService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Operational statistics for the IVR facing APIs, also available through JMX. The statistics are read only over
+ * HTTP: resetting them (eg: before a load test) is only possible through the ApiStats MBean, over JMX.
+ */
+@Controller
+public class StatsController extends BaseController {
+
+    @Autowired
+    private ApiStatsService apiStatsService;
+
+    @Autowired
+    private DuplicateCallService duplicateCallService;
+
+    @Autowired
+    private UserController userController;
+
+    @Autowired
+    private AdmissionControlInterceptor admissionControlInterceptor;
+
+    @Autowired
+    private SmsDeliveryStatusService smsDeliveryStatusService;
+
+    /**
+     * Latency percentiles (in microseconds) by endpoint and outcome, and by endpoint and downstream call, along with
+     * the get user details coalescing, duplicate request and admission control counters, and the SMS delivery
+     * receipts backlog and ingestion lag (in milliseconds).
+     * /api/stats
+     */
+    @RequestMapping(value = "/stats", method = RequestMethod.GET)
+    @ResponseBody
+    public Map<String, Object> getStats() {
+        Map<String, Object> counters = new LinkedHashMap<>();
+        counters.put("userLookups", userController.getUserLookupCount());
+        counters.put("coalescedUserLookups", userController.getCoalescedUserLookupCount());
+        counters.put("duplicateCalls", duplicateCallService.getDuplicateCounts());
+        counters.put("inFlightRequests", admissionControlInterceptor.getInFlightCounts());
+        counters.put("shedRequests", admissionControlInterceptor.getShedCounts());
+        counters.put("smsStatusQueueDepth", smsDeliveryStatusService.getQueueDepth());
+        counters.put("smsStatusIngestionLag", smsDeliveryStatusService.getIngestionLag());
+        counters.put("duplicateSmsStatuses", smsDeliveryStatusService.getDuplicateCount());
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("endpoints", apiStatsService.getStats());
+        stats.put("counters", counters);
+        return stats;
+    }
+}
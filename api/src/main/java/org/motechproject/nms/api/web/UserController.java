@@ -1,7 +1,11 @@
 package org.motechproject.nms.api.web;
 
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.joda.time.DateTime;
 import org.motechproject.nms.api.web.contract.FlwUserResponse;
+import org.motechproject.nms.api.web.contract.UserBatchRequest;
 import org.motechproject.nms.api.web.contract.UserResponse;
 import org.motechproject.nms.api.web.contract.kilkari.KilkariUserResponse;
 import org.motechproject.nms.api.web.exception.NotAuthorizedException;
@@ -12,8 +16,8 @@ import org.motechproject.nms.flw.domain.ServiceUsageCap;
 import org.motechproject.nms.flw.service.FrontLineWorkerService;
 import org.motechproject.nms.flw.service.ServiceUsageCapService;
 import org.motechproject.nms.flw.service.ServiceUsageService;
-import org.motechproject.nms.kilkari.domain.Subscriber;
-import org.motechproject.nms.kilkari.domain.Subscription;
+import org.motechproject.nms.kilkari.dto.SubscriberSummary;
+import org.motechproject.nms.kilkari.dto.SubscriptionSummary;
 import org.motechproject.nms.kilkari.service.SubscriberService;
 import org.motechproject.nms.language.domain.Language;
 import org.motechproject.nms.language.service.LanguageService;
@@ -22,18 +26,31 @@ import org.motechproject.nms.location.domain.State;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 
 @Controller
 public class UserController extends BaseController {
 
     public static final String SERVICE_NAME = "serviceName";
+    public static final String CALLING_NUMBERS = "callingNumbers";
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
     @Autowired
     private LanguageService languageService;
@@ -50,6 +67,9 @@ public class UserController extends BaseController {
     @Autowired
     private ServiceUsageCapService serviceUsageCapService;
 
+    // Identical lookups arriving together (IVR re-dials, before/after language selection) share one computation
+    private final SingleFlight<String, UserResponse> userLookups = new SingleFlight<>();
+
     /**
      * 2.2.1 Get User Details API
      * IVR shall invoke this API when to retrieve details specific to the user identified by callingNumber.
@@ -63,13 +83,15 @@ public class UserController extends BaseController {
      * defaults based on the operator and circle provided.
      * /api/mobilekunji/user?callingNumber=9999999900&operator=A&circle=AP&callId=234000011111111
      *
+     * Concurrent requests for the same service, calling number and circle are coalesced: only one of them does the
+     * lookup and they all get its response.
      */
-    @RequestMapping("/{serviceName}/user") // NO CHECKSTYLE Cyclomatic Complexity
+    @RequestMapping("/{serviceName}/user")
     @ResponseBody
-    public UserResponse getUserDetails(@PathVariable String serviceName,
-                             @RequestParam(required = false) Long callingNumber,
+    public UserResponse getUserDetails(@PathVariable final String serviceName,
+                             @RequestParam(required = false) final Long callingNumber,
                              @RequestParam(required = false) String operator,
-                             @RequestParam(required = false) String circle,
+                             @RequestParam(required = false) final String circle,
                              @RequestParam(required = false) Long callId) {
 
         StringBuilder failureReasons = validate(callingNumber, callId, operator, circle);
@@ -77,6 +99,178 @@ public class UserController extends BaseController {
             throw new IllegalArgumentException(failureReasons.toString());
         }
 
+        // The response also depends on the circle, through the default language
+        String key = String.format("%s:%d:%s", serviceName, callingNumber, circle);
+
+        return userLookups.execute(key, new Callable<UserResponse>() {
+            @Override
+            public UserResponse call() {
+                return getUser(serviceName, callingNumber, circle);
+            }
+        });
+    }
+
+    /**
+     * @return the number of get user details lookups served since the bundle started
+     */
+    public long getUserLookupCount() {
+        return userLookups.getCalls();
+    }
+
+    /**
+     * @return the number of get user details lookups which shared a concurrent identical lookup's result
+     */
+    public long getCoalescedUserLookupCount() {
+        return userLookups.getCoalesced();
+    }
+
+    /**
+     * Batch variant of the Get User Details APIs, used by IVR to pre-warm before an outbound campaign
+     * /api/mobileacademy/users
+     * /api/mobilekunji/users
+     * /api/kilkari/users
+     *
+     * All the calling numbers are resolved with a fixed number of set-based queries and the response is streamed
+     * as it is built: {"users":[{"callingNumber":..., "user":{...}}, ...]}. Front line workers who aren't
+     * authorized for the service get a "failureReason" instead of a "user", the rest of the batch is unaffected.
+     */
+    @RequestMapping(value = "/{serviceName}/users",
+            method = RequestMethod.POST,
+            headers = { "Content-type=application/json" })
+    public void getUserDetailsBatch(@PathVariable String serviceName, @RequestBody UserBatchRequest userBatchRequest,
+                                    HttpServletResponse response) throws IOException {
+
+        StringBuilder failureReasons = validate(userBatchRequest);
+        if (!(MOBILE_ACADEMY.equals(serviceName) || MOBILE_KUNJI.equals(serviceName) ||
+                KILKARI.equals(serviceName))) {
+            failureReasons.append(String.format(INVALID, SERVICE_NAME));
+        }
+
+        if (failureReasons.length() > 0) {
+            throw new IllegalArgumentException(failureReasons.toString());
+        }
+
+        // Duplicates would only cost extra output, the queries don't care
+        Set<Long> callingNumbers = new LinkedHashSet<>(userBatchRequest.getCallingNumbers());
+
+        Language defaultCircleLanguage = languageService.getDefaultCircleLanguage(userBatchRequest.getCircle());
+        String defaultLanguageLocationCode = defaultCircleLanguage == null ? null : defaultCircleLanguage.getCode();
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/json;charset=UTF-8");
+
+        JsonGenerator generator = OBJECT_MAPPER.getJsonFactory().createJsonGenerator(response.getOutputStream(),
+                JsonEncoding.UTF8);
+        try {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("users");
+
+            if (KILKARI.equals(serviceName)) {
+                writeKilkariUsers(generator, callingNumbers, defaultLanguageLocationCode);
+            } else {
+                writeFrontLineWorkerUsers(generator, getFrontLineWorkerService(serviceName), callingNumbers,
+                        defaultLanguageLocationCode);
+            }
+
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } finally {
+            generator.close();
+        }
+    }
+
+    /*
+     * Each entry of the batch goes through the same checks as a single user request, bar the callId the batch
+     * doesn't have: its calling number must be present and 10 digits long, and the operator and circle it's looked
+     * up with (shared by all the entries) must be present and at most 255 characters long. Every distinct failure
+     * is reported once, however many entries fail it.
+     */
+    private StringBuilder validate(UserBatchRequest userBatchRequest) {
+        StringBuilder failureReasons = new StringBuilder();
+
+        List<Long> callingNumbers = userBatchRequest.getCallingNumbers();
+        if (validateFieldPresent(failureReasons, CALLING_NUMBERS, callingNumbers)) {
+            if (callingNumbers.isEmpty() || callingNumbers.size() > MAX_BATCH_SIZE) {
+                failureReasons.append(String.format(INVALID, CALLING_NUMBERS));
+            } else {
+                Set<String> entryFailureReasons = new LinkedHashSet<>();
+                for (Long callingNumber : callingNumbers) {
+                    StringBuilder entryFailureReason = new StringBuilder();
+                    if (!validateField10Digits(entryFailureReason, CALLING_NUMBERS, callingNumber)) {
+                        entryFailureReasons.add(entryFailureReason.toString());
+                    }
+                }
+                for (String entryFailureReason : entryFailureReasons) {
+                    failureReasons.append(entryFailureReason);
+                }
+            }
+        }
+
+        validateFieldMaxLength(failureReasons, "operator", userBatchRequest.getOperator(), MAX_LENGTH_255);
+        validateFieldMaxLength(failureReasons, "circle", userBatchRequest.getCircle(), MAX_LENGTH_255);
+
+        return failureReasons;
+    }
+
+    private void writeKilkariUsers(JsonGenerator generator, Set<Long> callingNumbers,
+                                   String defaultLanguageLocationCode) throws IOException {
+        Map<Long, SubscriberSummary> subscribers = subscriberService.getSubscriberSummaries(callingNumbers);
+
+        for (Long callingNumber : callingNumbers) {
+            generator.writeStartObject();
+            generator.writeNumberField(CALLING_NUMBER, callingNumber);
+            generator.writeObjectField("user", buildKilkariResponseUser(subscribers.get(callingNumber),
+                    defaultLanguageLocationCode));
+            generator.writeEndObject();
+        }
+    }
+
+    private void writeFrontLineWorkerUsers(JsonGenerator generator, Service service, Set<Long> callingNumbers,
+                                           String defaultLanguageLocationCode) throws IOException {
+        Map<Long, FrontLineWorker> flws = new HashMap<>();
+        for (FrontLineWorker flw : frontLineWorkerService.getByContactNumbers(callingNumbers)) {
+            flws.put(flw.getContactNumber(), flw);
+        }
+
+        Map<Long, ServiceUsage> serviceUsages = serviceUsageService.getCurrentMonthlyUsageForFLWsAndService(
+                flws.values(), service);
+
+        // Caps only depend on the state, keyed by state code (null for the national cap)
+        Map<Long, ServiceUsageCap> serviceUsageCaps = new HashMap<>();
+
+        for (Long callingNumber : callingNumbers) {
+            FrontLineWorker flw = flws.get(callingNumber);
+
+            generator.writeStartObject();
+            generator.writeNumberField(CALLING_NUMBER, callingNumber);
+
+            if (null != flw && !frontLineWorkerAuthorizedForAccess(flw)) {
+                generator.writeStringField("failureReason", String.format(NOT_AUTHORIZED, CALLING_NUMBER));
+            } else {
+                ServiceUsage serviceUsage = serviceUsages.get(callingNumber);
+                if (null == serviceUsage) {
+                    serviceUsage = new ServiceUsage(flw, service, 0, 0, 0, DateTime.now());
+                }
+
+                State state = getState(flw);
+                Long stateCode = null == state ? null : state.getCode();
+                ServiceUsageCap serviceUsageCap = serviceUsageCaps.get(stateCode);
+                if (null == serviceUsageCap) {
+                    serviceUsageCap = serviceUsageCapService.getServiceUsageCap(state, service);
+                    serviceUsageCaps.put(stateCode, serviceUsageCap);
+                }
+
+                FlwUserResponse user = buildFrontLineWorkerResponseUser(flw, serviceUsage, serviceUsageCap);
+                user.setDefaultLanguageLocationCode(defaultLanguageLocationCode);
+                generator.writeObjectField("user", user);
+            }
+
+            generator.writeEndObject();
+        }
+    }
+
+    private UserResponse getUser(String serviceName, Long callingNumber, String circle) {
+        StringBuilder failureReasons = new StringBuilder();
         UserResponse user = null;
 
         /*
@@ -114,67 +308,64 @@ public class UserController extends BaseController {
     }
 
     private UserResponse getKilkariResponseUser(Long callingNumber, String circle) {
+        Language defaultCircleLanguage = languageService.getDefaultCircleLanguage(circle);
+
+        return buildKilkariResponseUser(subscriberService.getSubscriberSummary(callingNumber),
+                defaultCircleLanguage == null ? null : defaultCircleLanguage.getCode());
+    }
+
+    private KilkariUserResponse buildKilkariResponseUser(SubscriberSummary subscriber,
+                                                         String defaultLanguageLocationCode) {
         KilkariUserResponse user = new KilkariUserResponse();
         Set<String> packs = new HashSet<>();
 
-        Subscriber subscriber = subscriberService.getSubscriber(callingNumber);
         if (subscriber != null) {
-            Set<Subscription> subscriptions = subscriber.getSubscriptions();
-            for (Subscription subscription : subscriptions) {
-                packs.add(subscription.getSubscriptionPack().getName());
+            for (SubscriptionSummary subscription : subscriber.getSubscriptions()) {
+                packs.add(subscription.getSubscriptionPackName());
             }
 
-            Language subscriberLanguage = subscriber.getLanguage();
-            if (subscriberLanguage != null) {
-                user.setLanguageLocationCode(subscriberLanguage.getCode());
+            if (subscriber.getLanguageCode() != null) {
+                user.setLanguageLocationCode(subscriber.getLanguageCode());
             }
         }
         user.setSubscriptionPackList(packs);
 
-        Language defaultCircleLanguage = languageService.getDefaultCircleLanguage(circle);
-        if (defaultCircleLanguage != null) {
-            user.setDefaultLanguageLocationCode(defaultCircleLanguage.getCode());
+        if (defaultLanguageLocationCode != null) {
+            user.setDefaultLanguageLocationCode(defaultLanguageLocationCode);
         }
 
         return user;
     }
 
     private UserResponse getFrontLineWorkerResponseUser(String serviceName, Long callingNumber) {
-        FlwUserResponse user = new FlwUserResponse();
-
-        Service service = null;
-
-        if (MOBILE_ACADEMY.equals(serviceName)) {
-            service = Service.MOBILE_ACADEMY;
-        }
-
-        if (MOBILE_KUNJI.equals(serviceName)) {
-            service = Service.MOBILE_KUNJI;
-        }
+        Service service = getFrontLineWorkerService(serviceName);
 
         ServiceUsage serviceUsage = new ServiceUsage(null, service, 0, 0, 0, DateTime.now());
         FrontLineWorker flw = frontLineWorkerService.getByContactNumber(callingNumber);
 
-        State state = null;
         if (null != flw) {
-            Language language = flw.getLanguage();
-            if (null != language) {
-                user.setLanguageLocationCode(language.getCode());
-            }
-
             serviceUsage = serviceUsageService.getCurrentMonthlyUsageForFLWAndService(flw, service);
 
-            District district = flw.getDistrict();
-            if (null != district) {
-                state = district.getState();
-            }
-
             if (!frontLineWorkerAuthorizedForAccess(flw)) {
                 throw new NotAuthorizedException(String.format(NOT_AUTHORIZED, CALLING_NUMBER));
             }
         }
 
-        ServiceUsageCap serviceUsageCap = serviceUsageCapService.getServiceUsageCap(state, service);
+        ServiceUsageCap serviceUsageCap = serviceUsageCapService.getServiceUsageCap(getState(flw), service);
+
+        return buildFrontLineWorkerResponseUser(flw, serviceUsage, serviceUsageCap);
+    }
+
+    private FlwUserResponse buildFrontLineWorkerResponseUser(FrontLineWorker flw, ServiceUsage serviceUsage,
+                                                             ServiceUsageCap serviceUsageCap) {
+        FlwUserResponse user = new FlwUserResponse();
+
+        if (null != flw) {
+            Language language = flw.getLanguage();
+            if (null != language) {
+                user.setLanguageLocationCode(language.getCode());
+            }
+        }
 
         user.setCurrentUsageInPulses(serviceUsage.getUsageInPulses());
         user.setEndOfUsagePromptCounter(serviceUsage.getEndOfUsage());
@@ -188,4 +379,25 @@ public class UserController extends BaseController {
         return user;
     }
 
+    private Service getFrontLineWorkerService(String serviceName) {
+        if (MOBILE_ACADEMY.equals(serviceName)) {
+            return Service.MOBILE_ACADEMY;
+        }
+
+        if (MOBILE_KUNJI.equals(serviceName)) {
+            return Service.MOBILE_KUNJI;
+        }
+
+        return null;
+    }
+
+    private State getState(FrontLineWorker flw) {
+        if (null == flw) {
+            return null;
+        }
+
+        District district = flw.getDistrict();
+        return null == district ? null : district.getState();
+    }
+
 }
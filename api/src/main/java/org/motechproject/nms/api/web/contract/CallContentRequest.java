@@ -1,5 +1,8 @@
 package org.motechproject.nms.api.web.contract;
 
+import org.motechproject.nms.api.web.BaseController;
+import org.motechproject.nms.api.web.validation.Validate;
+
 /**
  * Request body
  *
@@ -14,12 +17,19 @@ package org.motechproject.nms.api.web.contract;
  *
  */
 public class CallContentRequest {
-    private String type;
-    private String mkCardNumber;
+    @Validate
     private String contentName;
+    @Validate(name = "contentFile")
     private String contentFileName;
+    @Validate
     private Long startTime;
+    @Validate
     private Long endTime;
+    @Validate(only = BaseController.MOBILE_KUNJI)
+    private String mkCardNumber;
+    @Validate(only = BaseController.MOBILE_ACADEMY)
+    private String type;
+    @Validate(only = BaseController.MOBILE_ACADEMY)
     private Boolean completionFlag;
     private Boolean correctAnswerEntered;
 
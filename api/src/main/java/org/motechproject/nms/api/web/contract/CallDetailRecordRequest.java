@@ -1,5 +1,9 @@
 package org.motechproject.nms.api.web.contract;
 
+import org.motechproject.nms.api.web.BaseController;
+import org.motechproject.nms.api.web.validation.Check;
+import org.motechproject.nms.api.web.validation.Validate;
+
 import java.util.Collections;
 import java.util.List;
 
@@ -17,17 +21,28 @@ import java.util.List;
  *
  */
 public class CallDetailRecordRequest {
+    @Validate(Check.TEN_DIGITS)
     private Long callingNumber;
+    @Validate(Check.FIFTEEN_DIGITS)
     private Long callId;
+    @Validate(value = Check.MAX_LENGTH, length = BaseController.MAX_LENGTH_255)
     private String operator;
+    @Validate(value = Check.MAX_LENGTH, length = BaseController.MAX_LENGTH_255)
     private String circle;
+    @Validate
     private Long callStartTime;
+    @Validate
     private Long callEndTime;
+    @Validate
     private Integer callDurationInPulses;
+    @Validate(name = "endOfUsagePromptCount")
     private Integer endOfUsagePromptCounter;
-    private Boolean welcomeMessagePromptFlag;
+    @Validate
     private Integer callStatus;
+    @Validate
     private Integer callDisconnectReason;
+    @Validate(only = BaseController.MOBILE_KUNJI)
+    private Boolean welcomeMessagePromptFlag;
     private List<CallContentRequest> content;
 
     public CallDetailRecordRequest() { }
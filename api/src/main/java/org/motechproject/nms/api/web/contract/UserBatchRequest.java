@@ -0,0 +1,53 @@
+package org.motechproject.nms.api.web.contract;
+
+import java.util.List;
+
+/**
+ * Request body
+ *
+ * Batch variant of the Get User Details APIs (2.2.1, 3.2.1 and 4.2.1), used by IVR to pre-warm before an outbound
+ * campaign.
+ * /api/mobileacademy/users
+ * /api/mobilekunji/users
+ * /api/kilkari/users
+ *
+ */
+public class UserBatchRequest {
+    private List<Long> callingNumbers;
+    private String operator;
+    private String circle;
+
+    // Necessary for Jackson
+    public UserBatchRequest() { }
+
+    // Used in ITs only
+    public UserBatchRequest(List<Long> callingNumbers, String operator, String circle) {
+        this.callingNumbers = callingNumbers;
+        this.operator = operator;
+        this.circle = circle;
+    }
+
+    public List<Long> getCallingNumbers() {
+        return callingNumbers;
+    }
+
+    public void setCallingNumbers(List<Long> callingNumbers) {
+        this.callingNumbers = callingNumbers;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    public void setOperator(String operator) {
+        this.operator = operator;
+    }
+
+    public String getCircle() {
+        return circle;
+    }
+
+    public void setCircle(String circle) {
+        this.circle = circle;
+    }
+}
@@ -1,5 +1,8 @@
 package org.motechproject.nms.api.web.contract;
 
+import org.motechproject.nms.api.web.validation.Check;
+import org.motechproject.nms.api.web.validation.Validate;
+
 /**
  * Request body
  *
@@ -13,8 +16,11 @@ package org.motechproject.nms.api.web.contract;
  *
  */
 public class UserLanguageRequest {
+    @Validate(Check.TEN_DIGITS)
     private Long callingNumber;
+    @Validate(Check.FIFTEEN_DIGITS)
     private Long callId;
+    @Validate
     private String languageLocationCode;
 
     // Necessary for Jackson
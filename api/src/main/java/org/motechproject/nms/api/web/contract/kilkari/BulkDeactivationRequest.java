@@ -0,0 +1,51 @@
+package org.motechproject.nms.api.web.contract.kilkari;
+
+import java.util.List;
+
+/**
+ * Request body
+ *
+ * Bulk Deactivation API
+ * Deactivates the subscriptions of many beneficiaries at once, eg: for DND list updates or MCTS death reports. Either
+ * the subscribers' calling numbers or the subscription ids are given, along with the deactivation reason.
+ * /api/kilkari/deactivations
+ *
+ */
+public class BulkDeactivationRequest {
+    private List<Long> callingNumbers;
+    private List<String> subscriptionIds;
+    private String deactivationReason;
+
+    public BulkDeactivationRequest() { }
+
+    public BulkDeactivationRequest(List<Long> callingNumbers, List<String> subscriptionIds,
+                                   String deactivationReason) {
+        this.callingNumbers = callingNumbers;
+        this.subscriptionIds = subscriptionIds;
+        this.deactivationReason = deactivationReason;
+    }
+
+    public List<Long> getCallingNumbers() {
+        return callingNumbers;
+    }
+
+    public void setCallingNumbers(List<Long> callingNumbers) {
+        this.callingNumbers = callingNumbers;
+    }
+
+    public List<String> getSubscriptionIds() {
+        return subscriptionIds;
+    }
+
+    public void setSubscriptionIds(List<String> subscriptionIds) {
+        this.subscriptionIds = subscriptionIds;
+    }
+
+    public String getDeactivationReason() {
+        return deactivationReason;
+    }
+
+    public void setDeactivationReason(String deactivationReason) {
+        this.deactivationReason = deactivationReason;
+    }
+}
@@ -1,5 +1,9 @@
 package org.motechproject.nms.api.web.contract.kilkari;
 
+import org.motechproject.nms.api.web.KilkariController;
+import org.motechproject.nms.api.web.validation.Check;
+import org.motechproject.nms.api.web.validation.Validate;
+
 /**
  * Request body - inner data structure
  *
@@ -10,11 +14,16 @@ package org.motechproject.nms.api.web.contract.kilkari;
  *
  */
 public class CallDataRequest {
+    @Validate(value = Check.EXACT_LENGTH, length = KilkariController.SUBSCRIPTION_ID_LENGTH)
     private String subscriptionId;
     private String subscriptionPack;
+    @Validate(Check.NOT_EMPTY)
     private String inboxWeekId;
+    @Validate(Check.NOT_EMPTY)
     private String contentFileName;
+    @Validate(Check.POSITIVE)
     private Long startTime;
+    @Validate(Check.POSITIVE)
     private Long endTime;
 
     public CallDataRequest() { }
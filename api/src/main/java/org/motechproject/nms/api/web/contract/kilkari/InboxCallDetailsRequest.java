@@ -1,5 +1,9 @@
 package org.motechproject.nms.api.web.contract.kilkari;
 
+import org.motechproject.nms.api.web.BaseController;
+import org.motechproject.nms.api.web.validation.Check;
+import org.motechproject.nms.api.web.validation.Validate;
+
 import java.util.Set;
 
 /**
@@ -12,14 +16,23 @@ import java.util.Set;
  *
  */
 public class InboxCallDetailsRequest {
+    @Validate(Check.TEN_DIGITS)
     private Long callingNumber;
+    @Validate(Check.FIFTEEN_DIGITS)
+    private Long callId;
+    @Validate(value = Check.MAX_LENGTH, length = BaseController.MAX_LENGTH_255)
     private String operator;
+    @Validate(value = Check.MAX_LENGTH, length = BaseController.MAX_LENGTH_255)
     private String circle;
-    private Long callId;
+    @Validate
     private Long callStartTime;
+    @Validate
     private Long callEndTime;
+    @Validate
     private Integer callDurationInPulses;
+    @Validate(Check.CALL_STATUS)
     private Integer callStatus;
+    @Validate(Check.CALL_DISCONNECT_REASON)
     private Integer callDisconnectReason;
     private Set<CallDataRequest> content;
 
@@ -1,5 +1,9 @@
 package org.motechproject.nms.api.web.contract.kilkari;
 
+import org.motechproject.nms.api.web.BaseController;
+import org.motechproject.nms.api.web.validation.Check;
+import org.motechproject.nms.api.web.validation.Validate;
+
 /**
  * Request body
  *
@@ -14,12 +18,23 @@ package org.motechproject.nms.api.web.contract.kilkari;
  *
  */
 public class SubscriptionRequest {
+    // Validation groups
+    public static final String CREATE = "create";
+    public static final String DEACTIVATE = "deactivate";
+
+    @Validate(Check.TEN_DIGITS)
     private Long callingNumber;
+    @Validate(Check.FIFTEEN_DIGITS)
+    private Long callId;
+    @Validate(value = Check.MAX_LENGTH, length = BaseController.MAX_LENGTH_255)
     private String operator;
+    @Validate(value = Check.MAX_LENGTH, length = BaseController.MAX_LENGTH_255)
     private String circle;
-    private Long callId;
-    private String languageLocationCode; // 4.2.3 Create Subscription
+    @Validate(only = CREATE)
     private String subscriptionPack;     // 4.2.3 Create Subscription
+    @Validate(only = CREATE)
+    private String languageLocationCode; // 4.2.3 Create Subscription
+    @Validate(only = DEACTIVATE)
     private String subscriptionId;       // 4.2.4 Deactivate Subscription
 
     public SubscriptionRequest() { }
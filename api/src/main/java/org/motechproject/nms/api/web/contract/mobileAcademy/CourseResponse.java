@@ -12,8 +12,8 @@ public class CourseResponse {
     // course name
     private String name;
 
-    // course version in epoch datetime format
-    private int courseVersion;
+    // course version, in epoch seconds
+    private long courseVersion;
 
     private List<Chapter> chapters;
 
@@ -25,11 +25,11 @@ public class CourseResponse {
         this.name = name;
     }
 
-    public Integer getCourseVersion() {
+    public Long getCourseVersion() {
         return courseVersion;
     }
 
-    public void setCourseVersion(Integer courseVersion) {
+    public void setCourseVersion(Long courseVersion) {
         this.courseVersion = courseVersion;
     }
 
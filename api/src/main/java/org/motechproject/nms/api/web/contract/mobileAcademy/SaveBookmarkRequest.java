@@ -1,5 +1,8 @@
 package org.motechproject.nms.api.web.contract.mobileAcademy;
 
+import org.motechproject.nms.api.web.validation.Check;
+import org.motechproject.nms.api.web.validation.Validate;
+
 import java.util.Map;
 
 /**
@@ -7,8 +10,10 @@ import java.util.Map;
  */
 public class SaveBookmarkRequest {
 
+    @Validate(Check.TEN_DIGITS)
     private Long callingNumber;
 
+    @Validate(Check.FIFTEEN_DIGITS)
     private Long callId;
 
     private String bookmark;
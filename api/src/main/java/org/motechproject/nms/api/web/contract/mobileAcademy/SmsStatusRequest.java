@@ -0,0 +1,55 @@
+package org.motechproject.nms.api.web.contract.mobileAcademy;
+
+import org.motechproject.nms.api.web.validation.Check;
+import org.motechproject.nms.api.web.validation.Validate;
+
+/**
+ * Delivery receipt posted by the SMS gateway to the SMS delivery status API 2.2.7, on its own or along with others
+ * in a JSON array
+ */
+public class SmsStatusRequest {
+
+    // Message id the gateway assigned to the SMS when it was sent
+    @Validate(value = Check.MAX_LENGTH, length = 64)
+    private String messageId;
+
+    @Validate(Check.TEN_DIGITS)
+    private Long callingNumber;
+
+    // eg: DeliveredToTerminal
+    @Validate(Check.DELIVERY_STATUS)
+    private String deliveryStatus;
+
+    public SmsStatusRequest() {
+    }
+
+    public SmsStatusRequest(String messageId, Long callingNumber, String deliveryStatus) {
+        this.messageId = messageId;
+        this.callingNumber = callingNumber;
+        this.deliveryStatus = deliveryStatus;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public Long getCallingNumber() {
+        return callingNumber;
+    }
+
+    public void setCallingNumber(Long callingNumber) {
+        this.callingNumber = callingNumber;
+    }
+
+    public String getDeliveryStatus() {
+        return deliveryStatus;
+    }
+
+    public void setDeliveryStatus(String deliveryStatus) {
+        this.deliveryStatus = deliveryStatus;
+    }
+}
@@ -0,0 +1,9 @@
+package org.motechproject.nms.api.web.exception;
+
+public class ServiceUnavailableException extends IllegalStateException {
+
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.motechproject.nms.api.web.validation;
+
+import org.motechproject.nms.mobileacademy.domain.DeliveryStatus;
+import org.motechproject.nms.props.domain.CallDisconnectReason;
+import org.motechproject.nms.props.domain.CallStatus;
+
+/**
+ * The checks a {@link Validate} annotated field can be subjected to. They are only ever given non null values.
+ */
+public enum Check {
+
+    PRESENT {
+        @Override
+        boolean isValid(Object value, int length) {
+            return true;
+        }
+    },
+
+    NOT_EMPTY {
+        @Override
+        boolean isValid(Object value, int length) {
+            return ((String) value).length() > 0;
+        }
+    },
+
+    POSITIVE {
+        @Override
+        boolean isValid(Object value, int length) {
+            return ((Number) value).longValue() >= 0;
+        }
+    },
+
+    TEN_DIGITS {
+        @Override
+        boolean isValid(Object value, int length) {
+            long number = ((Number) value).longValue();
+            return number >= SMALLEST_10_DIGIT_NUMBER && number <= LARGEST_10_DIGIT_NUMBER;
+        }
+    },
+
+    FIFTEEN_DIGITS {
+        @Override
+        boolean isValid(Object value, int length) {
+            long number = ((Number) value).longValue();
+            return number >= SMALLEST_15_DIGIT_NUMBER && number <= LARGEST_15_DIGIT_NUMBER;
+        }
+    },
+
+    MAX_LENGTH {
+        @Override
+        boolean isValid(Object value, int length) {
+            return ((String) value).length() <= length;
+        }
+    },
+
+    EXACT_LENGTH {
+        @Override
+        boolean isValid(Object value, int length) {
+            return ((String) value).length() == length;
+        }
+    },
+
+    CALL_STATUS {
+        @Override
+        boolean isValid(Object value, int length) {
+            return CallStatus.isValid((Integer) value);
+        }
+    },
+
+    CALL_DISCONNECT_REASON {
+        @Override
+        boolean isValid(Object value, int length) {
+            return CallDisconnectReason.isValid((Integer) value);
+        }
+    },
+
+    DELIVERY_STATUS {
+        @Override
+        boolean isValid(Object value, int length) {
+            return DeliveryStatus.isValid((String) value);
+        }
+    };
+
+    public static final long SMALLEST_10_DIGIT_NUMBER = 1000000000L;
+    public static final long LARGEST_10_DIGIT_NUMBER  = 9999999999L;
+    public static final long SMALLEST_15_DIGIT_NUMBER = 100000000000000L;
+    public static final long LARGEST_15_DIGIT_NUMBER  = 999999999999999L;
+
+    abstract boolean isValid(Object value, int length);
+}
@@ -0,0 +1,133 @@
+package org.motechproject.nms.api.web.validation;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Validates request objects against their {@link Validate} annotations.
+ *
+ * The annotations of a class are compiled once, the first time one of its instances is validated, into an array of
+ * rules in field declaration order (which is also the order failures are reported in). Validating an object then
+ * only reads its fields and runs their checks: nothing is allocated unless a check fails, in which case the failure
+ * reasons are returned in the usual "&lt;field: Not Present&gt;&lt;field: Invalid&gt;" form. Fields should be of
+ * reference types (Long rather than long) for this to hold, reading a primitive field boxes it.
+ */
+public final class RequestValidator {
+
+    public static final String NOT_PRESENT = "<%s: Not Present>";
+    public static final String INVALID = "<%s: Invalid>";
+
+    private static final ClassValue<Rule[]> RULES = new ClassValue<Rule[]>() {
+        @Override
+        protected Rule[] computeValue(Class<?> type) {
+            return compile(type);
+        }
+    };
+
+    private RequestValidator() { }
+
+    /**
+     * Validate all the checks which don't belong to a group.
+     *
+     * @param request the request to validate
+     * @return the failure reasons, or null if the request is valid
+     */
+    public static String validate(Object request) {
+        return validate(request, null);
+    }
+
+    /**
+     * Validate the checks which don't belong to a group, along with those of the given group.
+     *
+     * @param request the request to validate
+     * @param group the group whose checks should also be validated, eg: mobilekunji
+     * @return the failure reasons, or null if the request is valid
+     */
+    public static String validate(Object request, String group) {
+        Rule[] rules = RULES.get(request.getClass());
+
+        StringBuilder failureReasons = null;
+        for (int i = 0; i < rules.length; i++) {
+            String failureFormat = rules[i].check(request, group);
+            if (failureFormat != null) {
+                if (failureReasons == null) {
+                    failureReasons = new StringBuilder();
+                }
+                failureReasons.append(String.format(failureFormat, rules[i].name));
+            }
+        }
+
+        return failureReasons == null ? null : failureReasons.toString();
+    }
+
+    private static Rule[] compile(Class<?> type) {
+        List<Rule> rules = new ArrayList<>();
+
+        // Superclass fields first, as they come first in the request
+        if (type.getSuperclass() != null && type.getSuperclass() != Object.class) {
+            for (Rule rule : RULES.get(type.getSuperclass())) {
+                rules.add(rule);
+            }
+        }
+
+        for (Field field : type.getDeclaredFields()) {
+            Validate validate = field.getAnnotation(Validate.class);
+            if (validate != null) {
+                field.setAccessible(true);
+                rules.add(new Rule(field, validate));
+            }
+        }
+
+        return rules.toArray(new Rule[rules.size()]);
+    }
+
+    private static final class Rule {
+        private final Field field;
+        private final String name;
+        private final Check check;
+        private final int length;
+        private final String[] groups;
+
+        private Rule(Field field, Validate validate) {
+            this.field = field;
+            this.name = validate.name().isEmpty() ? field.getName() : validate.name();
+            this.check = validate.value();
+            this.length = validate.length();
+            this.groups = validate.only();
+        }
+
+        /**
+         * @return the format of the failure reason, or null if the check passed or doesn't apply
+         */
+        private String check(Object request, String group) {
+            if (!appliesTo(group)) {
+                return null;
+            }
+
+            Object value;
+            try {
+                value = field.get(request);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(String.format("Unable to read %s", field), e);
+            }
+
+            if (value == null) {
+                return NOT_PRESENT;
+            }
+            return check.isValid(value, length) ? null : INVALID;
+        }
+
+        private boolean appliesTo(String group) {
+            if (groups.length == 0) {
+                return true;
+            }
+            for (int i = 0; i < groups.length; i++) {
+                if (groups[i].equals(group)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
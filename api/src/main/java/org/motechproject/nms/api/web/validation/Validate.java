@@ -0,0 +1,38 @@
+package org.motechproject.nms.api.web.validation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares how a request field is validated by the {@link RequestValidator}. Every check requires the field to be
+ * present: a null value fails with "&lt;name: Not Present&gt;", a value which fails the check with
+ * "&lt;name: Invalid&gt;".
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Validate {
+
+    /**
+     * @return the check the field's value must pass
+     */
+    Check value() default Check.PRESENT;
+
+    /**
+     * @return the length used by {@link Check#MAX_LENGTH} and {@link Check#EXACT_LENGTH}
+     */
+    int length() default 0;
+
+    /**
+     * @return the name the field is reported as, if not the field name itself
+     */
+    String name() default "";
+
+    /**
+     * @return the groups the check applies to, eg: mobilekunji; the check applies to all of them if empty
+     */
+    String[] only() default { };
+}
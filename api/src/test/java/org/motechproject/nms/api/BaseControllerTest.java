@@ -9,7 +9,7 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.motechproject.nms.api.web.KilkariController;
 import org.motechproject.nms.api.web.contract.BadRequest;
-import org.motechproject.nms.kilkari.service.SubscriberService;
+import org.motechproject.nms.kilkari.service.InboxService;
 import org.motechproject.nms.kilkari.service.SubscriptionService;
 import org.springframework.test.web.server.MockMvc;
 import org.springframework.test.web.server.setup.MockMvcBuilders;
@@ -27,7 +27,7 @@ public class BaseControllerTest {
     private KilkariController kilkariController = new KilkariController();
 
     @Mock
-    private SubscriberService subscriberService;
+    private InboxService inboxService;
 
     private MockMvc mockMvc;
 
@@ -41,7 +41,7 @@ public class BaseControllerTest {
         String message = "error";
         ObjectMapper objectMapper = new ObjectMapper();
         BadRequest badRequest = new BadRequest(message);
-        when(subscriberService.getSubscriber(anyLong())).thenThrow(new NullPointerException(message));
+        when(inboxService.getInbox(anyLong())).thenThrow(new NullPointerException(message));
 
         String url = "/kilkari/inbox?callingNumber=1111111111&callId=123456789123456";
 
@@ -6,6 +6,8 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.motechproject.nms.api.repository.ProcessedCallDataService;
+import org.motechproject.nms.api.service.DuplicateCallService;
 import org.motechproject.nms.flw.domain.CallDetailRecord;
 import org.motechproject.nms.flw.domain.FrontLineWorker;
 import org.motechproject.nms.flw.repository.CallContentDataService;
@@ -13,6 +15,7 @@ import org.motechproject.nms.flw.repository.CallDetailRecordDataService;
 import org.motechproject.nms.flw.repository.FrontLineWorkerDataService;
 import org.motechproject.nms.flw.repository.ServiceUsageCapDataService;
 import org.motechproject.nms.flw.repository.ServiceUsageDataService;
+import org.motechproject.nms.flw.service.CallDetailRecordQueueService;
 import org.motechproject.nms.flw.service.CallDetailRecordService;
 import org.motechproject.nms.flw.service.FrontLineWorkerService;
 import org.motechproject.testing.osgi.BasePaxIT;
@@ -30,6 +33,7 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -46,6 +50,9 @@ public class CallDetailsControllerBundleIT extends BasePaxIT {
     @Inject
     private CallDetailRecordService callDetailRecordService;
 
+    @Inject
+    private CallDetailRecordQueueService callDetailRecordQueueService;
+
     @Inject
     private CallDetailRecordDataService callDetailRecordDataService;
 
@@ -64,6 +71,12 @@ public class CallDetailsControllerBundleIT extends BasePaxIT {
     @Inject
     private ServiceUsageCapDataService serviceUsageCapDataService;
 
+    @Inject
+    private ProcessedCallDataService processedCallDataService;
+
+    @Inject
+    private DuplicateCallService duplicateCallService;
+
     public CallDetailsControllerBundleIT() {
         System.setProperty("org.motechproject.testing.osgi.http.numTries", "1");
     }
@@ -74,6 +87,9 @@ public class CallDetailsControllerBundleIT extends BasePaxIT {
         callDetailRecordDataService.deleteAll();
         callContentDataService.deleteAll();
         frontLineWorkerDataService.deleteAll();
+        // Claims still queued would be written after the delete
+        duplicateCallService.flush();
+        processedCallDataService.deleteAll();
     }
 
     private String createCallDetailsJson(boolean includeCallingNumber, Long callingNumber,
@@ -268,6 +284,8 @@ public class CallDetailsControllerBundleIT extends BasePaxIT {
 
         assertTrue(SimpleHttpClient.execHttpRequest(httpPost, HttpStatus.SC_OK, ADMIN_USERNAME, ADMIN_PASSWORD));
 
+        // CDRs are written behind the request, make sure they've landed before looking for them
+        callDetailRecordQueueService.flush();
         CallDetailRecord cdr = callDetailRecordService.getByCallingNumber(9810320300l);
 
         assertNotNull(cdr);
@@ -284,6 +302,74 @@ public class CallDetailsControllerBundleIT extends BasePaxIT {
         assertEquals(flw.getId(), cdr.getFrontLineWorker().getId());
     }
 
+    @Test
+    public void testCallDetailsDuplicateDropped() throws IOException, InterruptedException {
+        cleanAllData();
+
+        FrontLineWorker flw = new FrontLineWorker("Frank Lloyd Wright", 9810320300L);
+        frontLineWorkerService.add(flw);
+
+        String content = createContentJson(false, null,                   // type
+                true, "a",                     // mkCardNumber
+                true, "YellowFever",           // contentName
+                true, "Yellowfever.wav",       // contentFile
+                true, 1200000000l,             // startTime
+                true, 1222222221l,             // endTime
+                false, null,                   // completionFlag
+                false, null);                  // correctAnswerEntered
+
+        Long duplicatesBefore = duplicateCallService.getDuplicateCounts().get("mobilekunji/callDetails");
+
+        // The IVR retries the same request, both are acknowledged
+        for (int i = 0; i < 2; i++) {
+            HttpPost httpPost = createCallDetailsPost("mobilekunji",
+                    true, 9810320300l,       // callingNumber
+                    true, 234000011111111l,  // callId
+                    true, "A",               // operator
+                    true, "AP",              // circle
+                    true, 1422879843l,       // callStartTime
+                    true, 1422879903l,       // callEndTime
+                    true, 60,                // callDurationInPulses
+                    true, 0,                 // endOfUsagePromptCounter
+                    true, true,              // welcomeMessagePromptFlag
+                    true, 1,                 // callStatus
+                    true, 1,                 // callDisconnectReason
+                    true, content);          // content
+
+            assertTrue(SimpleHttpClient.execHttpRequest(httpPost, HttpStatus.SC_OK, ADMIN_USERNAME, ADMIN_PASSWORD));
+        }
+
+        // ...but only one CDR is stored
+        callDetailRecordQueueService.flush();
+        assertEquals(1, callDetailRecordDataService.retrieveAll().size());
+
+        long expectedDuplicates = (duplicatesBefore == null ? 0 : duplicatesBefore) + 1;
+        assertEquals(expectedDuplicates,
+                (long) duplicateCallService.getDuplicateCounts().get("mobilekunji/callDetails"));
+    }
+
+    @Test
+    public void testReleasedCallClaimedAgain() {
+        cleanAllData();
+
+        assertTrue(duplicateCallService.claim("mobilekunji/callDetails", 9810320300L, 234000011111112L));
+        assertFalse(duplicateCallService.claim("mobilekunji/callDetails", 9810320300L, 234000011111112L));
+
+        // The request failed after it was claimed: its retry goes through
+        duplicateCallService.release("mobilekunji/callDetails", 9810320300L, 234000011111112L);
+        assertTrue(duplicateCallService.claim("mobilekunji/callDetails", 9810320300L, 234000011111112L));
+    }
+
+    @Test
+    public void testRecentProcessedCallsNotPurged() {
+        cleanAllData();
+
+        assertTrue(duplicateCallService.claim("mobilekunji/callDetails", 9810320300L, 234000011111113L));
+        duplicateCallService.flush();
+        assertEquals(0, duplicateCallService.purgeProcessedCalls());
+        assertEquals(1, processedCallDataService.retrieveAll().size());
+    }
+
     @Test
     public void testCallDetailsValidMobileAcademy() throws IOException, InterruptedException {
         cleanAllData();
@@ -324,6 +410,8 @@ public class CallDetailsControllerBundleIT extends BasePaxIT {
 
         assertTrue(SimpleHttpClient.execHttpRequest(httpPost, HttpStatus.SC_OK, ADMIN_USERNAME, ADMIN_PASSWORD));
 
+        // CDRs are written behind the request, make sure they've landed before looking for them
+        callDetailRecordQueueService.flush();
         CallDetailRecord cdr = callDetailRecordService.getByCallingNumber(9810320300l);
 
         assertNotNull(cdr);
@@ -360,6 +448,8 @@ public class CallDetailsControllerBundleIT extends BasePaxIT {
 
         assertTrue(SimpleHttpClient.execHttpRequest(httpPost, HttpStatus.SC_OK, ADMIN_USERNAME, ADMIN_PASSWORD));
 
+        // CDRs are written behind the request, make sure they've landed before looking for them
+        callDetailRecordQueueService.flush();
         CallDetailRecord cdr = callDetailRecordService.getByCallingNumber(9810320300l);
 
         assertNotNull(cdr);
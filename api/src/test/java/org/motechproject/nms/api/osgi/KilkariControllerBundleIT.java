@@ -22,7 +22,9 @@ import org.motechproject.nms.kilkari.domain.*;
 import org.motechproject.nms.kilkari.repository.SubscriberDataService;
 import org.motechproject.nms.kilkari.repository.SubscriptionDataService;
 import org.motechproject.nms.kilkari.repository.SubscriptionPackDataService;
+import org.motechproject.nms.kilkari.service.InboxService;
 import org.motechproject.nms.kilkari.service.SubscriberService;
+import org.motechproject.nms.kilkari.service.SubscriptionPackService;
 import org.motechproject.nms.kilkari.service.SubscriptionService;
 import org.motechproject.nms.language.domain.Language;
 import org.motechproject.nms.language.repository.CircleLanguageDataService;
@@ -38,8 +40,10 @@ import org.ops4j.pax.exam.spi.reactors.PerSuite;
 
 import javax.inject.Inject;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -62,6 +66,12 @@ public class KilkariControllerBundleIT extends BasePaxIT {
     @Inject
     private SubscriptionService subscriptionService;
 
+    @Inject
+    private InboxService inboxService;
+
+    @Inject
+    private SubscriptionPackService subscriptionPackService;
+
     @Inject
     private SubscriberDataService subscriberDataService;
 
@@ -108,9 +118,18 @@ public class KilkariControllerBundleIT extends BasePaxIT {
     private void createLanguageAndSubscriptionPacks() {
         gLanguage = languageDataService.create(new Language("tamil", "10"));
 
-        gPack1 = subscriptionPackDataService.create(new SubscriptionPack("pack1", SubscriptionPackType.CHILD, 1, null));
+        List<SubscriptionPackMessage> messages = new ArrayList<>();
+        for (int week = 1; week <= 48; week++) {
+            messages.add(new SubscriptionPackMessage(week, String.format("week%s-1.wav", week)));
+        }
+
+        gPack1 = subscriptionPackDataService.create(new SubscriptionPack("pack1", SubscriptionPackType.CHILD, 1,
+                messages));
         gPack2 = subscriptionPackDataService.create(new SubscriptionPack("pack2", SubscriptionPackType.PREGNANCY, 1,
                 null));
+
+        // The packs were replaced behind the registry's back
+        subscriptionPackService.refresh();
     }
 
     private void setupData() {
@@ -167,13 +186,25 @@ public class KilkariControllerBundleIT extends BasePaxIT {
 
         Subscriber subscriber = subscriberDataService.findByCallingNumber(1000000000L);
         Subscription subscription = subscriber.getSubscriptions().iterator().next();
+
+        // Subscription started nine weeks ago: it is in its tenth week today
+        subscription.setStartDate(LocalDate.now().minusWeeks(9));
+        subscriptionDataService.update(subscription);
+        inboxService.refreshAllInboxes();
+
         HttpGet httpGet = createHttpGet(true, "1000000000", true, "123456789012345");
-        String expectedJson = createInboxResponseJson(new HashSet<InboxSubscriptionDetailResponse>(Arrays.asList(
+        String expectedJson = createInboxResponseJson(new LinkedHashSet<InboxSubscriptionDetailResponse>(Arrays.asList(
                 new InboxSubscriptionDetailResponse(
                         subscription.getSubscriptionId().toString(),
                         "pack1",
                         "10_1",
-                        "xyz.wav"
+                        "week10-1.wav"
+                ),
+                new InboxSubscriptionDetailResponse(
+                        subscription.getSubscriptionId().toString(),
+                        "pack1",
+                        "9_1",
+                        "week9-1.wav"
                 )
         )));
 
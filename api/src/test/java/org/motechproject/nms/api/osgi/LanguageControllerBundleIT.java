@@ -6,6 +6,8 @@ import org.apache.http.entity.StringEntity;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.motechproject.nms.api.repository.ProcessedCallDataService;
+import org.motechproject.nms.api.service.DuplicateCallService;
 import org.motechproject.nms.api.web.contract.UserLanguageRequest;
 import org.motechproject.nms.flw.domain.FrontLineWorker;
 import org.motechproject.nms.flw.domain.Service;
@@ -51,10 +53,19 @@ public class LanguageControllerBundleIT extends BasePaxIT {
     @Inject
     private ServiceUsageCapDataService serviceUsageCapDataService;
 
+    @Inject
+    private ProcessedCallDataService processedCallDataService;
+
+    @Inject
+    private DuplicateCallService duplicateCallService;
+
     private void cleanAllData() {
         serviceUsageCapDataService.deleteAll();
         circleLanguageDataService.deleteAll();
         languageDataService.deleteAll();
+        // Claims still queued would be written after the delete
+        duplicateCallService.flush();
+        processedCallDataService.deleteAll();
     }
 
     private void createCircleWithLanguage() {
@@ -3,13 +3,19 @@ package org.motechproject.nms.api.osgi;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
 import org.codehaus.jackson.map.deser.ValueInstantiators;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.motechproject.nms.api.utils.RequestBuilder;
 import org.motechproject.nms.api.web.BaseController;
 import org.motechproject.nms.api.web.contract.mobileAcademy.SaveBookmarkRequest;
+import org.motechproject.nms.mobileacademy.domain.Course;
+import org.motechproject.nms.mobileacademy.domain.DeliveryStatus;
+import org.motechproject.nms.mobileacademy.domain.SmsDeliveryRecord;
+import org.motechproject.nms.mobileacademy.repository.SmsDeliveryRecordDataService;
 import org.motechproject.nms.mobileacademy.service.MobileAcademyService;
+import org.motechproject.nms.mobileacademy.service.SmsDeliveryStatusService;
 import org.motechproject.testing.osgi.BasePaxIT;
 import org.motechproject.testing.osgi.container.MotechNativeTestContainerFactory;
 import org.motechproject.testing.osgi.http.SimpleHttpClient;
@@ -23,6 +29,7 @@ import javax.inject.Inject;
 
 import java.io.IOException;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -36,6 +43,12 @@ public class MobileAcademyControllerBundleIT extends BasePaxIT {
     @Inject
     private MobileAcademyService mobileAcademyService;
 
+    @Inject
+    private SmsDeliveryStatusService smsDeliveryStatusService;
+
+    @Inject
+    private SmsDeliveryRecordDataService smsDeliveryRecordDataService;
+
     @Test
     public void testBookmarkBadCallingNumber() throws IOException, InterruptedException {
 
@@ -80,13 +93,75 @@ public class MobileAcademyControllerBundleIT extends BasePaxIT {
         assertTrue(SimpleHttpClient.execHttpRequest(request, HttpStatus.SC_OK, RequestBuilder.ADMIN_USERNAME, RequestBuilder.ADMIN_PASSWORD));
     }
 
+    private void setupCourse() {
+        Course course = new Course();
+        course.setName("MobileAcademyCourse");
+        mobileAcademyService.setCourse(course);
+    }
+
     @Test
     public void testGetCourse() throws IOException, InterruptedException {
 
+        setupCourse();
         String endpoint = String.format("http://localhost:%d/api/mobileacademy/course",
                 TestContext.getJettyPort());
 
         HttpGet request = RequestBuilder.createGetRequest(endpoint);
         assertTrue(SimpleHttpClient.execHttpRequest(request, HttpStatus.SC_OK, RequestBuilder.ADMIN_USERNAME, RequestBuilder.ADMIN_PASSWORD));
     }
+
+    @Test
+    public void testGetCourseNotModified() throws IOException, InterruptedException {
+
+        setupCourse();
+        String endpoint = String.format("http://localhost:%d/api/mobileacademy/course",
+                TestContext.getJettyPort());
+
+        HttpGet request = RequestBuilder.createGetRequest(endpoint);
+        request.addHeader("If-None-Match", mobileAcademyService.getCachedCourse().getEtag());
+        assertTrue(SimpleHttpClient.execHttpRequest(request, HttpStatus.SC_NOT_MODIFIED, RequestBuilder.ADMIN_USERNAME, RequestBuilder.ADMIN_PASSWORD));
+
+        request = RequestBuilder.createGetRequest(endpoint);
+        request.addHeader("If-None-Match", "\"stale\"");
+        assertTrue(SimpleHttpClient.execHttpRequest(request, HttpStatus.SC_OK, RequestBuilder.ADMIN_USERNAME, RequestBuilder.ADMIN_PASSWORD));
+    }
+
+    private HttpPost createSmsStatusRequest(String body) throws IOException {
+        HttpPost request = new HttpPost(String.format("http://localhost:%d/api/mobileacademy/smsdelivery",
+                TestContext.getJettyPort()));
+        request.setHeader("Content-type", "application/json");
+        request.setEntity(new StringEntity(body));
+        return request;
+    }
+
+    @Test
+    public void testSmsStatus() throws IOException, InterruptedException {
+
+        smsDeliveryRecordDataService.deleteAll();
+
+        HttpPost request = createSmsStatusRequest(
+                "{\"messageId\":\"it-1\",\"callingNumber\":1234567890,\"deliveryStatus\":\"DeliveredToNetwork\"}");
+        assertTrue(SimpleHttpClient.execHttpRequest(request, HttpStatus.SC_OK, RequestBuilder.ADMIN_USERNAME, RequestBuilder.ADMIN_PASSWORD));
+
+        // A batch resending the first receipt, then the final status
+        request = createSmsStatusRequest("[" +
+                "{\"messageId\":\"it-1\",\"callingNumber\":1234567890,\"deliveryStatus\":\"DeliveredToNetwork\"}," +
+                "{\"messageId\":\"it-1\",\"callingNumber\":1234567890,\"deliveryStatus\":\"DeliveredToTerminal\"}," +
+                "{\"messageId\":\"it-2\",\"callingNumber\":1234567891,\"deliveryStatus\":\"DeliveryImpossible\"}]");
+        assertTrue(SimpleHttpClient.execHttpRequest(request, HttpStatus.SC_OK, RequestBuilder.ADMIN_USERNAME, RequestBuilder.ADMIN_PASSWORD));
+
+        smsDeliveryStatusService.flush();
+
+        assertEquals(2, smsDeliveryRecordDataService.retrieveAll().size());
+        SmsDeliveryRecord record = smsDeliveryRecordDataService.findByMessageId("it-1");
+        assertEquals(DeliveryStatus.DeliveredToTerminal, record.getStatus());
+    }
+
+    @Test
+    public void testSmsStatusInvalid() throws IOException, InterruptedException {
+
+        HttpPost request = createSmsStatusRequest(
+                "[{\"messageId\":\"it-3\",\"callingNumber\":1234567890,\"deliveryStatus\":\"Lost\"}]");
+        assertTrue(SimpleHttpClient.execHttpRequest(request, HttpStatus.SC_BAD_REQUEST, RequestBuilder.ADMIN_USERNAME, RequestBuilder.ADMIN_PASSWORD));
+    }
 }
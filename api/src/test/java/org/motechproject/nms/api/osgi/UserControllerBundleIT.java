@@ -11,6 +11,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.motechproject.nms.api.web.contract.BadRequest;
 import org.motechproject.nms.api.web.contract.FlwUserResponse;
+import org.motechproject.nms.api.web.contract.UserBatchRequest;
 import org.motechproject.nms.api.web.contract.UserLanguageRequest;
 import org.motechproject.nms.api.web.contract.kilkari.KilkariUserResponse;
 import org.motechproject.nms.flw.domain.FrontLineWorker;
@@ -36,6 +37,7 @@ import org.motechproject.nms.language.repository.LanguageDataService;
 import org.motechproject.nms.location.domain.District;
 import org.motechproject.nms.location.domain.State;
 import org.motechproject.nms.location.repository.StateDataService;
+import org.motechproject.nms.location.service.LocationService;
 import org.motechproject.testing.osgi.BasePaxIT;
 import org.motechproject.testing.osgi.container.MotechNativeTestContainerFactory;
 import org.motechproject.testing.osgi.http.SimpleHttpClient;
@@ -101,6 +103,9 @@ public class UserControllerBundleIT extends BasePaxIT {
     @Inject
     private StateDataService stateDataService;
 
+    @Inject
+    private LocationService locationService;
+
     @Inject
     private WhitelistEntryDataService whitelistEntryDataService;
 
@@ -275,13 +280,20 @@ public class UserControllerBundleIT extends BasePaxIT {
     private void createFlwWithLanguageLocationCodeNotInWhitelist() {
         cleanAllData();
 
-        // Currently the code to get a state from a languageLocationCode is stubbed out.
-        // llc 34 returns the state "Whitelist".  There is a todo tracking this.
+        // The FLW has no district, their state is the one of the districts served in their language
         Language language = new Language("Language From Whitelisted State", "34");
         languageDataService.create(language);
 
+        District district = new District();
+        district.setName("9");
+        district.setRegionalName("9");
+        district.setCode(9l);
+        district.setLanguage(language);
+
         State whitelist = new State("Whitelist", 1l);
+        whitelist.getDistricts().add(district);
         stateDataService.create(whitelist);
+        locationService.refreshLanguageStates();
 
         WhitelistEntry entry = new WhitelistEntry(0000000000l, whitelist);
         whitelistEntryDataService.create(entry);
@@ -341,6 +353,16 @@ public class UserControllerBundleIT extends BasePaxIT {
         return httpPost;
     }
 
+    private HttpPost createHttpPost(String service, UserBatchRequest request) throws IOException {
+        HttpPost httpPost = new HttpPost(String.format("http://localhost:%d/api/%s/users",
+                TestContext.getJettyPort(), service));
+        ObjectMapper mapper = new ObjectMapper();
+        StringEntity params = new StringEntity(mapper.writeValueAsString(request));
+        httpPost.setEntity(params);
+        httpPost.addHeader("content-type", "application/json");
+        return httpPost;
+    }
+
     private String createKilkariUserResponseJson(String defaultLanguageLocationCode, String locationCode,
                                                  Set<String> subscriptionPackList) throws IOException {
         KilkariUserResponse kilkariUserResponse = new KilkariUserResponse();
@@ -852,4 +874,68 @@ public class UserControllerBundleIT extends BasePaxIT {
         assertNotNull(language);
         assertEquals("FLW Language Code", "99", language.getCode());
     }
+
+    @Test
+    public void testKilkariUserBatchRequest() throws IOException, InterruptedException {
+        createKilkariTestData();
+
+        HttpPost httpPost = createHttpPost("kilkari", new UserBatchRequest(
+                Arrays.asList(1000000000L, 9999999999L), "OP", "AA"));
+
+        String expectedJsonResponse = String.format(
+                "{\"users\":[{\"callingNumber\":1000000000,\"user\":%s},{\"callingNumber\":9999999999,\"user\":%s}]}",
+                createKilkariUserResponseJson("50", "50", new HashSet<>(Arrays.asList("pack1"))),
+                createKilkariUserResponseJson("50", null, new HashSet<String>()));
+
+        assertTrue(SimpleHttpClient.execHttpRequest(httpPost, expectedJsonResponse, ADMIN_USERNAME, ADMIN_PASSWORD));
+    }
+
+    @Test
+    public void testFlwUserBatchRequest() throws IOException, InterruptedException {
+        createFlwWithLanguageFullUsageOfBothServiceUncapped();
+
+        HttpPost httpPost = createHttpPost("mobilekunji", new UserBatchRequest(
+                Arrays.asList(1111111111L, 9999999999L), "OP", "AA"));
+
+        String expectedJsonResponse = String.format(
+                "{\"users\":[{\"callingNumber\":1111111111,\"user\":%s},{\"callingNumber\":9999999999,\"user\":%s}]}",
+                createFlwUserResponseJson("99", "10", 1L, 1L, true, 10, 2),
+                createFlwUserResponseJson("99", null, 0L, 0L, false, 10, 2));
+
+        assertTrue(SimpleHttpClient.execHttpRequest(httpPost, expectedJsonResponse, ADMIN_USERNAME, ADMIN_PASSWORD));
+    }
+
+    @Test
+    public void testUserBatchRequestInvalidCallingNumber() throws IOException, InterruptedException {
+        HttpPost httpPost = createHttpPost("mobilekunji", new UserBatchRequest(
+                Arrays.asList(1111111111L, 123L), "OP", "AA"));
+
+        String expectedJsonResponse = createFailureResponseJson("<callingNumbers: Invalid>");
+
+        assertTrue(SimpleHttpClient.execHttpRequest(httpPost, HttpStatus.SC_BAD_REQUEST, expectedJsonResponse,
+                ADMIN_USERNAME, ADMIN_PASSWORD));
+    }
+
+    @Test
+    public void testUserBatchRequestMissingCallingNumberEntry() throws IOException, InterruptedException {
+        HttpPost httpPost = createHttpPost("mobilekunji", new UserBatchRequest(
+                Arrays.asList(123L, null, 1111111111L, 456L), "OP", "AA"));
+
+        String expectedJsonResponse = createFailureResponseJson(
+                "<callingNumbers: Invalid><callingNumbers: Not Present>");
+
+        assertTrue(SimpleHttpClient.execHttpRequest(httpPost, HttpStatus.SC_BAD_REQUEST, expectedJsonResponse,
+                ADMIN_USERNAME, ADMIN_PASSWORD));
+    }
+
+    @Test
+    public void testUserBatchRequestNoOperatorOrCircle() throws IOException, InterruptedException {
+        HttpPost httpPost = createHttpPost("mobilekunji", new UserBatchRequest(
+                Arrays.asList(1111111111L), null, null));
+
+        String expectedJsonResponse = createFailureResponseJson("<operator: Not Present><circle: Not Present>");
+
+        assertTrue(SimpleHttpClient.execHttpRequest(httpPost, HttpStatus.SC_BAD_REQUEST, expectedJsonResponse,
+                ADMIN_USERNAME, ADMIN_PASSWORD));
+    }
 }
@@ -0,0 +1,162 @@
+package org.motechproject.nms.api.ut;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.motechproject.nms.api.web.AdmissionControlInterceptor;
+import org.motechproject.nms.api.web.BaseController;
+import org.motechproject.nms.api.web.StatsController;
+import org.motechproject.nms.api.web.exception.ServiceUnavailableException;
+import org.motechproject.server.config.SettingsFacade;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.method.HandlerMethod;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/**
+ * Unit tests for the admission control interceptor
+ */
+public class AdmissionControlInterceptorUnitTest {
+
+    private static final int MAX_CONCURRENT_READS = 2;
+    private static final int MAX_CONCURRENT_WRITES = 1;
+
+    private AdmissionControlInterceptor admissionControlInterceptor;
+
+    private HandlerMethod handler;
+
+    @Mock
+    private SettingsFacade settingsFacade;
+
+    @Before
+    public void setup() throws NoSuchMethodException {
+        initMocks(this);
+        when(settingsFacade.getProperty("api.max_concurrent_reads")).thenReturn(String.valueOf(MAX_CONCURRENT_READS));
+        when(settingsFacade.getProperty("api.read_queue_ms")).thenReturn("10");
+        when(settingsFacade.getProperty("api.max_concurrent_writes")).thenReturn(String.valueOf(MAX_CONCURRENT_WRITES));
+        when(settingsFacade.getProperty("api.write_queue_ms")).thenReturn("10");
+
+        admissionControlInterceptor = new AdmissionControlInterceptor(settingsFacade);
+        handler = new HandlerMethod(new Object(), Object.class.getMethod("toString"));
+    }
+
+    private MockHttpServletRequest admit(String method) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/api/kilkari/user");
+        assertTrue(admissionControlInterceptor.preHandle(request, new MockHttpServletResponse(), handler));
+        return request;
+    }
+
+    private void complete(MockHttpServletRequest request, Exception ex) {
+        admissionControlInterceptor.afterCompletion(request, new MockHttpServletResponse(), handler, ex);
+    }
+
+    private void assertShed(String method, String endpointClass) {
+        try {
+            admit(method);
+            fail("Expected the request to be turned away");
+        } catch (ServiceUnavailableException e) {
+            assertEquals(String.format("<%s: Busy>", endpointClass), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testPermitExhaustionRejected() throws NoSuchMethodException {
+        for (int i = 0; i < MAX_CONCURRENT_READS; i++) {
+            admit("GET");
+        }
+
+        assertShed("GET", AdmissionControlInterceptor.READS);
+        assertEquals(MAX_CONCURRENT_READS, (int) admissionControlInterceptor.getInFlightCounts().get(
+                AdmissionControlInterceptor.READS));
+        assertEquals(1L, (long) admissionControlInterceptor.getShedCounts().get(AdmissionControlInterceptor.READS));
+
+        // ...and the controllers turn that into a 503
+        ResponseStatus status = BaseController.class.getMethod("handleException", ServiceUnavailableException.class)
+                .getAnnotation(ResponseStatus.class);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, status.value());
+    }
+
+    @Test
+    public void testReadsAndWritesAdmittedSeparately() {
+        for (int i = 0; i < MAX_CONCURRENT_READS; i++) {
+            admit("GET");
+        }
+
+        // Reads being exhausted doesn't hold up writes, and the other way round
+        MockHttpServletRequest write = admit("POST");
+        assertShed("DELETE", AdmissionControlInterceptor.WRITES);
+        assertShed("GET", AdmissionControlInterceptor.READS);
+
+        complete(write, null);
+        admit("DELETE");
+    }
+
+    @Test
+    public void testPermitReleasedAfterCompletion() {
+        MockHttpServletRequest request = admit("POST");
+        assertShed("POST", AdmissionControlInterceptor.WRITES);
+
+        complete(request, null);
+
+        assertEquals(0, (int) admissionControlInterceptor.getInFlightCounts().get(AdmissionControlInterceptor.WRITES));
+        admit("POST");
+    }
+
+    @Test
+    public void testPermitReleasedAfterException() {
+        MockHttpServletRequest request = admit("POST");
+
+        complete(request, new IllegalArgumentException("<callingNumber: Invalid>"));
+
+        assertEquals(0, (int) admissionControlInterceptor.getInFlightCounts().get(AdmissionControlInterceptor.WRITES));
+        admit("POST");
+    }
+
+    @Test
+    public void testPermitReleasedOnlyOnce() {
+        MockHttpServletRequest request = admit("POST");
+
+        complete(request, null);
+        complete(request, null);
+
+        // A second completion mustn't hand out a permit nobody gave back
+        admit("POST");
+        assertShed("POST", AdmissionControlInterceptor.WRITES);
+    }
+
+    @Test
+    public void testRejectedRequestHoldsNoPermit() {
+        MockHttpServletRequest admitted = admit("POST");
+
+        MockHttpServletRequest rejected = new MockHttpServletRequest("POST", "/api/kilkari/inboxCallDetails");
+        try {
+            admissionControlInterceptor.preHandle(rejected, new MockHttpServletResponse(), handler);
+            fail("Expected the request to be turned away");
+        } catch (ServiceUnavailableException e) {
+            // Even if afterCompletion is called for it, it has no permit to give back
+            complete(rejected, e);
+        }
+
+        assertEquals(1, (int) admissionControlInterceptor.getInFlightCounts().get(AdmissionControlInterceptor.WRITES));
+        complete(admitted, null);
+        assertEquals(0, (int) admissionControlInterceptor.getInFlightCounts().get(AdmissionControlInterceptor.WRITES));
+    }
+
+    @Test
+    public void testStatsAlwaysAdmitted() throws NoSuchMethodException {
+        for (int i = 0; i < MAX_CONCURRENT_READS; i++) {
+            admit("GET");
+        }
+
+        HandlerMethod stats = new HandlerMethod(new StatsController(), StatsController.class.getMethod("getStats"));
+        assertTrue(admissionControlInterceptor.preHandle(new MockHttpServletRequest("GET", "/api/stats"),
+                new MockHttpServletResponse(), stats));
+    }
+}
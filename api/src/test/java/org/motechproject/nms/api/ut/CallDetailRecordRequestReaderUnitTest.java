@@ -0,0 +1,137 @@
+package org.motechproject.nms.api.ut;
+
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonProcessingException;
+import org.junit.Before;
+import org.junit.Test;
+import org.motechproject.nms.api.web.CallDetailRecordRequestReader;
+import org.motechproject.nms.api.web.contract.CallContentRequest;
+import org.motechproject.nms.api.web.contract.CallDetailRecordRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the streaming callDetails request reader
+ */
+public class CallDetailRecordRequestReaderUnitTest {
+
+    private static final String FIELDS = "\"callingNumber\": 9810320300, \"callId\": 234000011111111, " +
+            "\"operator\": \"A\", \"circle\": \"AP\"";
+
+    private static final String CONTENT = "\"content\": [" +
+            "{\"contentName\": \"YellowFever\", \"contentFileName\": \"Yellowfever.wav\", " +
+            "\"startTime\": 1200000000}, " +
+            "{\"contentName\": \"Malaria\", \"contentFileName\": \"Malaria.wav\", \"startTime\": 1200000060}]";
+
+    private List<CallContentRequest> contents;
+
+    private CallDetailRecordRequestReader.ContentHandler contentHandler;
+
+    @Before
+    public void setup() {
+        contents = new ArrayList<>();
+        contentHandler = new CallDetailRecordRequestReader.ContentHandler() {
+            @Override
+            public void handle(CallContentRequest callContentRequest) {
+                contents.add(callContentRequest);
+            }
+        };
+    }
+
+    private CallDetailRecordRequest read(String json) throws IOException {
+        return CallDetailRecordRequestReader.read(new ByteArrayInputStream(json.getBytes(Charset.forName("UTF-8"))),
+                contentHandler);
+    }
+
+    private void assertFields(CallDetailRecordRequest request) {
+        assertEquals(9810320300L, (long) request.getCallingNumber());
+        assertEquals(234000011111111L, (long) request.getCallId());
+        assertEquals("A", request.getOperator());
+        assertEquals("AP", request.getCircle());
+
+        // The content only ever goes to the handler
+        assertNull(request.getContent());
+    }
+
+    private void assertContents() {
+        assertEquals(2, contents.size());
+        assertEquals("YellowFever", contents.get(0).getContentName());
+        assertEquals("Malaria", contents.get(1).getContentName());
+        assertEquals(1200000060L, (long) contents.get(1).getStartTime());
+    }
+
+    @Test
+    public void testContentAfterFields() throws IOException {
+        assertFields(read("{" + FIELDS + ", " + CONTENT + "}"));
+        assertContents();
+    }
+
+    @Test
+    public void testContentBeforeFields() throws IOException {
+        assertFields(read("{" + CONTENT + ", " + FIELDS + "}"));
+        assertContents();
+    }
+
+    @Test
+    public void testContentBetweenFields() throws IOException {
+        assertFields(read("{\"callingNumber\": 9810320300, \"callId\": 234000011111111, " + CONTENT +
+                ", \"operator\": \"A\", \"circle\": \"AP\"}"));
+        assertContents();
+    }
+
+    @Test
+    public void testEmptyContent() throws IOException {
+        assertFields(read("{" + FIELDS + ", \"content\": []}"));
+        assertTrue(contents.isEmpty());
+    }
+
+    @Test
+    public void testNullContent() throws IOException {
+        assertFields(read("{" + FIELDS + ", \"content\": null}"));
+        assertTrue(contents.isEmpty());
+    }
+
+    @Test
+    public void testNoContent() throws IOException {
+        assertFields(read("{" + FIELDS + "}"));
+        assertTrue(contents.isEmpty());
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void testUnknownField() throws IOException {
+        read("{" + FIELDS + ", \"unknownField\": 1, " + CONTENT + "}");
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void testUnknownContentField() throws IOException {
+        read("{" + FIELDS + ", \"content\": [{\"contentName\": \"YellowFever\", \"unknownField\": 1}]}");
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testNotAnObject() throws IOException {
+        read("[" + FIELDS + "]");
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testTruncated() throws IOException {
+        read("{" + FIELDS + ", \"content\": [{\"contentName\": \"YellowFever\"}");
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testMalformed() throws IOException {
+        read("{" + FIELDS + ", \"content\": [{\"contentName\": YellowFever}]}");
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testEmptyBody() throws IOException {
+        read("");
+    }
+}
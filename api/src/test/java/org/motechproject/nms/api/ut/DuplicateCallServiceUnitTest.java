@@ -0,0 +1,101 @@
+package org.motechproject.nms.api.ut;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.motechproject.nms.api.domain.ProcessedCall;
+import org.motechproject.nms.api.repository.ProcessedCallDataService;
+import org.motechproject.nms.api.service.impl.DuplicateCallServiceImpl;
+import org.motechproject.scheduler.service.MotechSchedulerService;
+import org.motechproject.server.config.SettingsFacade;
+import org.springframework.transaction.support.TransactionCallback;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/**
+ * Unit tests for the duplicate call service
+ */
+public class DuplicateCallServiceUnitTest {
+
+    private static final String SERVICE = "mobilekunji/callDetails";
+
+    private DuplicateCallServiceImpl duplicateCallService;
+
+    @Mock
+    private SettingsFacade settingsFacade;
+
+    @Mock
+    private MotechSchedulerService schedulerService;
+
+    @Mock
+    private ProcessedCallDataService processedCallDataService;
+
+    // Holds up the writes until counted down
+    private volatile CountDownLatch writes = new CountDownLatch(0);
+
+    @Before
+    public void setup() {
+        initMocks(this);
+        when(settingsFacade.getProperty("api.processed_call_purge_time")).thenReturn("1:30");
+        when(processedCallDataService.doInTransaction(any(TransactionCallback.class))).thenAnswer(
+                new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) throws InterruptedException {
+                        writes.await();
+                        return ((TransactionCallback) invocation.getArguments()[0]).doInTransaction(null);
+                    }
+                });
+        duplicateCallService = new DuplicateCallServiceImpl(settingsFacade, schedulerService,
+                processedCallDataService);
+    }
+
+    @After
+    public void tearDown() {
+        writes.countDown();
+        duplicateCallService.stop();
+    }
+
+    @Test
+    public void testQueuedClaimRejectsRetry() {
+        writes = new CountDownLatch(1);
+        duplicateCallService.start();
+
+        assertTrue(duplicateCallService.claim(SERVICE, 9810320300L, 234000011111111L));
+        assertFalse(duplicateCallService.claim(SERVICE, 9810320300L, 234000011111111L));
+
+        // The retry was recognised from the claim still being written, without reading the database
+        verify(processedCallDataService, never()).findByServiceCallingNumberAndCallId(anyString(), anyLong(),
+                anyLong());
+
+        writes.countDown();
+        duplicateCallService.flush();
+        verify(processedCallDataService, times(1)).create(any(ProcessedCall.class));
+    }
+
+    @Test
+    public void testClaimForgottenWhenNotWritten() {
+        doThrow(new IllegalStateException("Unable to connect"))
+                .when(processedCallDataService).create(any(ProcessedCall.class));
+
+        // Not started: the claim is written, and fails, on the caller's thread
+        assertTrue(duplicateCallService.claim(SERVICE, 9810320300L, 234000011111112L));
+
+        // Nothing recorded it, so the retry is processed
+        assertTrue(duplicateCallService.claim(SERVICE, 9810320300L, 234000011111112L));
+    }
+}
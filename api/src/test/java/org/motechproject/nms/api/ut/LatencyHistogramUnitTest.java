@@ -0,0 +1,58 @@
+package org.motechproject.nms.api.ut;
+
+import org.junit.Test;
+import org.motechproject.nms.api.service.impl.LatencyHistogram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the latency histogram
+ */
+public class LatencyHistogramUnitTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(50, histogram.getMean());
+    }
+
+    @Test
+    public void testLargeValuesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        assertWithinPrecision(50000, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(99000, histogram.getValueAtPercentile(99));
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+        assertEquals(100000, histogram.getMax());
+    }
+
+    @Test
+    public void testValuesAboveMaxAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(LatencyHistogram.MAX_VALUE * 2);
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getValueAtPercentile(50));
+    }
+
+    private void assertWithinPrecision(long expected, long actual) {
+        assertTrue(String.format("expected ~%d, got %d", expected, actual),
+                Math.abs(actual - expected) <= expected / 64);
+    }
+}
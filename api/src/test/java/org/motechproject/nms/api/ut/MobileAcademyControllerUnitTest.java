@@ -3,12 +3,23 @@ package org.motechproject.nms.api.ut;
 import org.codehaus.jackson.map.deser.ValueInstantiators;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.motechproject.nms.api.web.BaseController;
 import org.motechproject.nms.api.web.MobileAcademyController;
 import org.motechproject.nms.api.web.contract.mobileAcademy.SaveBookmarkRequest;
+import org.motechproject.nms.mobileacademy.domain.DeliveryStatus;
+import org.motechproject.nms.mobileacademy.dto.SmsDeliveryReceipt;
 import org.motechproject.nms.mobileacademy.service.MobileAcademyService;
+import org.motechproject.nms.mobileacademy.service.SmsDeliveryStatusService;
 
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 /**
@@ -21,10 +32,13 @@ public class MobileAcademyControllerUnitTest {
     @Mock
     private MobileAcademyService mobileAcademyService;
 
+    @Mock
+    private SmsDeliveryStatusService smsDeliveryStatusService;
+
     @Before
     public void setup() {
-        mobileAcademyController = new MobileAcademyController(mobileAcademyService);
         initMocks(this);
+        mobileAcademyController = new MobileAcademyController(mobileAcademyService, smsDeliveryStatusService);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -67,4 +81,35 @@ public class MobileAcademyControllerUnitTest {
         mobileAcademyController.saveBookmarkWithScore(sb);
     }
 
+    @Test
+    public void testSmsStatusBatch() {
+        mobileAcademyController.saveSmsStatus("[" +
+                "{\"messageId\":\"m1\",\"callingNumber\":1234567890,\"deliveryStatus\":\"DeliveredToNetwork\"}," +
+                "{\"messageId\":\"m1\",\"callingNumber\":1234567890,\"deliveryStatus\":\"DeliveredToTerminal\"," +
+                "\"senderAddress\":\"NMS\"}]");
+
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(smsDeliveryStatusService).enqueue(captor.capture());
+        assertEquals(2, captor.getValue().size());
+        assertEquals(DeliveryStatus.DeliveredToTerminal, ((SmsDeliveryReceipt) captor.getValue().get(1)).getStatus());
+    }
+
+    @Test
+    public void testSmsStatusInvalidReceiptRejectsBatch() {
+        try {
+            mobileAcademyController.saveSmsStatus("[" +
+                    "{\"messageId\":\"m1\",\"callingNumber\":1234567890,\"deliveryStatus\":\"Delivered\"}," +
+                    "{\"messageId\":\"m2\",\"deliveryStatus\":\"DeliveredToTerminal\"}]");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("<deliveryStatus: Invalid><callingNumber: Not Present>", e.getMessage());
+        }
+        verify(smsDeliveryStatusService, never()).enqueue(anyList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetBookmarkMinCallingNumber() {
+        mobileAcademyController.getBookmarkWithScore(999999999L, BaseController.SMALLEST_15_DIGIT_NUMBER);
+    }
+
 }
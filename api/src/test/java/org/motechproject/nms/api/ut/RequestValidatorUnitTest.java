@@ -0,0 +1,66 @@
+package org.motechproject.nms.api.ut;
+
+import org.junit.Test;
+import org.motechproject.nms.api.web.contract.CallContentRequest;
+import org.motechproject.nms.api.web.contract.kilkari.SubscriptionRequest;
+import org.motechproject.nms.api.web.validation.Check;
+import org.motechproject.nms.api.web.validation.RequestValidator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for the annotation driven request validation
+ */
+public class RequestValidatorUnitTest {
+
+    private SubscriptionRequest createSubscriptionRequest() {
+        SubscriptionRequest request = new SubscriptionRequest();
+        request.setCallingNumber(Check.SMALLEST_10_DIGIT_NUMBER);
+        request.setCallId(Check.SMALLEST_15_DIGIT_NUMBER);
+        request.setOperator("A");
+        request.setCircle("AP");
+        request.setSubscriptionPack("48WeeksPack");
+        request.setLanguageLocationCode("10");
+        return request;
+    }
+
+    @Test
+    public void testValidRequest() {
+        assertNull(RequestValidator.validate(createSubscriptionRequest(), SubscriptionRequest.CREATE));
+    }
+
+    @Test
+    public void testFailuresInFieldOrder() {
+        SubscriptionRequest request = createSubscriptionRequest();
+        request.setCallingNumber(Check.LARGEST_10_DIGIT_NUMBER + 1);
+        request.setCallId(null);
+
+        assertEquals("<callingNumber: Invalid><callId: Not Present>",
+                RequestValidator.validate(request, SubscriptionRequest.CREATE));
+    }
+
+    @Test
+    public void testGroups() {
+        SubscriptionRequest request = createSubscriptionRequest();
+
+        // subscriptionId is only required to deactivate, subscriptionPack and languageLocationCode only to create
+        assertEquals("<subscriptionId: Not Present>",
+                RequestValidator.validate(request, SubscriptionRequest.DEACTIVATE));
+
+        request.setSubscriptionPack(null);
+        assertEquals("<subscriptionPack: Not Present>",
+                RequestValidator.validate(request, SubscriptionRequest.CREATE));
+        assertNull(RequestValidator.validate(request));
+    }
+
+    @Test
+    public void testFieldName() {
+        CallContentRequest request = new CallContentRequest();
+        request.setContentName("Chapter-01");
+        request.setStartTime(1L);
+        request.setEndTime(2L);
+
+        assertEquals("<contentFile: Not Present>", RequestValidator.validate(request));
+    }
+}
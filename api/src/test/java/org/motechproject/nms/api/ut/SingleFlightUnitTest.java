@@ -0,0 +1,191 @@
+package org.motechproject.nms.api.ut;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.motechproject.nms.api.web.SingleFlight;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for SingleFlight
+ */
+public class SingleFlightUnitTest {
+
+    private static final int CALLERS = 8;
+    private static final long WAIT_MS = 5000;
+
+    private SingleFlight<String, Object> singleFlight;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        singleFlight = new SingleFlight<>();
+        executor = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Counts its loads, which block until released
+     */
+    private static class BlockingLoad implements Callable<Object> {
+
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger loads = new AtomicInteger();
+        private final RuntimeException failure;
+
+        BlockingLoad(RuntimeException failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public Object call() throws InterruptedException {
+            loads.incrementAndGet();
+            release.await();
+            if (failure != null) {
+                throw failure;
+            }
+            return new Object();
+        }
+    }
+
+    private List<Future<Object>> callConcurrently(final String key, final Callable<Object> load)
+            throws InterruptedException {
+        List<Future<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return singleFlight.execute(key, load);
+                }
+            }));
+        }
+
+        // Wait for every caller but the first one to join its load
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (singleFlight.getCoalesced() < CALLERS - 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(CALLERS - 1, singleFlight.getCoalesced());
+
+        return futures;
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneLoad() throws Exception {
+        BlockingLoad load = new BlockingLoad(null);
+        List<Future<Object>> futures = callConcurrently("key", load);
+        load.release.countDown();
+
+        Object result = futures.get(0).get(WAIT_MS, TimeUnit.MILLISECONDS);
+        for (Future<Object> future : futures) {
+            assertSame(result, future.get(WAIT_MS, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(1, load.loads.get());
+        assertEquals(CALLERS, singleFlight.getCalls());
+    }
+
+    @Test
+    public void testExceptionPropagatedToAllWaiters() throws Exception {
+        IllegalStateException failure = new IllegalStateException("Unable to load");
+        BlockingLoad load = new BlockingLoad(failure);
+        List<Future<Object>> futures = callConcurrently("key", load);
+        load.release.countDown();
+
+        for (Future<Object> future : futures) {
+            try {
+                future.get(WAIT_MS, TimeUnit.MILLISECONDS);
+                fail("Expected the load's exception");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        assertEquals(1, load.loads.get());
+    }
+
+    @Test
+    public void testKeyReleasedAfterCompletion() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        Callable<Object> load = new Callable<Object>() {
+            @Override
+            public Object call() {
+                return loads.incrementAndGet();
+            }
+        };
+
+        assertEquals(1, singleFlight.execute("key", load));
+        assertEquals(2, singleFlight.execute("key", load));
+        assertEquals(0, singleFlight.getCoalesced());
+    }
+
+    @Test
+    public void testKeyReleasedAfterFailure() {
+        final AtomicInteger loads = new AtomicInteger();
+        Callable<Object> load = new Callable<Object>() {
+            @Override
+            public Object call() {
+                if (loads.incrementAndGet() == 1) {
+                    throw new IllegalStateException("Unable to load");
+                }
+                return loads.get();
+            }
+        };
+
+        try {
+            singleFlight.execute("key", load);
+            fail("Expected the load's exception");
+        } catch (IllegalStateException e) {
+            assertEquals("Unable to load", e.getMessage());
+        }
+
+        // The failure isn't remembered: the next caller loads again
+        assertEquals(2, singleFlight.execute("key", load));
+    }
+
+    @Test
+    public void testDifferentKeysLoadSeparately() throws Exception {
+        final BlockingLoad load = new BlockingLoad(null);
+        Future<Object> first = executor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return singleFlight.execute("first", load);
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (load.loads.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Another key isn't held up by the first key's load
+        assertEquals("other", singleFlight.execute("second", new Callable<Object>() {
+            @Override
+            public Object call() {
+                return "other";
+            }
+        }));
+        assertFalse(first.isDone());
+
+        load.release.countDown();
+        first.get(WAIT_MS, TimeUnit.MILLISECONDS);
+        assertEquals(0, singleFlight.getCoalesced());
+    }
+}
@@ -0,0 +1,35 @@
+package org.motechproject.nms.flw.service;
+
+import org.motechproject.nms.flw.domain.CallDetailRecord;
+
+/**
+ * Write-behind queue for MA/MK call detail records. Records handed to the queue are persisted, together with their
+ * {@link org.motechproject.nms.flw.domain.CallContent}, by a background writer in multi-row batches so the IVR
+ * request doesn't have to wait on the insert.
+ */
+public interface CallDetailRecordQueueService {
+
+    /**
+     * Sent when a queued record couldn't be written, with its service, callingNumber and callId, so that whoever
+     * accepted the request can let the IVR's retry of it through
+     */
+    String CALL_DETAIL_RECORD_FAILED_EVENT = "nms.flw.call_detail_record_failed";
+
+    /**
+     * Queue a call detail record (and the content attached to it) for writing. If the queue is full the record is
+     * written on the caller's thread instead, which slows producers down rather than dropping data.
+     *
+     * @param callDetailRecord the record to persist, with its content set
+     */
+    void enqueue(CallDetailRecord callDetailRecord);
+
+    /**
+     * Synchronously write everything currently queued, including any batch the background writer is busy with.
+     */
+    void flush();
+
+    /**
+     * @return the number of records waiting to be written
+     */
+    int getQueueDepth();
+}
@@ -2,6 +2,7 @@ package org.motechproject.nms.flw.service;
 
 import org.motechproject.nms.flw.domain.FrontLineWorker;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -13,6 +14,14 @@ public interface FrontLineWorkerService {
 
     FrontLineWorker getByContactNumber(Long contactNumber);
 
+    /**
+     * Set-based alternative to {@link #getByContactNumber(Long)}: fetches all the given workers in one query.
+     *
+     * @param contactNumbers the contact numbers to look up
+     * @return the workers found, in no particular order; numbers without a worker are simply left out
+     */
+    List<FrontLineWorker> getByContactNumbers(Collection<Long> contactNumbers);
+
     List<FrontLineWorker> getRecords();
 
     void update(FrontLineWorker record);
@@ -4,7 +4,9 @@ import org.motechproject.nms.flw.domain.FrontLineWorker;
 import org.motechproject.nms.flw.domain.Service;
 import org.motechproject.nms.flw.domain.ServiceUsage;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -15,6 +17,17 @@ public interface ServiceUsageService {
 
     ServiceUsage getCurrentMonthlyUsageForFLWAndService(final FrontLineWorker frontLineWorker, final Service service);
 
+    /**
+     * Set-based alternative to {@link #getCurrentMonthlyUsageForFLWAndService(FrontLineWorker, Service)}: the usage
+     * of all the given workers is summed by the database in a single grouped query.
+     *
+     * @param frontLineWorkers the workers to get the usage for
+     * @param service the service to get the usage for
+     * @return the aggregated usage keyed by contact number; workers without usage this month are left out
+     */
+    Map<Long, ServiceUsage> getCurrentMonthlyUsageForFLWsAndService(final Collection<FrontLineWorker> frontLineWorkers,
+                                                                    final Service service);
+
     List<ServiceUsage> getRecords();
 
     void update(ServiceUsage record);
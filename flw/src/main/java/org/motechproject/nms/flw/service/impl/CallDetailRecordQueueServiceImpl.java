@@ -0,0 +1,72 @@
+package org.motechproject.nms.flw.service.impl;
+
+import org.motechproject.event.MotechEvent;
+import org.motechproject.event.listener.EventRelay;
+import org.motechproject.nms.flw.domain.CallDetailRecord;
+import org.motechproject.nms.flw.repository.CallDetailRecordDataService;
+import org.motechproject.nms.flw.service.CallDetailRecordQueueService;
+import org.motechproject.nms.props.queue.WriteBehindQueueService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write-behind queue of call detail records. Whatever is queued is written in batches of up to MAX_BATCH_SIZE
+ * records, each in one transaction; a CDR's content is persisted along with it by reachability. A record which can't
+ * be written is reported with a CALL_DETAIL_RECORD_FAILED_EVENT.
+ */
+@Service("callDetailRecordQueueService")
+public class CallDetailRecordQueueServiceImpl extends WriteBehindQueueService<CallDetailRecord>
+        implements CallDetailRecordQueueService {
+
+    public static final int QUEUE_CAPACITY = 10000;
+    public static final int MAX_BATCH_SIZE = 500;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CallDetailRecordQueueServiceImpl.class);
+
+    private CallDetailRecordDataService callDetailRecordDataService;
+    private EventRelay eventRelay;
+
+    @Autowired
+    public CallDetailRecordQueueServiceImpl(CallDetailRecordDataService callDetailRecordDataService,
+                                            EventRelay eventRelay) {
+        super("cdr", QUEUE_CAPACITY, MAX_BATCH_SIZE, 0);
+        this.callDetailRecordDataService = callDetailRecordDataService;
+        this.eventRelay = eventRelay;
+    }
+
+    @Override
+    public void enqueue(CallDetailRecord callDetailRecord) {
+        getQueue().enqueue(callDetailRecord);
+    }
+
+    @Override
+    public void write(final List<CallDetailRecord> batch) {
+        callDetailRecordDataService.doInTransaction(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                for (CallDetailRecord record : batch) {
+                    callDetailRecordDataService.create(record);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void failed(CallDetailRecord record, RuntimeException e) {
+        LOGGER.error("Unable to write call detail record for callId {}", record.getCallId(), e);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("service", record.getService() == null ? null : record.getService().name());
+        params.put("callingNumber", record.getCallingNumber());
+        params.put("callId", record.getCallId());
+        eventRelay.sendEventMessage(new MotechEvent(CALL_DETAIL_RECORD_FAILED_EVENT, params));
+    }
+}
@@ -1,11 +1,16 @@
 package org.motechproject.nms.flw.service.impl;
 
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
 import org.motechproject.nms.flw.domain.FrontLineWorker;
 import org.motechproject.nms.flw.repository.FrontLineWorkerDataService;
 import org.motechproject.nms.flw.service.FrontLineWorkerService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.jdo.Query;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -30,6 +35,27 @@ public class FrontLineWorkerServiceImpl implements FrontLineWorkerService {
         return frontLineWorkerDataService.findByContactNumber(contactNumber);
     }
 
+    @Override
+    public List<FrontLineWorker> getByContactNumbers(final Collection<Long> contactNumbers) {
+        if (contactNumbers.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<FrontLineWorker>> queryExecution = new QueryExecution<List<FrontLineWorker>>() {
+            @Override
+            public List<FrontLineWorker> execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("numbers.contains(contactNumber)");
+                query.declareParameters("java.util.Collection numbers");
+
+                return (List<FrontLineWorker>) query.execute(contactNumbers);
+            }
+        };
+
+        return frontLineWorkerDataService.executeQuery(queryExecution);
+    }
+
     @Override
     public List<FrontLineWorker> getRecords() {
         return frontLineWorkerDataService.retrieveAll();
@@ -11,7 +11,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.jdo.Query;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Simple implementation of the {@link org.motechproject.nms.flw.service.FrontLineWorkerService} interface.
@@ -60,6 +63,44 @@ public class ServiceUsageServiceImpl implements ServiceUsageService {
         return serviceUsage;
     }
 
+    @Override
+    public Map<Long, ServiceUsage> getCurrentMonthlyUsageForFLWsAndService(final Collection<FrontLineWorker> frontLineWorkers, final org.motechproject.nms.flw.domain.Service service) {
+        Map<Long, ServiceUsage> usage = new HashMap<>();
+        if (frontLineWorkers.isEmpty()) {
+            return usage;
+        }
+
+        // One row per worker: contact number followed by the sums of pulses, end of usage prompts and welcome prompts
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<Object[]>> queryExecution = new QueryExecution<List<Object[]>>() {
+            @Override
+            public List<Object[]> execute(Query query, InstanceSecurityRestriction restriction) {
+                DateTime monthStart = DateTime.now().withDayOfMonth(1).withTimeAtStartOfDay();
+
+                query.setFilter("flws.contains(frontLineWorker) && service == flw_service && timestamp >= monthStart");
+                query.declareParameters("java.util.Collection flws, org.joda.time.DateTime monthStart, org.motechproject.nms.flw.domain.Service flw_service");
+                query.setResult("frontLineWorker.contactNumber, sum(usageInPulses), sum(endOfUsage), sum(welcomePrompt)");
+                query.setGrouping("frontLineWorker.contactNumber");
+
+                return (List<Object[]>) query.execute(frontLineWorkers, monthStart, service);
+            }
+        };
+
+        Map<Long, FrontLineWorker> flwsByNumber = new HashMap<>();
+        for (FrontLineWorker flw : frontLineWorkers) {
+            flwsByNumber.put(flw.getContactNumber(), flw);
+        }
+
+        for (Object[] row : serviceUsageDataService.executeQuery(queryExecution)) {
+            Long contactNumber = (Long) row[0];
+            usage.put(contactNumber, new ServiceUsage(flwsByNumber.get(contactNumber), service,
+                    ((Number) row[1]).intValue(), ((Number) row[2]).intValue(), ((Number) row[3]).intValue(),
+                    DateTime.now()));
+        }
+
+        return usage;
+    }
+
     @Override
     public List<ServiceUsage> getRecords() {
         return serviceUsageDataService.retrieveAll();
@@ -51,17 +51,17 @@ public class WhitelistServiceImpl implements WhitelistService {
             return true;
         }
 
-        // Find a state cap by providing a state
+        // Find a state cap by providing a state, by id as the state needn't be attached to the database
         QueryExecution<Long> stateQueryExecution = new QueryExecution<Long>() {
             @Override
             public Long execute(Query query, InstanceSecurityRestriction restriction) {
 
-                query.setFilter("state == flw_state && contactNumber == flw_number");
-                query.declareParameters("org.motechproject.nms.location.domain.State flw_state, Long flw_number");
+                query.setFilter("state.id == flw_state_id && contactNumber == flw_number");
+                query.declareParameters("Long flw_state_id, Long flw_number");
                 query.setResult("count(contactNumber)");
                 query.setUnique(true);
 
-                return (Long) query.execute(state, contactNumber);
+                return (Long) query.execute(state.getId(), contactNumber);
             }
         };
 
@@ -0,0 +1,93 @@
+package org.motechproject.nms.flw.ut;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.motechproject.event.MotechEvent;
+import org.motechproject.event.listener.EventRelay;
+import org.motechproject.nms.flw.domain.CallDetailRecord;
+import org.motechproject.nms.flw.domain.Service;
+import org.motechproject.nms.flw.repository.CallDetailRecordDataService;
+import org.motechproject.nms.flw.service.CallDetailRecordQueueService;
+import org.motechproject.nms.flw.service.impl.CallDetailRecordQueueServiceImpl;
+import org.springframework.transaction.support.TransactionCallback;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/**
+ * Unit tests for the call detail record write-behind queue. Queueing itself is covered by WriteBehindQueueUnitTest,
+ * these only cover how the records are written and how failures are reported.
+ */
+public class CallDetailRecordQueueServiceUnitTest {
+
+    private CallDetailRecordQueueServiceImpl callDetailRecordQueueService;
+
+    @Mock
+    private CallDetailRecordDataService callDetailRecordDataService;
+
+    @Mock
+    private EventRelay eventRelay;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+        when(callDetailRecordDataService.doInTransaction(any(TransactionCallback.class))).thenAnswer(
+                new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) {
+                        return ((TransactionCallback) invocation.getArguments()[0]).doInTransaction(null);
+                    }
+                });
+        callDetailRecordQueueService = new CallDetailRecordQueueServiceImpl(callDetailRecordDataService, eventRelay);
+    }
+
+    private CallDetailRecord record(long callId) {
+        CallDetailRecord record = new CallDetailRecord();
+        record.setService(Service.MOBILE_KUNJI);
+        record.setCallingNumber(9810320300L);
+        record.setCallId(callId);
+        return record;
+    }
+
+    @Test
+    public void testBatchWrittenInOneTransaction() {
+        CallDetailRecord first = record(1);
+        CallDetailRecord second = record(2);
+
+        callDetailRecordQueueService.write(Arrays.asList(first, second));
+
+        verify(callDetailRecordDataService, times(1)).doInTransaction(any(TransactionCallback.class));
+        verify(callDetailRecordDataService).create(first);
+        verify(callDetailRecordDataService).create(second);
+        verify(eventRelay, never()).sendEventMessage(any(MotechEvent.class));
+    }
+
+    @Test
+    public void testFailedRecordReported() {
+        CallDetailRecord bad = record(2);
+        doThrow(new IllegalStateException("constraint violation"))
+                .when(callDetailRecordDataService).create(bad);
+
+        // Not started: written, and failed, on the caller's thread
+        callDetailRecordQueueService.enqueue(bad);
+
+        ArgumentCaptor<MotechEvent> event = ArgumentCaptor.forClass(MotechEvent.class);
+        verify(eventRelay).sendEventMessage(event.capture());
+        assertEquals(CallDetailRecordQueueService.CALL_DETAIL_RECORD_FAILED_EVENT, event.getValue().getSubject());
+        assertEquals("MOBILE_KUNJI", event.getValue().getParameters().get("service"));
+        assertEquals(9810320300L, event.getValue().getParameters().get("callingNumber"));
+        assertEquals(2L, event.getValue().getParameters().get("callId"));
+    }
+}
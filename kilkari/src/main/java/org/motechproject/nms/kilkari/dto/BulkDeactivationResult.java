@@ -0,0 +1,59 @@
+package org.motechproject.nms.kilkari.dto;
+
+/**
+ * Outcome of a bulk deactivation: how many calling numbers or subscription ids were asked for, how many
+ * subscriptions were deactivated, in how many batches, and how long it took.
+ */
+public class BulkDeactivationResult {
+
+    private long requestedCount;
+
+    private long deactivatedCount;
+
+    private int batchCount;
+
+    private long durationMillis;
+
+    public BulkDeactivationResult(long requestedCount, long deactivatedCount, int batchCount, long durationMillis) {
+        this.requestedCount = requestedCount;
+        this.deactivatedCount = deactivatedCount;
+        this.batchCount = batchCount;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return the number of distinct calling numbers or subscription ids asked for
+     */
+    public long getRequestedCount() {
+        return requestedCount;
+    }
+
+    /**
+     * @return the number of subscriptions moved from ACTIVE or PENDING_ACTIVATION to DEACTIVATED, which can be
+     * higher than the requested count when deactivating subscribers with several subscriptions
+     */
+    public long getDeactivatedCount() {
+        return deactivatedCount;
+    }
+
+    /**
+     * @return the number of batches written, which is also the number of events published
+     */
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkDeactivationResult{" +
+                "requestedCount=" + requestedCount +
+                ", deactivatedCount=" + deactivatedCount +
+                ", batchCount=" + batchCount +
+                ", durationMillis=" + durationMillis +
+                '}';
+    }
+}
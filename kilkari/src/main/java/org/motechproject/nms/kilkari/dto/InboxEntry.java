@@ -0,0 +1,52 @@
+package org.motechproject.nms.kilkari.dto;
+
+/**
+ * One precomputed entry of a subscriber's Kilkari inbox: a message currently playable for a single active
+ * subscription, either this week's or the previous week's.
+ */
+public class InboxEntry {
+
+    private String subscriptionId;
+
+    private String subscriptionPackName;
+
+    private String weekId;
+
+    private String contentFileName;
+
+    public InboxEntry(String subscriptionId, String subscriptionPackName, String weekId, String contentFileName) {
+        this.subscriptionId = subscriptionId;
+        this.subscriptionPackName = subscriptionPackName;
+        this.weekId = weekId;
+        this.contentFileName = contentFileName;
+    }
+
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public String getSubscriptionPackName() {
+        return subscriptionPackName;
+    }
+
+    /**
+     * @return the week id in the IVR's {@code <week>_<message>} format, eg: 10_1
+     */
+    public String getWeekId() {
+        return weekId;
+    }
+
+    public String getContentFileName() {
+        return contentFileName;
+    }
+
+    @Override
+    public String toString() {
+        return "InboxEntry{" +
+                "subscriptionId='" + subscriptionId + '\'' +
+                ", subscriptionPackName='" + subscriptionPackName + '\'' +
+                ", weekId='" + weekId + '\'' +
+                ", contentFileName='" + contentFileName + '\'' +
+                '}';
+    }
+}
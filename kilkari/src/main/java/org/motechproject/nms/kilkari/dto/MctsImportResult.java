@@ -0,0 +1,61 @@
+package org.motechproject.nms.kilkari.dto;
+
+/**
+ * Outcome of a bulk MCTS beneficiary import: how many rows were read, subscribed and rejected, and how long it took.
+ * The reasons for the rejections are in the reject file.
+ */
+public class MctsImportResult {
+
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    private long rowCount;
+
+    private long importedCount;
+
+    private long rejectedCount;
+
+    private long durationMillis;
+
+    public MctsImportResult(long rowCount, long importedCount, long rejectedCount, long durationMillis) {
+        this.rowCount = rowCount;
+        this.importedCount = importedCount;
+        this.rejectedCount = rejectedCount;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return the number of data rows in the feed, not counting the header
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of subscriptions created
+     */
+    public long getImportedCount() {
+        return importedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public double getRowsPerSecond() {
+        return durationMillis == 0 ? rowCount : rowCount * MILLIS_PER_SECOND / durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "MctsImportResult{" +
+                "rowCount=" + rowCount +
+                ", importedCount=" + importedCount +
+                ", rejectedCount=" + rejectedCount +
+                ", durationMillis=" + durationMillis +
+                '}';
+    }
+}
@@ -0,0 +1,50 @@
+package org.motechproject.nms.kilkari.dto;
+
+import org.motechproject.nms.kilkari.domain.SubscriptionStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only projection of a {@link org.motechproject.nms.kilkari.domain.Subscriber}: calling number, language code
+ * and a summary of each subscription. Used by the hot IVR read paths instead of the full subscriber graph.
+ */
+public class SubscriberSummary {
+
+    private Long callingNumber;
+
+    private String languageCode;
+
+    private List<SubscriptionSummary> subscriptions;
+
+    public SubscriberSummary(Long callingNumber, String languageCode, List<SubscriptionSummary> subscriptions) {
+        this.callingNumber = callingNumber;
+        this.languageCode = languageCode;
+        this.subscriptions = subscriptions;
+    }
+
+    public Long getCallingNumber() {
+        return callingNumber;
+    }
+
+    /**
+     * @return the subscriber's language code, or null if no language was set
+     */
+    public String getLanguageCode() {
+        return languageCode;
+    }
+
+    public List<SubscriptionSummary> getSubscriptions() {
+        return subscriptions;
+    }
+
+    public List<SubscriptionSummary> getActiveSubscriptions() {
+        List<SubscriptionSummary> active = new ArrayList<>();
+        for (SubscriptionSummary subscription : subscriptions) {
+            if (subscription.getStatus() == SubscriptionStatus.ACTIVE) {
+                active.add(subscription);
+            }
+        }
+        return active;
+    }
+}
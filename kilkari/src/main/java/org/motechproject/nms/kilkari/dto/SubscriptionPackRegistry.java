@@ -0,0 +1,173 @@
+package org.motechproject.nms.kilkari.dto;
+
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.motechproject.nms.kilkari.domain.SubscriptionPack;
+import org.motechproject.nms.kilkari.domain.SubscriptionPackMessage;
+import org.motechproject.nms.kilkari.domain.SubscriptionPackType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the Kilkari subscription packs: the packs by name and by type, and each pack's message
+ * schedule, so that resolving a pack or the message it plays on a given day doesn't need the database.
+ *
+ * The packs are the instances which were loaded, detached from the database: they're shared by all the callers of
+ * the registry and must not be modified.
+ */
+public final class SubscriptionPackRegistry {
+
+    private static final int DAYS_IN_WEEK = 7;
+
+    // In a two messages a week pack, the second message replaces the first one on the fourth day of the week
+    private static final int SECOND_MESSAGE_DAY = 3;
+
+    private final Map<String, SubscriptionPack> packsByName;
+
+    private final Map<SubscriptionPackType, SubscriptionPack> packsByType;
+
+    // Message file names for each pack, indexed by [week - 1][message - 1]
+    private final Map<String, String[][]> schedules;
+
+    /**
+     * @param packs the packs to register; when several have the same type, the first one is the one of that type
+     */
+    public SubscriptionPackRegistry(Collection<SubscriptionPack> packs) {
+        Map<String, SubscriptionPack> byName = new LinkedHashMap<>();
+        Map<SubscriptionPackType, SubscriptionPack> byType = new EnumMap<>(SubscriptionPackType.class);
+        Map<String, String[][]> scheduleByName = new HashMap<>();
+        for (SubscriptionPack pack : packs) {
+            byName.put(pack.getName(), pack);
+            if (!byType.containsKey(pack.getType())) {
+                byType.put(pack.getType(), pack);
+            }
+            scheduleByName.put(pack.getName(), buildSchedule(pack.getWeeklyMessages()));
+        }
+
+        this.packsByName = Collections.unmodifiableMap(byName);
+        this.packsByType = Collections.unmodifiableMap(byType);
+        this.schedules = scheduleByName;
+    }
+
+    /**
+     * @return the pack with the given name, or null if there is none
+     */
+    public SubscriptionPack getPack(String name) {
+        return packsByName.get(name);
+    }
+
+    /**
+     * @return the first pack of the given type, or null if there is none
+     */
+    public SubscriptionPack getPack(SubscriptionPackType type) {
+        return packsByType.get(type);
+    }
+
+    public Collection<SubscriptionPack> getPacks() {
+        return packsByName.values();
+    }
+
+    /**
+     * @return the number of weeks the given pack has messages for, 0 if there is no such pack
+     */
+    public int getWeekCount(String packName) {
+        String[][] schedule = schedules.get(packName);
+        return schedule == null ? 0 : schedule.length;
+    }
+
+    /**
+     * The message a subscription plays on the given day
+     *
+     * @param subscriptionId the subscription's id, copied to the returned entry
+     * @param packName the subscription's pack
+     * @param startDate the subscription's start date, null if it doesn't have one
+     * @param day the day the message is played on
+     * @return the message, or null if the subscription has no start date, hasn't started yet, has run past the end
+     * of its pack, or there is no such pack
+     */
+    public InboxEntry getMessage(String subscriptionId, String packName, LocalDate startDate, LocalDate day) {
+        // Without a start date there's no way to tell which week the subscription is in: it plays nothing rather
+        // than the first message of the pack forever
+        if (startDate == null || startDate.isAfter(day)) {
+            return null;
+        }
+
+        String[][] schedule = schedules.get(packName);
+        if (schedule == null) {
+            return null;
+        }
+
+        int days = Days.daysBetween(startDate, day).getDays();
+        int week = days / DAYS_IN_WEEK + 1;
+        if (week > schedule.length || schedule[week - 1].length == 0) {
+            return null;
+        }
+
+        String[] weekMessages = schedule[week - 1];
+        int message = (weekMessages.length > 1 && days % DAYS_IN_WEEK >= SECOND_MESSAGE_DAY) ? 2 : 1;
+
+        return new InboxEntry(subscriptionId, packName, String.format("%d_%d", week, message),
+                weekMessages[message - 1]);
+    }
+
+    /**
+     * The last message a subscription played in the week before the given day's, which subscribers can listen to
+     * again from their inbox
+     *
+     * @param subscriptionId the subscription's id, copied to the returned entry
+     * @param packName the subscription's pack
+     * @param startDate the subscription's start date, null if it doesn't have one
+     * @param day the day the message is played on
+     * @return the message, or null if the subscription has no start date, is still in its first week, had already
+     * run past the end of its pack the week before, or there is no such pack
+     */
+    public InboxEntry getPreviousWeekMessage(String subscriptionId, String packName, LocalDate startDate,
+                                             LocalDate day) {
+        if (startDate == null || startDate.isAfter(day)) {
+            return null;
+        }
+
+        String[][] schedule = schedules.get(packName);
+        if (schedule == null) {
+            return null;
+        }
+
+        int week = Days.daysBetween(startDate, day).getDays() / DAYS_IN_WEEK;
+        if (week < 1 || week > schedule.length || schedule[week - 1].length == 0) {
+            return null;
+        }
+
+        String[] weekMessages = schedule[week - 1];
+        int message = weekMessages.length > 1 ? 2 : 1;
+
+        return new InboxEntry(subscriptionId, packName, String.format("%d_%d", week, message),
+                weekMessages[message - 1]);
+    }
+
+    private static String[][] buildSchedule(List<SubscriptionPackMessage> messages) {
+        if (messages == null) {
+            return new String[0][];
+        }
+
+        List<List<String>> weeks = new ArrayList<>();
+        for (SubscriptionPackMessage message : messages) {
+            while (weeks.size() < message.getWeek()) {
+                weeks.add(new ArrayList<String>());
+            }
+            weeks.get(message.getWeek() - 1).add(message.getMessageFileName());
+        }
+
+        String[][] schedule = new String[weeks.size()][];
+        for (int i = 0; i < schedule.length; i++) {
+            schedule[i] = weeks.get(i).toArray(new String[weeks.get(i).size()]);
+        }
+        return schedule;
+    }
+}
@@ -0,0 +1,70 @@
+package org.motechproject.nms.kilkari.dto;
+
+import org.joda.time.LocalDate;
+import org.motechproject.nms.kilkari.domain.SubscriptionMode;
+import org.motechproject.nms.kilkari.domain.SubscriptionPackType;
+import org.motechproject.nms.kilkari.domain.SubscriptionStatus;
+
+/**
+ * Read-only projection of a {@link org.motechproject.nms.kilkari.domain.Subscription} holding only the columns the
+ * IVR facing endpoints need. Loading one never touches the pack's message list.
+ */
+public class SubscriptionSummary {
+
+    private String subscriptionId;
+
+    private String subscriptionPackName;
+
+    private SubscriptionPackType subscriptionPackType;
+
+    private SubscriptionStatus status;
+
+    private SubscriptionMode mode;
+
+    private LocalDate startDate;
+
+    public SubscriptionSummary(String subscriptionId, String subscriptionPackName,
+                               SubscriptionPackType subscriptionPackType, SubscriptionStatus status,
+                               SubscriptionMode mode, LocalDate startDate) {
+        this.subscriptionId = subscriptionId;
+        this.subscriptionPackName = subscriptionPackName;
+        this.subscriptionPackType = subscriptionPackType;
+        this.status = status;
+        this.mode = mode;
+        this.startDate = startDate;
+    }
+
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public String getSubscriptionPackName() {
+        return subscriptionPackName;
+    }
+
+    public SubscriptionPackType getSubscriptionPackType() {
+        return subscriptionPackType;
+    }
+
+    public SubscriptionStatus getStatus() {
+        return status;
+    }
+
+    public SubscriptionMode getMode() {
+        return mode;
+    }
+
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriptionSummary{" +
+                "subscriptionId='" + subscriptionId + '\'' +
+                ", subscriptionPackName='" + subscriptionPackName + '\'' +
+                ", status=" + status +
+                ", startDate=" + startDate +
+                '}';
+    }
+}
@@ -0,0 +1,58 @@
+package org.motechproject.nms.kilkari.dto;
+
+/**
+ * Outcome of a subscription lifecycle sweep: how many subscriptions were activated and completed, in how many
+ * batches, and how long it took.
+ */
+public class SubscriptionSweepResult {
+
+    private long activatedCount;
+
+    private long completedCount;
+
+    private int batchCount;
+
+    private long durationMillis;
+
+    public SubscriptionSweepResult(long activatedCount, long completedCount, int batchCount, long durationMillis) {
+        this.activatedCount = activatedCount;
+        this.completedCount = completedCount;
+        this.batchCount = batchCount;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return the number of subscriptions moved from PENDING_ACTIVATION to ACTIVE
+     */
+    public long getActivatedCount() {
+        return activatedCount;
+    }
+
+    /**
+     * @return the number of subscriptions moved from ACTIVE to COMPLETED
+     */
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * @return the number of batches written, which is also the number of events published
+     */
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriptionSweepResult{" +
+                "activatedCount=" + activatedCount +
+                ", completedCount=" + completedCount +
+                ", batchCount=" + batchCount +
+                ", durationMillis=" + durationMillis +
+                '}';
+    }
+}
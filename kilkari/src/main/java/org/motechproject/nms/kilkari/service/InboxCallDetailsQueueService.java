@@ -0,0 +1,39 @@
+package org.motechproject.nms.kilkari.service;
+
+import org.motechproject.nms.kilkari.domain.InboxCallDetails;
+
+/**
+ * Batching writer for Kilkari inbox call details. Records handed to the queue are persisted, together with their
+ * {@link org.motechproject.nms.kilkari.domain.InboxCallData}, by a background writer which groups them into one
+ * insert transaction per batch.
+ */
+public interface InboxCallDetailsQueueService {
+
+    /**
+     * Queue inbox call details (and the content attached to them) for writing. If the queue is full the record is
+     * written on the caller's thread instead, which slows producers down rather than dropping data.
+     *
+     * @param inboxCallDetails the record to persist, with its content set
+     */
+    void enqueue(InboxCallDetails inboxCallDetails);
+
+    /**
+     * Synchronously write everything currently queued, including any batch the background writer is busy with.
+     */
+    void flush();
+
+    /**
+     * @return the number of records waiting to be written
+     */
+    int getQueueDepth();
+
+    /**
+     * @return how long, in milliseconds, the most recent batch took to write
+     */
+    long getLastFlushLatency();
+
+    /**
+     * @return the average time, in milliseconds, taken to write a batch since the service started
+     */
+    long getAverageFlushLatency();
+}
@@ -0,0 +1,43 @@
+package org.motechproject.nms.kilkari.service;
+
+import org.motechproject.nms.kilkari.dto.InboxEntry;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Precomputed Kilkari inboxes. Every active subscriber's inbox is materialised once a day and kept in memory keyed
+ * by calling number, so serving an inbox request is a single lookup.
+ */
+public interface InboxService {
+
+    /**
+     * Returns the inbox of the given subscriber: for every active subscription, the message it plays today and the
+     * last one it played the week before, whichever it has.
+     *
+     * @param callingNumber the subscriber's calling number
+     * @return the subscriber's inbox entries, or null if there is no subscriber with that number
+     */
+    List<InboxEntry> getInbox(long callingNumber);
+
+    /**
+     * Recompute a single subscriber's inbox, to be called whenever one of their subscriptions changes.
+     *
+     * @param callingNumber the subscriber's calling number
+     */
+    void refreshInbox(long callingNumber);
+
+    /**
+     * Set-based alternative to {@link #refreshInbox(long)}, for when many subscribers' subscriptions change at once.
+     *
+     * @param callingNumbers the subscribers' calling numbers
+     */
+    void refreshInboxes(Collection<Long> callingNumbers);
+
+    /**
+     * Recompute every active subscriber's inbox for today and atomically replace the current inboxes. This runs
+     * when the service starts and daily once the subscription lifecycle sweep is done; it is public so that it can be
+     * triggered from our ITs.
+     */
+    void refreshAllInboxes();
+}
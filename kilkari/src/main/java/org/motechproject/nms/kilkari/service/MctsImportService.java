@@ -0,0 +1,32 @@
+package org.motechproject.nms.kilkari.service;
+
+import org.motechproject.nms.kilkari.dto.MctsImportResult;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Bulk loads the MCTS beneficiary feed into Kilkari subscriptions
+ */
+public interface MctsImportService {
+
+    /**
+     * Streams a CSV file of MCTS beneficiaries into the database. The first line is the header, columns are matched
+     * by name: callingNumber, lmp, dob, languageCode, circle. Dates are yyyy-MM-dd, languageCode and circle may be
+     * blank.
+     *
+     * A beneficiary with a date of birth is subscribed to the child pack, one with only a last menstrual period to
+     * the pregnancy pack, creating the subscriber if needed. Rows which are invalid, or which the MCTS duplicate pack
+     * rules of {@link SubscriptionService#createSubscription} refuse, are rejected.
+     *
+     * Each rejected row is written to the reject file as one "line,callingNumber,reason" line, in no particular
+     * order.
+     *
+     * @param reader the feed, closed once read
+     * @param rejects where the rejected rows are written, left open
+     * @return rows read, subscribed and rejected
+     * @throws IOException if the feed can't be read, rows read until then stay imported
+     */
+    MctsImportResult importBeneficiaries(Reader reader, Writer rejects) throws IOException;
+}
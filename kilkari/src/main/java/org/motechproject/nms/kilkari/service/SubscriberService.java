@@ -1,10 +1,32 @@
 package org.motechproject.nms.kilkari.service;
 
 import org.motechproject.nms.kilkari.domain.Subscriber;
+import org.motechproject.nms.kilkari.dto.SubscriberSummary;
+
+import java.util.Collection;
+import java.util.Map;
 
 public interface SubscriberService {
     Subscriber getSubscriber(long callingNumber);
 
+    /**
+     * Lightweight alternative to {@link #getSubscriber(long)} for read-only callers: fetches only the language code
+     * and the subscription/pack columns instead of materialising the whole subscriber graph.
+     *
+     * @param callingNumber the subscriber's calling number
+     * @return the subscriber summary, or null if there is no subscriber with that number
+     */
+    SubscriberSummary getSubscriberSummary(long callingNumber);
+
+    /**
+     * Set-based alternative to {@link #getSubscriberSummary(long)}: summarises all the given subscribers with one
+     * subscriber query and one subscription query, however many numbers are asked for.
+     *
+     * @param callingNumbers the subscribers' calling numbers
+     * @return the subscriber summaries keyed by calling number; numbers without a subscriber are left out
+     */
+    Map<Long, SubscriberSummary> getSubscriberSummaries(Collection<Long> callingNumbers);
+
     void add(Subscriber subscriber);
 
     void update(Subscriber subscriber);
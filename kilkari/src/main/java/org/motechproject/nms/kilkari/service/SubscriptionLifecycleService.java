@@ -0,0 +1,68 @@
+package org.motechproject.nms.kilkari.service;
+
+import org.joda.time.LocalDate;
+import org.motechproject.nms.kilkari.domain.DeactivationReason;
+import org.motechproject.nms.kilkari.dto.BulkDeactivationResult;
+import org.motechproject.nms.kilkari.dto.SubscriptionSweepResult;
+
+import java.util.Collection;
+
+/**
+ * Moves subscriptions along their lifecycle: pending subscriptions become active on their start date, and active
+ * ones complete once they've run for as many weeks as their pack has. Also deactivates subscriptions in bulk, eg:
+ * for DND list updates or MCTS death reports.
+ */
+public interface SubscriptionLifecycleService {
+
+    /**
+     * Published once per batch of subscriptions activated, with the COUNT, SUBSCRIPTION_IDS and CALLING_NUMBERS
+     * parameters
+     */
+    String SUBSCRIPTIONS_ACTIVATED_EVENT = "nms.kilkari.subscriptions_activated";
+
+    /**
+     * Published once per batch of subscriptions completed, with the same parameters
+     */
+    String SUBSCRIPTIONS_COMPLETED_EVENT = "nms.kilkari.subscriptions_completed";
+
+    /**
+     * Published once per batch of subscriptions deactivated in bulk, with the same parameters and the
+     * DEACTIVATION_REASON one
+     */
+    String SUBSCRIPTIONS_DEACTIVATED_EVENT = "nms.kilkari.subscriptions_deactivated";
+
+    String COUNT = "count";
+    String SUBSCRIPTION_IDS = "subscriptionIds";
+    String CALLING_NUMBERS = "callingNumbers";
+    String DEACTIVATION_REASON = "deactivationReason";
+
+    /**
+     * Activate and complete the subscriptions due on the given day. Runs every day at kilkari.lifecycle_sweep_time,
+     * followed by the refresh of all the inboxes, public so that it can be run by hand and tested.
+     *
+     * @param today the day to sweep for
+     * @return how many subscriptions were activated and completed, and how long it took
+     */
+    SubscriptionSweepResult sweep(LocalDate today);
+
+    /**
+     * Deactivate the given subscriptions, those which are neither ACTIVE nor PENDING_ACTIVATION are left alone, as
+     * are unknown ids. The subscriptions are looked up and deactivated kilkari.deactivation_chunk_size at a time,
+     * and their subscribers' inboxes refreshed after each batch.
+     *
+     * @param subscriptionIds the ids of the subscriptions to deactivate
+     * @param reason why they're deactivated
+     * @return how many subscriptions were deactivated, and how long it took
+     */
+    BulkDeactivationResult deactivateSubscriptions(Collection<String> subscriptionIds, DeactivationReason reason);
+
+    /**
+     * Deactivate all the ACTIVE and PENDING_ACTIVATION subscriptions of the given subscribers, in the same way as
+     * {@link #deactivateSubscriptions(Collection, DeactivationReason)}.
+     *
+     * @param callingNumbers the calling numbers of the subscribers whose subscriptions to deactivate
+     * @param reason why they're deactivated
+     * @return how many subscriptions were deactivated, and how long it took
+     */
+    BulkDeactivationResult deactivateSubscribers(Collection<Long> callingNumbers, DeactivationReason reason);
+}
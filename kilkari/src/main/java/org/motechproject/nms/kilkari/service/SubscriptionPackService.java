@@ -0,0 +1,26 @@
+package org.motechproject.nms.kilkari.service;
+
+import org.motechproject.nms.kilkari.dto.SubscriptionPackRegistry;
+
+/**
+ * Keeps the subscription packs in memory. Packs hardly ever change, so rather than looking them up for every
+ * subscription, callers resolve them in the current {@link SubscriptionPackRegistry}.
+ */
+public interface SubscriptionPackService {
+
+    /**
+     * Returns the current registry, loaded on first use. It is only reloaded by {@link #refresh()}: looking up a pack
+     * it doesn't know never touches the database.
+     *
+     * @return the current registry
+     */
+    SubscriptionPackRegistry getRegistry();
+
+    /**
+     * Reload the registry from the database, to be called whenever packs are created or changed. Also runs every
+     * day with the inbox refresh, to pick up changes made behind our back.
+     *
+     * @return the reloaded registry
+     */
+    SubscriptionPackRegistry refresh();
+}
@@ -0,0 +1,60 @@
+package org.motechproject.nms.kilkari.service.impl;
+
+import org.motechproject.nms.kilkari.domain.InboxCallDetails;
+import org.motechproject.nms.kilkari.repository.InboxCallDetailsDataService;
+import org.motechproject.nms.kilkari.service.InboxCallDetailsQueueService;
+import org.motechproject.nms.props.queue.WriteBehindQueueService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+import java.util.List;
+
+/**
+ * Write-behind queue of inbox call details. A batch is written as soon as it holds MAX_BATCH_SIZE records, or
+ * MAX_BATCH_DELAY_MS after its first record was picked up, whichever comes first. Each batch is written in one
+ * transaction; the content of each record is persisted along with it by reachability.
+ */
+@Service("inboxCallDetailsQueueService")
+public class InboxCallDetailsQueueServiceImpl extends WriteBehindQueueService<InboxCallDetails>
+        implements InboxCallDetailsQueueService {
+
+    public static final int QUEUE_CAPACITY = 10000;
+    public static final int MAX_BATCH_SIZE = 500;
+    public static final long MAX_BATCH_DELAY_MS = 1000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InboxCallDetailsQueueServiceImpl.class);
+
+    private InboxCallDetailsDataService inboxCallDetailsDataService;
+
+    @Autowired
+    public InboxCallDetailsQueueServiceImpl(InboxCallDetailsDataService inboxCallDetailsDataService) {
+        super("inbox-call-details", QUEUE_CAPACITY, MAX_BATCH_SIZE, MAX_BATCH_DELAY_MS);
+        this.inboxCallDetailsDataService = inboxCallDetailsDataService;
+    }
+
+    @Override
+    public void enqueue(InboxCallDetails inboxCallDetails) {
+        getQueue().enqueue(inboxCallDetails);
+    }
+
+    @Override
+    public void write(final List<InboxCallDetails> batch) {
+        inboxCallDetailsDataService.doInTransaction(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                for (InboxCallDetails record : batch) {
+                    inboxCallDetailsDataService.create(record);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void failed(InboxCallDetails record, RuntimeException e) {
+        LOGGER.error("Unable to write inbox call details for callId {}", record.getCallId(), e);
+    }
+}
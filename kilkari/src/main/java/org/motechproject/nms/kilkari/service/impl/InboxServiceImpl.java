@@ -0,0 +1,315 @@
+package org.motechproject.nms.kilkari.service.impl;
+
+import org.joda.time.LocalDate;
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
+import org.motechproject.nms.kilkari.domain.SubscriptionStatus;
+import org.motechproject.nms.kilkari.dto.InboxEntry;
+import org.motechproject.nms.kilkari.dto.SubscriberSummary;
+import org.motechproject.nms.kilkari.dto.SubscriptionPackRegistry;
+import org.motechproject.nms.kilkari.dto.SubscriptionSummary;
+import org.motechproject.nms.kilkari.repository.SubscriptionDataService;
+import org.motechproject.nms.kilkari.service.InboxService;
+import org.motechproject.nms.kilkari.service.SubscriberService;
+import org.motechproject.nms.kilkari.service.SubscriptionPackService;
+import org.motechproject.server.config.SettingsFacade;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jdo.Query;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Implementation of the {@link InboxService} interface.
+ *
+ * Inboxes are held in a map from calling number to a small array of entries. They're built in the background when
+ * the service starts, and rebuilt daily once the subscription lifecycle sweep is done: a refresh builds a brand new
+ * map and swaps it in, so readers never see a half-built set of inboxes. Subscribers who aren't in the map (eg: they
+ * have no message to play today) are looked up in the database the first time they call and cached until the next
+ * refresh. The first call of a new day drops the previous day's inboxes for an empty map, which callers fill the
+ * same way until the daily refresh swaps in the full set.
+ */
+@Service("inboxService")
+public class InboxServiceImpl implements InboxService {
+    private static final String MAX_QUERY_BLOCK = "kilkari.max_query_block";
+
+    private static final InboxEntry[] EMPTY_INBOX = new InboxEntry[0];
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InboxServiceImpl.class);
+
+    private SettingsFacade settingsFacade;
+    private SubscriberService subscriberService;
+    private SubscriptionDataService subscriptionDataService;
+    private SubscriptionPackService subscriptionPackService;
+
+    // Today's inboxes, keyed by calling number, only valid when inboxDate is today
+    private volatile ConcurrentMap<Long, InboxEntry[]> inboxes = new ConcurrentHashMap<>();
+    private volatile LocalDate inboxDate;
+
+    // Non null while refreshAllInboxes() runs: subscribers refreshed meanwhile, re-applied once the new map is in
+    private volatile Set<Long> refreshedDuringRebuild;
+
+    private final Object rebuildLock = new Object();
+
+    // Not rebuildLock, callers mustn't wait for a refresh to roll over
+    private final Object rolloverLock = new Object();
+
+    // Builds the inboxes when the service starts, without holding the bundle's start up
+    private final ExecutorService startupBuilder = Executors.newSingleThreadExecutor();
+
+
+    @Autowired
+    public InboxServiceImpl(@Qualifier("kilkariSettings") SettingsFacade settingsFacade,
+                            SubscriberService subscriberService, SubscriptionDataService subscriptionDataService,
+                            SubscriptionPackService subscriptionPackService) {
+        this.settingsFacade = settingsFacade;
+        this.subscriberService = subscriberService;
+        this.subscriptionDataService = subscriptionDataService;
+        this.subscriptionPackService = subscriptionPackService;
+    }
+
+
+    @PostConstruct
+    public void buildInboxes() {
+        startupBuilder.execute(new Runnable() {
+            @Override
+            public void run() {
+                refreshAllInboxes();
+            }
+        });
+    }
+
+
+    @PreDestroy
+    public void stop() {
+        startupBuilder.shutdownNow();
+    }
+
+
+    @Override
+    public List<InboxEntry> getInbox(long callingNumber) {
+        LocalDate today = LocalDate.now();
+        if (!today.equals(inboxDate)) {
+            rollOver(today);
+        }
+
+        InboxEntry[] cached = inboxes.get(callingNumber);
+        if (cached != null) {
+            return Arrays.asList(cached);
+        }
+
+        // Not materialised (or today's refresh hasn't run yet): compute it from the database
+        SubscriberSummary subscriber = subscriberService.getSubscriberSummary(callingNumber);
+        if (subscriber == null) {
+            return null;
+        }
+
+        InboxEntry[] inbox = computeInbox(subscriber.getActiveSubscriptions(), today);
+        if (today.equals(inboxDate)) {
+            inboxes.put(callingNumber, inbox);
+        }
+
+        return Arrays.asList(inbox);
+    }
+
+
+    /*
+     * Yesterday's inboxes may play the wrong week today: start the day with an empty map, filled as subscribers call
+     */
+    private void rollOver(LocalDate today) {
+        synchronized (rolloverLock) {
+            if (!today.equals(inboxDate)) {
+                inboxes = new ConcurrentHashMap<>();
+                inboxDate = today;
+            }
+        }
+    }
+
+
+    @Override
+    public void refreshInbox(long callingNumber) {
+        Set<Long> pending = refreshedDuringRebuild;
+        if (pending != null) {
+            pending.add(callingNumber);
+        }
+
+        SubscriberSummary subscriber = subscriberService.getSubscriberSummary(callingNumber);
+        if (subscriber == null) {
+            inboxes.remove(callingNumber);
+            return;
+        }
+
+        inboxes.put(callingNumber, computeInbox(subscriber.getActiveSubscriptions(), LocalDate.now()));
+    }
+
+
+    @Override
+    public void refreshInboxes(Collection<Long> callingNumbers) {
+        Set<Long> pending = refreshedDuringRebuild;
+        if (pending != null) {
+            pending.addAll(callingNumbers);
+        }
+
+        Map<Long, SubscriberSummary> subscribers = subscriberService.getSubscriberSummaries(callingNumbers);
+        LocalDate today = LocalDate.now();
+        for (Long callingNumber : callingNumbers) {
+            SubscriberSummary subscriber = subscribers.get(callingNumber);
+            if (subscriber == null) {
+                inboxes.remove(callingNumber);
+            } else {
+                inboxes.put(callingNumber, computeInbox(subscriber.getActiveSubscriptions(), today));
+            }
+        }
+    }
+
+
+    @Override
+    public void refreshAllInboxes() {
+        synchronized (rebuildLock) {
+            long startTime = System.currentTimeMillis();
+            LocalDate today = LocalDate.now();
+            int maxQueryBlock = Integer.parseInt(settingsFacade.getProperty(MAX_QUERY_BLOCK));
+            int subscriptionCount = 0;
+
+            refreshedDuringRebuild = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+            Set<Long> pending;
+
+            try {
+                // Picks up pack changes made since yesterday
+                subscriptionPackService.refresh();
+
+                ConcurrentMap<Long, InboxEntry[]> rebuilt = new ConcurrentHashMap<>();
+                long lastId = 0;
+                List<Object[]> rows;
+                do {
+                    rows = findActiveSubscriptions(lastId, maxQueryBlock);
+
+                    for (Object[] row : rows) {
+                        lastId = (Long) row[0];
+
+                        Long callingNumber = (Long) row[1];
+                        InboxEntry[] inbox = appendEntries(rebuilt.get(callingNumber), (String) row[2],
+                                (String) row[3], (LocalDate) row[4], today);
+                        if (inbox != null) {
+                            rebuilt.put(callingNumber, inbox);
+                        }
+                    }
+
+                    subscriptionCount += rows.size();
+
+                } while (rows.size() == maxQueryBlock);
+
+                inboxes = rebuilt;
+                inboxDate = today;
+
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to refresh Kilkari inboxes, keeping the previous ones", e);
+                return;
+            } finally {
+                pending = refreshedDuringRebuild;
+                refreshedDuringRebuild = null;
+            }
+
+            // Subscription changes which may have been missed by the queries above
+            for (Long callingNumber : pending) {
+                refreshInbox(callingNumber);
+            }
+
+            LOGGER.info("Refreshed {} Kilkari inboxes from {} active subscriptions in {}ms", inboxes.size(),
+                    subscriptionCount, System.currentTimeMillis() - startTime);
+        }
+    }
+
+
+    /*
+     * Returns the next block of active subscriptions after lastId, as
+     * [id, subscriber.callingNumber, subscriptionId, subscriptionPack.name, startDate] rows
+     */
+    private List<Object[]> findActiveSubscriptions(final long lastId, final int maxQueryBlock) {
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<Object[]>> queryExecution = new QueryExecution<List<Object[]>>() {
+            @Override
+            public List<Object[]> execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("status == active && id > lastId");
+                query.declareParameters("org.motechproject.nms.kilkari.domain.SubscriptionStatus active, " +
+                        "Long lastId");
+                query.setResult("id, subscriber.callingNumber, subscriptionId, subscriptionPack.name, startDate");
+                query.setOrdering("id ascending");
+                query.setRange(0, maxQueryBlock);
+
+                return (List<Object[]>) query.execute(SubscriptionStatus.ACTIVE, lastId);
+            }
+        };
+
+        return subscriptionDataService.executeQuery(queryExecution);
+    }
+
+
+    private InboxEntry[] computeInbox(List<SubscriptionSummary> subscriptions, LocalDate today) {
+        InboxEntry[] inbox = EMPTY_INBOX;
+        for (SubscriptionSummary subscription : subscriptions) {
+            InboxEntry[] appended = appendEntries(inbox, subscription.getSubscriptionId(),
+                    subscription.getSubscriptionPackName(), subscription.getStartDate(), today);
+            if (appended != null) {
+                inbox = appended;
+            }
+        }
+        return inbox;
+    }
+
+
+    /*
+     * Appends the messages a subscription offers on the given day: the one it plays that day and the last one it
+     * played the week before, whichever it has. Returns the inbox with the entries appended, or null if the
+     * subscription has neither: it hasn't started yet or has run past the end of its pack. A subscription without a
+     * start date has no message: it is logged, since every subscription should be given one when it's activated.
+     */
+    private InboxEntry[] appendEntries(InboxEntry[] inbox, String subscriptionId, String packName,
+                                       LocalDate startDate, LocalDate today) {
+        if (startDate == null) {
+            LOGGER.warn("Subscription {} has no start date, leaving it out of its subscriber's inbox", subscriptionId);
+            return null;
+        }
+
+        SubscriptionPackRegistry registry = subscriptionPackService.getRegistry();
+        InboxEntry current = registry.getMessage(subscriptionId, packName, startDate, today);
+        InboxEntry previous = registry.getPreviousWeekMessage(subscriptionId, packName, startDate, today);
+        if (current == null && previous == null) {
+            return null;
+        }
+
+        InboxEntry[] appended = inbox;
+        if (current != null) {
+            appended = append(appended, current);
+        }
+        if (previous != null) {
+            appended = append(appended, previous);
+        }
+        return appended;
+    }
+
+
+    private static InboxEntry[] append(InboxEntry[] inbox, InboxEntry entry) {
+        if (inbox == null) {
+            return new InboxEntry[] { entry };
+        }
+        InboxEntry[] appended = Arrays.copyOf(inbox, inbox.length + 1);
+        appended[inbox.length] = entry;
+        return appended;
+    }
+}
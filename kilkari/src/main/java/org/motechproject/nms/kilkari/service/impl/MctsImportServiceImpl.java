@@ -0,0 +1,545 @@
+package org.motechproject.nms.kilkari.service.impl;
+
+import org.joda.time.LocalDate;
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
+import org.motechproject.nms.kilkari.domain.Subscriber;
+import org.motechproject.nms.kilkari.domain.Subscription;
+import org.motechproject.nms.kilkari.domain.SubscriptionMode;
+import org.motechproject.nms.kilkari.domain.SubscriptionPack;
+import org.motechproject.nms.kilkari.domain.SubscriptionPackType;
+import org.motechproject.nms.kilkari.domain.SubscriptionStatus;
+import org.motechproject.nms.kilkari.dto.MctsImportResult;
+import org.motechproject.nms.kilkari.dto.SubscriptionPackRegistry;
+import org.motechproject.nms.kilkari.repository.SubscriberDataService;
+import org.motechproject.nms.kilkari.repository.SubscriptionDataService;
+import org.motechproject.nms.kilkari.service.MctsImportService;
+import org.motechproject.nms.kilkari.service.SubscriptionPackService;
+import org.motechproject.nms.language.domain.Language;
+import org.motechproject.nms.language.service.LanguageService;
+import org.motechproject.nms.location.dto.LocationLevel;
+import org.motechproject.nms.location.dto.LocationTree;
+import org.motechproject.nms.location.service.LocationTreeService;
+import org.motechproject.nms.props.csv.CsvParser;
+import org.motechproject.server.config.SettingsFacade;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+
+import javax.jdo.Query;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Implementation of the {@link MctsImportService} interface.
+ *
+ * The feed is read on the caller's thread and its rows dealt to kilkari.mcts_import_threads lanes by calling number,
+ * so all the rows of a beneficiary go through the same lane, in feed order, and lanes never contend for a
+ * subscriber. Each lane writes its rows in chunks of kilkari.mcts_import_batch_size, on its own thread: a chunk
+ * loads the subscribers it refers to with a single query, applies the duplicate pack rules to them in memory and
+ * creates its subscribers and subscriptions in one transaction. A chunk which fails to commit is retried row by row,
+ * so that a bad row only rejects itself. Reading stops while every lane has two chunks waiting.
+ *
+ * A subscription starts PREGNANCY_START_DAYS after the last menstrual period for the pregnancy pack, and on the date
+ * of birth for the child pack: it's created PENDING_ACTIVATION if that's still to come, and activated by the lifecycle
+ * sweep then. The optional stateCode and districtCode columns are checked against the in-memory location tree, so
+ * rows naming unknown locations are rejected without a query.
+ *
+ * Inboxes aren't refreshed row by row, the new subscriptions are picked up by the daily inbox refresh.
+ */
+@Service("mctsImportService")
+public class MctsImportServiceImpl implements MctsImportService {
+    private static final String IMPORT_BATCH_SIZE = "kilkari.mcts_import_batch_size";
+    private static final String IMPORT_THREADS = "kilkari.mcts_import_threads";
+
+    private static final String CALLING_NUMBER = "callingNumber";
+    private static final String LMP = "lmp";
+    private static final String DOB = "dob";
+    private static final String LANGUAGE_CODE = "languageCode";
+    private static final String CIRCLE = "circle";
+    private static final String SUBSCRIPTION_PACK = "subscriptionPack";
+    private static final String STATE_CODE = "stateCode";
+    private static final String DISTRICT_CODE = "districtCode";
+
+    private static final String NOT_PRESENT = "<%s: Not Present>";
+    private static final String INVALID = "<%s: Invalid>";
+    private static final String NOT_FOUND = "<%s: Not Found>";
+    private static final String DUPLICATE = "<%s: Duplicate>";
+
+    private static final Pattern TEN_DIGITS = Pattern.compile("\\d{10}");
+
+    // Pregnancy pack messages start in the fourth month of pregnancy
+    private static final int PREGNANCY_START_DAYS = 90;
+
+    // Chunks which may wait for each lane before reading stops
+    private static final int CHUNKS_PER_LANE = 2;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MctsImportServiceImpl.class);
+
+    private SettingsFacade settingsFacade;
+    private LanguageService languageService;
+    private SubscriberDataService subscriberDataService;
+    private SubscriptionDataService subscriptionDataService;
+    private SubscriptionPackService subscriptionPackService;
+    private LocationTreeService locationTreeService;
+
+
+    @Autowired
+    public MctsImportServiceImpl(@Qualifier("kilkariSettings") SettingsFacade settingsFacade,
+                                 LanguageService languageService, SubscriberDataService subscriberDataService,
+                                 SubscriptionDataService subscriptionDataService,
+                                 SubscriptionPackService subscriptionPackService,
+                                 LocationTreeService locationTreeService) {
+        this.settingsFacade = settingsFacade;
+        this.languageService = languageService;
+        this.subscriberDataService = subscriberDataService;
+        this.subscriptionDataService = subscriptionDataService;
+        this.subscriptionPackService = subscriptionPackService;
+        this.locationTreeService = locationTreeService;
+    }
+
+
+    @Override
+    public MctsImportResult importBeneficiaries(Reader reader, Writer rejects) throws IOException {
+        long startTime = System.currentTimeMillis();
+        int batchSize = Integer.parseInt(settingsFacade.getProperty(IMPORT_BATCH_SIZE));
+        int threads = Integer.parseInt(settingsFacade.getProperty(IMPORT_THREADS));
+
+        ImportContext context = new ImportContext(threads, locationTreeService.getLocationTree());
+        if (context.locationTree.size(LocationLevel.STATE) == 0) {
+            LOGGER.warn("The location tree is empty, MCTS locations won't be checked");
+        }
+        List<List<Row>> lanes = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            lanes.add(new ArrayList<Row>(batchSize));
+        }
+        long rowCount = 0;
+
+        try (BufferedReader in = new BufferedReader(reader)) {
+            Map<String, Integer> header = CsvParser.parseHeader(in.readLine());
+            int lineNumber = 1;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                rowCount++;
+
+                Row row = parseRow(context, header, CsvParser.parseLine(line), lineNumber);
+                if (row.rejection != null) {
+                    context.reject(row);
+                    continue;
+                }
+
+                int lane = (int) (row.callingNumber % threads);
+                List<Row> chunk = lanes.get(lane);
+                chunk.add(row);
+                if (chunk.size() == batchSize) {
+                    submit(context, lane, chunk);
+                    lanes.set(lane, new ArrayList<Row>(batchSize));
+                }
+                writeRejects(context, rejects);
+            }
+
+            for (int lane = 0; lane < threads; lane++) {
+                submit(context, lane, lanes.get(lane));
+            }
+            awaitChunks(context, false);
+        } finally {
+            for (ExecutorService lane : context.lanes) {
+                lane.shutdownNow();
+            }
+            writeRejects(context, rejects);
+            rejects.flush();
+        }
+
+        MctsImportResult result = new MctsImportResult(rowCount, context.importedCount.get(),
+                context.rejectedCount.get(), System.currentTimeMillis() - startTime);
+        LOGGER.info("Imported {} subscriptions from {} MCTS rows in {}ms ({} rows/s), {} rejected",
+                result.getImportedCount(), rowCount, result.getDurationMillis(),
+                String.format("%.1f", result.getRowsPerSecond()), result.getRejectedCount());
+
+        return result;
+    }
+
+
+    /*
+     * Everything that can be checked without the database: the columns parse, the language exists and the locations
+     * are in the location tree
+     */
+    private Row parseRow(ImportContext context, Map<String, Integer> header, String[] values, int lineNumber) {
+        Row row = new Row(lineNumber, get(header, values, CALLING_NUMBER));
+        try {
+            if (row.rawCallingNumber == null) {
+                throw new IllegalArgumentException(String.format(NOT_PRESENT, CALLING_NUMBER));
+            }
+            if (!TEN_DIGITS.matcher(row.rawCallingNumber).matches()) {
+                throw new IllegalArgumentException(String.format(INVALID, CALLING_NUMBER));
+            }
+            row.callingNumber = Long.parseLong(row.rawCallingNumber);
+
+            row.lastMenstrualPeriod = getDate(header, values, LMP);
+            row.dateOfBirth = getDate(header, values, DOB);
+            if (row.dateOfBirth != null) {
+                row.packType = SubscriptionPackType.CHILD;
+            } else if (row.lastMenstrualPeriod != null) {
+                row.packType = SubscriptionPackType.PREGNANCY;
+            } else {
+                throw new IllegalArgumentException(String.format(NOT_PRESENT, LMP));
+            }
+
+            String languageCode = get(header, values, LANGUAGE_CODE);
+            if (languageCode != null) {
+                row.language = context.getLanguage(languageCode);
+                if (row.language == null) {
+                    throw new IllegalArgumentException(String.format(NOT_FOUND, LANGUAGE_CODE));
+                }
+            }
+
+            row.circle = get(header, values, CIRCLE);
+
+            checkLocation(context.locationTree, getCode(header, values, STATE_CODE),
+                    getCode(header, values, DISTRICT_CODE));
+        } catch (IllegalArgumentException e) {
+            row.rejection = e.getMessage();
+        }
+        return row;
+    }
+
+
+    /*
+     * The state must exist, and the district lie within it (or exist, if no state is given). Not checked while the
+     * tree is empty, ie: it couldn't be built.
+     */
+    private static void checkLocation(LocationTree tree, Long stateCode, Long districtCode) {
+        if (tree.size(LocationLevel.STATE) == 0) {
+            return;
+        }
+
+        if (stateCode != null && !tree.contains(LocationLevel.STATE, stateCode)) {
+            throw new IllegalArgumentException(String.format(NOT_FOUND, STATE_CODE));
+        }
+
+        if (districtCode != null) {
+            boolean found = stateCode == null ? tree.contains(LocationLevel.DISTRICT, districtCode) :
+                    tree.isWithin(LocationLevel.DISTRICT, districtCode, LocationLevel.STATE, stateCode);
+            if (!found) {
+                throw new IllegalArgumentException(String.format(NOT_FOUND, DISTRICT_CODE));
+            }
+        }
+    }
+
+
+    /*
+     * Hands the chunk to its lane, once fewer than CHUNKS_PER_LANE chunks per lane are waiting
+     */
+    private void submit(final ImportContext context, int lane, final List<Row> chunk) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        try {
+            context.inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while importing MCTS beneficiaries", e);
+        }
+
+        context.chunks.add(context.lanes.get(lane).submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    context.importedCount.addAndGet(subscribe(chunk));
+                    for (Row row : chunk) {
+                        if (row.rejection != null) {
+                            context.reject(row);
+                        }
+                    }
+                } finally {
+                    context.inFlight.release();
+                }
+            }
+        }));
+
+        // Surface a failed lane now rather than once the whole feed is read
+        awaitChunks(context, true);
+    }
+
+
+    private static void awaitChunks(ImportContext context, boolean doneOnly) {
+        try {
+            Iterator<Future<?>> chunks = context.chunks.iterator();
+            while (chunks.hasNext()) {
+                Future<?> chunk = chunks.next();
+                if (!doneOnly || chunk.isDone()) {
+                    chunk.get();
+                    chunks.remove();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while importing MCTS beneficiaries", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to import MCTS beneficiaries", e.getCause());
+        }
+    }
+
+
+    private static void writeRejects(ImportContext context, Writer rejects) throws IOException {
+        String reject;
+        while ((reject = context.rejects.poll()) != null) {
+            rejects.write(reject);
+        }
+    }
+
+
+    /*
+     * Subscribes the rows in one transaction, or one by one if that fails, and returns how many were subscribed
+     */
+    private int subscribe(final List<Row> rows) {
+        try {
+            return subscriberDataService.doInTransaction(new TransactionCallback<Integer>() {
+                @Override
+                public Integer doInTransaction(TransactionStatus status) {
+                    return apply(rows);
+                }
+            });
+
+        } catch (RuntimeException e) {
+            if (rows.size() == 1) {
+                rows.get(0).rejection = String.format("Unable to create: %s", e.getMessage());
+                return 0;
+            }
+
+            LOGGER.warn("Unable to import a chunk of {} MCTS rows, retrying one by one", rows.size(), e);
+            int subscribed = 0;
+            for (Row row : rows) {
+                subscribed += subscribe(Collections.singletonList(row));
+            }
+            return subscribed;
+        }
+    }
+
+
+    private int apply(List<Row> rows) {
+        Map<Long, Subscriber> subscribers = findSubscribers(rows);
+        SubscriptionPackRegistry packs = subscriptionPackService.getRegistry();
+        LocalDate today = LocalDate.now();
+
+        int subscribed = 0;
+        for (Row row : rows) {
+            // Set again by every attempt, a rolled back one may have rejected rows that would now pass
+            row.rejection = null;
+
+            SubscriptionPack pack = packs.getPack(row.packType);
+            if (pack == null) {
+                row.rejection = String.format(NOT_FOUND, SUBSCRIPTION_PACK);
+                continue;
+            }
+
+            Subscriber subscriber = subscribers.get(row.callingNumber);
+            if (subscriber == null) {
+                subscriber = new Subscriber(row.callingNumber, row.language, row.circle);
+                subscriber.setDateOfBirth(row.dateOfBirth);
+                subscriber.setLastMenstrualPeriod(row.lastMenstrualPeriod);
+                subscriber = subscriberDataService.create(subscriber);
+                subscribers.put(row.callingNumber, subscriber);
+            } else {
+                updateSubscriber(subscriber, row);
+            }
+
+            if (SubscriptionServiceImpl.isDuplicateMctsSubscription(subscriber, pack)) {
+                row.rejection = String.format(DUPLICATE, pack.getName());
+                continue;
+            }
+
+            LocalDate startDate = getStartDate(row);
+            Subscription subscription = new Subscription(subscriber, pack, SubscriptionMode.MCTS_IMPORT);
+            subscription.setStartDate(startDate);
+            subscription.setStatus(startDate.isAfter(today) ? SubscriptionStatus.PENDING_ACTIVATION :
+                    SubscriptionStatus.ACTIVE);
+            subscriptionDataService.create(subscription);
+            subscribed++;
+        }
+        return subscribed;
+    }
+
+
+    /*
+     * Rows always have the date their pack type was chosen from
+     */
+    private static LocalDate getStartDate(Row row) {
+        if (row.packType == SubscriptionPackType.CHILD) {
+            return row.dateOfBirth;
+        }
+        return row.lastMenstrualPeriod.plusDays(PREGNANCY_START_DAYS);
+    }
+
+
+    /*
+     * The feed's dates replace the subscriber's, its language and circle only fill in missing ones
+     */
+    private void updateSubscriber(Subscriber subscriber, Row row) {
+        boolean changed = false;
+        if (row.dateOfBirth != null && !row.dateOfBirth.equals(subscriber.getDateOfBirth())) {
+            subscriber.setDateOfBirth(row.dateOfBirth);
+            changed = true;
+        }
+        if (row.lastMenstrualPeriod != null && !row.lastMenstrualPeriod.equals(subscriber.getLastMenstrualPeriod())) {
+            subscriber.setLastMenstrualPeriod(row.lastMenstrualPeriod);
+            changed = true;
+        }
+        if (row.language != null && subscriber.getLanguage() == null) {
+            subscriber.setLanguage(row.language);
+            changed = true;
+        }
+        if (row.circle != null && subscriber.getCircle() == null) {
+            subscriber.setCircle(row.circle);
+            changed = true;
+        }
+        if (changed) {
+            subscriberDataService.update(subscriber);
+        }
+    }
+
+
+    /*
+     * The chunk's existing subscribers, with their subscriptions, in a single query
+     */
+    private Map<Long, Subscriber> findSubscribers(List<Row> rows) {
+        final List<Long> callingNumbers = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            callingNumbers.add(row.callingNumber);
+        }
+
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<Subscriber>> queryExecution = new QueryExecution<List<Subscriber>>() {
+            @Override
+            public List<Subscriber> execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("numbers.contains(callingNumber)");
+                query.declareParameters("java.util.Collection numbers");
+
+                return (List<Subscriber>) query.execute(callingNumbers);
+            }
+        };
+
+        Map<Long, Subscriber> subscribers = new HashMap<>();
+        for (Subscriber subscriber : subscriberDataService.executeQuery(queryExecution)) {
+            subscribers.put(subscriber.getCallingNumber(), subscriber);
+        }
+        return subscribers;
+    }
+
+
+    /*
+     * The trimmed value, or null if the column is missing or blank
+     */
+    private static String get(Map<String, Integer> header, String[] values, String name) {
+        Integer index = header.get(name);
+        if (index == null || index >= values.length) {
+            return null;
+        }
+        String value = values[index].trim();
+        return value.isEmpty() ? null : value;
+    }
+
+
+    private static Long getCode(Map<String, Integer> header, String[] values, String name) {
+        String value = get(header, values, name);
+        try {
+            return value == null ? null : Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format(INVALID, name), e);
+        }
+    }
+
+
+    private static LocalDate getDate(Map<String, Integer> header, String[] values, String name) {
+        String value = get(header, values, name);
+        try {
+            return value == null ? null : LocalDate.parse(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format(INVALID, name), e);
+        }
+    }
+
+
+    private final class ImportContext {
+        private final List<ExecutorService> lanes;
+        private final Semaphore inFlight;
+        private final LocationTree locationTree;
+        private final List<Future<?>> chunks = new ArrayList<>();
+
+        private final AtomicLong importedCount = new AtomicLong();
+        private final AtomicLong rejectedCount = new AtomicLong();
+
+        // Reject file lines, written by the reading thread as it goes
+        private final Queue<String> rejects = new ConcurrentLinkedQueue<>();
+
+        // Feeds only use a handful of languages, unknown codes are cached as null
+        private final Map<String, Language> languages = new HashMap<>();
+
+        private ImportContext(int threads, LocationTree locationTree) {
+            this.locationTree = locationTree;
+            lanes = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                lanes.add(Executors.newSingleThreadExecutor());
+            }
+            inFlight = new Semaphore(threads * CHUNKS_PER_LANE);
+        }
+
+        private Language getLanguage(String code) {
+            if (!languages.containsKey(code)) {
+                languages.put(code, languageService.getLanguageByCode(code));
+            }
+            return languages.get(code);
+        }
+
+        private void reject(Row row) {
+            rejectedCount.incrementAndGet();
+            rejects.add(String.format("%d,%s,%s%n", row.lineNumber,
+                    row.rawCallingNumber == null ? "" : row.rawCallingNumber, row.rejection));
+        }
+    }
+
+
+    private static final class Row {
+        private final int lineNumber;
+        private final String rawCallingNumber;
+        private long callingNumber;
+        private LocalDate lastMenstrualPeriod;
+        private LocalDate dateOfBirth;
+        private SubscriptionPackType packType;
+        private Language language;
+        private String circle;
+        private String rejection;
+
+        private Row(int lineNumber, String rawCallingNumber) {
+            this.lineNumber = lineNumber;
+            this.rawCallingNumber = rawCallingNumber;
+        }
+    }
+}
@@ -1,12 +1,29 @@
 package org.motechproject.nms.kilkari.service.impl;
 
+import org.joda.time.LocalDate;
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
 import org.motechproject.nms.kilkari.domain.Subscriber;
+import org.motechproject.nms.kilkari.domain.SubscriptionMode;
+import org.motechproject.nms.kilkari.domain.SubscriptionPackType;
+import org.motechproject.nms.kilkari.domain.SubscriptionStatus;
+import org.motechproject.nms.kilkari.dto.SubscriberSummary;
+import org.motechproject.nms.kilkari.dto.SubscriptionSummary;
 import org.motechproject.nms.kilkari.repository.SubscriberDataService;
+import org.motechproject.nms.kilkari.repository.SubscriptionDataService;
 import org.motechproject.nms.kilkari.service.SubscriberService;
 import org.motechproject.nms.kilkari.service.SubscriptionService;
+import org.motechproject.nms.language.domain.Language;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.jdo.Query;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Implementation of the {@link SubscriptionService} interface.
  */
@@ -14,10 +31,13 @@ import org.springframework.stereotype.Service;
 public class SubscriberServiceImpl implements SubscriberService {
 
     private SubscriberDataService subscriberDataService;
+    private SubscriptionDataService subscriptionDataService;
 
     @Autowired
-    public SubscriberServiceImpl(SubscriberDataService subscriberDataService) {
+    public SubscriberServiceImpl(SubscriberDataService subscriberDataService,
+                                 SubscriptionDataService subscriptionDataService) {
         this.subscriberDataService = subscriberDataService;
+        this.subscriptionDataService = subscriptionDataService;
     }
 
     @Override
@@ -25,6 +45,126 @@ public class SubscriberServiceImpl implements SubscriberService {
         return subscriberDataService.findByCallingNumber(callingNumber);
     }
 
+    @Override
+    public SubscriberSummary getSubscriberSummary(final long callingNumber) {
+
+        // Only the subscriber's own columns, the subscriptions set is never loaded
+        QueryExecution<Object[]> subscriberQueryExecution = new QueryExecution<Object[]>() {
+            @Override
+            public Object[] execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("callingNumber == number");
+                query.declareParameters("Long number");
+                query.setResult("callingNumber, language");
+                query.setUnique(true);
+
+                return withLanguageCode((Object[]) query.execute(callingNumber));
+            }
+        };
+
+        Object[] subscriberRow = subscriberDataService.executeQuery(subscriberQueryExecution);
+        if (subscriberRow == null) {
+            return null;
+        }
+
+        // Subscription and pack columns only, pack messages stay in the database
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<Object[]>> subscriptionQueryExecution = new QueryExecution<List<Object[]>>() {
+            @Override
+            public List<Object[]> execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("subscriber.callingNumber == number");
+                query.declareParameters("Long number");
+                query.setResult("subscriptionId, subscriptionPack.name, subscriptionPack.type, status, mode, " +
+                        "startDate");
+
+                return (List<Object[]>) query.execute(callingNumber);
+            }
+        };
+
+        List<SubscriptionSummary> subscriptions = new ArrayList<>();
+        for (Object[] row : subscriptionDataService.executeQuery(subscriptionQueryExecution)) {
+            subscriptions.add(new SubscriptionSummary((String) row[0], (String) row[1], (SubscriptionPackType) row[2],
+                    (SubscriptionStatus) row[3], (SubscriptionMode) row[4], (LocalDate) row[5]));
+        }
+
+        return new SubscriberSummary((Long) subscriberRow[0], (String) subscriberRow[1], subscriptions);
+    }
+
+    @Override
+    public Map<Long, SubscriberSummary> getSubscriberSummaries(final Collection<Long> callingNumbers) {
+        Map<Long, SubscriberSummary> summaries = new HashMap<>();
+        if (callingNumbers.isEmpty()) {
+            return summaries;
+        }
+
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<Object[]>> subscriberQueryExecution = new QueryExecution<List<Object[]>>() {
+            @Override
+            public List<Object[]> execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("numbers.contains(callingNumber)");
+                query.declareParameters("java.util.Collection numbers");
+                query.setResult("callingNumber, language");
+
+                List<Object[]> rows = (List<Object[]>) query.execute(callingNumbers);
+                for (Object[] row : rows) {
+                    withLanguageCode(row);
+                }
+                return rows;
+            }
+        };
+
+        Map<Long, List<SubscriptionSummary>> subscriptionsByNumber = new HashMap<>();
+        for (Object[] row : subscriberDataService.executeQuery(subscriberQueryExecution)) {
+            List<SubscriptionSummary> subscriptions = new ArrayList<>();
+            subscriptionsByNumber.put((Long) row[0], subscriptions);
+            summaries.put((Long) row[0], new SubscriberSummary((Long) row[0], (String) row[1], subscriptions));
+        }
+
+        if (summaries.isEmpty()) {
+            return summaries;
+        }
+
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<Object[]>> subscriptionQueryExecution = new QueryExecution<List<Object[]>>() {
+            @Override
+            public List<Object[]> execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("numbers.contains(subscriber.callingNumber)");
+                query.declareParameters("java.util.Collection numbers");
+                query.setResult("subscriber.callingNumber, subscriptionId, subscriptionPack.name, " +
+                        "subscriptionPack.type, status, mode, startDate");
+
+                return (List<Object[]>) query.execute(callingNumbers);
+            }
+        };
+
+        for (Object[] row : subscriptionDataService.executeQuery(subscriptionQueryExecution)) {
+            List<SubscriptionSummary> subscriptions = subscriptionsByNumber.get(row[0]);
+            if (subscriptions != null) {
+                subscriptions.add(new SubscriptionSummary((String) row[1], (String) row[2],
+                        (SubscriptionPackType) row[3], (SubscriptionStatus) row[4], (SubscriptionMode) row[5],
+                        (LocalDate) row[6]));
+            }
+        }
+
+        return summaries;
+    }
+
+    /**
+     * Replace the language in a (callingNumber, language) row with its code. Projecting the relation rather than
+     * language.code reads the subscriber's foreign key instead of inner joining the language table, which would drop
+     * subscribers who don't have a language yet. Must be called while the query's persistence manager is open.
+     */
+    private static Object[] withLanguageCode(Object[] row) {
+        if (row != null) {
+            Language language = (Language) row[1];
+            row[1] = language == null ? null : language.getCode();
+        }
+        return row;
+    }
+
     @Override
     public void add(Subscriber subscriber) {
         subscriberDataService.create(subscriber);
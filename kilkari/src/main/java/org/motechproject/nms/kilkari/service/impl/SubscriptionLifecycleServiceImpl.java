@@ -0,0 +1,472 @@
+package org.motechproject.nms.kilkari.service.impl;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.motechproject.event.MotechEvent;
+import org.motechproject.event.listener.EventRelay;
+import org.motechproject.event.listener.annotations.MotechListener;
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
+import org.motechproject.nms.kilkari.domain.DeactivationReason;
+import org.motechproject.nms.kilkari.domain.Subscription;
+import org.motechproject.nms.kilkari.domain.SubscriptionPack;
+import org.motechproject.nms.kilkari.domain.SubscriptionStatus;
+import org.motechproject.nms.kilkari.dto.BulkDeactivationResult;
+import org.motechproject.nms.kilkari.dto.SubscriptionPackRegistry;
+import org.motechproject.nms.kilkari.dto.SubscriptionSweepResult;
+import org.motechproject.nms.kilkari.repository.SubscriptionDataService;
+import org.motechproject.nms.kilkari.service.InboxService;
+import org.motechproject.nms.kilkari.service.SubscriptionLifecycleService;
+import org.motechproject.nms.kilkari.service.SubscriptionPackService;
+import org.motechproject.scheduler.contract.RepeatingSchedulableJob;
+import org.motechproject.scheduler.service.MotechSchedulerService;
+import org.motechproject.server.config.SettingsFacade;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of the {@link SubscriptionLifecycleService} interface.
+ *
+ * Each transition is applied in chunks of kilkari.lifecycle_sweep_chunk_size subscriptions, one transaction per
+ * chunk: one query picks and locks the next chunk of due subscriptions, and a single bulk JDOQL update changes their
+ * status. Once the transaction committed, one event tells listeners about the whole chunk. A subscription only
+ * changes status if it's still in the status it was picked in, so a subscription deactivated meanwhile stays
+ * deactivated; should the update still miss some of the chunk, only the subscriptions it moved are announced.
+ *
+ * Bulk deactivations go through the same machinery: the requested calling numbers or subscription ids are split in
+ * chunks of kilkari.deactivation_chunk_size, and each chunk is applied as a transition to DEACTIVATED. As they happen
+ * during the day, the inboxes of the subscribers of each batch are refreshed straight away.
+ *
+ * The bulk update is a DataNucleus extension to JDOQL: it bypasses MDS, so the status changes it makes aren't
+ * recorded in the subscriptions' history. It sets their modificationDate itself, and evicts the subscriptions it
+ * changed from the level 2 cache so that no stale copy is served afterwards. Once the daily sweep is done, it
+ * refreshes every inbox, which picks up the subscriptions it activated and completed.
+ *
+ * Subscriptions without a start date can be neither activated nor completed: the sweep leaves them alone, and logs
+ * how many there are.
+ */
+@Service("subscriptionLifecycleService")
+public class SubscriptionLifecycleServiceImpl implements SubscriptionLifecycleService {
+    private static final String LIFECYCLE_SWEEP_TIME = "kilkari.lifecycle_sweep_time";
+    private static final String LIFECYCLE_SWEEP_MS_INTERVAL = "kilkari.lifecycle_sweep_ms_interval";
+    private static final String LIFECYCLE_SWEEP_CHUNK_SIZE = "kilkari.lifecycle_sweep_chunk_size";
+    private static final String DEACTIVATION_CHUNK_SIZE = "kilkari.deactivation_chunk_size";
+
+    private static final String SWEEP_SUBSCRIPTIONS_EVENT = "nms.kilkari.sweep_subscriptions";
+
+    private static final String ALLOW_ALL_JDOQL = "datanucleus.query.jdoql.allowAll";
+
+    private static final List<SubscriptionStatus> PENDING = Collections.singletonList(
+            SubscriptionStatus.PENDING_ACTIVATION);
+    private static final List<SubscriptionStatus> ACTIVE = Collections.singletonList(SubscriptionStatus.ACTIVE);
+    private static final List<SubscriptionStatus> ACTIVE_OR_PENDING = Arrays.asList(SubscriptionStatus.ACTIVE,
+            SubscriptionStatus.PENDING_ACTIVATION);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionLifecycleServiceImpl.class);
+
+    private SettingsFacade settingsFacade;
+    private MotechSchedulerService schedulerService;
+    private EventRelay eventRelay;
+    private InboxService inboxService;
+    private SubscriptionDataService subscriptionDataService;
+    private SubscriptionPackService subscriptionPackService;
+
+    private final Object sweepLock = new Object();
+
+
+    /**
+     * Use the MOTECH scheduler to setup a repeating job
+     * The job will start today at the time stored in kilkari.lifecycle_sweep_time in kilkari.properties
+     * It will repeat every kilkari.lifecycle_sweep_ms_interval milliseconds (default value is a day)
+     */
+    private void scheduleSweep() {
+        //Calculate today's fire time
+        DateTimeFormatter fmt = DateTimeFormat.forPattern("H:m");
+        String timeProp = settingsFacade.getProperty(LIFECYCLE_SWEEP_TIME);
+        DateTime time = fmt.parseDateTime(timeProp);
+        DateTime today = DateTime.now()
+                .withHourOfDay(time.getHourOfDay())
+                .withMinuteOfHour(time.getMinuteOfHour())
+                .withSecondOfMinute(0)
+                .withMillisOfSecond(0);
+
+        //Millisecond interval between events
+        Long msInterval = Long.parseLong(settingsFacade.getProperty(LIFECYCLE_SWEEP_MS_INTERVAL));
+
+        LOGGER.debug(String.format("The %s message will be sent every %sms starting %s",
+                SWEEP_SUBSCRIPTIONS_EVENT, msInterval.toString(), today.toString()));
+
+        //Schedule repeating job
+        MotechEvent event = new MotechEvent(SWEEP_SUBSCRIPTIONS_EVENT);
+        RepeatingSchedulableJob job = new RepeatingSchedulableJob(
+                event,          //MOTECH event
+                today.toDate(), //startTime
+                null,           //endTime, null means no end time
+                null,           //repeatCount, null means infinity
+                msInterval,     //repeatIntervalInMilliseconds
+                true);          //ignorePastFiresAtStart
+        schedulerService.safeScheduleRepeatingJob(job);
+    }
+
+
+    @Autowired
+    public SubscriptionLifecycleServiceImpl(@Qualifier("kilkariSettings") SettingsFacade settingsFacade,
+                                            MotechSchedulerService schedulerService, EventRelay eventRelay,
+                                            InboxService inboxService,
+                                            SubscriptionDataService subscriptionDataService,
+                                            SubscriptionPackService subscriptionPackService) {
+        this.settingsFacade = settingsFacade;
+        this.schedulerService = schedulerService;
+        this.eventRelay = eventRelay;
+        this.inboxService = inboxService;
+        this.subscriptionDataService = subscriptionDataService;
+        this.subscriptionPackService = subscriptionPackService;
+
+        scheduleSweep();
+    }
+
+
+    @Override
+    public SubscriptionSweepResult sweep(LocalDate today) {
+        synchronized (sweepLock) {
+            long startTime = System.currentTimeMillis();
+            int chunkSize = Integer.parseInt(settingsFacade.getProperty(LIFECYCLE_SWEEP_CHUNK_SIZE));
+            int[] batchCount = new int[1];
+
+            warnMissingStartDates();
+
+            long activated = apply(new Transition(PENDING, SubscriptionStatus.ACTIVE, null,
+                    SUBSCRIPTIONS_ACTIVATED_EVENT, "startDate <= today", "org.joda.time.LocalDate today",
+                    "today", today), chunkSize, batchCount);
+
+            long completed = 0;
+            SubscriptionPackRegistry registry = subscriptionPackService.getRegistry();
+            for (SubscriptionPack pack : registry.getPacks()) {
+                int weeks = registry.getWeekCount(pack.getName());
+                if (weeks == 0) {
+                    continue;
+                }
+
+                // The last message of the pack plays in its weeks'th week, the subscription is done the day after
+                completed += apply(new Transition(ACTIVE, SubscriptionStatus.COMPLETED, null,
+                        SUBSCRIPTIONS_COMPLETED_EVENT, "subscriptionPack.name == packName && startDate <= lastStart",
+                        "String packName, org.joda.time.LocalDate lastStart",
+                        "packName", pack.getName(), "lastStart", today.minusWeeks(weeks)), chunkSize, batchCount);
+            }
+
+            SubscriptionSweepResult result = new SubscriptionSweepResult(activated, completed, batchCount[0],
+                    System.currentTimeMillis() - startTime);
+            LOGGER.info("Swept Kilkari subscriptions for {}: {} activated, {} completed in {} batches, {}ms", today,
+                    activated, completed, result.getBatchCount(), result.getDurationMillis());
+
+            return result;
+        }
+    }
+
+
+    @MotechListener(subjects = { SWEEP_SUBSCRIPTIONS_EVENT })
+    public void sweep(MotechEvent event) {
+        LOGGER.info(event.toString());
+
+        try {
+            sweep(LocalDate.now());
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to sweep Kilkari subscriptions", e);
+        }
+
+        // The new day's inboxes are due even if the sweep failed, they're just missing what it didn't move
+        inboxService.refreshAllInboxes();
+    }
+
+
+    @Override
+    public BulkDeactivationResult deactivateSubscriptions(Collection<String> subscriptionIds,
+                                                          DeactivationReason reason) {
+        return deactivate(subscriptionIds, "keys.contains(subscriptionId)", reason);
+    }
+
+
+    @Override
+    public BulkDeactivationResult deactivateSubscribers(Collection<Long> callingNumbers, DeactivationReason reason) {
+        return deactivate(callingNumbers, "keys.contains(subscriber.callingNumber)", reason);
+    }
+
+
+    /*
+     * Deactivates the subscriptions matching the filter, a chunk of keys at a time
+     */
+    private BulkDeactivationResult deactivate(Collection<?> keys, String filter, DeactivationReason reason) {
+        long startTime = System.currentTimeMillis();
+        int chunkSize = Integer.parseInt(settingsFacade.getProperty(DEACTIVATION_CHUNK_SIZE));
+        int[] batchCount = new int[1];
+
+        List<Object> distinctKeys = new ArrayList<Object>(new LinkedHashSet<>(keys));
+        long deactivated = 0;
+        for (int start = 0; start < distinctKeys.size(); start += chunkSize) {
+            List<Object> chunk = distinctKeys.subList(start, Math.min(start + chunkSize, distinctKeys.size()));
+
+            // A chunk of calling numbers can match more subscriptions than the chunk size, apply() picks them all up
+            deactivated += apply(new Transition(ACTIVE_OR_PENDING, SubscriptionStatus.DEACTIVATED, reason,
+                    SUBSCRIPTIONS_DEACTIVATED_EVENT, filter, "java.util.Collection keys", "keys",
+                    new ArrayList<>(chunk)), chunkSize, batchCount);
+        }
+
+        BulkDeactivationResult result = new BulkDeactivationResult(distinctKeys.size(), deactivated, batchCount[0],
+                System.currentTimeMillis() - startTime);
+        LOGGER.info("Deactivated {} Kilkari subscriptions for {} keys ({}) in {} batches, {}ms", deactivated,
+                distinctKeys.size(), reason, result.getBatchCount(), result.getDurationMillis());
+
+        return result;
+    }
+
+
+    /*
+     * Applies the transition to every due subscription, a chunk at a time, and returns how many changed status
+     */
+    private long apply(Transition transition, int chunkSize, int[] batchCount) {
+        long total = 0;
+        Chunk chunk;
+        do {
+            chunk = applyChunk(transition, chunkSize);
+            if (chunk.picked == 0) {
+                break;
+            }
+            if (chunk.moved.isEmpty()) {
+                // Nothing we picked could be moved on, picking again would only pick the same chunk
+                LOGGER.warn("Unable to move {} subscriptions from {} to {}, giving up", chunk.picked,
+                        transition.from, transition.to);
+                break;
+            }
+
+            List<String> subscriptionIds = new ArrayList<>(chunk.moved.size());
+            List<Long> callingNumbers = new ArrayList<>(chunk.moved.size());
+            for (Object[] row : chunk.moved) {
+                subscriptionIds.add((String) row[1]);
+                callingNumbers.add((Long) row[2]);
+            }
+
+            total += chunk.moved.size();
+            batchCount[0]++;
+
+            Map<String, Object> params = new HashMap<>();
+            params.put(COUNT, (long) chunk.moved.size());
+            params.put(SUBSCRIPTION_IDS, subscriptionIds);
+            params.put(CALLING_NUMBERS, callingNumbers);
+            if (transition.reason != null) {
+                params.put(DEACTIVATION_REASON, transition.reason.name());
+            }
+            eventRelay.sendEventMessage(new MotechEvent(transition.subject, params));
+
+            if (transition.to == SubscriptionStatus.DEACTIVATED) {
+                // Unlike the daily transitions, deactivations can't wait for the next inbox refresh
+                inboxService.refreshInboxes(callingNumbers);
+            }
+
+        } while (chunk.picked == chunkSize);
+
+        return total;
+    }
+
+
+    /*
+     * Picks the next chunk of due subscriptions and moves them on, in one transaction
+     */
+    private Chunk applyChunk(final Transition transition, final int chunkSize) {
+        return subscriptionDataService.doInTransaction(new TransactionCallback<Chunk>() {
+            @Override
+            public Chunk doInTransaction(TransactionStatus status) {
+                List<Object[]> rows = findDue(transition, chunkSize);
+                if (rows.isEmpty()) {
+                    return new Chunk(0, rows);
+                }
+
+                List<Long> ids = new ArrayList<>(rows.size());
+                for (Object[] row : rows) {
+                    ids.add((Long) row[0]);
+                }
+
+                long updated = updateStatus(transition, ids);
+                if (updated == rows.size()) {
+                    return new Chunk(rows.size(), rows);
+                }
+
+                // The picked rows are locked until we commit: those now in the to status are the ones we moved
+                return new Chunk(rows.size(), findMoved(transition, ids));
+            }
+        });
+    }
+
+
+    /*
+     * The startDate filters never match a NULL start date, so such subscriptions would silently stay where they are
+     */
+    private void warnMissingStartDates() {
+        QueryExecution<Long> queryExecution = new QueryExecution<Long>() {
+            @Override
+            public Long execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("from.contains(status) && startDate == null");
+                query.declareParameters("java.util.Collection from");
+                query.setResult("count(this)");
+
+                return (Long) query.execute(ACTIVE_OR_PENDING);
+            }
+        };
+
+        Long missing = subscriptionDataService.executeQuery(queryExecution);
+        if (missing != null && missing > 0) {
+            LOGGER.warn("{} active or pending Kilkari subscriptions have no start date, they can't be swept", missing);
+        }
+    }
+
+
+    /*
+     * Returns the first chunk of subscriptions due for the transition, as [id, subscriptionId,
+     * subscriber.callingNumber] rows, locked until the transaction ends
+     */
+    private List<Object[]> findDue(final Transition transition, final int chunkSize) {
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<Object[]>> queryExecution = new QueryExecution<List<Object[]>>() {
+            @Override
+            public List<Object[]> execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter(transition.filter);
+                query.declareParameters(transition.parameters);
+                query.setResult("id, subscriptionId, subscriber.callingNumber");
+                query.setOrdering("id ascending");
+                query.setRange(0, chunkSize);
+                query.setSerializeRead(true);
+
+                return (List<Object[]>) query.executeWithMap(transition.values);
+            }
+        };
+
+        return subscriptionDataService.executeQuery(queryExecution);
+    }
+
+
+    /*
+     * Returns the subscriptions with the given ids which are in the transition's to status, as findDue rows
+     */
+    private List<Object[]> findMoved(final Transition transition, final List<Long> ids) {
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<Object[]>> queryExecution = new QueryExecution<List<Object[]>>() {
+            @Override
+            public List<Object[]> execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("status == to && ids.contains(id)");
+                query.declareParameters("org.motechproject.nms.kilkari.domain.SubscriptionStatus to, " +
+                        "java.util.Collection ids");
+                query.setResult("id, subscriptionId, subscriber.callingNumber");
+                query.setOrdering("id ascending");
+
+                return (List<Object[]>) query.execute(transition.to, ids);
+            }
+        };
+
+        return subscriptionDataService.executeQuery(queryExecution);
+    }
+
+
+    /*
+     * Moves the subscriptions which are still in one of the transition's from statuses, in one statement, then evicts
+     * them from the level 2 cache which the statement bypassed
+     */
+    private long updateStatus(final Transition transition, final List<Long> ids) {
+        QueryExecution<Long> queryExecution = new QueryExecution<Long>() {
+            @Override
+            public Long execute(Query query, InstanceSecurityRestriction restriction) {
+
+                PersistenceManager persistenceManager = query.getPersistenceManager();
+                Query update = persistenceManager.newQuery(String.format(
+                        "UPDATE %s SET this.status = :to, this.modificationDate = :now%s " +
+                                "WHERE :from.contains(this.status) && :ids.contains(this.id)",
+                        Subscription.class.getName(),
+                        transition.reason == null ? "" : ", this.deactivationReason = :reason"));
+                update.addExtension(ALLOW_ALL_JDOQL, "true");
+
+                Map<String, Object> params = new HashMap<>();
+                params.put("to", transition.to);
+                params.put("now", DateTime.now());
+                if (transition.reason != null) {
+                    params.put("reason", transition.reason);
+                }
+                params.put("from", transition.from);
+                params.put("ids", ids);
+
+                long updated = ((Number) update.executeWithMap(params)).longValue();
+
+                List<Object> objectIds = new ArrayList<>(ids.size());
+                for (Long id : ids) {
+                    objectIds.add(persistenceManager.newObjectIdInstance(Subscription.class, id));
+                }
+                persistenceManager.getPersistenceManagerFactory().getDataStoreCache().evictAll(objectIds);
+
+                return updated;
+            }
+        };
+
+        return subscriptionDataService.executeQuery(queryExecution);
+    }
+
+
+    private static final class Chunk {
+        // How many due subscriptions were picked, and the ones of them which were moved on
+        private final int picked;
+        private final List<Object[]> moved;
+
+        private Chunk(int picked, List<Object[]> moved) {
+            this.picked = picked;
+            this.moved = moved;
+        }
+    }
+
+
+    private static final class Transition {
+        private final List<SubscriptionStatus> from;
+        private final SubscriptionStatus to;
+        private final DeactivationReason reason;
+        private final String subject;
+        private final String filter;
+        private final String parameters;
+        private final Map<String, Object> values = new HashMap<>();
+
+        /**
+         * @param reason deactivation reason set along with the to status, null to leave it alone
+         * @param filter JDOQL filter the due subscriptions match on top of being in one of the from statuses
+         * @param parameters declaration of the filter's parameters
+         * @param values names and values of the filter's parameters, in turn
+         */
+        private Transition(List<SubscriptionStatus> from, SubscriptionStatus to, DeactivationReason reason,
+                           String subject, String filter, String parameters, Object... values) {
+            this.from = from;
+            this.to = to;
+            this.reason = reason;
+            this.subject = subject;
+            this.filter = "from.contains(status) && " + filter;
+            this.parameters = "java.util.Collection from, " + parameters;
+            this.values.put("from", from);
+            for (int i = 0; i < values.length; i += 2) {
+                this.values.put((String) values[i], values[i + 1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.motechproject.nms.kilkari.service.impl;
+
+import org.motechproject.nms.kilkari.dto.SubscriptionPackRegistry;
+import org.motechproject.nms.kilkari.repository.SubscriptionPackDataService;
+import org.motechproject.nms.kilkari.service.SubscriptionPackService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+
+/**
+ * Implementation of the {@link SubscriptionPackService} interface.
+ */
+@Service("subscriptionPackService")
+public class SubscriptionPackServiceImpl implements SubscriptionPackService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionPackServiceImpl.class);
+
+    private SubscriptionPackDataService subscriptionPackDataService;
+
+    private volatile SubscriptionPackRegistry registry;
+
+    private final Object loadLock = new Object();
+
+
+    @Autowired
+    public SubscriptionPackServiceImpl(SubscriptionPackDataService subscriptionPackDataService) {
+        this.subscriptionPackDataService = subscriptionPackDataService;
+    }
+
+
+    @Override
+    public SubscriptionPackRegistry getRegistry() {
+        SubscriptionPackRegistry current = registry;
+        if (current == null) {
+            synchronized (loadLock) {
+                current = registry;
+                if (current == null) {
+                    current = refresh();
+                }
+            }
+        }
+        return current;
+    }
+
+
+    @Override
+    public SubscriptionPackRegistry refresh() {
+        // In one transaction, so that the packs' messages are read before the packs are detached
+        SubscriptionPackRegistry loaded = subscriptionPackDataService.doInTransaction(
+                new TransactionCallback<SubscriptionPackRegistry>() {
+                    @Override
+                    public SubscriptionPackRegistry doInTransaction(TransactionStatus status) {
+                        return new SubscriptionPackRegistry(subscriptionPackDataService.retrieveAll());
+                    }
+                });
+        registry = loaded;
+
+        LOGGER.debug("Loaded {} subscription packs", loaded.getPacks().size());
+        return loaded;
+    }
+}
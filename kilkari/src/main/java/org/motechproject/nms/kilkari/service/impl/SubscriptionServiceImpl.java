@@ -10,10 +10,13 @@ import org.motechproject.nms.kilkari.domain.SubscriptionPack;
 import org.motechproject.nms.kilkari.domain.SubscriptionPackType;
 import org.motechproject.nms.kilkari.domain.SubscriptionPackMessage;
 import org.motechproject.nms.kilkari.domain.SubscriptionStatus;
+import org.motechproject.nms.kilkari.dto.SubscriptionPackRegistry;
 import org.motechproject.nms.kilkari.repository.InboxCallDetailsDataService;
 import org.motechproject.nms.kilkari.repository.SubscriptionDataService;
 import org.motechproject.nms.kilkari.repository.SubscriptionPackDataService;
+import org.motechproject.nms.kilkari.service.InboxService;
 import org.motechproject.nms.kilkari.service.SubscriberService;
+import org.motechproject.nms.kilkari.service.SubscriptionPackService;
 import org.motechproject.nms.kilkari.service.SubscriptionService;
 import org.motechproject.nms.language.domain.Language;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,18 +34,24 @@ public class SubscriptionServiceImpl implements SubscriptionService {
 
     private SubscriberService subscriberService;
     private SubscriptionPackDataService subscriptionPackDataService;
+    private SubscriptionPackService subscriptionPackService;
     private SubscriptionDataService subscriptionDataService;
     private InboxCallDetailsDataService inboxCallDetailsDataService;
+    private InboxService inboxService;
 
     @Autowired
     public SubscriptionServiceImpl(SubscriberService subscriberService,
                                    SubscriptionPackDataService subscriptionPackDataService,
+                                   SubscriptionPackService subscriptionPackService,
                                    SubscriptionDataService subscriptionDataService,
-                                   InboxCallDetailsDataService inboxCallDetailsDataService) {
+                                   InboxCallDetailsDataService inboxCallDetailsDataService,
+                                   InboxService inboxService) {
         this.subscriberService = subscriberService;
         this.subscriptionPackDataService = subscriptionPackDataService;
+        this.subscriptionPackService = subscriptionPackService;
         this.subscriptionDataService = subscriptionDataService;
         this.inboxCallDetailsDataService = inboxCallDetailsDataService;
+        this.inboxService = inboxService;
 
         createSubscriptionPacks();
     }
@@ -51,15 +60,26 @@ public class SubscriptionServiceImpl implements SubscriptionService {
     /*
      * Create the subscription packs for Kilkari -- a 48-week child pack and a 72-week pregnancy pack. This service
      * method is effectively internal, but made publicly-accessible so that it can be tested in our ITs.
+     *
+     * Also (re)loads the pack registry, which is how it gets loaded at startup.
      */
     @Override
     public final void createSubscriptionPacks() {
+        SubscriptionPackRegistry registry = subscriptionPackService.refresh();
+        boolean created = false;
+
         // TODO: make this less hard-coded and hacky once we get spec clarification re: how to populate the pack data
-        if (subscriptionPackDataService.byName("childPack") == null) {
+        if (registry.getPack("childPack") == null) {
             createSubscriptionPack("childPack", SubscriptionPackType.CHILD, 48, 1);
+            created = true;
         }
-        if (subscriptionPackDataService.byName("pregnancyPack") == null) {
+        if (registry.getPack("pregnancyPack") == null) {
             createSubscriptionPack("pregnancyPack", SubscriptionPackType.PREGNANCY, 72, 2);
+            created = true;
+        }
+
+        if (created) {
+            subscriptionPackService.refresh();
         }
     }
 
@@ -93,6 +113,8 @@ public class SubscriptionServiceImpl implements SubscriptionService {
         } else { // MCTS_UPLOAD
             createSubscriptionViaMcts(subscriber, subscriptionPack);
         }
+
+        inboxService.refreshInbox(callingNumber);
     }
 
     private void createSubscriptionViaIvr(Subscriber subscriber, SubscriptionPack pack) {
@@ -121,17 +143,9 @@ public class SubscriptionServiceImpl implements SubscriptionService {
 
     private void createSubscriptionViaMcts(Subscriber subscriber, SubscriptionPack pack) {
 
-        if (subscriber.getDateOfBirth() != null && pack.getType() == SubscriptionPackType.CHILD) {
-            if (subscriberHasActivePackType(subscriber, SubscriptionPackType.CHILD)) {
-                // TODO: #138 log the rejected subscription
-                return;
-            }
-        } else if (subscriber.getLastMenstrualPeriod() != null && subscriber.getDateOfBirth() == null &&
-                pack.getType() == SubscriptionPackType.PREGNANCY) {
-            if (subscriberHasActivePackType(subscriber, SubscriptionPackType.PREGNANCY)) {
-                // TODO: #138 log the rejected subscription
-                return;
-            }
+        if (isDuplicateMctsSubscription(subscriber, pack)) {
+            // TODO: #138 log the rejected subscription
+            return;
         }
 
         Subscription subscription = new Subscription(subscriber, pack, SubscriptionMode.MCTS_IMPORT);
@@ -141,7 +155,21 @@ public class SubscriptionServiceImpl implements SubscriptionService {
         subscriptionDataService.create(subscription);
     }
 
-    private boolean subscriberHasActivePackType(Subscriber subscriber, SubscriptionPackType type) {
+    /*
+     * MCTS may not give a subscriber a second child pack while one is active, nor a second pregnancy pack while one
+     * is active or pending activation. Shared with the bulk MCTS import.
+     */
+    static boolean isDuplicateMctsSubscription(Subscriber subscriber, SubscriptionPack pack) {
+        if (subscriber.getDateOfBirth() != null && pack.getType() == SubscriptionPackType.CHILD) {
+            return subscriberHasActivePackType(subscriber, SubscriptionPackType.CHILD);
+        } else if (subscriber.getLastMenstrualPeriod() != null && subscriber.getDateOfBirth() == null &&
+                pack.getType() == SubscriptionPackType.PREGNANCY) {
+            return subscriberHasActivePackType(subscriber, SubscriptionPackType.PREGNANCY);
+        }
+        return false;
+    }
+
+    private static boolean subscriberHasActivePackType(Subscriber subscriber, SubscriptionPackType type) {
         Iterator<Subscription> subscriptionIterator = subscriber.getSubscriptions().iterator();
         Subscription existingSubscription;
 
@@ -174,14 +202,14 @@ public class SubscriptionServiceImpl implements SubscriptionService {
             subscription.setDeactivationReason(reason);
             subscriptionDataService.update(subscription);
 
-            // Eventually more will happen here -- e.g. the user's Inbox will be decommissioned
+            inboxService.refreshInbox(subscription.getSubscriber().getCallingNumber());
         }
         // Else no-op
     }
 
     @Override
     public SubscriptionPack getSubscriptionPack(String name) {
-        return subscriptionPackDataService.byName(name);
+        return subscriptionPackService.getRegistry().getPack(name);
     }
 
     // TODO: move to a new InboxService eventually
@@ -8,7 +8,8 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
-        SubscriptionServiceBundleIT.class
+        SubscriptionServiceBundleIT.class,
+        MctsImportServiceBundleIT.class
 })
 public class IntegrationTests {
 }
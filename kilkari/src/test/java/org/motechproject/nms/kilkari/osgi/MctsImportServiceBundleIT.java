@@ -0,0 +1,184 @@
+package org.motechproject.nms.kilkari.osgi;
+
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.motechproject.nms.kilkari.domain.Subscriber;
+import org.motechproject.nms.kilkari.domain.Subscription;
+import org.motechproject.nms.kilkari.domain.SubscriptionMode;
+import org.motechproject.nms.kilkari.domain.SubscriptionPackType;
+import org.motechproject.nms.kilkari.domain.SubscriptionStatus;
+import org.motechproject.nms.kilkari.dto.MctsImportResult;
+import org.motechproject.nms.kilkari.repository.SubscriberDataService;
+import org.motechproject.nms.kilkari.repository.SubscriptionDataService;
+import org.motechproject.nms.kilkari.repository.SubscriptionPackDataService;
+import org.motechproject.nms.kilkari.repository.SubscriptionPackMessageDataService;
+import org.motechproject.nms.kilkari.service.MctsImportService;
+import org.motechproject.nms.kilkari.service.SubscriberService;
+import org.motechproject.nms.kilkari.service.SubscriptionService;
+import org.motechproject.nms.language.domain.Language;
+import org.motechproject.nms.language.repository.LanguageDataService;
+import org.motechproject.nms.location.domain.District;
+import org.motechproject.nms.location.domain.State;
+import org.motechproject.nms.location.repository.StateDataService;
+import org.motechproject.nms.location.service.LocationTreeService;
+import org.motechproject.testing.osgi.BasePaxIT;
+import org.motechproject.testing.osgi.container.MotechNativeTestContainerFactory;
+import org.ops4j.pax.exam.ExamFactory;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerSuite;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerSuite.class)
+@ExamFactory(MotechNativeTestContainerFactory.class)
+public class MctsImportServiceBundleIT extends BasePaxIT {
+    @Inject
+    private MctsImportService mctsImportService;
+
+    @Inject
+    private SubscriptionService subscriptionService;
+
+    @Inject
+    private SubscriberService subscriberService;
+
+    @Inject
+    private SubscriberDataService subscriberDataService;
+
+    @Inject
+    private SubscriptionDataService subscriptionDataService;
+
+    @Inject
+    private SubscriptionPackDataService subscriptionPackDataService;
+
+    @Inject
+    private SubscriptionPackMessageDataService subscriptionPackMessageDataService;
+
+    @Inject
+    private LanguageDataService languageDataService;
+
+    @Inject
+    private StateDataService stateDataService;
+
+    @Inject
+    private LocationTreeService locationTreeService;
+
+    @Before
+    public void cleanAll() {
+        subscriptionDataService.deleteAll();
+        subscriptionPackDataService.deleteAll();
+        subscriptionPackMessageDataService.deleteAll();
+        subscriberDataService.deleteAll();
+        languageDataService.deleteAll();
+
+        languageDataService.create(new Language("tamil", "10"));
+        subscriptionService.createSubscriptionPacks();
+    }
+
+    @Test
+    public void testImportBeneficiaries() throws IOException {
+        StringWriter rejects = new StringWriter();
+        MctsImportResult result = mctsImportService.importBeneficiaries(new StringReader(
+                "callingNumber,lmp,dob,languageCode,circle\n" +
+                "1000000001,2015-01-01,,10,AP\n" +
+                "1000000002,,2015-02-01,,\n" +
+                "1000000001,2015-01-05,,10,AP\n" +
+                "123,2015-01-01,,,\n" +
+                "1000000003,,,,\n" +
+                "1000000004,2015-01-01,,77,\n"), rejects);
+
+        assertEquals(6, result.getRowCount());
+        assertEquals(2, result.getImportedCount());
+        assertEquals(4, result.getRejectedCount());
+
+        List<String> rejected = Arrays.asList(rejects.toString().split(System.getProperty("line.separator")));
+        Collections.sort(rejected);
+        List<String> expected = Arrays.asList(
+                "4,1000000001,<pregnancyPack: Duplicate>",
+                "5,123,<callingNumber: Invalid>",
+                "6,1000000003,<lmp: Not Present>",
+                "7,1000000004,<languageCode: Not Found>");
+        assertEquals(expected, rejected);
+
+        Subscriber mother = subscriberService.getSubscriber(1000000001L);
+        assertEquals(new LocalDate(2015, 1, 5), mother.getLastMenstrualPeriod());
+        assertEquals("10", mother.getLanguage().getCode());
+        assertEquals(1, mother.getSubscriptions().size());
+
+        Subscription subscription = subscriberService.getSubscriber(1000000002L).getSubscriptions().iterator().next();
+        assertEquals(SubscriptionPackType.CHILD, subscription.getSubscriptionPack().getType());
+        assertEquals(SubscriptionMode.MCTS_IMPORT, subscription.getMode());
+    }
+
+    @Test
+    public void testImportSetsStartDate() throws IOException {
+        LocalDate today = LocalDate.now();
+        MctsImportResult result = mctsImportService.importBeneficiaries(new StringReader(
+                "callingNumber,lmp,dob\n" +
+                "1000000011," + today.minusDays(120) + ",\n" +
+                "1000000012," + today.minusDays(10) + ",\n" +
+                "1000000013,," + today.minusDays(7) + "\n"), new StringWriter());
+        assertEquals(3, result.getImportedCount());
+
+        // Pregnancy messages start 90 days after the LMP, child messages on the date of birth
+        Subscription started = getSubscription(1000000011L);
+        assertEquals(today.minusDays(30), started.getStartDate());
+        assertEquals(SubscriptionStatus.ACTIVE, started.getStatus());
+
+        Subscription pending = getSubscription(1000000012L);
+        assertEquals(today.plusDays(80), pending.getStartDate());
+        assertEquals(SubscriptionStatus.PENDING_ACTIVATION, pending.getStatus());
+
+        Subscription child = getSubscription(1000000013L);
+        assertEquals(today.minusDays(7), child.getStartDate());
+        assertEquals(SubscriptionStatus.ACTIVE, child.getStatus());
+    }
+
+    @Test
+    public void testImportChecksLocations() throws IOException {
+        State state = stateDataService.findByCode(71L);
+        if (state == null) {
+            District district = new District();
+            district.setName("District 711");
+            district.setRegionalName("District 711");
+            district.setCode(711L);
+
+            state = new State("State 71", 71L);
+            district.setState(state);
+            state.getDistricts().add(district);
+            stateDataService.create(state);
+        }
+        locationTreeService.refresh();
+
+        StringWriter rejects = new StringWriter();
+        MctsImportResult result = mctsImportService.importBeneficiaries(new StringReader(
+                "callingNumber,lmp,dob,stateCode,districtCode\n" +
+                "1000000021,2015-01-01,,71,711\n" +
+                "1000000022,2015-01-01,,,711\n" +
+                "1000000023,2015-01-01,,72,\n" +
+                "1000000024,2015-01-01,,71,712\n" +
+                "1000000025,2015-01-01,,x,\n"), rejects);
+
+        assertEquals(2, result.getImportedCount());
+        List<String> rejected = Arrays.asList(rejects.toString().split(System.getProperty("line.separator")));
+        assertEquals(Arrays.asList(
+                "4,1000000023,<stateCode: Not Found>",
+                "5,1000000024,<districtCode: Not Found>",
+                "6,1000000025,<stateCode: Invalid>"), rejected);
+    }
+
+    private Subscription getSubscription(long callingNumber) {
+        return subscriberService.getSubscriber(callingNumber).getSubscriptions().iterator().next();
+    }
+}
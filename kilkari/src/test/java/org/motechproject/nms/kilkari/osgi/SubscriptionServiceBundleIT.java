@@ -4,6 +4,7 @@ import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.motechproject.nms.kilkari.domain.DeactivationReason;
 import org.motechproject.nms.kilkari.domain.InboxCallData;
 import org.motechproject.nms.kilkari.domain.InboxCallDetails;
 import org.motechproject.nms.kilkari.domain.Subscriber;
@@ -12,6 +13,12 @@ import org.motechproject.nms.kilkari.domain.SubscriptionMode;
 import org.motechproject.nms.kilkari.domain.SubscriptionPack;
 import org.motechproject.nms.kilkari.domain.SubscriptionPackMessage;
 import org.motechproject.nms.kilkari.domain.SubscriptionPackType;
+import org.motechproject.nms.kilkari.domain.SubscriptionStatus;
+import org.motechproject.nms.kilkari.dto.BulkDeactivationResult;
+import org.motechproject.nms.kilkari.dto.InboxEntry;
+import org.motechproject.nms.kilkari.dto.SubscriberSummary;
+import org.motechproject.nms.kilkari.dto.SubscriptionPackRegistry;
+import org.motechproject.nms.kilkari.dto.SubscriptionSweepResult;
 import org.motechproject.nms.kilkari.repository.InboxCallDataDataService;
 import org.motechproject.nms.kilkari.repository.InboxCallDetailsDataService;
 import org.motechproject.nms.kilkari.repository.SubscriberDataService;
@@ -19,6 +26,8 @@ import org.motechproject.nms.kilkari.repository.SubscriptionDataService;
 import org.motechproject.nms.kilkari.repository.SubscriptionPackDataService;
 import org.motechproject.nms.kilkari.repository.SubscriptionPackMessageDataService;
 import org.motechproject.nms.kilkari.service.SubscriberService;
+import org.motechproject.nms.kilkari.service.SubscriptionLifecycleService;
+import org.motechproject.nms.kilkari.service.SubscriptionPackService;
 import org.motechproject.nms.kilkari.service.SubscriptionService;
 import org.motechproject.nms.language.domain.Language;
 import org.motechproject.nms.language.repository.LanguageDataService;
@@ -35,6 +44,7 @@ import java.util.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 /**
  * Verify that SubscriptionService is present & functional.
@@ -49,6 +59,10 @@ public class SubscriptionServiceBundleIT extends BasePaxIT {
     @Inject
     private SubscriptionService subscriptionService;
     @Inject
+    private SubscriptionLifecycleService subscriptionLifecycleService;
+    @Inject
+    private SubscriptionPackService subscriptionPackService;
+    @Inject
     private SubscriberDataService subscriberDataService;
     @Inject
     private SubscriptionPackDataService subscriptionPackDataService;
@@ -249,4 +263,149 @@ public class SubscriptionServiceBundleIT extends BasePaxIT {
         assertEquals(pack1, subscription.getSubscriptionPack());
     }
 
+    private String createSubscription(SubscriptionPack pack, SubscriptionStatus status, LocalDate startDate) {
+        Subscriber subscriber = subscriberService.getSubscriber(1111111111L);
+        Subscription subscription = new Subscription(subscriber, pack, SubscriptionMode.IVR);
+        subscription.setStatus(status);
+        subscription.setStartDate(startDate);
+        return subscriptionDataService.create(subscription).getSubscriptionId();
+    }
+
+    @Test
+    public void testLifecycleSweep() throws Exception {
+        cleanupData();
+        subscriptionService.createSubscriptionPacks();
+        subscriberService.add(new Subscriber(1111111111L));
+
+        LocalDate today = LocalDate.now();
+        SubscriptionPack childPack = subscriptionPackDataService.byName("childPack");
+        String startsToday = createSubscription(childPack, SubscriptionStatus.PENDING_ACTIVATION, today);
+        String startsTomorrow = createSubscription(childPack, SubscriptionStatus.PENDING_ACTIVATION,
+                today.plusDays(1));
+        String finished = createSubscription(childPack, SubscriptionStatus.ACTIVE, today.minusWeeks(48));
+        String inLastWeek = createSubscription(childPack, SubscriptionStatus.ACTIVE, today.minusWeeks(48).plusDays(1));
+        String noStartDate = createSubscription(childPack, SubscriptionStatus.ACTIVE, null);
+
+        SubscriptionSweepResult result = subscriptionLifecycleService.sweep(today);
+        assertEquals(1, result.getActivatedCount());
+        assertEquals(1, result.getCompletedCount());
+        assertEquals(2, result.getBatchCount());
+
+        assertEquals(SubscriptionStatus.ACTIVE, subscriptionService.getSubscription(startsToday).getStatus());
+        assertEquals(SubscriptionStatus.PENDING_ACTIVATION,
+                subscriptionService.getSubscription(startsTomorrow).getStatus());
+        assertEquals(SubscriptionStatus.COMPLETED, subscriptionService.getSubscription(finished).getStatus());
+        assertEquals(SubscriptionStatus.ACTIVE, subscriptionService.getSubscription(inLastWeek).getStatus());
+
+        // Left alone, and doesn't hold the sweep up
+        assertEquals(SubscriptionStatus.ACTIVE, subscriptionService.getSubscription(noStartDate).getStatus());
+
+        // Nothing left to do
+        result = subscriptionLifecycleService.sweep(today);
+        assertEquals(0, result.getActivatedCount() + result.getCompletedCount());
+    }
+
+    @Test
+    public void testBulkDeactivation() throws Exception {
+        cleanupData();
+        subscriptionService.createSubscriptionPacks();
+        subscriberService.add(new Subscriber(1111111111L));
+        subscriberService.add(new Subscriber(2222222222L));
+
+        LocalDate today = LocalDate.now();
+        SubscriptionPack childPack = subscriptionPackDataService.byName("childPack");
+        SubscriptionPack pregnancyPack = subscriptionPackDataService.byName("pregnancyPack");
+        String active = createSubscription(childPack, SubscriptionStatus.ACTIVE, today.minusWeeks(2));
+        String pending = createSubscription(pregnancyPack, SubscriptionStatus.PENDING_ACTIVATION, today.plusWeeks(2));
+        String completed = createSubscription(childPack, SubscriptionStatus.COMPLETED, today.minusWeeks(60));
+
+        Subscription other = new Subscription(subscriberService.getSubscriber(2222222222L), childPack,
+                SubscriptionMode.IVR);
+        other.setStatus(SubscriptionStatus.ACTIVE);
+        other.setStartDate(today);
+        String otherId = subscriptionDataService.create(other).getSubscriptionId();
+
+        // Duplicate and unknown numbers are fine
+        BulkDeactivationResult result = subscriptionLifecycleService.deactivateSubscribers(
+                Arrays.asList(1111111111L, 1111111111L, 3333333333L), DeactivationReason.DO_NOT_DISTURB);
+        assertEquals(2, result.getRequestedCount());
+        assertEquals(2, result.getDeactivatedCount());
+        assertEquals(1, result.getBatchCount());
+
+        for (String subscriptionId : Arrays.asList(active, pending)) {
+            Subscription subscription = subscriptionService.getSubscription(subscriptionId);
+            assertEquals(SubscriptionStatus.DEACTIVATED, subscription.getStatus());
+            assertEquals(DeactivationReason.DO_NOT_DISTURB, subscription.getDeactivationReason());
+        }
+        assertEquals(SubscriptionStatus.COMPLETED, subscriptionService.getSubscription(completed).getStatus());
+        assertEquals(SubscriptionStatus.ACTIVE, subscriptionService.getSubscription(otherId).getStatus());
+
+        result = subscriptionLifecycleService.deactivateSubscriptions(Arrays.asList(otherId, active),
+                DeactivationReason.CHILD_DEATH);
+        assertEquals(1, result.getDeactivatedCount());
+        assertEquals(DeactivationReason.CHILD_DEATH,
+                subscriptionService.getSubscription(otherId).getDeactivationReason());
+        assertEquals(DeactivationReason.DO_NOT_DISTURB,
+                subscriptionService.getSubscription(active).getDeactivationReason());
+    }
+
+    @Test
+    public void testSubscriptionPackRegistry() throws Exception {
+        cleanupData();
+        subscriptionService.createSubscriptionPacks();
+
+        SubscriptionPackRegistry registry = subscriptionPackService.getRegistry();
+        assertEquals("childPack", registry.getPack(SubscriptionPackType.CHILD).getName());
+        assertEquals(SubscriptionPackType.PREGNANCY, registry.getPack("pregnancyPack").getType());
+        assertEquals(48, registry.getWeekCount("childPack"));
+        assertEquals(72, registry.getWeekCount("pregnancyPack"));
+        assertNull(registry.getPack("pack1"));
+
+        // Two messages a week: the second one plays from the fourth day of the week on
+        LocalDate startDate = new LocalDate(2015, 1, 1);
+        InboxEntry entry = registry.getMessage("id", "pregnancyPack", startDate, startDate.plusDays(10));
+        assertEquals("2_2", entry.getWeekId());
+        assertEquals("week2-2.wav", entry.getContentFileName());
+        assertNull(registry.getMessage("id", "childPack", startDate, startDate.plusWeeks(48)));
+        assertNull(registry.getMessage("id", "childPack", startDate, startDate.minusDays(1)));
+        assertNull(registry.getMessage("id", "childPack", null, startDate));
+
+        // The previous week's last message stays in the inbox, up to a week after the pack ran out
+        entry = registry.getPreviousWeekMessage("id", "pregnancyPack", startDate, startDate.plusDays(10));
+        assertEquals("1_2", entry.getWeekId());
+        assertEquals("week1-2.wav", entry.getContentFileName());
+        assertEquals("48_1", registry.getPreviousWeekMessage("id", "childPack", startDate,
+                startDate.plusWeeks(48)).getWeekId());
+        assertNull(registry.getPreviousWeekMessage("id", "childPack", startDate, startDate.plusDays(6)));
+        assertNull(registry.getPreviousWeekMessage("id", "childPack", startDate, startDate.plusWeeks(49)));
+
+        // A pack created behind the registry's back is unknown until the registry is refreshed: asking for it doesn't
+        // reload the registry
+        subscriptionPackDataService.create(new SubscriptionPack("pack1", SubscriptionPackType.CHILD, 1, null));
+        assertNull(subscriptionPackService.getRegistry().getPack("pack1"));
+        assertNull(subscriptionService.getSubscriptionPack("pack1"));
+        assertSame(registry, subscriptionPackService.getRegistry());
+
+        subscriptionPackService.refresh();
+        assertNotNull(subscriptionService.getSubscriptionPack("pack1"));
+    }
+
+    @Test
+    public void testSubscriberSummaryWithoutLanguage() throws Exception {
+        cleanupData();
+        createLanguageAndSubscriptionPacks();
+
+        subscriberService.add(new Subscriber(1111111111L));
+        subscriberService.add(new Subscriber(2222222222L, languageDataService.findByCode("10")));
+
+        SubscriberSummary summary = subscriberService.getSubscriberSummary(1111111111L);
+        assertNotNull(summary);
+        assertNull(summary.getLanguageCode());
+
+        Map<Long, SubscriberSummary> summaries = subscriberService.getSubscriberSummaries(
+                Arrays.asList(1111111111L, 2222222222L));
+        assertEquals(2, summaries.size());
+        assertNull(summaries.get(1111111111L).getLanguageCode());
+        assertEquals("10", summaries.get(2222222222L).getLanguageCode());
+    }
 }
@@ -0,0 +1,79 @@
+package org.motechproject.nms.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Client side latencies and outcomes of the requests made to one endpoint during a load test. Every latency is kept so
+ * that percentiles are exact, a load test run only makes a few million requests at most.
+ */
+public class EndpointStats {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final String endpoint;
+    private long[] latencies = new long[INITIAL_CAPACITY];
+    private int count;
+    private final Map<Integer, Integer> statusCounts = new TreeMap<>();
+    private int errors;
+
+    public EndpointStats(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public synchronized void record(long latencyNanos, int status) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latencyNanos;
+
+        Integer statusCount = statusCounts.get(status);
+        statusCounts.put(status, statusCount == null ? 1 : statusCount + 1);
+        if (status < 200 || status >= 300) {
+            errors++;
+        }
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized int getErrors() {
+        return errors;
+    }
+
+    public synchronized Map<Integer, Integer> getStatusCounts() {
+        return new TreeMap<>(statusCounts);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency at or below which the given percentage of requests completed, in milliseconds
+     */
+    public synchronized double getLatencyAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))] / NANOS_PER_MILLI;
+    }
+
+    public synchronized double getMeanLatency() {
+        if (count == 0) {
+            return 0;
+        }
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += latencies[i];
+        }
+        return total / NANOS_PER_MILLI / count;
+    }
+}
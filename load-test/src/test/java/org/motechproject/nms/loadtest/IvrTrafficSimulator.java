@@ -0,0 +1,298 @@
+package org.motechproject.nms.loadtest;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.ObjectNode;
+import org.motechproject.nms.api.web.BaseController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays the IMI call mix against the API, from a fixed number of concurrent callers each making one call after
+ * the other with no think time (a closed loop, so throughput is what the API sustains at that concurrency):
+ *
+ *   Mobile Kunji and Mobile Academy calls: user, languageLocationCode when the caller has none yet, callDetails
+ *   Kilkari inbox calls: inbox, inboxCallDetails
+ *
+ * A share of the FLW calls come from numbers the API has never seen, as happens when an FLW first calls in.
+ */
+public class IvrTrafficSimulator {
+
+    // Call mix, in percent
+    public static final int MOBILE_KUNJI_SHARE = 45;
+    public static final int MOBILE_ACADEMY_SHARE = 15;
+    public static final int NEW_CALLER_SHARE = 10;
+
+    public static final String OPERATOR = "A";
+    public static final String CIRCLE = "AP";
+    public static final String LANGUAGE_LOCATION_CODE = "10";
+
+    private static final int PERCENT = 100;
+    private static final long FIRST_NEW_CALLER_NUMBER = 7000000000L;
+    private static final long SECONDS_PER_CALL = 60;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IvrTrafficSimulator.class);
+
+    private final String baseUrl;
+    private final String authorization;
+    private final List<Long> flwNumbers;
+    private final List<Long> subscriberNumbers;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicLong callIds = new AtomicLong(BaseController.SMALLEST_15_DIGIT_NUMBER);
+    private final AtomicLong newCallerNumbers = new AtomicLong(FIRST_NEW_CALLER_NUMBER);
+    private final ConcurrentMap<String, EndpointStats> stats = new ConcurrentHashMap<>();
+
+    private DefaultHttpClient httpClient;
+
+    /**
+     * @param baseUrl eg: http://localhost:8181/api
+     * @param username user the requests are authenticated as
+     * @param password its password
+     * @param flwNumbers the contact numbers of the FLWs in the database
+     * @param subscriberNumbers the calling numbers of the Kilkari subscribers in the database
+     */
+    public IvrTrafficSimulator(String baseUrl, String username, String password, List<Long> flwNumbers,
+                               List<Long> subscriberNumbers) {
+        this.baseUrl = baseUrl;
+        this.authorization = "Basic " + DatatypeConverter.printBase64Binary((username + ":" + password)
+                .getBytes(UTF_8));
+        this.flwNumbers = flwNumbers;
+        this.subscriberNumbers = subscriberNumbers;
+    }
+
+    /**
+     * Runs the simulation.
+     *
+     * @param concurrency number of concurrent callers
+     * @param durationSeconds how long to run for
+     * @return the statistics of each endpoint, by endpoint
+     */
+    public Map<String, EndpointStats> run(int concurrency, long durationSeconds) throws InterruptedException {
+        PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(concurrency);
+        connectionManager.setDefaultMaxPerRoute(concurrency);
+        httpClient = new DefaultHttpClient(connectionManager);
+
+        final long deadline = System.currentTimeMillis() + durationSeconds * 1000;
+        ExecutorService callers = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                final Random random = new Random(i);
+                futures.add(callers.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        while (System.currentTimeMillis() < deadline) {
+                            call(random);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Caller failed", e.getCause());
+        } finally {
+            callers.shutdownNow();
+            connectionManager.shutdown();
+        }
+
+        return new TreeMap<>(stats);
+    }
+
+    private void call(Random random) {
+        int scenario = random.nextInt(PERCENT);
+        try {
+            if (scenario < MOBILE_KUNJI_SHARE) {
+                flwCall(random, BaseController.MOBILE_KUNJI);
+            } else if (scenario < MOBILE_KUNJI_SHARE + MOBILE_ACADEMY_SHARE) {
+                flwCall(random, BaseController.MOBILE_ACADEMY);
+            } else {
+                kilkariCall(random);
+            }
+        } catch (IOException e) {
+            // Connection problems are the API's failures as much as error statuses are
+            LOGGER.warn("Call failed: {}", e.getMessage());
+            record("IO error", 0, 0);
+        }
+    }
+
+    private void flwCall(Random random, String serviceName) throws IOException {
+        long callingNumber = random.nextInt(PERCENT) < NEW_CALLER_SHARE ? newCallerNumbers.getAndIncrement() :
+                flwNumbers.get(random.nextInt(flwNumbers.size()));
+        long callId = callIds.getAndIncrement();
+        long callStartTime = System.currentTimeMillis() / 1000;
+
+        JsonNode user = execute("GET /" + serviceName + "/user", new HttpGet(String.format(
+                "%s/%s/user?callingNumber=%d&operator=%s&circle=%s&callId=%d", baseUrl, serviceName, callingNumber,
+                OPERATOR, CIRCLE, callId)));
+        if (user == null) {
+            return;
+        }
+
+        if (user.path("languageLocationCode").isMissingNode() || user.get("languageLocationCode").isNull()) {
+            ObjectNode languageRequest = mapper.createObjectNode();
+            languageRequest.put("callingNumber", callingNumber);
+            languageRequest.put("callId", callId);
+            languageRequest.put("languageLocationCode", LANGUAGE_LOCATION_CODE);
+            execute("POST /" + serviceName + "/languageLocationCode",
+                    post(String.format("%s/%s/languageLocationCode", baseUrl, serviceName), languageRequest));
+        }
+
+        ObjectNode content = mapper.createObjectNode();
+        content.put("contentName", "Chapter-01");
+        content.put("contentFileName", "Chapter-01.wav");
+        content.put("startTime", callStartTime);
+        content.put("endTime", callStartTime + SECONDS_PER_CALL);
+        if (BaseController.MOBILE_KUNJI.equals(serviceName)) {
+            content.put("mkCardNumber", "a");
+        } else {
+            content.put("type", "lesson");
+            content.put("completionFlag", true);
+        }
+
+        ObjectNode callDetails = mapper.createObjectNode();
+        callDetails.put("callingNumber", callingNumber);
+        callDetails.put("callId", callId);
+        callDetails.put("operator", OPERATOR);
+        callDetails.put("circle", CIRCLE);
+        callDetails.put("callStartTime", callStartTime);
+        callDetails.put("callEndTime", callStartTime + SECONDS_PER_CALL);
+        callDetails.put("callDurationInPulses", SECONDS_PER_CALL);
+        callDetails.put("endOfUsagePromptCounter", 0);
+        callDetails.put("welcomeMessagePromptFlag", false);
+        callDetails.put("callStatus", 1);
+        callDetails.put("callDisconnectReason", 1);
+        callDetails.putArray("content").add(content);
+
+        execute("POST /" + serviceName + "/callDetails",
+                post(String.format("%s/%s/callDetails", baseUrl, serviceName), callDetails));
+    }
+
+    private void kilkariCall(Random random) throws IOException {
+        long callingNumber = subscriberNumbers.get(random.nextInt(subscriberNumbers.size()));
+        long callId = callIds.getAndIncrement();
+        long callStartTime = System.currentTimeMillis() / 1000;
+
+        JsonNode inbox = execute("GET /kilkari/inbox", new HttpGet(String.format(
+                "%s/kilkari/inbox?callingNumber=%d&callId=%d", baseUrl, callingNumber, callId)));
+        if (inbox == null) {
+            return;
+        }
+
+        ObjectNode inboxCallDetails = mapper.createObjectNode();
+        inboxCallDetails.put("callingNumber", callingNumber);
+        inboxCallDetails.put("operator", OPERATOR);
+        inboxCallDetails.put("circle", CIRCLE);
+        inboxCallDetails.put("callId", callId);
+        inboxCallDetails.put("callStartTime", callStartTime);
+        inboxCallDetails.put("callEndTime", callStartTime + SECONDS_PER_CALL);
+        inboxCallDetails.put("callDurationInPulses", SECONDS_PER_CALL);
+        inboxCallDetails.put("callStatus", 1);
+        inboxCallDetails.put("callDisconnectReason", 1);
+        ArrayNode content = inboxCallDetails.putArray("content");
+        content.add(inboxContent("48WeeksPack", callStartTime));
+        content.add(inboxContent("72WeeksPack", callStartTime));
+
+        execute("POST /kilkari/inboxCallDetails", post(baseUrl + "/kilkari/inboxCallDetails", inboxCallDetails));
+    }
+
+    private ObjectNode inboxContent(String subscriptionPack, long startTime) {
+        ObjectNode content = mapper.createObjectNode();
+        content.put("subscriptionId", UUID.randomUUID().toString());
+        content.put("subscriptionPack", subscriptionPack);
+        content.put("inboxWeekId", "w1_1");
+        content.put("contentFileName", "w1_1.wav");
+        content.put("startTime", startTime);
+        content.put("endTime", startTime + SECONDS_PER_CALL / 2);
+        return content;
+    }
+
+    private HttpPost post(String url, JsonNode body) throws IOException {
+        HttpPost httpPost = new HttpPost(url);
+        httpPost.setEntity(new StringEntity(mapper.writeValueAsString(body), UTF_8));
+        httpPost.setHeader("Content-type", "application/json");
+        return httpPost;
+    }
+
+    /**
+     * @return the response body of a successful request, or null if the request failed
+     */
+    private JsonNode execute(String endpoint, HttpUriRequest request) throws IOException {
+        request.setHeader("Authorization", authorization);
+
+        long start = System.nanoTime();
+        HttpResponse response = httpClient.execute(request);
+        String body = response.getEntity() == null ? null : EntityUtils.toString(response.getEntity(), UTF_8);
+        long latency = System.nanoTime() - start;
+
+        int status = response.getStatusLine().getStatusCode();
+        record(endpoint, status, latency);
+
+        if (status != HttpStatus.SC_OK) {
+            LOGGER.debug("{} returned {}: {}", endpoint, status, body);
+            return null;
+        }
+        return body == null || body.isEmpty() ? mapper.createObjectNode() : mapper.readTree(body);
+    }
+
+    private void record(String endpoint, int status, long latencyNanos) {
+        EndpointStats endpointStats = stats.get(endpoint);
+        if (endpointStats == null) {
+            stats.putIfAbsent(endpoint, new EndpointStats(endpoint));
+            endpointStats = stats.get(endpoint);
+        }
+        endpointStats.record(latencyNanos, status);
+    }
+
+    /**
+     * @param stats the statistics returned by {@link #run(int, long)}
+     * @param durationSeconds how long the simulation ran for
+     * @return a table of throughput and latency percentiles by endpoint
+     */
+    public static String format(Map<String, EndpointStats> stats, long durationSeconds) {
+        StringBuilder report = new StringBuilder(String.format("%-36s %9s %7s %8s %9s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "errors", "req/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms"));
+        for (EndpointStats endpointStats : stats.values()) {
+            report.append(String.format("%-36s %9d %7d %8.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    endpointStats.getEndpoint(), endpointStats.getCount(), endpointStats.getErrors(),
+                    (double) endpointStats.getCount() / durationSeconds, endpointStats.getMeanLatency(),
+                    endpointStats.getLatencyAtPercentile(50), endpointStats.getLatencyAtPercentile(90),
+                    endpointStats.getLatencyAtPercentile(99), endpointStats.getLatencyAtPercentile(99.9)));
+            if (endpointStats.getErrors() > 0) {
+                report.append(String.format("    statuses: %s%n", endpointStats.getStatusCounts()));
+            }
+        }
+        return report.toString();
+    }
+}
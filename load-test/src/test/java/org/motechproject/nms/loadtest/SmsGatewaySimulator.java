@@ -0,0 +1,177 @@
+package org.motechproject.nms.loadtest;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stands in for the SMS gateway after a completion certificate batch: posts the delivery receipts of a number of
+ * messages to the API as fast as it takes them, from a fixed number of concurrent connections.
+ *
+ * Every message gets a DeliveredToNetwork receipt and then a DeliveredToTerminal one. Receipts are mostly sent in
+ * batches, some one at a time, and a share of the requests are sent twice, as the gateway does when it gets no
+ * answer in time.
+ */
+public class SmsGatewaySimulator {
+
+    public static final int BATCH_SIZE = 100;
+
+    // In percent of the requests
+    public static final int SINGLE_RECEIPT_SHARE = 10;
+    public static final int RESENT_SHARE = 5;
+
+    private static final int PERCENT = 100;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SmsGatewaySimulator.class);
+
+    private final String url;
+    private final String authorization;
+    private final List<Long> callingNumbers;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final EndpointStats stats = new EndpointStats("POST /mobileacademy/smsdelivery");
+
+    private DefaultHttpClient httpClient;
+
+    /**
+     * @param baseUrl eg: http://localhost:8181/api
+     * @param username user the requests are authenticated as
+     * @param password its password
+     * @param callingNumbers the numbers the messages were sent to, in turn
+     */
+    public SmsGatewaySimulator(String baseUrl, String username, String password, List<Long> callingNumbers) {
+        this.url = baseUrl + "/mobileacademy/smsdelivery";
+        this.authorization = "Basic " + DatatypeConverter.printBase64Binary((username + ":" + password)
+                .getBytes(UTF_8));
+        this.callingNumbers = callingNumbers;
+    }
+
+    /**
+     * @param message index of the message
+     * @return the id the gateway gave it
+     */
+    public static String messageId(int message) {
+        return String.format("sms-%08d", message);
+    }
+
+    /**
+     * Sends the receipts of every message, all the DeliveredToNetwork ones first.
+     *
+     * @param concurrency number of concurrent connections
+     * @param messageCount number of messages
+     * @return the statistics of the requests made
+     */
+    public EndpointStats run(int concurrency, final int messageCount) throws InterruptedException {
+        PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(concurrency);
+        connectionManager.setDefaultMaxPerRoute(concurrency);
+        httpClient = new DefaultHttpClient(connectionManager);
+
+        // Each unit of work sends the receipts of BATCH_SIZE messages, in one request or one request per receipt
+        final int requestCount = 2 * ((messageCount + BATCH_SIZE - 1) / BATCH_SIZE);
+        final AtomicInteger nextRequest = new AtomicInteger();
+
+        ExecutorService connections = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                final Random random = new Random(i);
+                futures.add(connections.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        int request;
+                        while ((request = nextRequest.getAndIncrement()) < requestCount) {
+                            String status = request < requestCount / 2 ? "DeliveredToNetwork" : "DeliveredToTerminal";
+                            int first = (request % (requestCount / 2)) * BATCH_SIZE;
+                            sendReceipts(random, status, first, Math.min(first + BATCH_SIZE, messageCount));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Gateway connection failed", e.getCause());
+        } finally {
+            connections.shutdownNow();
+            connectionManager.shutdown();
+        }
+
+        return stats;
+    }
+
+    private void sendReceipts(Random random, String status, int first, int end) {
+        try {
+            if (random.nextInt(PERCENT) < SINGLE_RECEIPT_SHARE) {
+                for (int message = first; message < end; message++) {
+                    send(random, receipt(message, status));
+                }
+            } else {
+                ArrayNode receipts = mapper.createArrayNode();
+                for (int message = first; message < end; message++) {
+                    receipts.add(receipt(message, status));
+                }
+                send(random, receipts);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Receipts failed: {}", e.getMessage());
+            stats.record(0, 0);
+        }
+    }
+
+    private ObjectNode receipt(int message, String status) {
+        ObjectNode receipt = mapper.createObjectNode();
+        receipt.put("messageId", messageId(message));
+        receipt.put("callingNumber", callingNumbers.get(message % callingNumbers.size()));
+        receipt.put("deliveryStatus", status);
+        return receipt;
+    }
+
+    private void send(Random random, Object body) throws IOException {
+        String json = mapper.writeValueAsString(body);
+        post(json);
+        if (random.nextInt(PERCENT) < RESENT_SHARE) {
+            post(json);
+        }
+    }
+
+    private void post(String json) throws IOException {
+        HttpPost httpPost = new HttpPost(url);
+        httpPost.setEntity(new StringEntity(json, UTF_8));
+        httpPost.setHeader("Content-type", "application/json");
+        httpPost.setHeader("Authorization", authorization);
+
+        long start = System.nanoTime();
+        HttpResponse response = httpClient.execute(httpPost);
+        String body = response.getEntity() == null ? null : EntityUtils.toString(response.getEntity(), UTF_8);
+        int status = response.getStatusLine().getStatusCode();
+        stats.record(System.nanoTime() - start, status);
+
+        if (status != HttpStatus.SC_OK) {
+            LOGGER.debug("Receipts returned {}: {}", status, body);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package org.motechproject.nms.loadtest.osgi;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.motechproject.nms.api.repository.ProcessedCallDataService;
+import org.motechproject.nms.flw.domain.FrontLineWorker;
+import org.motechproject.nms.flw.domain.Service;
+import org.motechproject.nms.flw.domain.ServiceUsageCap;
+import org.motechproject.nms.flw.domain.WhitelistEntry;
+import org.motechproject.nms.flw.repository.CallContentDataService;
+import org.motechproject.nms.flw.repository.CallDetailRecordDataService;
+import org.motechproject.nms.flw.repository.FrontLineWorkerDataService;
+import org.motechproject.nms.flw.repository.ServiceUsageCapDataService;
+import org.motechproject.nms.flw.repository.ServiceUsageDataService;
+import org.motechproject.nms.flw.repository.WhitelistEntryDataService;
+import org.motechproject.nms.flw.service.CallDetailRecordQueueService;
+import org.motechproject.nms.flw.service.FrontLineWorkerService;
+import org.motechproject.nms.kilkari.domain.SubscriptionMode;
+import org.motechproject.nms.kilkari.domain.SubscriptionPack;
+import org.motechproject.nms.kilkari.repository.InboxCallDataDataService;
+import org.motechproject.nms.kilkari.repository.InboxCallDetailsDataService;
+import org.motechproject.nms.kilkari.repository.SubscriberDataService;
+import org.motechproject.nms.kilkari.repository.SubscriptionDataService;
+import org.motechproject.nms.kilkari.service.InboxCallDetailsQueueService;
+import org.motechproject.nms.kilkari.service.SubscriptionService;
+import org.motechproject.nms.language.domain.CircleLanguage;
+import org.motechproject.nms.language.domain.Language;
+import org.motechproject.nms.language.repository.CircleLanguageDataService;
+import org.motechproject.nms.language.repository.LanguageDataService;
+import org.motechproject.nms.loadtest.EndpointStats;
+import org.motechproject.nms.loadtest.IvrTrafficSimulator;
+import org.motechproject.nms.loadtest.SmsGatewaySimulator;
+import org.motechproject.nms.location.domain.District;
+import org.motechproject.nms.location.domain.State;
+import org.motechproject.nms.location.repository.StateDataService;
+import org.motechproject.nms.mobileacademy.domain.DeliveryStatus;
+import org.motechproject.nms.mobileacademy.domain.SmsDeliveryRecord;
+import org.motechproject.nms.mobileacademy.repository.SmsDeliveryRecordDataService;
+import org.motechproject.nms.mobileacademy.service.SmsDeliveryStatusService;
+import org.motechproject.testing.osgi.BasePaxIT;
+import org.motechproject.testing.osgi.container.MotechNativeTestContainerFactory;
+import org.motechproject.testing.utils.TestContext;
+import org.ops4j.pax.exam.ExamFactory;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerSuite;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays the IMI call mix against the API bundle, seeded with synthetic FLWs, subscribers and whitelists, and
+ * reports throughput and latency percentiles per endpoint. Tuned with the loadtest.* system properties, see
+ * load-test/pom.xml.
+ */
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerSuite.class)
+@ExamFactory(MotechNativeTestContainerFactory.class)
+public class ApiLoadBundleIT extends BasePaxIT {
+    private static final String ADMIN_USERNAME = "motech";
+    private static final String ADMIN_PASSWORD = "motech";
+
+    private static final long FIRST_FLW_NUMBER = 5000000000L;
+    private static final long FIRST_SUBSCRIBER_NUMBER = 6000000000L;
+
+    // One FLW in ten is in the whitelisted state, one in two already picked their language
+    private static final int WHITELISTED_FLW_EVERY = 10;
+    private static final int FLW_WITH_LANGUAGE_EVERY = 2;
+
+    private static final int MAX_USAGE_IN_PULSES = 3600;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ApiLoadBundleIT.class);
+
+    @Inject
+    private FrontLineWorkerService frontLineWorkerService;
+
+    @Inject
+    private FrontLineWorkerDataService frontLineWorkerDataService;
+
+    @Inject
+    private ServiceUsageDataService serviceUsageDataService;
+
+    @Inject
+    private ServiceUsageCapDataService serviceUsageCapDataService;
+
+    @Inject
+    private WhitelistEntryDataService whitelistEntryDataService;
+
+    @Inject
+    private CallDetailRecordDataService callDetailRecordDataService;
+
+    @Inject
+    private CallContentDataService callContentDataService;
+
+    @Inject
+    private CallDetailRecordQueueService callDetailRecordQueueService;
+
+    @Inject
+    private SubscriptionService subscriptionService;
+
+    @Inject
+    private SubscriberDataService subscriberDataService;
+
+    @Inject
+    private SubscriptionDataService subscriptionDataService;
+
+    @Inject
+    private InboxCallDetailsDataService inboxCallDetailsDataService;
+
+    @Inject
+    private InboxCallDataDataService inboxCallDataDataService;
+
+    @Inject
+    private InboxCallDetailsQueueService inboxCallDetailsQueueService;
+
+    @Inject
+    private LanguageDataService languageDataService;
+
+    @Inject
+    private CircleLanguageDataService circleLanguageDataService;
+
+    @Inject
+    private StateDataService stateDataService;
+
+    @Inject
+    private ProcessedCallDataService processedCallDataService;
+
+    @Inject
+    private SmsDeliveryStatusService smsDeliveryStatusService;
+
+    @Inject
+    private SmsDeliveryRecordDataService smsDeliveryRecordDataService;
+
+    public ApiLoadBundleIT() {
+        System.setProperty("org.motechproject.testing.osgi.http.numTries", "1");
+    }
+
+    private void cleanAllData() {
+        processedCallDataService.deleteAll();
+        inboxCallDataDataService.deleteAll();
+        inboxCallDetailsDataService.deleteAll();
+        subscriptionDataService.deleteAll();
+        subscriberDataService.deleteAll();
+        whitelistEntryDataService.deleteAll();
+        serviceUsageCapDataService.deleteAll();
+        serviceUsageDataService.deleteAll();
+        callContentDataService.deleteAll();
+        callDetailRecordDataService.deleteAll();
+        frontLineWorkerDataService.deleteAll();
+        stateDataService.deleteAll();
+        circleLanguageDataService.deleteAll();
+        languageDataService.deleteAll();
+        smsDeliveryRecordDataService.deleteAll();
+    }
+
+    private List<Long> createFlws(int count, Language language) {
+        District district = new District();
+        district.setName("Whitelisted District");
+        district.setRegionalName("Whitelisted District");
+        district.setCode(1L);
+
+        // The state named 'Whitelist' has whitelisting turned on, see WhitelistServiceImpl
+        State whitelist = new State("Whitelist", 1L);
+        whitelist.getDistricts().add(district);
+        stateDataService.create(whitelist);
+
+        serviceUsageCapDataService.create(new ServiceUsageCap(null, Service.MOBILE_KUNJI, MAX_USAGE_IN_PULSES));
+
+        List<Long> numbers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long number = FIRST_FLW_NUMBER + i;
+            FrontLineWorker flw = new FrontLineWorker(String.format("FLW %d", i), number);
+            if (i % FLW_WITH_LANGUAGE_EVERY == 0) {
+                flw.setLanguage(language);
+            }
+            if (i % WHITELISTED_FLW_EVERY == 0) {
+                flw.setDistrict(district);
+                whitelistEntryDataService.create(new WhitelistEntry(number, whitelist));
+            }
+            frontLineWorkerService.add(flw);
+            numbers.add(number);
+        }
+        return numbers;
+    }
+
+    private List<Long> createSubscribers(int count, Language language) {
+        subscriptionService.createSubscriptionPacks();
+        SubscriptionPack childPack = subscriptionService.getSubscriptionPack("childPack");
+        SubscriptionPack pregnancyPack = subscriptionService.getSubscriptionPack("pregnancyPack");
+
+        List<Long> numbers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long number = FIRST_SUBSCRIBER_NUMBER + i;
+            subscriptionService.createSubscription(number, language, childPack, SubscriptionMode.IVR);
+            // Some mothers are subscribed to both packs
+            if (i % 2 == 0) {
+                subscriptionService.createSubscription(number, language, pregnancyPack, SubscriptionMode.IVR);
+            }
+            numbers.add(number);
+        }
+        return numbers;
+    }
+
+    @Test
+    public void testIvrCallMix() throws InterruptedException {
+        int concurrency = Integer.getInteger("loadtest.concurrency", 16);
+        long durationSeconds = Long.getLong("loadtest.durationSeconds", 60);
+        int flwCount = Integer.getInteger("loadtest.flwCount", 1000);
+        int subscriberCount = Integer.getInteger("loadtest.subscriberCount", 1000);
+
+        cleanAllData();
+        Language language = languageDataService.create(new Language("English",
+                IvrTrafficSimulator.LANGUAGE_LOCATION_CODE));
+        circleLanguageDataService.create(new CircleLanguage(IvrTrafficSimulator.CIRCLE, language));
+        List<Long> flwNumbers = createFlws(flwCount, language);
+        List<Long> subscriberNumbers = createSubscribers(subscriberCount, language);
+
+        IvrTrafficSimulator simulator = new IvrTrafficSimulator(
+                String.format("http://localhost:%d/api", TestContext.getJettyPort()), ADMIN_USERNAME, ADMIN_PASSWORD,
+                flwNumbers, subscriberNumbers);
+        Map<String, EndpointStats> stats = simulator.run(concurrency, durationSeconds);
+
+        // Let the write behind queues catch up, their backlog is part of what the load costs
+        callDetailRecordQueueService.flush();
+        inboxCallDetailsQueueService.flush();
+
+        LOGGER.info("{} callers for {}s, {} FLWs, {} subscribers\n{}", concurrency, durationSeconds, flwCount,
+                subscriberCount, IvrTrafficSimulator.format(stats, durationSeconds));
+
+        assertTrue(stats.containsKey("GET /mobilekunji/user"));
+        assertTrue(stats.containsKey("GET /kilkari/inbox"));
+        for (EndpointStats endpointStats : stats.values()) {
+            // Requests turned away by admission control are the API protecting itself, not failures
+            Integer shed = endpointStats.getStatusCounts().get(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            assertEquals(endpointStats.getEndpoint() + " failed: " + endpointStats.getStatusCounts(), 0,
+                    endpointStats.getErrors() - (shed == null ? 0 : shed));
+        }
+    }
+
+    @Test
+    public void testSmsDeliveryReceiptBurst() throws InterruptedException {
+        int concurrency = Integer.getInteger("loadtest.concurrency", 16);
+        int messageCount = Integer.getInteger("loadtest.smsMessageCount", 10000);
+
+        cleanAllData();
+        List<Long> callingNumbers = new ArrayList<>();
+        for (int i = 0; i < Integer.getInteger("loadtest.flwCount", 1000); i++) {
+            callingNumbers.add(FIRST_FLW_NUMBER + i);
+        }
+
+        SmsGatewaySimulator gateway = new SmsGatewaySimulator(
+                String.format("http://localhost:%d/api", TestContext.getJettyPort()), ADMIN_USERNAME, ADMIN_PASSWORD,
+                callingNumbers);
+        long start = System.currentTimeMillis();
+        EndpointStats stats = gateway.run(concurrency, messageCount);
+        long sendMillis = System.currentTimeMillis() - start;
+
+        // How far behind the writer is once the burst is over, and how long it takes to catch up
+        long lag = smsDeliveryStatusService.getIngestionLag();
+        int backlog = smsDeliveryStatusService.getQueueDepth();
+        smsDeliveryStatusService.flush();
+
+        Map<String, EndpointStats> allStats = new TreeMap<>();
+        allStats.put(stats.getEndpoint(), stats);
+        LOGGER.info("{} receipts for {} messages over {} connections in {}ms, {} duplicates dropped, {} queued " +
+                "{}ms behind when done, drained in {}ms\n{}", stats.getCount(), messageCount, concurrency, sendMillis,
+                smsDeliveryStatusService.getDuplicateCount(), backlog, lag,
+                System.currentTimeMillis() - start - sendMillis,
+                IvrTrafficSimulator.format(allStats, Math.max(1, sendMillis / 1000)));
+
+        assertEquals(stats.getStatusCounts().toString(), 0, stats.getErrors());
+        List<SmsDeliveryRecord> records = smsDeliveryRecordDataService.retrieveAll();
+        assertEquals(messageCount, records.size());
+        for (SmsDeliveryRecord record : records) {
+            assertEquals(record.getMessageId(), DeliveryStatus.DeliveredToTerminal, record.getStatus());
+        }
+    }
+}
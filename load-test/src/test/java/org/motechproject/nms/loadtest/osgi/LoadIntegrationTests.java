@@ -0,0 +1,14 @@
+package org.motechproject.nms.loadtest.osgi;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+/**
+ * API load tests suite.
+ */
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+        ApiLoadBundleIT.class
+})
+public class LoadIntegrationTests {
+}
@@ -4,6 +4,7 @@ import org.motechproject.mds.annotations.Cascade;
 import org.motechproject.mds.annotations.Entity;
 import org.motechproject.mds.annotations.Field;
 import org.motechproject.mds.domain.MdsEntity;
+import org.motechproject.nms.language.domain.Language;
 
 import javax.jdo.annotations.Column;
 import javax.jdo.annotations.Persistent;
@@ -43,6 +44,10 @@ public class District extends MdsEntity {
     @NotNull
     private State state;
 
+    // The district's language location code: the language its FLWs and beneficiaries are served in by default
+    @Field
+    private Language language;
+
     @Field
     @Cascade(delete = true)
     @Persistent(mappedBy = "district", defaultFetchGroup = "true")
@@ -84,6 +89,14 @@ public class District extends MdsEntity {
         this.state = state;
     }
 
+    public Language getLanguage() {
+        return language;
+    }
+
+    public void setLanguage(Language language) {
+        this.language = language;
+    }
+
     public List getTalukas() {
         return talukas;
     }
@@ -0,0 +1,72 @@
+package org.motechproject.nms.location.dto;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk location import: how many rows were read and created, how long it took and why the rejected
+ * rows were rejected.
+ */
+public class LocationImportResult {
+
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    private LocationLevel level;
+
+    private int rowCount;
+
+    private int importedCount;
+
+    private List<String> rejectedRows;
+
+    private long durationMillis;
+
+    public LocationImportResult(LocationLevel level, int rowCount, int importedCount, List<String> rejectedRows,
+                                long durationMillis) {
+        this.level = level;
+        this.rowCount = rowCount;
+        this.importedCount = importedCount;
+        this.rejectedRows = rejectedRows;
+        this.durationMillis = durationMillis;
+    }
+
+    public LocationLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the number of data rows in the file, not counting the header
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getImportedCount() {
+        return importedCount;
+    }
+
+    /**
+     * @return one "line <n>: <reason>" entry per rejected row, in file order
+     */
+    public List<String> getRejectedRows() {
+        return rejectedRows;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public double getRowsPerSecond() {
+        return durationMillis == 0 ? rowCount : rowCount * MILLIS_PER_SECOND / durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "LocationImportResult{" +
+                "level=" + level +
+                ", rowCount=" + rowCount +
+                ", importedCount=" + importedCount +
+                ", rejectedCount=" + rejectedRows.size() +
+                ", durationMillis=" + durationMillis +
+                '}';
+    }
+}
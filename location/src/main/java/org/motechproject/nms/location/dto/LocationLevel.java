@@ -0,0 +1,28 @@
+package org.motechproject.nms.location.dto;
+
+/**
+ * The levels of the location hierarchy, each with the level its locations belong to. Parents come before their
+ * children.
+ */
+public enum LocationLevel {
+    STATE(null),
+    DISTRICT(STATE),
+    TALUKA(DISTRICT),
+    HEALTH_BLOCK(TALUKA),
+    VILLAGE(TALUKA),
+    HEALTH_FACILITY(HEALTH_BLOCK),
+    HEALTH_SUB_FACILITY(HEALTH_FACILITY);
+
+    private final LocationLevel parent;
+
+    LocationLevel(LocationLevel parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * @return the level this level's locations belong to, null for states
+     */
+    public LocationLevel getParent() {
+        return parent;
+    }
+}
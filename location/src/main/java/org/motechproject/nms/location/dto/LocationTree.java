@@ -0,0 +1,300 @@
+package org.motechproject.nms.location.dto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the whole location hierarchy, held in flat per-level arrays: a location is its position
+ * (index) in its level, and refers to its parent by the parent's index in the parent level. Every level has a code
+ * index, so resolving a location code, or any of its ancestors, is a few array reads and never touches the
+ * database.
+ *
+ * Villages are indexed by their village code (see Village.getVillageCode()). Taluka codes are strings numbered per
+ * district (eg: "0005"), so talukas are only indexed within their district, see indexOfTaluka.
+ */
+public final class LocationTree {
+
+    public static final int NOT_FOUND = -1;
+
+    private static final LocationTree EMPTY = new Builder().build();
+
+    private final Level[] levels;
+
+    private LocationTree(Level[] levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * @return a tree without any location
+     */
+    public static LocationTree empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return the number of locations at the given level
+     */
+    public int size(LocationLevel level) {
+        return levels[level.ordinal()].count;
+    }
+
+    /**
+     * @return the index of the location with the given code, or NOT_FOUND
+     * @throws IllegalArgumentException for talukas, whose codes are only unique within their district
+     */
+    public int indexOf(LocationLevel level, long code) {
+        return codeIndexed(level).index.get(code);
+    }
+
+    /**
+     * @param districtIndex the index of the taluka's district
+     * @return the index of the district's taluka with the given code, or NOT_FOUND
+     */
+    public int indexOfTaluka(int districtIndex, String code) {
+        Level talukas = levels[LocationLevel.TALUKA.ordinal()];
+        if (districtIndex == NOT_FOUND || code == null) {
+            return NOT_FOUND;
+        }
+
+        // Lowest match in the district's range, so that the first of duplicate codes wins
+        int low = talukas.scopeStarts[districtIndex];
+        int high = talukas.scopeStarts[districtIndex + 1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (talukas.talukaCodes[talukas.scopedOrder[middle]].compareTo(code) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < talukas.scopeStarts[districtIndex + 1] &&
+                talukas.talukaCodes[talukas.scopedOrder[low]].equals(code) ? talukas.scopedOrder[low] : NOT_FOUND;
+    }
+
+    public boolean contains(LocationLevel level, long code) {
+        return indexOf(level, code) != NOT_FOUND;
+    }
+
+    /**
+     * @return the id of the location's entity
+     */
+    public long getId(LocationLevel level, int index) {
+        return levels[level.ordinal()].ids[index];
+    }
+
+    /**
+     * @throws IllegalArgumentException for talukas, see getTalukaCode
+     */
+    public long getCode(LocationLevel level, int index) {
+        return codeIndexed(level).codes[index];
+    }
+
+    public String getTalukaCode(int index) {
+        return levels[LocationLevel.TALUKA.ordinal()].talukaCodes[index];
+    }
+
+    public String getName(LocationLevel level, int index) {
+        return levels[level.ordinal()].names[index];
+    }
+
+    /**
+     * @return the index of the location's parent in the parent level, or NOT_FOUND for states
+     */
+    public int getParentIndex(LocationLevel level, int index) {
+        return levels[level.ordinal()].parents[index];
+    }
+
+    /**
+     * @return the index of the location's ancestor at the given level, or NOT_FOUND if it has none there
+     */
+    public int getAncestorIndex(LocationLevel level, int index, LocationLevel ancestorLevel) {
+        LocationLevel current = level;
+        int currentIndex = index;
+        while (current != ancestorLevel) {
+            if (current.getParent() == null || currentIndex == NOT_FOUND) {
+                return NOT_FOUND;
+            }
+            currentIndex = getParentIndex(current, currentIndex);
+            current = current.getParent();
+        }
+        return currentIndex;
+    }
+
+    /**
+     * @return the code of the state the location with the given code is in, or null if there is no such location
+     */
+    public Long getStateCode(LocationLevel level, long code) {
+        int index = getAncestorIndex(level, indexOf(level, code), LocationLevel.STATE);
+        return index == NOT_FOUND ? null : getCode(LocationLevel.STATE, index);
+    }
+
+    /**
+     * Eg: whether a health block is in the district it is said to be in.
+     *
+     * @return true if the location with the given code exists and lies within the given ancestor location
+     */
+    public boolean isWithin(LocationLevel level, long code, LocationLevel ancestorLevel, long ancestorCode) {
+        int index = getAncestorIndex(level, indexOf(level, code), ancestorLevel);
+        return index != NOT_FOUND && getCode(ancestorLevel, index) == ancestorCode;
+    }
+
+    private Level codeIndexed(LocationLevel level) {
+        if (level == LocationLevel.TALUKA) {
+            throw new IllegalArgumentException("Taluka codes are only unique within their district");
+        }
+        return levels[level.ordinal()];
+    }
+
+    private static final class Level {
+        private final int count;
+        private final long[] ids;
+        private final long[] codes;
+        private final String[] names;
+        private final int[] parents;
+        private final LongIndex index;
+
+        // Talukas only: their codes, and their indexes ordered by district then code, each district's talukas
+        // starting at scopeStarts[districtIndex]
+        private final String[] talukaCodes;
+        private final int[] scopedOrder;
+        private final int[] scopeStarts;
+
+        private Level(int count, long[] ids, long[] codes, String[] names, int[] parents) {
+            this.count = count;
+            this.ids = ids;
+            this.codes = codes;
+            this.names = names;
+            this.parents = parents;
+            this.index = new LongIndex(codes, count);
+            this.talukaCodes = null;
+            this.scopedOrder = null;
+            this.scopeStarts = null;
+        }
+
+        private Level(int count, long[] ids, final String[] talukaCodes, String[] names, final int[] parents,
+                      int districtCount) {
+            this.count = count;
+            this.ids = ids;
+            this.codes = null;
+            this.names = names;
+            this.parents = parents;
+            this.index = null;
+            this.talukaCodes = talukaCodes;
+
+            // Orphans can't be looked up, they have no district to be looked up in
+            List<Integer> order = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (parents[i] != NOT_FOUND) {
+                    order.add(i);
+                }
+            }
+            // Stable, so that the first of duplicate codes comes first
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    int byDistrict = Integer.compare(parents[a], parents[b]);
+                    return byDistrict != 0 ? byDistrict : talukaCodes[a].compareTo(talukaCodes[b]);
+                }
+            });
+
+            this.scopedOrder = new int[order.size()];
+            this.scopeStarts = new int[districtCount + 1];
+            for (int i = 0; i < order.size(); i++) {
+                scopedOrder[i] = order.get(i);
+                scopeStarts[parents[scopedOrder[i]] + 1]++;
+            }
+            for (int d = 0; d < districtCount; d++) {
+                scopeStarts[d + 1] += scopeStarts[d];
+            }
+        }
+    }
+
+    /**
+     * Collects the locations of a snapshot, in any order, and links them to their parents once they are all in.
+     */
+    public static final class Builder {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final long[][] ids = new long[LocationLevel.values().length][INITIAL_CAPACITY];
+        private final long[][] codes = new long[LocationLevel.values().length][INITIAL_CAPACITY];
+        private final long[][] parentIds = new long[LocationLevel.values().length][INITIAL_CAPACITY];
+        private final List<List<String>> names = new ArrayList<>();
+        private final List<String> talukaCodes = new ArrayList<>();
+        private final int[] counts = new int[LocationLevel.values().length];
+
+        public Builder() {
+            for (int i = 0; i < LocationLevel.values().length; i++) {
+                names.add(new ArrayList<String>());
+            }
+        }
+
+        /**
+         * @param id the id of the location's entity
+         * @param parentId the id of the location's parent entity, ignored for states
+         * @throws IllegalArgumentException for talukas, see addTaluka
+         */
+        public Builder add(LocationLevel level, long id, long code, String name, long parentId) {
+            if (level == LocationLevel.TALUKA) {
+                throw new IllegalArgumentException("Talukas have string codes");
+            }
+            return add(level.ordinal(), id, code, name, parentId);
+        }
+
+        /**
+         * @param id the id of the taluka's entity
+         * @param districtId the id of the taluka's district entity
+         */
+        public Builder addTaluka(long id, String code, String name, long districtId) {
+            talukaCodes.add(code);
+            return add(LocationLevel.TALUKA.ordinal(), id, 0, name, districtId);
+        }
+
+        private Builder add(int l, long id, long code, String name, long parentId) {
+            if (counts[l] == codes[l].length) {
+                ids[l] = Arrays.copyOf(ids[l], counts[l] * 2);
+                codes[l] = Arrays.copyOf(codes[l], counts[l] * 2);
+                parentIds[l] = Arrays.copyOf(parentIds[l], counts[l] * 2);
+            }
+            ids[l][counts[l]] = id;
+            codes[l][counts[l]] = code;
+            parentIds[l][counts[l]] = parentId;
+            names.get(l).add(name);
+            counts[l]++;
+            return this;
+        }
+
+        /**
+         * @return the tree; locations whose parent isn't in it have NOT_FOUND as their parent index
+         */
+        public LocationTree build() {
+            Level[] levels = new Level[LocationLevel.values().length];
+            // Only needed to link children to their parents
+            LongIndex[] idIndexes = new LongIndex[LocationLevel.values().length];
+
+            // Parent levels come first, so they're always built by the time their children are linked to them
+            for (LocationLevel level : LocationLevel.values()) {
+                int l = level.ordinal();
+                int count = counts[l];
+                int[] parents = new int[count];
+                LongIndex parentIdIndex = level.getParent() == null ? null : idIndexes[level.getParent().ordinal()];
+                for (int i = 0; i < count; i++) {
+                    parents[i] = parentIdIndex == null ? NOT_FOUND : parentIdIndex.get(parentIds[l][i]);
+                }
+                long[] levelIds = Arrays.copyOf(ids[l], count);
+                String[] levelNames = names.get(l).toArray(new String[count]);
+                if (level == LocationLevel.TALUKA) {
+                    levels[l] = new Level(count, levelIds, talukaCodes.toArray(new String[count]), levelNames,
+                            parents, counts[LocationLevel.DISTRICT.ordinal()]);
+                } else {
+                    levels[l] = new Level(count, levelIds, Arrays.copyOf(codes[l], count), levelNames, parents);
+                }
+                idIndexes[l] = new LongIndex(levelIds, count);
+            }
+
+            return new LocationTree(levels);
+        }
+    }
+}
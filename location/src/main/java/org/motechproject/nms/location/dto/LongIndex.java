@@ -0,0 +1,50 @@
+package org.motechproject.nms.location.dto;
+
+/**
+ * Read only open addressing hash index from long codes (or ids) to int positions, so that looking a code up neither
+ * boxes it nor chases map entries.
+ */
+final class LongIndex {
+
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    private final long[] keys;
+    private final int[] values;
+    private final int shift;
+
+    /**
+     * @param codes the codes to index, their positions in the array are the indexed values; codes which appear
+     *              more than once are indexed at their first position
+     */
+    LongIndex(long[] codes, int count) {
+        int capacity = Integer.highestOneBit(Math.max(2, count) * 2 - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        shift = Long.numberOfLeadingZeros(capacity - 1);
+
+        for (int i = 0; i < capacity; i++) {
+            values[i] = LocationTree.NOT_FOUND;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int slot = find(codes[i]);
+            if (values[slot] == LocationTree.NOT_FOUND) {
+                keys[slot] = codes[i];
+                values[slot] = i;
+            }
+        }
+    }
+
+    int get(long code) {
+        return values[find(code)];
+    }
+
+    private int find(long code) {
+        int mask = keys.length - 1;
+        int slot = (int) ((code * GOLDEN_RATIO) >>> shift);
+        while (values[slot] != LocationTree.NOT_FOUND && keys[slot] != code) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
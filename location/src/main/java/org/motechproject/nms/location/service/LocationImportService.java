@@ -0,0 +1,36 @@
+package org.motechproject.nms.location.service;
+
+import org.motechproject.nms.location.dto.LocationImportResult;
+import org.motechproject.nms.location.dto.LocationLevel;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Bulk loads census location files, one level at a time, parents first
+ */
+public interface LocationImportService {
+
+    /**
+     * Streams a CSV file of locations into the database. The first line is the header, columns are matched by name:
+     *
+     * STATE: code, name
+     * DISTRICT: code, name, regionalName, stateCode
+     * TALUKA: code, name, regionalName, identity, districtCode
+     * HEALTH_BLOCK: code, name, regionalName, hq, districtCode, talukaCode
+     * VILLAGE: vcode, svid, name, regionalName, districtCode, talukaCode
+     * HEALTH_FACILITY: code, name, regionalName, healthFacilityTypeCode, healthBlockCode
+     * HEALTH_SUB_FACILITY: code, name, regionalName, healthFacilityCode
+     *
+     * Taluka codes are only unique within their district, and are matched as is (eg: "0005" isn't "5").
+     *
+     * Rows which are invalid, refer to a parent which doesn't exist or duplicate an existing code are rejected,
+     * the others are created. The location tree is refreshed once the file is in.
+     *
+     * @param level the level of the locations in the file
+     * @param reader the file, closed once read
+     * @return rows read, created and rejected
+     * @throws IOException if the file can't be read, rows read until then stay imported
+     */
+    LocationImportResult importLocations(LocationLevel level, Reader reader) throws IOException;
+}
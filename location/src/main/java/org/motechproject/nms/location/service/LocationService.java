@@ -7,5 +7,21 @@ import org.motechproject.nms.location.domain.State;
  * Service interfaces exposed by the language module
  */
 public interface LocationService {
+
+    /**
+     * The state of the districts whose language location code is the given language, the first one by district id
+     * if they span more than one state. The district is found in an in-memory map and its state in the location tree,
+     * nothing is read from the database.
+     *
+     * @return a copy of the state holding its id, code and name only, not attached to the database; or null if no
+     * district is served in that language
+     */
     State getStateForLanguage(Language language);
+
+    /**
+     * Rebuilds the language to district map from the districts, and the location tree. The map is also rebuilt
+     * whenever the location tree is and every location.language_states_ms_interval milliseconds, call this to see
+     * district changes straight away.
+     */
+    void refreshLanguageStates();
 }
@@ -0,0 +1,25 @@
+package org.motechproject.nms.location.service;
+
+import org.motechproject.nms.location.dto.LocationTree;
+
+/**
+ * Serves the in-memory snapshot of the location hierarchy, for code lookups which must not hit the database
+ */
+public interface LocationTreeService {
+
+    /**
+     * Sent whenever a new snapshot was swapped in, eg: because the location tables changed
+     */
+    String LOCATION_TREE_REBUILT_EVENT = "nms.location.location_tree_rebuilt";
+
+    /**
+     * @return the current snapshot, built on first use; the empty tree while no build has succeeded yet, never null
+     */
+    LocationTree getLocationTree();
+
+    /**
+     * Rebuilds the snapshot from the database and swaps it in. Whoever bulk loads locations calls this once done,
+     * other changes are picked up by a periodic check.
+     */
+    void refresh();
+}
@@ -0,0 +1,677 @@
+package org.motechproject.nms.location.service.impl;
+
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mds.service.MotechDataService;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
+import org.motechproject.nms.location.domain.District;
+import org.motechproject.nms.location.domain.HealthBlock;
+import org.motechproject.nms.location.domain.HealthFacility;
+import org.motechproject.nms.location.domain.HealthFacilityType;
+import org.motechproject.nms.location.domain.HealthSubFacility;
+import org.motechproject.nms.location.domain.State;
+import org.motechproject.nms.location.domain.Taluka;
+import org.motechproject.nms.location.domain.Village;
+import org.motechproject.nms.location.dto.LocationImportResult;
+import org.motechproject.nms.location.dto.LocationLevel;
+import org.motechproject.nms.location.dto.LocationTree;
+import org.motechproject.nms.location.repository.DistrictDataService;
+import org.motechproject.nms.location.repository.HealthBlockDataService;
+import org.motechproject.nms.location.repository.HealthFacilityDataService;
+import org.motechproject.nms.location.repository.HealthFacilityTypeDataService;
+import org.motechproject.nms.location.repository.HealthSubFacilityDataService;
+import org.motechproject.nms.location.repository.StateDataService;
+import org.motechproject.nms.location.repository.TalukaDataService;
+import org.motechproject.nms.location.repository.VillageDataService;
+import org.motechproject.nms.location.service.LocationImportService;
+import org.motechproject.nms.location.service.LocationTreeService;
+import org.motechproject.nms.props.csv.CsvParser;
+import org.motechproject.server.config.SettingsFacade;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Implementation of the {@link LocationImportService} interface.
+ *
+ * The file is read in blocks of location.import_batch_size rows. The rows of a block have their parent codes
+ * resolved against the location tree, so there's no query per row, are bean validated (VillageValidator included)
+ * on location.import_validation_threads threads, and are then created in a single transaction. Parents are linked
+ * by the id the tree resolved them to, without loading them. A block which fails to commit is retried row by row,
+ * so that a bad row only rejects itself.
+ *
+ * All location entities record history. That's an MDS entity setting which can't be turned off from here for the
+ * duration of an import: untick it in the MDS schema editor before the initial load if its history isn't wanted.
+ */
+@Service("locationImportService")
+public class LocationImportServiceImpl implements LocationImportService {
+    private static final String IMPORT_BATCH_SIZE = "location.import_batch_size";
+    private static final String IMPORT_VALIDATION_THREADS = "location.import_validation_threads";
+
+    private static final String CODE = "code";
+    private static final String NAME = "name";
+    private static final String REGIONAL_NAME = "regionalName";
+    private static final String IDENTITY = "identity";
+    private static final String HQ = "hq";
+    private static final String VCODE = "vcode";
+    private static final String SVID = "svid";
+    private static final String HEALTH_FACILITY_TYPE_CODE = "healthFacilityTypeCode";
+    private static final String DISTRICT_CODE = "districtCode";
+
+    private static final String NOT_PRESENT = "<%s: Not Present>";
+    private static final String INVALID = "<%s: Invalid>";
+    private static final String NOT_FOUND = "<%s: Not Found>";
+    private static final String DUPLICATE = "<%s: Duplicate>";
+
+    // Name of the column holding the parent's code, by level
+    private static final Map<LocationLevel, String> PARENT_CODE_COLUMNS = new EnumMap<>(LocationLevel.class);
+
+    // Only set in the insert transaction, their codes are checked against the location tree instead
+    private static final Set<String> RELATIONS = new HashSet<>(Arrays.asList("state", "district", "taluka",
+            "healthBlock", "healthFacility", "healthFacilityType"));
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocationImportServiceImpl.class);
+
+    static {
+        PARENT_CODE_COLUMNS.put(LocationLevel.DISTRICT, "stateCode");
+        PARENT_CODE_COLUMNS.put(LocationLevel.TALUKA, DISTRICT_CODE);
+        PARENT_CODE_COLUMNS.put(LocationLevel.HEALTH_BLOCK, "talukaCode");
+        PARENT_CODE_COLUMNS.put(LocationLevel.VILLAGE, "talukaCode");
+        PARENT_CODE_COLUMNS.put(LocationLevel.HEALTH_FACILITY, "healthBlockCode");
+        PARENT_CODE_COLUMNS.put(LocationLevel.HEALTH_SUB_FACILITY, "healthFacilityCode");
+    }
+
+    private SettingsFacade settingsFacade;
+    private LocationTreeService locationTreeService;
+    private StateDataService stateDataService;
+    private DistrictDataService districtDataService;
+    private TalukaDataService talukaDataService;
+    private VillageDataService villageDataService;
+    private HealthBlockDataService healthBlockDataService;
+    private HealthFacilityTypeDataService healthFacilityTypeDataService;
+    private HealthFacilityDataService healthFacilityDataService;
+    private HealthSubFacilityDataService healthSubFacilityDataService;
+
+
+    @Autowired
+    public LocationImportServiceImpl(LocationTreeService locationTreeService, // NO CHECKSTYLE More than 7 parameters
+                                     @Qualifier("locationSettings") SettingsFacade settingsFacade,
+                                     StateDataService stateDataService, DistrictDataService districtDataService,
+                                     TalukaDataService talukaDataService, VillageDataService villageDataService,
+                                     HealthBlockDataService healthBlockDataService,
+                                     HealthFacilityTypeDataService healthFacilityTypeDataService,
+                                     HealthFacilityDataService healthFacilityDataService,
+                                     HealthSubFacilityDataService healthSubFacilityDataService) {
+        this.settingsFacade = settingsFacade;
+        this.locationTreeService = locationTreeService;
+        this.stateDataService = stateDataService;
+        this.districtDataService = districtDataService;
+        this.talukaDataService = talukaDataService;
+        this.villageDataService = villageDataService;
+        this.healthBlockDataService = healthBlockDataService;
+        this.healthFacilityTypeDataService = healthFacilityTypeDataService;
+        this.healthFacilityDataService = healthFacilityDataService;
+        this.healthSubFacilityDataService = healthSubFacilityDataService;
+    }
+
+
+    @Override
+    public LocationImportResult importLocations(LocationLevel level, Reader reader) throws IOException {
+        long startTime = System.currentTimeMillis();
+        int batchSize = Integer.parseInt(settingsFacade.getProperty(IMPORT_BATCH_SIZE));
+        int threads = Integer.parseInt(settingsFacade.getProperty(IMPORT_VALIDATION_THREADS));
+
+        ImportContext context = new ImportContext(level, locationTreeService.getLocationTree(),
+                level == LocationLevel.HEALTH_FACILITY ? loadHealthFacilityTypeIds() : null,
+                Executors.newFixedThreadPool(threads), threads);
+        List<String> rejectedRows = new ArrayList<>();
+        int rowCount = 0;
+        int importedCount = 0;
+
+        try (BufferedReader in = new BufferedReader(reader)) {
+            Map<String, Integer> header = CsvParser.parseHeader(in.readLine());
+            List<Row> batch = new ArrayList<>(batchSize);
+            int lineNumber = 1;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (!line.trim().isEmpty()) {
+                    batch.add(parseRow(context, new Columns(header, CsvParser.parseLine(line)), lineNumber));
+                }
+                if (batch.size() == batchSize) {
+                    importedCount += importBatch(context, batch, rejectedRows);
+                    rowCount += batch.size();
+                    batch.clear();
+                }
+            }
+            importedCount += importBatch(context, batch, rejectedRows);
+            rowCount += batch.size();
+        } finally {
+            context.validationPool.shutdownNow();
+            if (importedCount > 0) {
+                locationTreeService.refresh();
+            }
+        }
+
+        LocationImportResult result = new LocationImportResult(level, rowCount, importedCount, rejectedRows,
+                System.currentTimeMillis() - startTime);
+        LOGGER.info("Imported {} of {} {} rows in {}ms ({} rows/s), {} rejected", importedCount, rowCount, level,
+                result.getDurationMillis(), String.format("%.1f", result.getRowsPerSecond()), rejectedRows.size());
+
+        return result;
+    }
+
+
+    private Map<Long, Long> loadHealthFacilityTypeIds() {
+        Map<Long, Long> ids = new HashMap<>();
+        for (HealthFacilityType type : healthFacilityTypeDataService.retrieveAll()) {
+            ids.put(type.getCode(), type.getId());
+        }
+        return ids;
+    }
+
+
+    /*
+     * Everything that can be checked without the database: the columns parse, the parent (and health facility type)
+     * exist and the code isn't in the tree yet. Codes taken by earlier rows of the file are checked once the row is
+     * otherwise valid, see claimCodes.
+     */
+    private Row parseRow(ImportContext context, Columns columns, int lineNumber) {
+        Row row = new Row(lineNumber, columns);
+        try {
+            row.location = createLocation(context.level, columns);
+
+            LocationLevel parentLevel = context.level.getParent();
+            int parent = LocationTree.NOT_FOUND;
+            if (parentLevel != null) {
+                parent = findParent(context.tree, context.level, columns);
+                row.parentId = context.tree.getId(parentLevel, parent);
+            }
+
+            if (context.level == LocationLevel.TALUKA) {
+                // Taluka codes are only unique within their district
+                String code = columns.get(CODE);
+                if (code != null && context.tree.indexOfTaluka(parent, code) != LocationTree.NOT_FOUND) {
+                    throw new IllegalArgumentException(String.format(DUPLICATE, CODE));
+                }
+                row.code = code == null ? null : parent + "/" + code;
+            } else {
+                Long code = getTreeCode(context.level, columns);
+                if (code != null && context.tree.contains(context.level, code)) {
+                    throw new IllegalArgumentException(String.format(DUPLICATE, CODE));
+                }
+                row.code = code;
+            }
+
+            if (context.healthFacilityTypeIds != null) {
+                row.typeId = context.healthFacilityTypeIds.get(columns.getRequiredLong(HEALTH_FACILITY_TYPE_CODE));
+                if (row.typeId == null) {
+                    throw new IllegalArgumentException(String.format(NOT_FOUND, HEALTH_FACILITY_TYPE_CODE));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            row.rejection = e.getMessage();
+        }
+        return row;
+    }
+
+
+    /*
+     * The index of the row's parent in the location tree. Talukas are only looked up within their district, so the
+     * rows below them name the district as well.
+     */
+    private static int findParent(LocationTree tree, LocationLevel level, Columns columns) {
+        LocationLevel parentLevel = level.getParent();
+        String parentColumn = PARENT_CODE_COLUMNS.get(level);
+        int parent;
+        if (parentLevel == LocationLevel.TALUKA) {
+            int district = tree.indexOf(LocationLevel.DISTRICT, columns.getRequiredLong(DISTRICT_CODE));
+            if (district == LocationTree.NOT_FOUND) {
+                throw new IllegalArgumentException(String.format(NOT_FOUND, DISTRICT_CODE));
+            }
+            parent = tree.indexOfTaluka(district, columns.getRequired(parentColumn));
+        } else {
+            parent = tree.indexOf(parentLevel, columns.getRequiredLong(parentColumn));
+        }
+
+        if (parent == LocationTree.NOT_FOUND) {
+            throw new IllegalArgumentException(String.format(NOT_FOUND, parentColumn));
+        }
+        return parent;
+    }
+
+
+    /*
+     * The code the location is indexed by in the location tree, or null if it can't clash with an existing one
+     */
+    private static Long getTreeCode(LocationLevel level, Columns columns) {
+        if (level == LocationLevel.VILLAGE) {
+            // Non census villages may share their census village's code
+            return columns.get(SVID) == null ? columns.getLong(VCODE) : null;
+        }
+        return columns.getLong(CODE);
+    }
+
+
+    private static Object createLocation(LocationLevel level, Columns columns) { // NO CHECKSTYLE Cyclomatic Complexity
+        switch (level) {
+            case STATE:
+                return new State(columns.get(NAME), columns.getLong(CODE));
+            case DISTRICT:
+                District district = new District();
+                district.setCode(columns.getLong(CODE));
+                district.setName(columns.get(NAME));
+                district.setRegionalName(columns.get(REGIONAL_NAME));
+                return district;
+            case TALUKA:
+                Taluka taluka = new Taluka();
+                taluka.setCode(columns.get(CODE));
+                taluka.setIdentity(columns.getInteger(IDENTITY));
+                taluka.setName(columns.get(NAME));
+                taluka.setRegionalName(columns.get(REGIONAL_NAME));
+                return taluka;
+            case HEALTH_BLOCK:
+                HealthBlock healthBlock = new HealthBlock();
+                healthBlock.setCode(columns.getLong(CODE));
+                healthBlock.setName(columns.get(NAME));
+                healthBlock.setRegionalName(columns.get(REGIONAL_NAME));
+                healthBlock.setHq(columns.get(HQ));
+                return healthBlock;
+            case VILLAGE:
+                Village village = new Village();
+                village.setVcode(columns.getLong(VCODE));
+                village.setSvid(columns.getLong(SVID));
+                village.setName(columns.get(NAME));
+                village.setRegionalName(columns.get(REGIONAL_NAME));
+                return village;
+            case HEALTH_FACILITY:
+                HealthFacility healthFacility = new HealthFacility();
+                healthFacility.setCode(columns.getLong(CODE));
+                healthFacility.setName(columns.get(NAME));
+                healthFacility.setRegionalName(columns.get(REGIONAL_NAME));
+                return healthFacility;
+            case HEALTH_SUB_FACILITY:
+                HealthSubFacility healthSubFacility = new HealthSubFacility();
+                healthSubFacility.setCode(columns.getLong(CODE));
+                healthSubFacility.setName(columns.get(NAME));
+                healthSubFacility.setRegionalName(columns.get(REGIONAL_NAME));
+                return healthSubFacility;
+            default:
+                throw new IllegalArgumentException(level.toString());
+        }
+    }
+
+
+    private static void setParent(LocationLevel level, Object location, Object parent) {
+        switch (level) {
+            case DISTRICT:
+                ((District) location).setState((State) parent);
+                break;
+            case TALUKA:
+                ((Taluka) location).setDistrict((District) parent);
+                break;
+            case HEALTH_BLOCK:
+                ((HealthBlock) location).setTaluka((Taluka) parent);
+                break;
+            case VILLAGE:
+                ((Village) location).setTaluka((Taluka) parent);
+                break;
+            case HEALTH_FACILITY:
+                ((HealthFacility) location).setHealthBlock((HealthBlock) parent);
+                break;
+            case HEALTH_SUB_FACILITY:
+                ((HealthSubFacility) location).setHealthFacility((HealthFacility) parent);
+                break;
+            default:
+        }
+    }
+
+
+    private MotechDataService<?> getDataService(LocationLevel level) { // NO CHECKSTYLE Cyclomatic Complexity
+        switch (level) {
+            case STATE:
+                return stateDataService;
+            case DISTRICT:
+                return districtDataService;
+            case TALUKA:
+                return talukaDataService;
+            case HEALTH_BLOCK:
+                return healthBlockDataService;
+            case VILLAGE:
+                return villageDataService;
+            case HEALTH_FACILITY:
+                return healthFacilityDataService;
+            case HEALTH_SUB_FACILITY:
+                return healthSubFacilityDataService;
+            default:
+                throw new IllegalArgumentException(level.toString());
+        }
+    }
+
+
+    private int importBatch(ImportContext context, List<Row> batch, List<String> rejectedRows) {
+        validate(context, batch);
+        claimCodes(context, batch);
+
+        List<Row> valid = new ArrayList<>(batch.size());
+        for (Row row : batch) {
+            if (row.rejection == null) {
+                valid.add(row);
+            }
+        }
+
+        int imported = create(context.level, valid);
+
+        for (Row row : batch) {
+            if (row.rejection != null) {
+                if (row.codeClaimed) {
+                    // It wasn't created after all, a later row may still use its code
+                    context.seenCodes.remove(row.code);
+                }
+                rejectedRows.add(String.format("line %d: %s", row.lineNumber, row.rejection));
+            }
+        }
+        return imported;
+    }
+
+
+    /*
+     * Rejects the otherwise valid rows whose code an earlier row of the file took, in file order, so that a rejected
+     * row never keeps a later valid one with the same code out
+     */
+    private static void claimCodes(ImportContext context, List<Row> batch) {
+        for (Row row : batch) {
+            if (row.rejection != null || row.code == null) {
+                continue;
+            }
+            if (context.seenCodes.add(row.code)) {
+                row.codeClaimed = true;
+            } else {
+                row.rejection = String.format(DUPLICATE, CODE);
+            }
+        }
+    }
+
+
+    /*
+     * Bean validates the block, split between the validation threads
+     */
+    private void validate(final ImportContext context, List<Row> batch) {
+        List<Future<?>> futures = new ArrayList<>();
+        int chunkSize = Math.max(1, (batch.size() + context.threads - 1) / context.threads);
+        for (int from = 0; from < batch.size(); from += chunkSize) {
+            final List<Row> chunk = batch.subList(from, Math.min(from + chunkSize, batch.size()));
+            futures.add(context.validationPool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (Row row : chunk) {
+                        validate(context.validator, row);
+                    }
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while validating locations", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to validate locations", e.getCause());
+        }
+    }
+
+
+    private static void validate(Validator validator, Row row) {
+        if (row.rejection != null) {
+            return;
+        }
+
+        StringBuilder failureReasons = new StringBuilder();
+        for (ConstraintViolation<Object> violation : validator.validate(row.location)) {
+            String property = violation.getPropertyPath().toString();
+            if (!RELATIONS.contains(property)) {
+                // Class level constraints (eg: @ValidVillage) have no property
+                failureReasons.append(String.format("<%s: %s>",
+                        property.isEmpty() ? row.location.getClass().getSimpleName() : property,
+                        violation.getMessage()));
+            }
+        }
+
+        if (failureReasons.length() > 0) {
+            row.rejection = failureReasons.toString();
+        }
+    }
+
+
+    /*
+     * Creates the rows in one transaction, or one by one if that fails, and returns how many were created
+     */
+    private int create(final LocationLevel level, final List<Row> rows) {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            getDataService(level).doInTransaction(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    // Blocks usually share a handful of parents and types, only look each one up once
+                    Map<Long, Object> parents = new HashMap<>();
+                    Map<Long, HealthFacilityType> types = new HashMap<>();
+                    for (Row row : rows) {
+                        create(level, row, parents, types);
+                    }
+                }
+            });
+            return rows.size();
+
+        } catch (RuntimeException e) {
+            if (rows.size() == 1) {
+                rows.get(0).rejection = String.format("Unable to create: %s", e.getMessage());
+                return 0;
+            }
+
+            LOGGER.warn("Unable to create a block of {} {} locations, retrying one by one", rows.size(), level, e);
+            int created = 0;
+            for (Row row : rows) {
+                created += create(level, Collections.singletonList(row));
+            }
+            return created;
+        }
+    }
+
+
+    private void create(LocationLevel level, Row row, Map<Long, Object> parents, Map<Long, HealthFacilityType> types) {
+        // A new instance, the validated one may be left in a bad state by a rolled back attempt
+        Object location = createLocation(level, row.columns);
+
+        if (level.getParent() != null) {
+            Object parent = parents.get(row.parentId);
+            if (parent == null) {
+                parent = getReference(level.getParent(), row.parentId);
+                parents.put(row.parentId, parent);
+            }
+            setParent(level, location, parent);
+        }
+
+        if (row.typeId != null) {
+            HealthFacilityType type = types.get(row.typeId);
+            if (type == null) {
+                type = healthFacilityTypeDataService.findById(row.typeId);
+                types.put(row.typeId, type);
+            }
+            ((HealthFacility) location).setHealthFacilityType(type);
+        }
+
+        create(getDataService(level), location);
+    }
+
+
+    /*
+     * A hollow instance of the location with the given id, which the transaction can link to without loading it: the
+     * id comes from the location tree, which already vouched for the location
+     */
+    private Object getReference(LocationLevel level, final long id) {
+        final Class<?> type = getEntityClass(level);
+        return getDataService(level).executeQuery(new QueryExecution<Object>() {
+            @Override
+            public Object execute(Query query, InstanceSecurityRestriction restriction) {
+                PersistenceManager persistenceManager = query.getPersistenceManager();
+                return persistenceManager.getObjectById(persistenceManager.newObjectIdInstance(type, id), false);
+            }
+        });
+    }
+
+
+    private static Class<?> getEntityClass(LocationLevel level) { // NO CHECKSTYLE Cyclomatic Complexity
+        switch (level) {
+            case STATE:
+                return State.class;
+            case DISTRICT:
+                return District.class;
+            case TALUKA:
+                return Taluka.class;
+            case HEALTH_BLOCK:
+                return HealthBlock.class;
+            case VILLAGE:
+                return Village.class;
+            case HEALTH_FACILITY:
+                return HealthFacility.class;
+            case HEALTH_SUB_FACILITY:
+                return HealthSubFacility.class;
+            default:
+                throw new IllegalArgumentException(level.toString());
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static <T> void create(MotechDataService<T> dataService, Object location) {
+        dataService.create((T) location);
+    }
+
+
+    private static final class ImportContext {
+        private final LocationLevel level;
+        private final LocationTree tree;
+        private final Map<Long, Long> healthFacilityTypeIds;
+        private final ExecutorService validationPool;
+        private final int threads;
+        private final Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+        // Codes of the valid rows read so far, so that a file can't duplicate itself either
+        private final Set<Object> seenCodes = new HashSet<>();
+
+        private ImportContext(LocationLevel level, LocationTree tree, Map<Long, Long> healthFacilityTypeIds,
+                              ExecutorService validationPool, int threads) {
+            this.level = level;
+            this.tree = tree;
+            this.healthFacilityTypeIds = healthFacilityTypeIds;
+            this.validationPool = validationPool;
+            this.threads = threads;
+        }
+    }
+
+
+    private static final class Row {
+        private final int lineNumber;
+        private final Columns columns;
+        private Object location;
+        // The location's tree code, or for talukas their district's tree index and their code
+        private Object code;
+        private boolean codeClaimed;
+        private long parentId;
+        private Long typeId;
+        private String rejection;
+
+        private Row(int lineNumber, Columns columns) {
+            this.lineNumber = lineNumber;
+            this.columns = columns;
+        }
+    }
+
+
+    private static final class Columns {
+        private final Map<String, Integer> header;
+        private final String[] values;
+
+        private Columns(Map<String, Integer> header, String[] values) {
+            this.header = header;
+            this.values = values;
+        }
+
+        /**
+         * @return the trimmed value, or null if the column is missing or blank
+         */
+        private String get(String name) {
+            Integer index = header.get(name);
+            if (index == null || index >= values.length) {
+                return null;
+            }
+            String value = values[index].trim();
+            return value.isEmpty() ? null : value;
+        }
+
+        private Long getLong(String name) {
+            String value = get(name);
+            try {
+                return value == null ? null : Long.valueOf(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format(INVALID, name), e);
+            }
+        }
+
+        private Integer getInteger(String name) {
+            String value = get(name);
+            try {
+                return value == null ? null : Integer.valueOf(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format(INVALID, name), e);
+            }
+        }
+
+        private String getRequired(String name) {
+            String value = get(name);
+            if (value == null) {
+                throw new IllegalArgumentException(String.format(NOT_PRESENT, name));
+            }
+            return value;
+        }
+
+        private long getRequiredLong(String name) {
+            Long value = getLong(name);
+            if (value == null) {
+                throw new IllegalArgumentException(String.format(NOT_PRESENT, name));
+            }
+            return value;
+        }
+    }
+}
@@ -1,30 +1,205 @@
 package org.motechproject.nms.location.service.impl;
 
+import org.joda.time.DateTime;
+import org.motechproject.event.MotechEvent;
+import org.motechproject.event.listener.annotations.MotechListener;
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
 import org.motechproject.nms.language.domain.Language;
 import org.motechproject.nms.location.domain.State;
+import org.motechproject.nms.location.dto.LocationLevel;
+import org.motechproject.nms.location.dto.LocationTree;
+import org.motechproject.nms.location.repository.DistrictDataService;
 import org.motechproject.nms.location.service.LocationService;
+import org.motechproject.nms.location.service.LocationTreeService;
+import org.motechproject.scheduler.contract.RepeatingSchedulableJob;
+import org.motechproject.scheduler.service.MotechSchedulerService;
+import org.motechproject.server.config.SettingsFacade;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
+import javax.jdo.Query;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Implementation of the {@link LocationService} interface.
+ *
+ * Language location codes are resolved to districts through a map computed from the districts' languages, a single
+ * projection query over the district table, and swapped in whole. The district's state is then resolved through the
+ * location tree, so the map holds nothing but codes and no location entity is ever loaded.
+ *
+ * The map is rebuilt whenever the location tree is, as that means the location tables changed, and every
+ * location.language_states_ms_interval milliseconds to catch language edits the tree doesn't track.
  */
 @Service("locationService")
 public class LocationServiceImpl implements LocationService {
+    private static final String LANGUAGE_STATES_MS_INTERVAL = "location.language_states_ms_interval";
+
+    private static final String REFRESH_LANGUAGE_STATES_EVENT = "nms.location.refresh_language_states";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocationServiceImpl.class);
+
+    private SettingsFacade settingsFacade;
+    private MotechSchedulerService schedulerService;
+    private DistrictDataService districtDataService;
+    private LocationTreeService locationTreeService;
+
+    // Language code to district code, null until first used
+    private volatile Map<String, Long> languageDistricts;
+
+    private final Object rebuildLock = new Object();
+
+
+    /**
+     * Use the MOTECH scheduler to setup a repeating job
+     * The job will start now and repeat every location.language_states_ms_interval milliseconds
+     */
+    private void scheduleLanguageStatesRefresh() {
+        Long msInterval = Long.parseLong(settingsFacade.getProperty(LANGUAGE_STATES_MS_INTERVAL));
+
+        LOGGER.debug(String.format("The %s message will be sent every %sms", REFRESH_LANGUAGE_STATES_EVENT,
+                msInterval.toString()));
+
+        //Schedule repeating job
+        MotechEvent event = new MotechEvent(REFRESH_LANGUAGE_STATES_EVENT);
+        RepeatingSchedulableJob job = new RepeatingSchedulableJob(
+                event,                      //MOTECH event
+                DateTime.now().toDate(),    //startTime
+                null,                       //endTime, null means no end time
+                null,                       //repeatCount, null means infinity
+                msInterval,                 //repeatIntervalInMilliseconds
+                true);                      //ignorePastFiresAtStart
+        schedulerService.safeScheduleRepeatingJob(job);
+    }
+
+
+    @Autowired
+    public LocationServiceImpl(@Qualifier("locationSettings") SettingsFacade settingsFacade,
+                               MotechSchedulerService schedulerService, DistrictDataService districtDataService,
+                               LocationTreeService locationTreeService) {
+        this.settingsFacade = settingsFacade;
+        this.schedulerService = schedulerService;
+        this.districtDataService = districtDataService;
+        this.locationTreeService = locationTreeService;
+
+        scheduleLanguageStatesRefresh();
+    }
 
-    public static final String HACKY_LANGUAGE_CODE = "34";
-    public static final long HACKY_WHITELISTED_STATE_CODE = -1L;
-    public static final long HACKY_NON_WHITELISTED_STATE_CODE = -10L;
 
     @Override
     public State getStateForLanguage(Language language) {
-        // TODO: #71 For a given languageLocationCode find the districts it maps to and find the state for
-        //       those districts (I assume we'll just take the first district)
-        if (language == null) {
+        if (language == null || language.getCode() == null) {
+            return null;
+        }
+
+        Map<String, Long> districts = languageDistricts;
+        if (districts == null) {
+            synchronized (rebuildLock) {
+                if (languageDistricts == null) {
+                    buildLanguageDistricts();
+                }
+                districts = languageDistricts;
+            }
+        }
+
+        Long districtCode = districts == null ? null : districts.get(language.getCode());
+        if (districtCode == null) {
+            return null;
+        }
+
+        LocationTree tree = locationTreeService.getLocationTree();
+        int stateIndex = tree.getAncestorIndex(LocationLevel.DISTRICT, tree.indexOf(LocationLevel.DISTRICT,
+                districtCode), LocationLevel.STATE);
+        if (stateIndex == LocationTree.NOT_FOUND) {
             return null;
-        } else if (language.getCode() == HACKY_LANGUAGE_CODE) {
-            return new State("Whitelist", HACKY_WHITELISTED_STATE_CODE);
-        } else {
-            return new State("Curacao", HACKY_NON_WHITELISTED_STATE_CODE);
         }
+
+        State state = new State(tree.getName(LocationLevel.STATE, stateIndex),
+                tree.getCode(LocationLevel.STATE, stateIndex));
+        state.setId(tree.getId(LocationLevel.STATE, stateIndex));
+        return state;
+    }
+
+
+    @Override
+    public void refreshLanguageStates() {
+        buildLanguageDistricts();
+        locationTreeService.refresh();
+    }
+
+
+    @MotechListener(subjects = { REFRESH_LANGUAGE_STATES_EVENT })
+    public void refreshLanguageStates(MotechEvent event) {
+        // The location tree has its own change check, only rebuild it here if it's missing one of our districts
+        if (buildLanguageDistricts()) {
+            locationTreeService.refresh();
+        }
+    }
+
+
+    @MotechListener(subjects = { LocationTreeService.LOCATION_TREE_REBUILT_EVENT })
+    public void handleLocationTreeRebuilt(MotechEvent event) {
+        // Don't ask for another tree here, whatever it's missing it'll still be missing
+        buildLanguageDistricts();
+    }
+
+
+    /*
+     * Returns true if the location tree is missing one of the mapped districts, which was created since it was built
+     */
+    private boolean buildLanguageDistricts() {
+        synchronized (rebuildLock) {
+            try {
+                Map<String, Long> districts = new HashMap<>();
+
+                for (Object[] row : findDistrictLanguages()) {
+                    String languageCode = (String) row[0];
+                    if (!districts.containsKey(languageCode)) {
+                        // Districts are in id order, the first one wins
+                        districts.put(languageCode, (Long) row[1]);
+                    }
+                }
+
+                languageDistricts = districts;
+                LOGGER.debug("Mapped {} language location codes to districts", districts.size());
+
+                LocationTree tree = locationTreeService.getLocationTree();
+                for (Long districtCode : districts.values()) {
+                    if (!tree.contains(LocationLevel.DISTRICT, districtCode)) {
+                        return true;
+                    }
+                }
+
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to map language location codes to states, keeping the previous map", e);
+            }
+            return false;
+        }
+    }
+
+
+    /*
+     * [language.code, code] of every district which has a language, in district id order
+     */
+    private List<Object[]> findDistrictLanguages() {
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<Object[]>> queryExecution = new QueryExecution<List<Object[]>>() {
+            @Override
+            public List<Object[]> execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("language != null && code != null");
+                query.setResult("language.code, code");
+                query.setOrdering("id ascending");
+
+                return (List<Object[]>) query.execute();
+            }
+        };
+
+        return districtDataService.executeQuery(queryExecution);
     }
 }
@@ -0,0 +1,321 @@
+package org.motechproject.nms.location.service.impl;
+
+import org.joda.time.DateTime;
+import org.motechproject.event.MotechEvent;
+import org.motechproject.event.listener.EventRelay;
+import org.motechproject.event.listener.annotations.MotechListener;
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mds.service.MotechDataService;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
+import org.motechproject.nms.location.dto.LocationLevel;
+import org.motechproject.nms.location.dto.LocationTree;
+import org.motechproject.nms.location.repository.DistrictDataService;
+import org.motechproject.nms.location.repository.HealthBlockDataService;
+import org.motechproject.nms.location.repository.HealthFacilityDataService;
+import org.motechproject.nms.location.repository.HealthSubFacilityDataService;
+import org.motechproject.nms.location.repository.StateDataService;
+import org.motechproject.nms.location.repository.TalukaDataService;
+import org.motechproject.nms.location.repository.VillageDataService;
+import org.motechproject.nms.location.service.LocationTreeService;
+import org.motechproject.scheduler.contract.RepeatingSchedulableJob;
+import org.motechproject.scheduler.service.MotechSchedulerService;
+import org.motechproject.server.config.SettingsFacade;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import javax.jdo.Query;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Implementation of the {@link LocationTreeService} interface.
+ *
+ * The tree is built from projection queries, paged by id, so no location entity (nor the collections hanging off
+ * it) is ever loaded. A repeating job compares the row count and highest id of every location table with what they
+ * were when the tree was built, and rebuilds it if they moved or if the tree is older than
+ * location.tree_max_age_ms, which also catches in-place edits. Every new tree is announced with a
+ * LOCATION_TREE_REBUILT_EVENT, for whoever derives data from the location tables.
+ */
+@Service("locationTreeService")
+public class LocationTreeServiceImpl implements LocationTreeService {
+    private static final String TREE_CHECK_MS_INTERVAL = "location.tree_check_ms_interval";
+    private static final String TREE_MAX_AGE_MS = "location.tree_max_age_ms";
+    private static final String TREE_RETRY_MS = "location.tree_retry_ms";
+    private static final String MAX_QUERY_BLOCK = "location.max_query_block";
+
+    private static final String CHECK_LOCATION_TREE_EVENT = "nms.location.check_location_tree";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocationTreeServiceImpl.class);
+
+    private SettingsFacade settingsFacade;
+    private MotechSchedulerService schedulerService;
+    private EventRelay eventRelay;
+    private StateDataService stateDataService;
+    private DistrictDataService districtDataService;
+    private TalukaDataService talukaDataService;
+    private VillageDataService villageDataService;
+    private HealthBlockDataService healthBlockDataService;
+    private HealthFacilityDataService healthFacilityDataService;
+    private HealthSubFacilityDataService healthSubFacilityDataService;
+
+    // Null until first used
+    private volatile LocationTree locationTree;
+
+    // [count, max id] of every location table when locationTree was built, and when that was
+    private volatile long[] treeSignature;
+    private volatile long treeTime;
+
+    // When the last build failed, 0 if it didn't: callers don't retry before location.tree_retry_ms went by
+    private volatile long failedBuildTime;
+
+    private final Object rebuildLock = new Object();
+
+
+    /**
+     * Use the MOTECH scheduler to setup a repeating job
+     * The job will start now and repeat every location.tree_check_ms_interval milliseconds
+     */
+    private void scheduleTreeCheck() {
+        Long msInterval = Long.parseLong(settingsFacade.getProperty(TREE_CHECK_MS_INTERVAL));
+
+        LOGGER.debug(String.format("The %s message will be sent every %sms", CHECK_LOCATION_TREE_EVENT,
+                msInterval.toString()));
+
+        //Schedule repeating job
+        MotechEvent event = new MotechEvent(CHECK_LOCATION_TREE_EVENT);
+        RepeatingSchedulableJob job = new RepeatingSchedulableJob(
+                event,                      //MOTECH event
+                DateTime.now().toDate(),    //startTime
+                null,                       //endTime, null means no end time
+                null,                       //repeatCount, null means infinity
+                msInterval,                 //repeatIntervalInMilliseconds
+                true);                      //ignorePastFiresAtStart
+        schedulerService.safeScheduleRepeatingJob(job);
+    }
+
+
+    @Autowired
+    public LocationTreeServiceImpl(MotechSchedulerService schedulerService, // NO CHECKSTYLE More than 7 parameters
+                                   EventRelay eventRelay,
+                                   @Qualifier("locationSettings") SettingsFacade settingsFacade,
+                                   StateDataService stateDataService,
+                                   DistrictDataService districtDataService, TalukaDataService talukaDataService,
+                                   VillageDataService villageDataService,
+                                   HealthBlockDataService healthBlockDataService,
+                                   HealthFacilityDataService healthFacilityDataService,
+                                   HealthSubFacilityDataService healthSubFacilityDataService) {
+        this.settingsFacade = settingsFacade;
+        this.schedulerService = schedulerService;
+        this.eventRelay = eventRelay;
+        this.stateDataService = stateDataService;
+        this.districtDataService = districtDataService;
+        this.talukaDataService = talukaDataService;
+        this.villageDataService = villageDataService;
+        this.healthBlockDataService = healthBlockDataService;
+        this.healthFacilityDataService = healthFacilityDataService;
+        this.healthSubFacilityDataService = healthSubFacilityDataService;
+
+        scheduleTreeCheck();
+    }
+
+
+    /**
+     * Once a tree was built, it's the one served until a rebuild succeeds. Until then, a failed build is only retried
+     * by callers location.tree_retry_ms after it failed, and they're served the empty tree in between rather than
+     * each waiting for a build which is likely to fail again.
+     */
+    @Override
+    public LocationTree getLocationTree() {
+        LocationTree tree = locationTree;
+        if (tree == null && !retryBackingOff()) {
+            synchronized (rebuildLock) {
+                if (locationTree == null && !retryBackingOff()) {
+                    refresh();
+                }
+                tree = locationTree;
+            }
+        }
+        return tree == null ? LocationTree.empty() : tree;
+    }
+
+
+    @Override
+    public void refresh() {
+        synchronized (rebuildLock) {
+            long startTime = System.currentTimeMillis();
+            int maxQueryBlock = Integer.parseInt(settingsFacade.getProperty(MAX_QUERY_BLOCK));
+
+            try {
+                // Read first: anything written while we load is picked up by the next check
+                long[] signature = computeSignature();
+
+                LocationTree.Builder builder = new LocationTree.Builder();
+                loadLevel(builder, LocationLevel.STATE, stateDataService, null, maxQueryBlock);
+                loadLevel(builder, LocationLevel.DISTRICT, districtDataService, "state.id", maxQueryBlock);
+                loadLevel(builder, LocationLevel.TALUKA, talukaDataService, "district.id", maxQueryBlock);
+                loadLevel(builder, LocationLevel.HEALTH_BLOCK, healthBlockDataService, "taluka.id", maxQueryBlock);
+                loadLevel(builder, LocationLevel.HEALTH_FACILITY, healthFacilityDataService, "healthBlock.id",
+                        maxQueryBlock);
+                loadLevel(builder, LocationLevel.HEALTH_SUB_FACILITY, healthSubFacilityDataService,
+                        "healthFacility.id", maxQueryBlock);
+                loadVillages(builder, maxQueryBlock);
+
+                locationTree = builder.build();
+                treeSignature = signature;
+                treeTime = startTime;
+                failedBuildTime = 0;
+
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to build the location tree, keeping the previous one", e);
+                failedBuildTime = System.currentTimeMillis();
+                return;
+            }
+
+            LOGGER.info("Built the location tree ({} states, {} districts, {} villages) in {}ms",
+                    locationTree.size(LocationLevel.STATE), locationTree.size(LocationLevel.DISTRICT),
+                    locationTree.size(LocationLevel.VILLAGE), System.currentTimeMillis() - startTime);
+        }
+
+        // Outside the lock, listeners are free to ask for the new tree
+        try {
+            eventRelay.sendEventMessage(new MotechEvent(LOCATION_TREE_REBUILT_EVENT));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to announce the new location tree", e);
+        }
+    }
+
+
+    @MotechListener(subjects = { CHECK_LOCATION_TREE_EVENT })
+    public void checkLocationTree(MotechEvent event) {
+        if (locationTree == null) {
+            // Nobody asked for it yet, it'll be built fresh when they do
+            return;
+        }
+
+        long maxAge = Long.parseLong(settingsFacade.getProperty(TREE_MAX_AGE_MS));
+        if (System.currentTimeMillis() - treeTime > maxAge) {
+            refresh();
+        } else if (!Arrays.equals(treeSignature, computeSignature())) {
+            LOGGER.info("Location tables changed since the location tree was built");
+            refresh();
+        }
+    }
+
+
+    private boolean retryBackingOff() {
+        long failed = failedBuildTime;
+        return failed != 0 &&
+                System.currentTimeMillis() - failed < Long.parseLong(settingsFacade.getProperty(TREE_RETRY_MS));
+    }
+
+
+    private long[] computeSignature() {
+        List<MotechDataService<?>> dataServices = Arrays.<MotechDataService<?>>asList(stateDataService,
+                districtDataService, talukaDataService, villageDataService, healthBlockDataService,
+                healthFacilityDataService, healthSubFacilityDataService);
+
+        long[] signature = new long[dataServices.size() * 2];
+        for (int i = 0; i < dataServices.size(); i++) {
+            Object[] countAndMaxId = dataServices.get(i).executeQuery(new QueryExecution<Object[]>() {
+                @Override
+                public Object[] execute(Query query, InstanceSecurityRestriction restriction) {
+                    query.setResult("count(this), max(id)");
+                    query.setUnique(true);
+                    return (Object[]) query.execute();
+                }
+            });
+            signature[i * 2] = countAndMaxId[0] == null ? 0 : ((Number) countAndMaxId[0]).longValue();
+            signature[i * 2 + 1] = countAndMaxId[1] == null ? 0 : ((Number) countAndMaxId[1]).longValue();
+        }
+        return signature;
+    }
+
+
+    /*
+     * Adds every location of the level, read as [id, code, name, parentIdField] rows
+     */
+    private void loadLevel(LocationTree.Builder builder, LocationLevel level, MotechDataService<?> dataService,
+                           String parentIdField, int maxQueryBlock) {
+        String result = parentIdField == null ? "id, code, name" : "id, code, name, " + parentIdField;
+        long lastId = 0;
+        List<Object[]> rows;
+        do {
+            rows = findLocations(dataService, result, lastId, maxQueryBlock);
+
+            for (Object[] row : rows) {
+                lastId = (Long) row[0];
+                Long parentId = parentIdField == null ? Long.valueOf(0) : (Long) row[3];
+                if (row[1] == null || parentId == null) {
+                    LOGGER.warn("Skipping {} {}: no code or no parent", level, lastId);
+                } else if (level == LocationLevel.TALUKA) {
+                    builder.addTaluka(lastId, (String) row[1], (String) row[2], parentId);
+                } else {
+                    builder.add(level, lastId, ((Number) row[1]).longValue(), (String) row[2], parentId);
+                }
+            }
+
+        } while (rows.size() == maxQueryBlock);
+    }
+
+
+    /*
+     * Villages are indexed by their village code, which a non census village shares with the census village it's
+     * associated with, if any: add census villages first so that they're the ones the code resolves to
+     */
+    private void loadVillages(LocationTree.Builder builder, int maxQueryBlock) {
+        List<Object[]> nonCensus = new ArrayList<>();
+        long lastId = 0;
+        List<Object[]> rows;
+        do {
+            rows = findLocations(villageDataService, "id, vcode, svid, name, taluka.id", lastId, maxQueryBlock);
+
+            for (Object[] row : rows) {
+                lastId = (Long) row[0];
+                if (row[2] == null) {
+                    addVillage(builder, (Long) row[1], row);
+                } else {
+                    nonCensus.add(row);
+                }
+            }
+
+        } while (rows.size() == maxQueryBlock);
+
+        for (Object[] row : nonCensus) {
+            addVillage(builder, row[1] == null ? (Long) row[2] : (Long) row[1], row);
+        }
+    }
+
+
+    private void addVillage(LocationTree.Builder builder, Long villageCode, Object[] row) {
+        if (villageCode == null || row[4] == null) {
+            LOGGER.warn("Skipping village {}: no village code or no taluka", row[0]);
+            return;
+        }
+        builder.add(LocationLevel.VILLAGE, (Long) row[0], villageCode, (String) row[3], (Long) row[4]);
+    }
+
+
+    private List<Object[]> findLocations(MotechDataService<?> dataService, final String result, final long lastId,
+                                         final int maxQueryBlock) {
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<Object[]>> queryExecution = new QueryExecution<List<Object[]>>() {
+            @Override
+            public List<Object[]> execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("id > lastId");
+                query.declareParameters("Long lastId");
+                query.setResult(result);
+                query.setOrdering("id ascending");
+                query.setRange(0, maxQueryBlock);
+
+                return (List<Object[]>) query.execute(lastId);
+            }
+        };
+
+        return dataService.executeQuery(queryExecution);
+    }
+}
@@ -8,7 +8,8 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
-    LocationServiceBundleIT.class
+    LocationServiceBundleIT.class,
+    LocationImportServiceBundleIT.class
 })
 public class IntegrationTests {
 }
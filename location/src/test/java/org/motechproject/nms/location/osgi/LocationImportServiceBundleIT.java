@@ -0,0 +1,192 @@
+package org.motechproject.nms.location.osgi;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.motechproject.nms.location.domain.District;
+import org.motechproject.nms.location.domain.Village;
+import org.motechproject.nms.location.dto.LocationImportResult;
+import org.motechproject.nms.location.dto.LocationLevel;
+import org.motechproject.nms.location.dto.LocationTree;
+import org.motechproject.nms.location.repository.DistrictDataService;
+import org.motechproject.nms.location.repository.HealthBlockDataService;
+import org.motechproject.nms.location.repository.HealthFacilityDataService;
+import org.motechproject.nms.location.repository.HealthFacilityTypeDataService;
+import org.motechproject.nms.location.repository.HealthSubFacilityDataService;
+import org.motechproject.nms.location.repository.StateDataService;
+import org.motechproject.nms.location.repository.TalukaDataService;
+import org.motechproject.nms.location.repository.VillageDataService;
+import org.motechproject.nms.location.service.LocationImportService;
+import org.motechproject.nms.location.service.LocationTreeService;
+import org.motechproject.testing.osgi.BasePaxIT;
+import org.motechproject.testing.osgi.container.MotechNativeTestContainerFactory;
+import org.ops4j.pax.exam.ExamFactory;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerSuite;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerSuite.class)
+@ExamFactory(MotechNativeTestContainerFactory.class)
+public class LocationImportServiceBundleIT extends BasePaxIT {
+    @Inject
+    private LocationImportService locationImportService;
+
+    @Inject
+    private LocationTreeService locationTreeService;
+
+    @Inject
+    private StateDataService stateDataService;
+
+    @Inject
+    private DistrictDataService districtDataService;
+
+    @Inject
+    private TalukaDataService talukaDataService;
+
+    @Inject
+    private VillageDataService villageDataService;
+
+    @Inject
+    private HealthBlockDataService healthBlockDataService;
+
+    @Inject
+    private HealthFacilityTypeDataService healthFacilityTypeDataService;
+
+    @Inject
+    private HealthFacilityDataService healthFacilityDataService;
+
+    @Inject
+    private HealthSubFacilityDataService healthSubFacilityDataService;
+
+    @Before
+    public void cleanAll() {
+        healthSubFacilityDataService.deleteAll();
+        healthFacilityDataService.deleteAll();
+        healthFacilityTypeDataService.deleteAll();
+        healthBlockDataService.deleteAll();
+        villageDataService.deleteAll();
+        talukaDataService.deleteAll();
+        districtDataService.deleteAll();
+        stateDataService.deleteAll();
+        locationTreeService.refresh();
+    }
+
+    private LocationImportResult importLocations(LocationLevel level, String csv) throws IOException {
+        return locationImportService.importLocations(level, new StringReader(csv));
+    }
+
+    private void importStateDistrictAndTaluka() throws IOException {
+        importLocations(LocationLevel.STATE, "code,name\n1,State 1\n");
+        importLocations(LocationLevel.DISTRICT, "code,name,regionalName,stateCode\n21,District 21,District 21,1\n");
+        importLocations(LocationLevel.TALUKA,
+                "code,name,regionalName,identity,districtCode\n0005,Taluka 5,Taluka 5,1,21\n");
+    }
+
+    @Test
+    public void testImportHierarchy() throws IOException {
+        importStateDistrictAndTaluka();
+
+        LocationImportResult result = importLocations(LocationLevel.VILLAGE,
+                "name,regionalName,vcode,svid,districtCode,talukaCode\n" +
+                "Village 1,Village 1,3001,,21,0005\n" +
+                "\"Village, 2\",Village 2,3002,,21,0005\n");
+
+        assertEquals(2, result.getRowCount());
+        assertEquals(2, result.getImportedCount());
+        assertTrue(result.getRejectedRows().isEmpty());
+
+        for (Village village : villageDataService.retrieveAll()) {
+            assertEquals("0005", village.getTaluka().getCode());
+            if (village.getVcode() == 3002L) {
+                assertEquals("Village, 2", village.getName());
+            }
+        }
+
+        LocationTree tree = locationTreeService.getLocationTree();
+        assertEquals(Long.valueOf(1L), tree.getStateCode(LocationLevel.VILLAGE, 3001L));
+        assertTrue(tree.isWithin(LocationLevel.VILLAGE, 3002L, LocationLevel.DISTRICT, 21L));
+    }
+
+    @Test
+    public void testTalukaCodeSharedByDistricts() throws IOException {
+        importStateDistrictAndTaluka();
+        importLocations(LocationLevel.DISTRICT, "code,name,regionalName,stateCode\n22,District 22,District 22,1\n");
+
+        LocationImportResult result = importLocations(LocationLevel.TALUKA,
+                "code,name,regionalName,identity,districtCode\n" +
+                "0005,Taluka 22/0005,Taluka 22/0005,2,22\n" +
+                "5,Taluka 22/5,Taluka 22/5,3,22\n" +
+                "0005,Duplicate of an existing taluka,Taluka 21/0005,4,21\n");
+
+        assertEquals(2, result.getImportedCount());
+        assertEquals(Arrays.asList("line 4: <code: Duplicate>"), result.getRejectedRows());
+
+        result = importLocations(LocationLevel.VILLAGE,
+                "name,regionalName,vcode,svid,districtCode,talukaCode\n" +
+                "Village 1,Village 1,3001,,22,0005\n" +
+                "Village 2,Village 2,3002,,22,0004\n" +
+                "Village 3,Village 3,3003,,,0005\n");
+
+        assertEquals(1, result.getImportedCount());
+        assertEquals(Arrays.asList("line 3: <talukaCode: Not Found>", "line 4: <districtCode: Not Present>"),
+                result.getRejectedRows());
+        assertEquals("Taluka 22/0005", villageDataService.retrieveAll().get(0).getTaluka().getName());
+        assertTrue(locationTreeService.getLocationTree().isWithin(LocationLevel.VILLAGE, 3001L,
+                LocationLevel.DISTRICT, 22L));
+    }
+
+    @Test
+    public void testRejectedRows() throws IOException {
+        importStateDistrictAndTaluka();
+
+        LocationImportResult result = importLocations(LocationLevel.DISTRICT,
+                "code,name,regionalName,stateCode\n" +
+                "22,District 22,District 22,1\n" +
+                "21,Duplicate of an existing district,District 21,1\n" +
+                "23,District in an unknown state,District 23,2\n" +
+                "24,,District 24,1\n" +
+                "abc,District abc,District abc,1\n" +
+                "22,Duplicate within the file,District 22,1\n");
+
+        assertEquals(6, result.getRowCount());
+        assertEquals(1, result.getImportedCount());
+
+        List<String> expected = Arrays.asList(
+                "line 3: <code: Duplicate>",
+                "line 4: <stateCode: Not Found>",
+                "line 5: <name: may not be null>",
+                "line 6: <code: Invalid>",
+                "line 7: <code: Duplicate>");
+        assertEquals(expected, result.getRejectedRows());
+
+        assertEquals(2, districtDataService.retrieveAll().size());
+    }
+
+    @Test
+    public void testRejectedRowDoesNotTakeItsCode() throws IOException {
+        importStateDistrictAndTaluka();
+
+        LocationImportResult result = importLocations(LocationLevel.DISTRICT,
+                "code,name,regionalName,stateCode\n" +
+                "22,,District 22,1\n" +
+                "22,District 22,District 22,1\n");
+
+        assertEquals(1, result.getImportedCount());
+        assertEquals(Arrays.asList("line 2: <name: may not be null>"), result.getRejectedRows());
+        for (District district : districtDataService.retrieveAll()) {
+            if (district.getCode() == 22L) {
+                assertEquals("District 22", district.getName());
+            }
+        }
+    }
+}
@@ -3,6 +3,8 @@ package org.motechproject.nms.location.osgi;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.motechproject.nms.language.domain.Language;
+import org.motechproject.nms.language.repository.LanguageDataService;
 import org.motechproject.nms.location.domain.District;
 import org.motechproject.nms.location.domain.HealthBlock;
 import org.motechproject.nms.location.domain.HealthFacility;
@@ -20,6 +22,7 @@ import org.motechproject.nms.location.repository.StateDataService;
 import org.motechproject.nms.location.repository.TalukaDataService;
 import org.motechproject.nms.location.repository.VillageDataService;
 import org.motechproject.nms.location.service.LocationService;
+import org.motechproject.nms.location.service.LocationTreeService;
 import org.motechproject.testing.osgi.BasePaxIT;
 import org.motechproject.testing.osgi.container.MotechNativeTestContainerFactory;
 import org.ops4j.pax.exam.ExamFactory;
@@ -42,6 +45,12 @@ public class LocationServiceBundleIT extends BasePaxIT {
     @Inject
     private LocationService locationService;
 
+    @Inject
+    private LocationTreeService locationTreeService;
+
+    @Inject
+    private LanguageDataService languageDataService;
+
     @Inject
     private StateDataService stateDataService;
 
@@ -142,6 +151,66 @@ public class LocationServiceBundleIT extends BasePaxIT {
         state.getDistricts().add(district);
     }
 
+    @Test
+    public void testStateForLanguage() throws Exception {
+        cleanAll();
+        Language existing = languageDataService.findByCode("50");
+        if (existing != null) {
+            languageDataService.delete(existing);
+        }
+        Language language = languageDataService.create(new Language("Language 50", "50"));
+
+        District district = new District();
+        district.setName("District 50");
+        district.setRegionalName("District 50");
+        district.setCode(50L);
+        district.setLanguage(language);
+
+        State state = new State("State 50", 50L);
+        state.getDistricts().add(district);
+        stateDataService.create(state);
+
+        locationService.refreshLanguageStates();
+
+        assertEquals(Long.valueOf(50L), locationService.getStateForLanguage(language).getCode());
+        assertNull(locationService.getStateForLanguage(new Language("Unmapped Language", "51")));
+        assertNull(locationService.getStateForLanguage(null));
+    }
+
+    @Test
+    public void testStateForLanguageFollowsLocationTree() throws Exception {
+        cleanAll();
+        Language existing = languageDataService.findByCode("52");
+        if (existing != null) {
+            languageDataService.delete(existing);
+        }
+        Language language = languageDataService.create(new Language("Language 52", "52"));
+        locationService.refreshLanguageStates();
+        assertNull(locationService.getStateForLanguage(language));
+
+        District district = new District();
+        district.setName("District 52");
+        district.setRegionalName("District 52");
+        district.setCode(52L);
+        district.setLanguage(language);
+
+        State state = new State("State 52", 52L);
+        state.getDistricts().add(district);
+        stateDataService.create(state);
+
+        // Whoever rebuilds the tree, the language map follows without being asked to
+        locationTreeService.refresh();
+
+        State found = null;
+        for (int i = 0; i < 50 && found == null; i++) {
+            Thread.sleep(100);
+            found = locationService.getStateForLanguage(language);
+        }
+        assertNotNull(found);
+        assertEquals(Long.valueOf(52L), found.getCode());
+        assertEquals("State 52", found.getName());
+    }
+
     @Test(expected = ConstraintViolationException.class)
     public void testCreateStateNoName() throws Exception {
         initAll();
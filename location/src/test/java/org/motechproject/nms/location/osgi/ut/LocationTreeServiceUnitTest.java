@@ -0,0 +1,118 @@
+package org.motechproject.nms.location.osgi.ut;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.motechproject.event.MotechEvent;
+import org.motechproject.event.listener.EventRelay;
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.nms.location.dto.LocationLevel;
+import org.motechproject.nms.location.dto.LocationTree;
+import org.motechproject.nms.location.repository.DistrictDataService;
+import org.motechproject.nms.location.repository.HealthBlockDataService;
+import org.motechproject.nms.location.repository.HealthFacilityDataService;
+import org.motechproject.nms.location.repository.HealthSubFacilityDataService;
+import org.motechproject.nms.location.repository.StateDataService;
+import org.motechproject.nms.location.repository.TalukaDataService;
+import org.motechproject.nms.location.repository.VillageDataService;
+import org.motechproject.nms.location.service.impl.LocationTreeServiceImpl;
+import org.motechproject.scheduler.service.MotechSchedulerService;
+import org.motechproject.server.config.SettingsFacade;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class LocationTreeServiceUnitTest {
+
+    @Mock
+    private SettingsFacade settingsFacade;
+
+    @Mock
+    private MotechSchedulerService schedulerService;
+
+    @Mock
+    private EventRelay eventRelay;
+
+    @Mock
+    private StateDataService stateDataService;
+
+    @Mock
+    private DistrictDataService districtDataService;
+
+    @Mock
+    private TalukaDataService talukaDataService;
+
+    @Mock
+    private VillageDataService villageDataService;
+
+    @Mock
+    private HealthBlockDataService healthBlockDataService;
+
+    @Mock
+    private HealthFacilityDataService healthFacilityDataService;
+
+    @Mock
+    private HealthSubFacilityDataService healthSubFacilityDataService;
+
+    private LocationTreeServiceImpl locationTreeService;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+        when(settingsFacade.getProperty("location.tree_check_ms_interval")).thenReturn("300000");
+        when(settingsFacade.getProperty("location.max_query_block")).thenReturn("1000");
+
+        // The database is down: building the tree fails from its very first query
+        when(stateDataService.executeQuery(any(QueryExecution.class))).thenThrow(
+                new IllegalStateException("Unable to connect"));
+
+        locationTreeService = new LocationTreeServiceImpl(schedulerService, eventRelay, settingsFacade,
+                stateDataService, districtDataService, talukaDataService, villageDataService, healthBlockDataService,
+                healthFacilityDataService, healthSubFacilityDataService);
+    }
+
+    @Test
+    public void testFailedBuildNotRetriedByEveryCaller() {
+        when(settingsFacade.getProperty("location.tree_retry_ms")).thenReturn("60000");
+
+        LocationTree tree = locationTreeService.getLocationTree();
+        assertSame(LocationTree.empty(), tree);
+        assertEquals(0, tree.size(LocationLevel.STATE));
+
+        assertSame(LocationTree.empty(), locationTreeService.getLocationTree());
+        assertSame(LocationTree.empty(), locationTreeService.getLocationTree());
+
+        verify(stateDataService, times(1)).executeQuery(any(QueryExecution.class));
+
+        // Nothing new to announce
+        verify(eventRelay, never()).sendEventMessage(any(MotechEvent.class));
+    }
+
+    @Test
+    public void testFailedBuildRetriedOnceBackedOff() {
+        when(settingsFacade.getProperty("location.tree_retry_ms")).thenReturn("0");
+
+        locationTreeService.getLocationTree();
+        locationTreeService.getLocationTree();
+
+        verify(stateDataService, times(2)).executeQuery(any(QueryExecution.class));
+    }
+
+    @Test
+    public void testRefreshNotHeldBack() {
+        when(settingsFacade.getProperty("location.tree_retry_ms")).thenReturn("60000");
+
+        locationTreeService.getLocationTree();
+
+        // Whoever asks for a rebuild explicitly gets one
+        locationTreeService.refresh();
+
+        verify(stateDataService, times(2)).executeQuery(any(QueryExecution.class));
+    }
+}
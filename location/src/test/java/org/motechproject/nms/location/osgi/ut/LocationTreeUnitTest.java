@@ -0,0 +1,110 @@
+package org.motechproject.nms.location.osgi.ut;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.motechproject.nms.location.dto.LocationLevel;
+import org.motechproject.nms.location.dto.LocationTree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LocationTreeUnitTest {
+    LocationTree tree;
+
+    @Before
+    public void setup() {
+        // Children before their parents, as the builder doesn't care about the order
+        tree = new LocationTree.Builder()
+                .add(LocationLevel.VILLAGE, 1L, 3001L, "Village", 3L)
+                .add(LocationLevel.HEALTH_BLOCK, 2L, 4001L, "Health Block", 3L)
+                .addTaluka(3L, "0005", "Taluka", 4L)
+                .add(LocationLevel.DISTRICT, 4L, 21L, "District 21", 7L)
+                .add(LocationLevel.DISTRICT, 5L, 22L, "District 22", 8L)
+                .add(LocationLevel.DISTRICT, 6L, 23L, "Orphan District", 9L)
+                .add(LocationLevel.STATE, 7L, 1L, "State 1", 0L)
+                .add(LocationLevel.STATE, 8L, 2L, "State 2", 0L)
+                .build();
+    }
+
+    @Test
+    public void testLookup() {
+        assertEquals(2, tree.size(LocationLevel.STATE));
+        assertEquals(3, tree.size(LocationLevel.DISTRICT));
+        assertEquals(0, tree.size(LocationLevel.HEALTH_FACILITY));
+
+        int district = tree.indexOf(LocationLevel.DISTRICT, 22L);
+        assertEquals(22L, tree.getCode(LocationLevel.DISTRICT, district));
+        assertEquals("District 22", tree.getName(LocationLevel.DISTRICT, district));
+        assertEquals(5L, tree.getId(LocationLevel.DISTRICT, district));
+
+        assertEquals(LocationTree.NOT_FOUND, tree.indexOf(LocationLevel.DISTRICT, 1L));
+        assertFalse(tree.contains(LocationLevel.STATE, 21L));
+    }
+
+    @Test
+    public void testAncestors() {
+        assertEquals(Long.valueOf(1L), tree.getStateCode(LocationLevel.VILLAGE, 3001L));
+        assertEquals(Long.valueOf(2L), tree.getStateCode(LocationLevel.DISTRICT, 22L));
+        assertNull(tree.getStateCode(LocationLevel.DISTRICT, 23L));
+        assertNull(tree.getStateCode(LocationLevel.VILLAGE, 9999L));
+
+        assertTrue(tree.isWithin(LocationLevel.HEALTH_BLOCK, 4001L, LocationLevel.DISTRICT, 21L));
+        assertFalse(tree.isWithin(LocationLevel.HEALTH_BLOCK, 4001L, LocationLevel.DISTRICT, 22L));
+        assertFalse(tree.isWithin(LocationLevel.HEALTH_BLOCK, 4001L, LocationLevel.VILLAGE, 3001L));
+    }
+
+    @Test
+    public void testTalukasIndexedWithinDistrict() {
+        LocationTree talukas = new LocationTree.Builder()
+                .add(LocationLevel.DISTRICT, 1L, 21L, "District 21", 0L)
+                .add(LocationLevel.DISTRICT, 2L, 22L, "District 22", 0L)
+                .addTaluka(3L, "0005", "Taluka 21/0005", 1L)
+                .addTaluka(4L, "0005", "Taluka 22/0005", 2L)
+                .addTaluka(5L, "5", "Taluka 22/5", 2L)
+                .addTaluka(6L, "0004", "Orphan Taluka", 99L)
+                .build();
+
+        int district21 = talukas.indexOf(LocationLevel.DISTRICT, 21L);
+        int district22 = talukas.indexOf(LocationLevel.DISTRICT, 22L);
+        assertEquals("Taluka 21/0005", talukas.getName(LocationLevel.TALUKA, talukas.indexOfTaluka(district21,
+                "0005")));
+        assertEquals("Taluka 22/0005", talukas.getName(LocationLevel.TALUKA, talukas.indexOfTaluka(district22,
+                "0005")));
+        assertEquals("Taluka 22/5", talukas.getName(LocationLevel.TALUKA, talukas.indexOfTaluka(district22, "5")));
+        assertEquals("0005", talukas.getTalukaCode(talukas.indexOfTaluka(district22, "0005")));
+
+        assertEquals(LocationTree.NOT_FOUND, talukas.indexOfTaluka(district21, "5"));
+        assertEquals(LocationTree.NOT_FOUND, talukas.indexOfTaluka(district21, "0004"));
+        assertEquals(LocationTree.NOT_FOUND, talukas.indexOfTaluka(LocationTree.NOT_FOUND, "0005"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTalukasNotIndexedByCode() {
+        tree.indexOf(LocationLevel.TALUKA, 5L);
+    }
+
+    @Test
+    public void testFirstDuplicateWins() {
+        LocationTree duplicates = new LocationTree.Builder()
+                .add(LocationLevel.STATE, 9L, 1L, "First", 0L)
+                .add(LocationLevel.STATE, 10L, 1L, "Second", 0L)
+                .build();
+
+        assertEquals("First", duplicates.getName(LocationLevel.STATE, duplicates.indexOf(LocationLevel.STATE, 1L)));
+    }
+
+    @Test
+    public void testManyCodes() {
+        LocationTree.Builder builder = new LocationTree.Builder();
+        for (long code = 0; code < 100000; code += 7) {
+            builder.add(LocationLevel.STATE, code + 1, code, "State", 0L);
+        }
+        LocationTree big = builder.build();
+
+        for (long code = 0; code < 100000; code++) {
+            assertEquals(code % 7 == 0, big.contains(LocationLevel.STATE, code));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.motechproject.nms.mobileacademy.domain;
+
+import org.joda.time.DateTime;
+import org.motechproject.mds.annotations.Entity;
+import org.motechproject.mds.annotations.Field;
+
+import javax.jdo.annotations.Column;
+import javax.jdo.annotations.Index;
+import javax.jdo.annotations.Unique;
+
+/**
+ * A front line worker's aggregate course scores and completion state, kept up to date as their bookmark is saved so
+ * that nobody has to rescan bookmarks to find out who completed or passed the course
+ */
+@Entity(tableName = "nms_ma_completion_records")
+public class CompletionRecord {
+
+    @Field
+    @Unique
+    @Column(allowsNull = "false")
+    private Long callingNumber;
+
+    // Sum of the chapter quiz scores
+    @Field
+    @Column(allowsNull = "false")
+    private int score;
+
+    // Number of chapters whose quiz was taken
+    @Field
+    @Column(allowsNull = "false")
+    private int chaptersScored;
+
+    @Field
+    @Column(allowsNull = "false")
+    private boolean passed;
+
+    // When every chapter was first scored, null until then
+    @Field
+    @Index(name = "COMPLETED_ON_IDX")
+    private DateTime completedOn;
+
+    public CompletionRecord(Long callingNumber) {
+        this.callingNumber = callingNumber;
+    }
+
+    public Long getCallingNumber() {
+        return callingNumber;
+    }
+
+    public void setCallingNumber(Long callingNumber) {
+        this.callingNumber = callingNumber;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public void setScore(int score) {
+        this.score = score;
+    }
+
+    public int getChaptersScored() {
+        return chaptersScored;
+    }
+
+    public void setChaptersScored(int chaptersScored) {
+        this.chaptersScored = chaptersScored;
+    }
+
+    public boolean isPassed() {
+        return passed;
+    }
+
+    public void setPassed(boolean passed) {
+        this.passed = passed;
+    }
+
+    public DateTime getCompletedOn() {
+        return completedOn;
+    }
+
+    public void setCompletedOn(DateTime completedOn) {
+        this.completedOn = completedOn;
+    }
+
+    public boolean isCompleted() {
+        return completedOn != null;
+    }
+}
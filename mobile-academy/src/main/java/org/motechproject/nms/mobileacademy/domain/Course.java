@@ -19,6 +19,13 @@ public class Course extends MdsEntity {
     @Field
     private List<Chapter> chapters;
 
+    /**
+     * Epoch seconds of when the course was last set, bumped past the previous value if the clock went back, so that
+     * it only ever grows
+     */
+    @Field
+    private Long version;
+
     public Course() {
     }
 
@@ -37,4 +44,12 @@ public class Course extends MdsEntity {
     public void setChapters(List<Chapter> chapters) {
         this.chapters = chapters;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
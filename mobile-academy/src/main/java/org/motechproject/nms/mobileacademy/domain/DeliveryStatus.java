@@ -0,0 +1,35 @@
+package org.motechproject.nms.mobileacademy.domain;
+
+/**
+ * SMS delivery states reported by the SMS gateway (OneAPI deliveryStatus values)
+ */
+public enum DeliveryStatus {
+    DeliveredToNetwork(false),
+    MessageWaiting(false),
+    DeliveryUncertain(false),
+    DeliveryNotificationNotSupported(false),
+    DeliveredToTerminal(true),
+    DeliveryImpossible(true);
+
+    private final boolean isFinal;
+
+    DeliveryStatus(boolean isFinal) {
+        this.isFinal = isFinal;
+    }
+
+    /**
+     * @return true if no other status can follow this one
+     */
+    public boolean isFinal() {
+        return isFinal;
+    }
+
+    public static boolean isValid(String status) {
+        for (DeliveryStatus deliveryStatus : values()) {
+            if (deliveryStatus.name().equals(status)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,72 @@
+package org.motechproject.nms.mobileacademy.domain;
+
+import org.joda.time.DateTime;
+import org.motechproject.mds.annotations.Entity;
+import org.motechproject.mds.annotations.Field;
+
+import javax.jdo.annotations.Column;
+import javax.jdo.annotations.Unique;
+
+/**
+ * Latest delivery state of an SMS sent to a front line worker, eg: their course completion certificate
+ */
+@Entity(tableName = "nms_ma_sms_delivery_records")
+public class SmsDeliveryRecord {
+
+    // Gateway assigned message id
+    @Field
+    @Unique
+    @Column(allowsNull = "false", length = 64)
+    private String messageId;
+
+    @Field
+    @Column(allowsNull = "false")
+    private Long callingNumber;
+
+    @Field
+    @Column(allowsNull = "false")
+    private DeliveryStatus status;
+
+    // When the delivery receipt carrying the status was received
+    @Field
+    private DateTime statusTime;
+
+    public SmsDeliveryRecord(String messageId, Long callingNumber, DeliveryStatus status, DateTime statusTime) {
+        this.messageId = messageId;
+        this.callingNumber = callingNumber;
+        this.status = status;
+        this.statusTime = statusTime;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public Long getCallingNumber() {
+        return callingNumber;
+    }
+
+    public void setCallingNumber(Long callingNumber) {
+        this.callingNumber = callingNumber;
+    }
+
+    public DeliveryStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(DeliveryStatus status) {
+        this.status = status;
+    }
+
+    public DateTime getStatusTime() {
+        return statusTime;
+    }
+
+    public void setStatusTime(DateTime statusTime) {
+        this.statusTime = statusTime;
+    }
+}
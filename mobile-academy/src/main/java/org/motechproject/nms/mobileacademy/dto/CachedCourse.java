@@ -0,0 +1,47 @@
+package org.motechproject.nms.mobileacademy.dto;
+
+import org.motechproject.nms.mobileacademy.domain.Course;
+
+/**
+ * The current course along with its version and the get course API response, already serialised to JSON, so that
+ * serving the course neither touches the database nor walks the course tree
+ */
+public class CachedCourse {
+
+    private final Course course;
+
+    private final long version;
+
+    private final byte[] json;
+
+    private final String etag;
+
+    public CachedCourse(Course course, long version, byte[] json, String etag) {
+        this.course = course;
+        this.version = version;
+        this.json = json;
+        this.etag = etag;
+    }
+
+    public Course getCourse() {
+        return course;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the UTF-8 encoded response body, shared by every caller: never modify it
+     */
+    public byte[] getJson() {
+        return json;
+    }
+
+    /**
+     * @return the quoted entity tag of the response, changes whenever the course does
+     */
+    public String getEtag() {
+        return etag;
+    }
+}
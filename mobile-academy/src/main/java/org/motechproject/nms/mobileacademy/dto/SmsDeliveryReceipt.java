@@ -0,0 +1,41 @@
+package org.motechproject.nms.mobileacademy.dto;
+
+import org.motechproject.nms.mobileacademy.domain.DeliveryStatus;
+
+/**
+ * A delivery receipt from the SMS gateway, as accepted by the API and queued for writing
+ */
+public class SmsDeliveryReceipt {
+
+    private final String messageId;
+
+    private final Long callingNumber;
+
+    private final DeliveryStatus status;
+
+    // Epoch millis
+    private final long receivedAt;
+
+    public SmsDeliveryReceipt(String messageId, Long callingNumber, DeliveryStatus status, long receivedAt) {
+        this.messageId = messageId;
+        this.callingNumber = callingNumber;
+        this.status = status;
+        this.receivedAt = receivedAt;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public Long getCallingNumber() {
+        return callingNumber;
+    }
+
+    public DeliveryStatus getStatus() {
+        return status;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+}
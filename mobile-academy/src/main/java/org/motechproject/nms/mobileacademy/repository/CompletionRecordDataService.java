@@ -0,0 +1,15 @@
+package org.motechproject.nms.mobileacademy.repository;
+
+import org.motechproject.mds.annotations.Lookup;
+import org.motechproject.mds.annotations.LookupField;
+import org.motechproject.mds.service.MotechDataService;
+import org.motechproject.nms.mobileacademy.domain.CompletionRecord;
+
+/**
+ * Data service to set and retrieve course completion records
+ */
+public interface CompletionRecordDataService extends MotechDataService<CompletionRecord> {
+
+    @Lookup
+    CompletionRecord findByCallingNumber(@LookupField(name = "callingNumber") Long callingNumber);
+}
@@ -0,0 +1,15 @@
+package org.motechproject.nms.mobileacademy.repository;
+
+import org.motechproject.mds.annotations.Lookup;
+import org.motechproject.mds.annotations.LookupField;
+import org.motechproject.mds.service.MotechDataService;
+import org.motechproject.nms.mobileacademy.domain.SmsDeliveryRecord;
+
+/**
+ * Data service to set and retrieve SMS delivery records
+ */
+public interface SmsDeliveryRecordDataService extends MotechDataService<SmsDeliveryRecord> {
+
+    @Lookup
+    SmsDeliveryRecord findByMessageId(@LookupField(name = "messageId") String messageId);
+}
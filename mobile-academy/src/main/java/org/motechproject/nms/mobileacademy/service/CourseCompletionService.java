@@ -0,0 +1,39 @@
+package org.motechproject.nms.mobileacademy.service;
+
+import org.joda.time.DateTime;
+import org.motechproject.nms.mobileacademy.domain.CompletionRecord;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps every front line worker's course completion record in step with their chapter scores
+ */
+public interface CourseCompletionService {
+
+    /**
+     * Recompute the caller's completion record from their chapter scores, only written if it changed. The course is
+     * completed once every chapter was scored, and passed if the total score then reaches half of the course's
+     * questions, rounded up.
+     * @param callingNumber phone number of the caller
+     * @param scoresByChapter the caller's score for each chapter whose quiz they took
+     * @param chapterCount number of chapters in the course
+     * @param questionCount number of quiz questions across all the chapters of the course
+     */
+    void updateCompletion(Long callingNumber, Map<String, Integer> scoresByChapter, int chapterCount,
+                          int questionCount);
+
+    /**
+     * Get the caller's completion record
+     * @param callingNumber phone number of the caller
+     * @return the record, or null if the caller never scored a chapter
+     */
+    CompletionRecord getCompletionRecord(Long callingNumber);
+
+    /**
+     * Get the records of the callers who completed the course after the given time, through the completion date index
+     * @param since exclusive lower bound
+     * @return the records, oldest completion first
+     */
+    List<CompletionRecord> getCompletedSince(DateTime since);
+}
@@ -1,6 +1,7 @@
 package org.motechproject.nms.mobileacademy.service;
 
 import org.motechproject.nms.mobileacademy.domain.Course;
+import org.motechproject.nms.mobileacademy.dto.CachedCourse;
 import org.motechproject.nms.mobileacademy.dto.MaBookmark;
 
 /**
@@ -14,6 +15,12 @@ public interface MobileAcademyService {
      */
     Course getCourse();
 
+    /**
+     * Get the current course, its version and its get course response, from memory
+     * @return the cached course, or null if there is no course
+     */
+    CachedCourse getCachedCourse();
+
     /**
      * Set the MA course structure. This should only be called by the config handler on json update
      * @param course course to update and save
@@ -21,10 +28,18 @@ public interface MobileAcademyService {
     void setCourse(Course course);
 
     /**
-     * Gets the course modification date as an epoch representation. This defaults to MobileAcademyCourse name
-     * @return int representation (epoch) of modified course date
+     * Import the MA course structure, writing only the chapters, lessons and questions whose content changed, in one
+     * transaction. The course version is only bumped, and the cached course only dropped, if something changed
+     * @param course course to import
+     * @return true if the stored course was created or changed, false if it already had this content
+     */
+    boolean importCourse(Course course);
+
+    /**
+     * Gets the course version, from memory. This defaults to MobileAcademyCourse name
+     * @return epoch seconds of when the course was last set, which only ever grow, or -1 if there is no course
      */
-    int getCourseVersion();
+    long getCourseVersion();
 
     /**
      * Get the bookmark for a caller
@@ -35,9 +50,16 @@ public interface MobileAcademyService {
     MaBookmark getBookmark(Long callingNumber, Long callId);
 
     /**
-     * Update the bookmark for a caller
+     * Update the bookmark for a caller. Successive updates are merged and only persisted when the call ends (see
+     * flushBookmark) or shortly after the first of them
      * @param bookmark updated bookmark to be stored
      */
     void setBookmark(MaBookmark bookmark);
 
+    /**
+     * Persist the caller's pending bookmark updates now, called when their call ends
+     * @param callingNumber phone number of the caller
+     */
+    void flushBookmark(Long callingNumber);
+
 }
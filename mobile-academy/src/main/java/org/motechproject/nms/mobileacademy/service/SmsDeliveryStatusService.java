@@ -0,0 +1,38 @@
+package org.motechproject.nms.mobileacademy.service;
+
+import org.motechproject.nms.mobileacademy.dto.SmsDeliveryReceipt;
+
+import java.util.List;
+
+/**
+ * Write-behind ingestion of SMS delivery receipts: receipts are deduplicated by message id and queued, and a
+ * background writer applies them to the SMS delivery records in batches
+ */
+public interface SmsDeliveryStatusService {
+
+    /**
+     * Queue the receipts for writing. A receipt repeating the status last seen for its message id is dropped.
+     * @param receipts receipts, in the order the gateway sent them
+     */
+    void enqueue(List<SmsDeliveryReceipt> receipts);
+
+    /**
+     * Write every queued receipt now, on the caller's thread
+     */
+    void flush();
+
+    /**
+     * @return number of receipts waiting to be written
+     */
+    int getQueueDepth();
+
+    /**
+     * @return how long (in milliseconds) the oldest receipt not yet written has been waiting, 0 if there is none
+     */
+    long getIngestionLag();
+
+    /**
+     * @return number of duplicate receipts dropped since the bundle started
+     */
+    long getDuplicateCount();
+}
@@ -0,0 +1,359 @@
+package org.motechproject.nms.mobileacademy.service.impl;
+
+import org.apache.commons.collections.CollectionUtils;
+import org.motechproject.mtraining.domain.Bookmark;
+import org.motechproject.mtraining.repository.BookmarkDataService;
+import org.motechproject.nms.mobileacademy.dto.MaBookmark;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bookmarks keyed by calling number, in front of mTraining's bookmark table.
+ *
+ * Reads go through a bounded LRU cache. Writes are merged into a pending bookmark per caller, which is persisted
+ * once, when the call ends (see {@link #flush(long)}) or at the latest WRITE_DELAY_MS after its first write, so the
+ * successive saves the IVR makes during a call cost a single database write. A bookmark which fails to persist stays
+ * pending, and is retried by the background writer WRITE_DELAY_MS later. Cached bookmarks, and callers found to have
+ * none, are only kept for CACHE_TTL_MS, so a bookmark written elsewhere is picked up.
+ *
+ * The caller's stripe lock only guards the pending and cached bookmarks, never the database: reads and writes take a
+ * snapshot under it and do their I/O outside it. A load is only cached if no bookmark of the stripe was persisted
+ * meanwhile, and writes of the same stripe are serialized by a separate write lock, so they land in order.
+ */
+class BookmarkStore {
+
+    public static final int MAX_CACHED_BOOKMARKS = 10000;
+    public static final long WRITE_DELAY_MS = 5000;
+    public static final long CACHE_TTL_MS = 60000;
+    public static final long FLUSH_INTERVAL_MS = 1000;
+    public static final long SHUTDOWN_TIMEOUT_MS = 30000;
+
+    private static final int LOCK_STRIPES = 64;
+
+    // Cached for callers who have no bookmark, so that they don't hit the database on every read for a while
+    private static final MaBookmark NO_BOOKMARK = new MaBookmark();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BookmarkStore.class);
+
+    private final BookmarkDataService bookmarkDataService;
+
+    private final Listener listener;
+
+    private final Map<Long, CachedBookmark> cache = Collections.synchronizedMap(
+            new LinkedHashMap<Long, CachedBookmark>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, CachedBookmark> eldest) {
+                    return size() > MAX_CACHED_BOOKMARKS;
+                }
+            });
+
+    private final ConcurrentMap<Long, PendingBookmark> pending = new ConcurrentHashMap<>();
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final Object[] writeLocks = new Object[LOCK_STRIPES];
+
+    // Bumped, under the stripe lock, whenever a bookmark of the stripe is persisted
+    private final long[] writeCounts = new long[LOCK_STRIPES];
+
+    private ScheduledExecutorService writer;
+
+    BookmarkStore(BookmarkDataService bookmarkDataService, Listener listener) {
+        this.bookmarkDataService = bookmarkDataService;
+        this.listener = listener;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+            writeLocks[i] = new Object();
+        }
+    }
+
+    void start() {
+        writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "nms-ma-bookmark-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        writer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushExpired();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Unexpected error in bookmark writer", e);
+                }
+            }
+        }, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background writer and persist every pending bookmark
+     */
+    void stop() {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                if (!writer.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    LOGGER.warn("Bookmark writer did not stop within {}ms", SHUTDOWN_TIMEOUT_MS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushAll();
+    }
+
+    /**
+     * @return a copy of the caller's bookmark, including writes which weren't persisted yet, or null if they have none
+     */
+    MaBookmark get(long callingNumber) {
+        MaBookmark bookmark = current(callingNumber);
+        return bookmark == NO_BOOKMARK ? null : copy(bookmark);
+    }
+
+    /**
+     * Merge the bookmark into the caller's pending one: a null bookmark or null scores leave the previous ones alone
+     */
+    void put(MaBookmark bookmark) {
+        long callingNumber = bookmark.getCallingNumber();
+        while (true) {
+            MaBookmark current = current(callingNumber);
+
+            synchronized (lockFor(callingNumber)) {
+                // Merge into what was read, unless another write or load replaced it meanwhile
+                if (known(callingNumber) != current) {
+                    continue;
+                }
+
+                MaBookmark merged = new MaBookmark(callingNumber, bookmark.getCallId(),
+                        bookmark.getBookmark() == null ? current.getBookmark() : bookmark.getBookmark(),
+                        bookmark.getScoresByChapter() == null ? current.getScoresByChapter() :
+                                new HashMap<>(bookmark.getScoresByChapter()));
+
+                PendingBookmark previous = pending.get(callingNumber);
+                pending.put(callingNumber, new PendingBookmark(merged,
+                        previous == null ? System.currentTimeMillis() + WRITE_DELAY_MS : previous.writeTime));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Persist the caller's pending bookmark, if any. If that fails the bookmark stays pending, and is retried
+     * WRITE_DELAY_MS later.
+     */
+    void flush(long callingNumber) {
+        Object lock = lockFor(callingNumber);
+        synchronized (writeLockFor(callingNumber)) {
+            PendingBookmark toWrite = pending.get(callingNumber);
+            if (toWrite == null) {
+                return;
+            }
+
+            try {
+                persist(toWrite.bookmark);
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to save bookmark for callingNumber {}, retrying in {}ms", callingNumber,
+                        WRITE_DELAY_MS, e);
+                synchronized (lock) {
+                    // A bookmark merged in meanwhile keeps its own write time
+                    pending.replace(callingNumber, toWrite, new PendingBookmark(toWrite.bookmark,
+                            System.currentTimeMillis() + WRITE_DELAY_MS));
+                }
+                return;
+            }
+
+            synchronized (lock) {
+                // A bookmark merged in meanwhile stays pending, and is served ahead of the cached one
+                pending.remove(callingNumber, toWrite);
+                cache.put(callingNumber, new CachedBookmark(toWrite.bookmark,
+                        System.currentTimeMillis() + CACHE_TTL_MS));
+                writeCounts[stripe(callingNumber)]++;
+            }
+
+            try {
+                listener.bookmarkSaved(toWrite.bookmark);
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to process saved bookmark for callingNumber {}", callingNumber, e);
+            }
+        }
+    }
+
+    void flushAll() {
+        for (Long callingNumber : new ArrayList<>(pending.keySet())) {
+            flush(callingNumber);
+        }
+        if (!pending.isEmpty()) {
+            LOGGER.error("Unable to save the bookmarks of {} callers", pending.size());
+        }
+    }
+
+    private void flushExpired() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, PendingBookmark> entry : pending.entrySet()) {
+            if (entry.getValue().writeTime <= now) {
+                flush(entry.getKey());
+            }
+        }
+    }
+
+    /*
+     * The caller's pending or persisted bookmark, or NO_BOOKMARK, read through the cache. The database is read without
+     * holding the caller's lock, and read again if a bookmark of the stripe was persisted meanwhile.
+     */
+    private MaBookmark current(long callingNumber) {
+        Object lock = lockFor(callingNumber);
+        int stripe = stripe(callingNumber);
+        while (true) {
+            long writeCount;
+            synchronized (lock) {
+                MaBookmark known = known(callingNumber);
+                if (known != null) {
+                    return known;
+                }
+                writeCount = writeCounts[stripe];
+            }
+
+            MaBookmark loaded = load(callingNumber);
+
+            synchronized (lock) {
+                if (writeCounts[stripe] == writeCount) {
+                    MaBookmark known = known(callingNumber);
+                    if (known != null) {
+                        return known;
+                    }
+                    cache.put(callingNumber, new CachedBookmark(loaded, System.currentTimeMillis() + CACHE_TTL_MS));
+                    return loaded;
+                }
+            }
+        }
+    }
+
+    /*
+     * The caller's pending bookmark, else their unexpired cached one, else null: callers hold the caller's lock
+     */
+    private MaBookmark known(long callingNumber) {
+        PendingBookmark toWrite = pending.get(callingNumber);
+        if (toWrite != null) {
+            return toWrite.bookmark;
+        }
+
+        CachedBookmark cached = cache.get(callingNumber);
+        if (cached != null && cached.expiryTime > System.currentTimeMillis()) {
+            return cached.bookmark;
+        }
+        return null;
+    }
+
+    private MaBookmark load(long callingNumber) {
+        List<Bookmark> bookmarks = bookmarkDataService.findBookmarksForUser(Long.toString(callingNumber));
+        if (CollectionUtils.isEmpty(bookmarks)) {
+            return NO_BOOKMARK;
+        }
+
+        if (bookmarks.size() > 1) {
+            LOGGER.debug("Found more than 1 instance of valid bookmark, picking top");
+        }
+
+        Bookmark existingBookmark = bookmarks.get(0);
+        MaBookmark bookmark = new MaBookmark();
+        bookmark.setCallingNumber(Long.parseLong(existingBookmark.getExternalId()));
+        bookmark.setCallId((Long) existingBookmark.getProgress().get("callId"));
+        bookmark.setScoresByChapter((Map<String, Integer>) existingBookmark.getProgress().get("scoresByChapter"));
+        bookmark.setBookmark(existingBookmark.getChapterIdentifier() + "_" + existingBookmark.getLessonIdentifier());
+        return bookmark;
+    }
+
+    private void persist(MaBookmark bookmark) {
+        List<Bookmark> existing = bookmarkDataService.findBookmarksForUser(bookmark.getCallingNumber().toString());
+
+        if (CollectionUtils.isEmpty(existing)) {
+            // if no bookmarks exist for user
+            bookmarkDataService.create(setBookmarkProperties(bookmark, new Bookmark()));
+        } else {
+            // we found a list (usually only 1) and update it
+            bookmarkDataService.update(setBookmarkProperties(bookmark, existing.get(0)));
+        }
+    }
+
+    private Bookmark setBookmarkProperties(MaBookmark fromBookmark, Bookmark toBookmark) {
+
+        toBookmark.setExternalId(fromBookmark.getCallingNumber().toString());
+
+        if (toBookmark.getProgress() == null) {
+            toBookmark.setProgress(new HashMap<String, Object>());
+        }
+        toBookmark.getProgress().put("callId", fromBookmark.getCallId());
+
+        if (fromBookmark.getScoresByChapter() != null) {
+            toBookmark.getProgress().put("scoresByChapter", fromBookmark.getScoresByChapter());
+        }
+
+        if (fromBookmark.getBookmark() != null) {
+            toBookmark.setChapterIdentifier(fromBookmark.getBookmark().split("_")[0]);
+            toBookmark.setLessonIdentifier(fromBookmark.getBookmark().split("_")[1]);
+        }
+
+        return toBookmark;
+    }
+
+    private Object lockFor(long callingNumber) {
+        return locks[stripe(callingNumber)];
+    }
+
+    private Object writeLockFor(long callingNumber) {
+        return writeLocks[stripe(callingNumber)];
+    }
+
+    private static int stripe(long callingNumber) {
+        return (int) ((callingNumber & Long.MAX_VALUE) % LOCK_STRIPES);
+    }
+
+    private static MaBookmark copy(MaBookmark bookmark) {
+        return new MaBookmark(bookmark.getCallingNumber(), bookmark.getCallId(), bookmark.getBookmark(),
+                bookmark.getScoresByChapter() == null ? null :
+                        new HashMap<>(bookmark.getScoresByChapter()));
+    }
+
+    /**
+     * Told about every bookmark once it's persisted, in the order they were persisted, without the caller's lock held
+     */
+    interface Listener {
+        void bookmarkSaved(MaBookmark bookmark);
+    }
+
+    private static final class PendingBookmark {
+        private final MaBookmark bookmark;
+        private final long writeTime;
+
+        private PendingBookmark(MaBookmark bookmark, long writeTime) {
+            this.bookmark = bookmark;
+            this.writeTime = writeTime;
+        }
+    }
+
+    private static final class CachedBookmark {
+        private final MaBookmark bookmark;
+        private final long expiryTime;
+
+        private CachedBookmark(MaBookmark bookmark, long expiryTime) {
+            this.bookmark = bookmark;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
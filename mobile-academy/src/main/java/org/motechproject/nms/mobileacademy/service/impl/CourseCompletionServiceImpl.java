@@ -0,0 +1,108 @@
+package org.motechproject.nms.mobileacademy.service.impl;
+
+import org.joda.time.DateTime;
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
+import org.motechproject.nms.mobileacademy.domain.CompletionRecord;
+import org.motechproject.nms.mobileacademy.repository.CompletionRecordDataService;
+import org.motechproject.nms.mobileacademy.service.CourseCompletionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.jdo.Query;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of the {@link CourseCompletionService} interface. The scores of a single caller are aggregated on
+ * every bookmark write, which only ever looks at that caller's handful of chapter scores.
+ */
+@Service("courseCompletionService")
+public class CourseCompletionServiceImpl implements CourseCompletionService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CourseCompletionServiceImpl.class);
+
+    private CompletionRecordDataService completionRecordDataService;
+
+    @Autowired
+    public CourseCompletionServiceImpl(CompletionRecordDataService completionRecordDataService) {
+        this.completionRecordDataService = completionRecordDataService;
+    }
+
+    @Override
+    public void updateCompletion(Long callingNumber, Map<String, Integer> scoresByChapter, int chapterCount,
+                                 int questionCount) {
+        if (scoresByChapter == null || scoresByChapter.isEmpty()) {
+            return;
+        }
+
+        int score = 0;
+        int chaptersScored = 0;
+        for (Integer chapterScore : scoresByChapter.values()) {
+            if (chapterScore != null) {
+                score += chapterScore;
+                chaptersScored++;
+            }
+        }
+        boolean completed = chaptersScored >= chapterCount;
+        boolean passed = completed && score >= passingScore(questionCount);
+
+        CompletionRecord record = completionRecordDataService.findByCallingNumber(callingNumber);
+        boolean isNew = record == null;
+        if (isNew) {
+            record = new CompletionRecord(callingNumber);
+        } else if (record.getScore() == score && record.getChaptersScored() == chaptersScored &&
+                record.isPassed() == passed && record.isCompleted() == completed) {
+            return;
+        }
+
+        record.setScore(score);
+        record.setChaptersScored(chaptersScored);
+        record.setPassed(passed);
+        if (!completed) {
+            // Scores were reset, the caller is taking the course again
+            record.setCompletedOn(null);
+        } else if (!record.isCompleted()) {
+            record.setCompletedOn(DateTime.now());
+            LOGGER.debug("{} completed the course with a score of {}", callingNumber, score);
+        }
+
+        if (isNew) {
+            completionRecordDataService.create(record);
+        } else {
+            completionRecordDataService.update(record);
+        }
+    }
+
+    /**
+     * One point per correct answer, the pass mark is half of the course's questions, rounded up
+     */
+    private static int passingScore(int questionCount) {
+        return (questionCount + 1) / 2;
+    }
+
+    @Override
+    public CompletionRecord getCompletionRecord(Long callingNumber) {
+        return completionRecordDataService.findByCallingNumber(callingNumber);
+    }
+
+    @Override
+    public List<CompletionRecord> getCompletedSince(final DateTime since) {
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<CompletionRecord>> queryExecution = new QueryExecution<List<CompletionRecord>>() {
+            @Override
+            public List<CompletionRecord> execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("completedOn > since");
+                query.declareParameters("org.joda.time.DateTime since");
+                query.setOrdering("completedOn ascending");
+
+                return (List<CompletionRecord>) query.execute(since);
+            }
+        };
+
+        return completionRecordDataService.executeQuery(queryExecution);
+    }
+}
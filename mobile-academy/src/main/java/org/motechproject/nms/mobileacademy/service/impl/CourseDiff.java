@@ -0,0 +1,359 @@
+package org.motechproject.nms.mobileacademy.service.impl;
+
+import org.motechproject.nms.mobileacademy.domain.Course;
+import org.motechproject.nms.mobileacademy.domain.course.Chapter;
+import org.motechproject.nms.mobileacademy.domain.course.ChapterContent;
+import org.motechproject.nms.mobileacademy.domain.course.ChapterContentMenu;
+import org.motechproject.nms.mobileacademy.domain.course.ChapterContentScore;
+import org.motechproject.nms.mobileacademy.domain.course.Lesson;
+import org.motechproject.nms.mobileacademy.domain.course.LessonContent;
+import org.motechproject.nms.mobileacademy.domain.course.LessonContentLesson;
+import org.motechproject.nms.mobileacademy.domain.course.LessonContentMenu;
+import org.motechproject.nms.mobileacademy.domain.course.Question;
+import org.motechproject.nms.mobileacademy.domain.course.QuestionContent;
+import org.motechproject.nms.mobileacademy.domain.course.Quiz;
+import org.motechproject.nms.mobileacademy.domain.course.QuizContent;
+import org.motechproject.nms.mobileacademy.domain.course.QuizContentMenu;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Merges an imported course into the stored one, node by node.
+ *
+ * Chapters, lessons and questions are matched by name. A matched node is kept, and only those of its parts whose
+ * content differs are replaced by the imported ones, so unchanged nodes keep their rows. Unmatched imported nodes are
+ * added, stored nodes missing from the import are dropped, and the imported order wins. Content is compared field by
+ * field (identifiers, files and answers), never on MDS bookkeeping such as ids or modification dates.
+ *
+ * Whatever the merge replaces or drops is handed back as orphans, parents before their children, for the caller to
+ * delete once the course is updated.
+ */
+final class CourseDiff {
+
+    private static final Merger<Chapter> CHAPTERS = new Merger<Chapter>() {
+        @Override
+        String nameOf(Chapter node) {
+            return node.getName();
+        }
+
+        @Override
+        int merge(Chapter stored, Chapter imported, List<Object> orphans) {
+            return mergeChapter(stored, imported, orphans);
+        }
+
+        @Override
+        void orphan(Chapter node, List<Object> orphans) {
+            orphanChapter(node, orphans);
+        }
+    };
+
+    private static final Merger<Lesson> LESSONS = new Merger<Lesson>() {
+        @Override
+        String nameOf(Lesson node) {
+            return node.getName();
+        }
+
+        @Override
+        int merge(Lesson stored, Lesson imported, List<Object> orphans) {
+            if (same(stored.getContent(), imported.getContent())) {
+                return 0;
+            }
+            orphanLessonContent(stored.getContent(), orphans);
+            stored.setContent(imported.getContent());
+            return 1;
+        }
+
+        @Override
+        void orphan(Lesson node, List<Object> orphans) {
+            orphans.add(node);
+            orphanLessonContent(node.getContent(), orphans);
+        }
+    };
+
+    private static final Merger<Question> QUESTIONS = new Merger<Question>() {
+        @Override
+        String nameOf(Question node) {
+            return node.getName();
+        }
+
+        @Override
+        int merge(Question stored, Question imported, List<Object> orphans) {
+            if (stored.getCorrectAnswerOption() == imported.getCorrectAnswerOption()
+                    && same(stored.getContent(), imported.getContent())) {
+                return 0;
+            }
+            stored.setCorrectAnswerOption(imported.getCorrectAnswerOption());
+            if (!same(stored.getContent(), imported.getContent())) {
+                addOrphan(stored.getContent(), orphans);
+                stored.setContent(imported.getContent());
+            }
+            return 1;
+        }
+
+        @Override
+        void orphan(Question node, List<Object> orphans) {
+            orphans.add(node);
+            addOrphan(node.getContent(), orphans);
+        }
+    };
+
+    private CourseDiff() {
+    }
+
+    /**
+     * Merge the imported course into the stored one
+     * @param stored course as it is stored, updated in place
+     * @param imported course being imported
+     * @param orphans filled with the stored nodes and contents the merge replaced or dropped, parents first
+     * @return number of nodes which were added, removed or replaced, 0 if the courses have the same content
+     */
+    static int merge(Course stored, Course imported, List<Object> orphans) {
+        if (stored.getChapters() == null || imported.getChapters() == null) {
+            if (stored.getChapters() == imported.getChapters()) {
+                return 0;
+            }
+            orphanAll(stored.getChapters(), CHAPTERS, orphans);
+            stored.setChapters(imported.getChapters());
+            return 1;
+        }
+        return mergeList(stored.getChapters(), imported.getChapters(), CHAPTERS, orphans);
+    }
+
+    private static int mergeChapter(Chapter stored, Chapter imported, List<Object> orphans) {
+        int changes = 0;
+
+        if (!same(stored.getContent(), imported.getContent())) {
+            orphanChapterContent(stored.getContent(), orphans);
+            stored.setContent(imported.getContent());
+            changes++;
+        }
+
+        if (stored.getLessons() == null || imported.getLessons() == null) {
+            if (stored.getLessons() != imported.getLessons()) {
+                orphanAll(stored.getLessons(), LESSONS, orphans);
+                stored.setLessons(imported.getLessons());
+                changes++;
+            }
+        } else {
+            changes += mergeList(stored.getLessons(), imported.getLessons(), LESSONS, orphans);
+        }
+
+        if (stored.getQuiz() == null || imported.getQuiz() == null) {
+            if (stored.getQuiz() != imported.getQuiz()) {
+                orphanQuiz(stored.getQuiz(), orphans);
+                stored.setQuiz(imported.getQuiz());
+                changes++;
+            }
+        } else {
+            changes += mergeQuiz(stored.getQuiz(), imported.getQuiz(), orphans);
+        }
+
+        return changes;
+    }
+
+    private static int mergeQuiz(Quiz stored, Quiz imported, List<Object> orphans) {
+        int changes = 0;
+
+        if (!Objects.equals(stored.getName(), imported.getName())) {
+            stored.setName(imported.getName());
+            changes++;
+        }
+
+        if (!same(stored.getContent(), imported.getContent())) {
+            orphanQuizContent(stored.getContent(), orphans);
+            stored.setContent(imported.getContent());
+            changes++;
+        }
+
+        if (stored.getQuestions() == null || imported.getQuestions() == null) {
+            if (stored.getQuestions() != imported.getQuestions()) {
+                orphanAll(stored.getQuestions(), QUESTIONS, orphans);
+                stored.setQuestions(imported.getQuestions());
+                changes++;
+            }
+        } else {
+            changes += mergeList(stored.getQuestions(), imported.getQuestions(), QUESTIONS, orphans);
+        }
+
+        return changes;
+    }
+
+    /*
+     * Rebuild the stored list in the imported order, keeping the stored nodes which have a namesake in the import
+     */
+    private static <T> int mergeList(List<T> stored, List<T> imported, Merger<T> merger, List<Object> orphans) {
+        int changes = 0;
+
+        Map<String, T> byName = new LinkedHashMap<>();
+        for (T node : stored) {
+            T duplicate = byName.put(merger.nameOf(node), node);
+            if (duplicate != null) {
+                merger.orphan(duplicate, orphans);
+                changes++;
+            }
+        }
+
+        List<T> merged = new ArrayList<>(imported.size());
+        for (T node : imported) {
+            T match = byName.remove(merger.nameOf(node));
+            if (match == null) {
+                merged.add(node);
+                changes++;
+            } else {
+                changes += merger.merge(match, node, orphans);
+                merged.add(match);
+            }
+        }
+
+        for (T dropped : byName.values()) {
+            merger.orphan(dropped, orphans);
+            changes++;
+        }
+
+        // Nodes merged in place leave the list alone, nodes which were only moved count once for the whole list
+        if (!merged.equals(stored)) {
+            changes = Math.max(changes, 1);
+            stored.clear();
+            stored.addAll(merged);
+        }
+        return changes;
+    }
+
+    private static boolean same(ChapterContent stored, ChapterContent imported) {
+        if (stored == null || imported == null) {
+            return stored == imported;
+        }
+        return same(stored.getMenu(), imported.getMenu()) && same(stored.getScore(), imported.getScore());
+    }
+
+    private static boolean same(ChapterContentMenu stored, ChapterContentMenu imported) {
+        if (stored == null || imported == null) {
+            return stored == imported;
+        }
+        return Objects.equals(stored.getIdentifier(), imported.getIdentifier())
+                && Objects.equals(stored.getFile(), imported.getFile());
+    }
+
+    private static boolean same(ChapterContentScore stored, ChapterContentScore imported) {
+        if (stored == null || imported == null) {
+            return stored == imported;
+        }
+        return Objects.equals(stored.getIdentifier(), imported.getIdentifier())
+                && Objects.equals(stored.getFiles(), imported.getFiles());
+    }
+
+    private static boolean same(LessonContent stored, LessonContent imported) {
+        if (stored == null || imported == null) {
+            return stored == imported;
+        }
+        return same(stored.getLesson(), imported.getLesson()) && same(stored.getMenu(), imported.getMenu());
+    }
+
+    private static boolean same(LessonContentLesson stored, LessonContentLesson imported) {
+        if (stored == null || imported == null) {
+            return stored == imported;
+        }
+        return Objects.equals(stored.getIdentifier(), imported.getIdentifier())
+                && Objects.equals(stored.getFile(), imported.getFile());
+    }
+
+    private static boolean same(LessonContentMenu stored, LessonContentMenu imported) {
+        if (stored == null || imported == null) {
+            return stored == imported;
+        }
+        return Objects.equals(stored.getIdentifier(), imported.getIdentifier())
+                && Objects.equals(stored.getFile(), imported.getFile());
+    }
+
+    private static boolean same(QuizContent stored, QuizContent imported) {
+        if (stored == null || imported == null) {
+            return stored == imported;
+        }
+        return same(stored.getMenu(), imported.getMenu());
+    }
+
+    private static boolean same(QuizContentMenu stored, QuizContentMenu imported) {
+        if (stored == null || imported == null) {
+            return stored == imported;
+        }
+        return Objects.equals(stored.getIdentifier(), imported.getIdentifier())
+                && Objects.equals(stored.getFile(), imported.getFile());
+    }
+
+    private static boolean same(QuestionContent stored, QuestionContent imported) {
+        if (stored == null || imported == null) {
+            return stored == imported;
+        }
+        return Objects.equals(stored.getIdentifier(), imported.getIdentifier())
+                && Objects.equals(stored.getQuestion(), imported.getQuestion())
+                && Objects.equals(stored.getCorrectAnswer(), imported.getCorrectAnswer())
+                && Objects.equals(stored.getWrongAnswer(), imported.getWrongAnswer());
+    }
+
+    private static <T> void orphanAll(List<T> nodes, Merger<T> merger, List<Object> orphans) {
+        if (nodes != null) {
+            for (T node : nodes) {
+                merger.orphan(node, orphans);
+            }
+        }
+    }
+
+    private static void orphanChapter(Chapter chapter, List<Object> orphans) {
+        orphans.add(chapter);
+        orphanChapterContent(chapter.getContent(), orphans);
+        orphanAll(chapter.getLessons(), LESSONS, orphans);
+        orphanQuiz(chapter.getQuiz(), orphans);
+    }
+
+    private static void orphanChapterContent(ChapterContent content, List<Object> orphans) {
+        if (content != null) {
+            orphans.add(content);
+            addOrphan(content.getMenu(), orphans);
+            addOrphan(content.getScore(), orphans);
+        }
+    }
+
+    private static void orphanLessonContent(LessonContent content, List<Object> orphans) {
+        if (content != null) {
+            orphans.add(content);
+            addOrphan(content.getLesson(), orphans);
+            addOrphan(content.getMenu(), orphans);
+        }
+    }
+
+    private static void orphanQuiz(Quiz quiz, List<Object> orphans) {
+        if (quiz != null) {
+            orphans.add(quiz);
+            orphanQuizContent(quiz.getContent(), orphans);
+            orphanAll(quiz.getQuestions(), QUESTIONS, orphans);
+        }
+    }
+
+    private static void orphanQuizContent(QuizContent content, List<Object> orphans) {
+        if (content != null) {
+            orphans.add(content);
+            addOrphan(content.getMenu(), orphans);
+        }
+    }
+
+    private static void addOrphan(Object node, List<Object> orphans) {
+        if (node != null) {
+            orphans.add(node);
+        }
+    }
+
+    /**
+     * Matches, merges and drops the nodes of a list
+     */
+    private abstract static class Merger<T> {
+        abstract String nameOf(T node);
+
+        abstract int merge(T stored, T imported, List<Object> orphans);
+
+        abstract void orphan(T node, List<Object> orphans);
+    }
+}
@@ -1,138 +1,297 @@
 package org.motechproject.nms.mobileacademy.service.impl;
 
 import org.apache.commons.collections.CollectionUtils;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.joda.time.DateTime;
-import org.motechproject.mtraining.domain.Bookmark;
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
 import org.motechproject.mtraining.repository.BookmarkDataService;
 import org.motechproject.nms.mobileacademy.domain.Course;
-
+import org.motechproject.nms.mobileacademy.domain.course.Chapter;
+import org.motechproject.nms.mobileacademy.dto.CachedCourse;
 import org.motechproject.nms.mobileacademy.dto.MaBookmark;
 import org.motechproject.nms.mobileacademy.repository.CourseDataService;
+import org.motechproject.nms.mobileacademy.service.CourseCompletionService;
 import org.motechproject.nms.mobileacademy.service.MobileAcademyService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
 
-import java.util.HashMap;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jdo.Query;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Simple implementation of the {@link MobileAcademyService} interface.
+ *
+ * The course is loaded and serialised once, then served from memory until setCourse or importCourse changes it.
+ * Changes made to the course by other means (eg: the MDS data browser) aren't seen until the bundle restarts.
+ * Bookmarks go through a {@link BookmarkStore}, which updates the caller's completion record whenever it persists
+ * their bookmark.
  */
 @Service("mobileAcademyService")
 public class MobileAcademyServiceImpl implements MobileAcademyService {
 
     /**
-     * Bookmark data service
+     * Bookmarks, cached and with writes held back until the call ends
      */
-    private BookmarkDataService bookmarkDataService;
+    private BookmarkStore bookmarkStore;
 
     /**
      * Course data service
      */
     private CourseDataService courseDataService;
 
+    /**
+     * Completion records, updated whenever a bookmark is persisted
+     */
+    private CourseCompletionService courseCompletionService;
+
+    private static final String COURSE_NAME = "MobileAcademyCourse";
+
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    // Used for completion until a course with chapters is set: 11 chapters with a 4 question quiz each
+    private static final int DEFAULT_CHAPTER_COUNT = 11;
+
+    private static final int DEFAULT_QUESTION_COUNT = 44;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     private static final Logger LOGGER = LoggerFactory.getLogger(MobileAcademyServiceImpl.class);
 
+    // Null until first used and after the course was set
+    private volatile CachedCourse cachedCourse;
+
+    private final Object cacheLock = new Object();
+
     @Autowired
     public MobileAcademyServiceImpl(BookmarkDataService bookmarkDataService,
-                                    CourseDataService courseDataService) {
-        this.bookmarkDataService = bookmarkDataService;
+                                    CourseDataService courseDataService,
+                                    CourseCompletionService courseCompletionService) {
+        this.bookmarkStore = new BookmarkStore(bookmarkDataService, new BookmarkStore.Listener() {
+            @Override
+            public void bookmarkSaved(MaBookmark bookmark) {
+                updateCompletion(bookmark);
+            }
+        });
         this.courseDataService = courseDataService;
+        this.courseCompletionService = courseCompletionService;
+    }
+
+    @PostConstruct
+    public void start() {
+        bookmarkStore.start();
+    }
+
+    /**
+     * Write the bookmarks of the calls in progress before the bundle goes away
+     */
+    @PreDestroy
+    public void stop() {
+        bookmarkStore.stop();
     }
 
     @Override
     public Course getCourse() {
 
-        // Make this course name configurable
-        String lookupName = "MobileAcademyCourse";
-        return courseDataService.findCourseByName(lookupName);
+        CachedCourse cached = getCachedCourse();
+        return cached == null ? null : cached.getCourse();
+    }
+
+    @Override
+    public CachedCourse getCachedCourse() {
+        CachedCourse cached = cachedCourse;
+        if (cached == null) {
+            synchronized (cacheLock) {
+                if (cachedCourse == null) {
+                    // Make this course name configurable
+                    Course course = courseDataService.findCourseByName(COURSE_NAME);
+                    cachedCourse = course == null ? null : cacheCourse(course);
+                }
+                cached = cachedCourse;
+            }
+        }
+        return cached;
     }
 
     @Override
     public void setCourse(Course course) {
         Course existing = courseDataService.findCourseByName(course.getName());
 
+        course.setVersion(nextVersion(existing));
+
         if (existing == null) {
             courseDataService.create(course);
         } else {
             course.setId(existing.getId());
             courseDataService.update(course);
         }
+
+        dropCachedCourse();
     }
 
     @Override
-    public int getCourseVersion() {
+    public boolean importCourse(final Course course) {
+        int changes = courseDataService.doInTransaction(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+                Course existing = courseDataService.findCourseByName(course.getName());
 
-        Course course = getCourse();
-        if (course != null) {
-            DateTime version = course.getModificationDate();
-            return (int) version.getMillis();
-        } else {
-            // return -1 and let the caller handle the upstream response
-            return -1;
+                if (existing == null) {
+                    course.setVersion(nextVersion(null));
+                    courseDataService.create(course);
+                    return 1;
+                }
+
+                List<Object> orphans = new ArrayList<>();
+                int changedNodes = CourseDiff.merge(existing, course, orphans);
+                if (changedNodes > 0) {
+                    existing.setVersion(nextVersion(existing));
+                    courseDataService.update(existing);
+                    deleteOrphans(orphans);
+                }
+                return changedNodes;
+            }
+        });
+
+        if (changes == 0) {
+            LOGGER.debug("Course {} is unchanged", course.getName());
+            return false;
         }
+
+        LOGGER.info("Imported course {}, {} nodes changed", course.getName(), changes);
+        dropCachedCourse();
+        return true;
     }
 
     @Override
-    public MaBookmark getBookmark(Long callingNumber, Long callId) {
+    public long getCourseVersion() {
 
-        List<Bookmark> bookmarks = bookmarkDataService.findBookmarksForUser(callingNumber.toString());
-        if (CollectionUtils.isEmpty(bookmarks)) {
-            return null;
+        CachedCourse cached = getCachedCourse();
+        if (cached != null) {
+            return cached.getVersion();
         } else {
+            // return -1 and let the caller handle the upstream response
+            return -1;
+        }
+    }
 
-            if (bookmarks.size() > 1) {
-                LOGGER.debug("Found more than 1 instance of valid bookmark, picking top");
+    /*
+     * Delete the nodes and contents the import replaced or dropped, which nothing references once the course is
+     * updated: parents come before their children
+     */
+    private void deleteOrphans(final List<Object> orphans) {
+        if (orphans.isEmpty()) {
+            return;
+        }
+
+        courseDataService.executeQuery(new QueryExecution<Void>() {
+            @Override
+            public Void execute(Query query, InstanceSecurityRestriction restriction) {
+                query.getPersistenceManager().deletePersistentAll(orphans);
+                return null;
             }
+        });
+    }
 
-            Bookmark existingBookmark = bookmarks.get(0);
-            MaBookmark toReturn = new MaBookmark();
-            toReturn.setCallingNumber(Long.parseLong(existingBookmark.getExternalId()));
-            toReturn.setCallId((Long) existingBookmark.getProgress().get("callId"));
-            toReturn.setScoresByChapter((Map<String, Integer>) existingBookmark.getProgress()
-                    .get("scoresByChapter"));
-            toReturn.setBookmark(existingBookmark.getChapterIdentifier() + "_" +
-                    existingBookmark.getLessonIdentifier());
-            return toReturn;
+    /*
+     * The version must grow even if the clock went back or the course is set twice within a second
+     */
+    private static long nextVersion(Course existing) {
+        long version = DateTime.now().getMillis() / MILLIS_PER_SECOND;
+        if (existing != null && existing.getVersion() != null && existing.getVersion() >= version) {
+            version = existing.getVersion() + 1;
         }
+        return version;
     }
 
-    @Override
-    public void setBookmark(MaBookmark saveBookmark) {
-
-        List<Bookmark> existing = bookmarkDataService.findBookmarksForUser(saveBookmark.getCallingNumber().toString());
-
-        if (CollectionUtils.isEmpty(existing)) {
-            // if no bookmarks exist for user
-            bookmarkDataService.create(setBookmarkProperties(saveBookmark, new Bookmark()));
-        } else {
-            // we found a list (usually only 1) and update it
-            bookmarkDataService.update(setBookmarkProperties(saveBookmark, existing.get(0)));
+    private void dropCachedCourse() {
+        // Taking the lock makes sure a load which read the previous course is done before it's dropped
+        synchronized (cacheLock) {
+            cachedCourse = null;
         }
     }
 
-    private Bookmark setBookmarkProperties(MaBookmark fromBookmark, Bookmark toBookmark) {
+    private static CachedCourse cacheCourse(Course course) {
+        long version = getVersion(course);
 
-        toBookmark.setExternalId(fromBookmark.getCallingNumber().toString());
+        // The get course API response (2.2.2)
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("name", course.getName());
+        response.put("courseVersion", version);
+        response.put("chapters", course.getChapters());
 
-        if (toBookmark.getProgress() == null) {
-            toBookmark.setProgress(new HashMap<String, Object>());
+        try {
+            byte[] json = MAPPER.writeValueAsBytes(response);
+            String etag = String.format("\"%d-%08x\"", version, Arrays.hashCode(json));
+            return new CachedCourse(course, version, json, etag);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Unable to serialise course %s", course.getName()), e);
         }
-        toBookmark.getProgress().put("callId", fromBookmark.getCallId());
+    }
 
-        if (fromBookmark.getScoresByChapter() != null) {
-            toBookmark.getProgress().put("scoresByChapter", fromBookmark.getScoresByChapter());
+    /*
+     * Courses which weren't saved through setCourse have no version, fall back to their modification date, which
+     * only a course that was never saved doesn't have
+     */
+    private static long getVersion(Course course) {
+        if (course.getVersion() != null) {
+            return course.getVersion();
         }
+        DateTime modificationDate = course.getModificationDate();
+        return modificationDate == null ? 0 : modificationDate.getMillis() / MILLIS_PER_SECOND;
+    }
+
+    @Override
+    public MaBookmark getBookmark(Long callingNumber, Long callId) {
+
+        return bookmarkStore.get(callingNumber);
+    }
+
+    @Override
+    public void setBookmark(MaBookmark saveBookmark) {
+
+        bookmarkStore.put(saveBookmark);
+    }
 
-        if (fromBookmark.getBookmark() != null) {
-            toBookmark.setChapterIdentifier(fromBookmark.getBookmark().split("_")[0]);
-            toBookmark.setLessonIdentifier(fromBookmark.getBookmark().split("_")[1]);
+    @Override
+    public void flushBookmark(Long callingNumber) {
+
+        bookmarkStore.flush(callingNumber);
+    }
+
+    private void updateCompletion(MaBookmark bookmark) {
+        CachedCourse cached = getCachedCourse();
+        List<Chapter> chapters = cached == null ? null : cached.getCourse().getChapters();
+        int chapterCount = DEFAULT_CHAPTER_COUNT;
+        int questionCount = DEFAULT_QUESTION_COUNT;
+        if (!CollectionUtils.isEmpty(chapters)) {
+            chapterCount = chapters.size();
+            questionCount = countQuestions(chapters);
         }
 
-        return toBookmark;
+        courseCompletionService.updateCompletion(bookmark.getCallingNumber(), bookmark.getScoresByChapter(),
+                chapterCount, questionCount);
+    }
+
+    private static int countQuestions(List<Chapter> chapters) {
+        int questionCount = 0;
+        for (Chapter chapter : chapters) {
+            if (chapter.getQuiz() != null && chapter.getQuiz().getQuestions() != null) {
+                questionCount += chapter.getQuiz().getQuestions().size();
+            }
+        }
+        return questionCount;
     }
 
 }
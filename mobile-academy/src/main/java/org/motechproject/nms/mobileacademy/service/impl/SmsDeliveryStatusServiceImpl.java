@@ -0,0 +1,166 @@
+package org.motechproject.nms.mobileacademy.service.impl;
+
+import org.joda.time.DateTime;
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
+import org.motechproject.nms.mobileacademy.domain.DeliveryStatus;
+import org.motechproject.nms.mobileacademy.domain.SmsDeliveryRecord;
+import org.motechproject.nms.mobileacademy.dto.SmsDeliveryReceipt;
+import org.motechproject.nms.mobileacademy.repository.SmsDeliveryRecordDataService;
+import org.motechproject.nms.mobileacademy.service.SmsDeliveryStatusService;
+import org.motechproject.nms.props.queue.WriteBehindQueueService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+import javax.jdo.Query;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind queue of delivery receipts, as for call detail records. Each batch (up to MAX_BATCH_SIZE receipts) is
+ * reduced to the latest status of each message id and applied in one transaction, with a single query fetching the
+ * records it touches. A final status (eg: DeliveredToTerminal) is never replaced by an intermediate one arriving
+ * late. Receipts for messages without a record create one. A receipt which can't be written is forgotten by the
+ * duplicate check, so the gateway resending it gets it written.
+ */
+@Service("smsDeliveryStatusService")
+public class SmsDeliveryStatusServiceImpl extends WriteBehindQueueService<SmsDeliveryReceipt>
+        implements SmsDeliveryStatusService {
+
+    public static final int QUEUE_CAPACITY = 50000;
+    public static final int MAX_BATCH_SIZE = 1000;
+    public static final long MAX_BATCH_DELAY_MS = 0;
+    public static final int MAX_RECENT_MESSAGES = 100000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SmsDeliveryStatusServiceImpl.class);
+
+    private SmsDeliveryRecordDataService smsDeliveryRecordDataService;
+
+    // Last status queued for the most recent message ids: the gateway resends receipts it got no answer for
+    private final Map<String, DeliveryStatus> recentStatuses = Collections.synchronizedMap(
+            new LinkedHashMap<String, DeliveryStatus>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DeliveryStatus> eldest) {
+                    return size() > MAX_RECENT_MESSAGES;
+                }
+            });
+
+    private final AtomicLong duplicateCount = new AtomicLong();
+
+    @Autowired
+    public SmsDeliveryStatusServiceImpl(SmsDeliveryRecordDataService smsDeliveryRecordDataService) {
+        super("sms-status", QUEUE_CAPACITY, MAX_BATCH_SIZE, MAX_BATCH_DELAY_MS);
+        this.smsDeliveryRecordDataService = smsDeliveryRecordDataService;
+    }
+
+    @Override
+    public void enqueue(List<SmsDeliveryReceipt> receipts) {
+        List<SmsDeliveryReceipt> toWrite = new ArrayList<>(receipts.size());
+
+        for (SmsDeliveryReceipt receipt : receipts) {
+            if (recentStatuses.put(receipt.getMessageId(), receipt.getStatus()) == receipt.getStatus()) {
+                duplicateCount.incrementAndGet();
+                continue;
+            }
+            toWrite.add(receipt);
+        }
+
+        getQueue().enqueue(toWrite);
+    }
+
+    @Override
+    public long getIngestionLag() {
+        SmsDeliveryReceipt oldest = getQueue().getOldest();
+        return oldest == null ? 0 : Math.max(0, System.currentTimeMillis() - oldest.getReceivedAt());
+    }
+
+    @Override
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    @Override
+    public void write(List<SmsDeliveryReceipt> batch) {
+        // Latest status of each message, keeping a final status over anything that follows it
+        Map<String, SmsDeliveryReceipt> latest = new LinkedHashMap<>();
+        for (SmsDeliveryReceipt receipt : batch) {
+            SmsDeliveryReceipt previous = latest.get(receipt.getMessageId());
+            if (previous == null || !previous.getStatus().isFinal() || receipt.getStatus().isFinal()) {
+                latest.put(receipt.getMessageId(), receipt);
+            }
+        }
+        final Collection<SmsDeliveryReceipt> receipts = latest.values();
+
+        smsDeliveryRecordDataService.doInTransaction(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                apply(receipts);
+            }
+        });
+    }
+
+    @Override
+    public void failed(SmsDeliveryReceipt receipt, RuntimeException e) {
+        LOGGER.error("Unable to write delivery receipt for message {}", receipt.getMessageId(), e);
+
+        // Not written, so a resend of it isn't a duplicate, unless a newer status was queued since
+        synchronized (recentStatuses) {
+            if (recentStatuses.get(receipt.getMessageId()) == receipt.getStatus()) {
+                recentStatuses.remove(receipt.getMessageId());
+            }
+        }
+    }
+
+    private void apply(Collection<SmsDeliveryReceipt> receipts) {
+        Map<String, SmsDeliveryRecord> records = findRecords(receipts);
+
+        for (SmsDeliveryReceipt receipt : receipts) {
+            SmsDeliveryRecord record = records.get(receipt.getMessageId());
+            DateTime statusTime = new DateTime(receipt.getReceivedAt());
+
+            if (record == null) {
+                smsDeliveryRecordDataService.create(new SmsDeliveryRecord(receipt.getMessageId(),
+                        receipt.getCallingNumber(), receipt.getStatus(), statusTime));
+            } else if (!record.getStatus().isFinal() || receipt.getStatus().isFinal()) {
+                record.setStatus(receipt.getStatus());
+                record.setStatusTime(statusTime);
+                smsDeliveryRecordDataService.update(record);
+            }
+        }
+    }
+
+    private Map<String, SmsDeliveryRecord> findRecords(Collection<SmsDeliveryReceipt> receipts) {
+        final List<String> messageIds = new ArrayList<>(receipts.size());
+        for (SmsDeliveryReceipt receipt : receipts) {
+            messageIds.add(receipt.getMessageId());
+        }
+
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<SmsDeliveryRecord>> queryExecution = new QueryExecution<List<SmsDeliveryRecord>>() {
+            @Override
+            public List<SmsDeliveryRecord> execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("messageIds.contains(messageId)");
+                query.declareParameters("java.util.Collection messageIds");
+
+                return (List<SmsDeliveryRecord>) query.execute(messageIds);
+            }
+        };
+
+        Map<String, SmsDeliveryRecord> records = new HashMap<>();
+        for (SmsDeliveryRecord record : smsDeliveryRecordDataService.executeQuery(queryExecution)) {
+            records.put(record.getMessageId(), record);
+        }
+        return records;
+    }
+}
@@ -4,7 +4,12 @@ import org.junit.Before;
 import org.motechproject.mtraining.domain.Bookmark;
 import org.motechproject.mtraining.repository.BookmarkDataService;
 import org.motechproject.nms.mobileacademy.domain.Course;
+import org.motechproject.nms.mobileacademy.domain.course.Chapter;
+import org.motechproject.nms.mobileacademy.domain.course.Lesson;
+import org.motechproject.nms.mobileacademy.domain.course.LessonContent;
+import org.motechproject.nms.mobileacademy.domain.course.LessonContentLesson;
 import org.motechproject.nms.mobileacademy.repository.CourseDataService;
+import org.motechproject.nms.mobileacademy.repository.LessonDataService;
 import org.motechproject.nms.mobileacademy.service.MobileAcademyService;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -17,8 +22,13 @@ import org.ops4j.pax.exam.spi.reactors.PerSuite;
 
 import javax.inject.Inject;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -40,6 +50,9 @@ public class MobileAcademyServiceBundleIT extends BasePaxIT {
     @Inject
     private BookmarkDataService bookmarkDataService;
 
+    @Inject
+    private LessonDataService lessonDataService;
+
     private static String validCourseName = "MobileAcademyCourse";
 
     private static String invalidCourseName = "SampleCourse";
@@ -77,6 +90,23 @@ public class MobileAcademyServiceBundleIT extends BasePaxIT {
         assertTrue(maService.getCourseVersion() > 0);
     }
 
+    @Test
+    public void testSetCourseBumpsVersion() {
+
+        Course course = new Course();
+        course.setName(validCourseName);
+        maService.setCourse(course);
+        long version = maService.getCourseVersion();
+
+        // Set again within the same second
+        course = new Course();
+        course.setName(validCourseName);
+        maService.setCourse(course);
+        assertTrue(maService.getCourseVersion() > version);
+        assertEquals(maService.getCourseVersion(), (long) courseDataService.findCourseByName(validCourseName)
+                .getVersion());
+    }
+
     @Test
     public void testGetBookmark() throws Exception {
 
@@ -89,6 +119,57 @@ public class MobileAcademyServiceBundleIT extends BasePaxIT {
         assertNull(maService.getBookmark(0L, 1L));
     }
 
+    @Test
+    public void testImportUnchangedCourse() {
+
+        assertTrue(maService.importCourse(buildCourse("Chapter01_Lesson01.wav", "Chapter01_Lesson02.wav")));
+        Course imported = courseDataService.findCourseByName(validCourseName);
+        long lessonCount = lessonDataService.count();
+
+        // Same content: nothing is rewritten, so neither the version nor the modification date move
+        assertFalse(maService.importCourse(buildCourse("Chapter01_Lesson01.wav", "Chapter01_Lesson02.wav")));
+        Course reimported = courseDataService.findCourseByName(validCourseName);
+        assertEquals(imported.getVersion(), reimported.getVersion());
+        assertEquals(imported.getModificationDate(), reimported.getModificationDate());
+        assertEquals(lessonCount, lessonDataService.count());
+    }
+
+    @Test
+    public void testImportCourseDeletesDroppedNodes() {
+
+        assertTrue(maService.importCourse(buildCourse("Chapter01_Lesson01.wav", "Chapter01_Lesson02.wav")));
+        long lessonCount = lessonDataService.count();
+
+        assertTrue(maService.importCourse(buildCourse("Chapter01_Lesson01_v2.wav")));
+        assertEquals(lessonCount - 1, lessonDataService.count());
+        assertEquals("Chapter01_Lesson01_v2.wav", courseDataService.findCourseByName(validCourseName).getChapters()
+                .get(0).getLessons().get(0).getContent().getLesson().getFile());
+    }
+
+    private Course buildCourse(String... lessonFiles) {
+        List<Lesson> lessons = new ArrayList<>();
+        for (int i = 0; i < lessonFiles.length; i++) {
+            LessonContentLesson lessonFile = new LessonContentLesson();
+            lessonFile.setIdentifier(String.format("Chapter01_Lesson%02d", i + 1));
+            lessonFile.setFile(lessonFiles[i]);
+            LessonContent content = new LessonContent();
+            content.setLesson(lessonFile);
+            Lesson lesson = new Lesson();
+            lesson.setName(String.format("Lesson%02d", i + 1));
+            lesson.setContent(content);
+            lessons.add(lesson);
+        }
+
+        Chapter chapter = new Chapter();
+        chapter.setName("Chapter01");
+        chapter.setLessons(lessons);
+
+        Course course = new Course();
+        course.setName(validCourseName);
+        course.setChapters(new ArrayList<>(Arrays.asList(chapter)));
+        return course;
+    }
+
     private void addCourseHelper(String courseName) {
         Course newCourse = new Course();
         newCourse.setName(courseName);
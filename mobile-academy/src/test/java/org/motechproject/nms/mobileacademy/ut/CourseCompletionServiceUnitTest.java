@@ -0,0 +1,101 @@
+package org.motechproject.nms.mobileacademy.ut;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.motechproject.nms.mobileacademy.domain.CompletionRecord;
+import org.motechproject.nms.mobileacademy.repository.CompletionRecordDataService;
+import org.motechproject.nms.mobileacademy.service.CourseCompletionService;
+import org.motechproject.nms.mobileacademy.service.impl.CourseCompletionServiceImpl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/**
+ * Unit tests for the course completion service
+ */
+public class CourseCompletionServiceUnitTest {
+
+    private CourseCompletionService courseCompletionService;
+
+    @Mock
+    private CompletionRecordDataService completionRecordDataService;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+        courseCompletionService = new CourseCompletionServiceImpl(completionRecordDataService);
+    }
+
+    private Map<String, Integer> scores(int... chapterScores) {
+        Map<String, Integer> scores = new HashMap<>();
+        for (int i = 0; i < chapterScores.length; i++) {
+            scores.put(String.format("Chapter%02d", i + 1), chapterScores[i]);
+        }
+        return scores;
+    }
+
+    @Test
+    public void testPartialScoresCreateRecord() {
+        courseCompletionService.updateCompletion(1234567890L, scores(4, 3), 3, 12);
+
+        ArgumentCaptor<CompletionRecord> captor = ArgumentCaptor.forClass(CompletionRecord.class);
+        verify(completionRecordDataService).create(captor.capture());
+        assertEquals(7, captor.getValue().getScore());
+        assertEquals(2, captor.getValue().getChaptersScored());
+        assertFalse(captor.getValue().isPassed());
+        assertNull(captor.getValue().getCompletedOn());
+    }
+
+    @Test
+    public void testCompletionAndPass() {
+        CompletionRecord record = new CompletionRecord(1234567890L);
+        record.setScore(7);
+        record.setChaptersScored(2);
+        when(completionRecordDataService.findByCallingNumber(1234567890L)).thenReturn(record);
+
+        courseCompletionService.updateCompletion(1234567890L, scores(4, 4, 4, 4, 4, 2), 6, 24);
+
+        verify(completionRecordDataService).update(record);
+        assertEquals(22, record.getScore());
+        assertTrue(record.isPassed());
+        assertNotNull(record.getCompletedOn());
+    }
+
+    @Test
+    public void testCompletionBelowPassMark() {
+        // 3 chapters of 5 questions, passing needs 8 of the 15
+        courseCompletionService.updateCompletion(1234567890L, scores(3, 2, 2), 3, 15);
+
+        ArgumentCaptor<CompletionRecord> captor = ArgumentCaptor.forClass(CompletionRecord.class);
+        verify(completionRecordDataService).create(captor.capture());
+        assertEquals(7, captor.getValue().getScore());
+        assertFalse(captor.getValue().isPassed());
+        assertNotNull(captor.getValue().getCompletedOn());
+    }
+
+    @Test
+    public void testUnchangedRecordNotWritten() {
+        CompletionRecord record = new CompletionRecord(1234567890L);
+        record.setScore(7);
+        record.setChaptersScored(2);
+        when(completionRecordDataService.findByCallingNumber(1234567890L)).thenReturn(record);
+
+        courseCompletionService.updateCompletion(1234567890L, scores(4, 3), 3, 12);
+
+        verify(completionRecordDataService, never()).update(any(CompletionRecord.class));
+        verify(completionRecordDataService, never()).create(any(CompletionRecord.class));
+    }
+}
@@ -2,14 +2,49 @@ package org.motechproject.nms.mobileacademy.ut;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mtraining.domain.Bookmark;
 import org.motechproject.mtraining.repository.BookmarkDataService;
 import org.motechproject.nms.mobileacademy.domain.Course;
+import org.motechproject.nms.mobileacademy.domain.course.Chapter;
+import org.motechproject.nms.mobileacademy.domain.course.Lesson;
+import org.motechproject.nms.mobileacademy.domain.course.LessonContent;
+import org.motechproject.nms.mobileacademy.domain.course.LessonContentLesson;
+import org.motechproject.nms.mobileacademy.dto.CachedCourse;
+import org.motechproject.nms.mobileacademy.dto.MaBookmark;
 import org.motechproject.nms.mobileacademy.repository.CourseDataService;
+import org.motechproject.nms.mobileacademy.service.CourseCompletionService;
 import org.motechproject.nms.mobileacademy.service.MobileAcademyService;
 import org.motechproject.nms.mobileacademy.service.impl.MobileAcademyServiceImpl;
+import org.springframework.transaction.support.TransactionCallback;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -27,10 +62,14 @@ public class MobileAcademyServiceUnitTest {
     @Mock
     private BookmarkDataService bookmarkDataService;
 
+    @Mock
+    private CourseCompletionService courseCompletionService;
+
     @Before
     public void setup() {
         initMocks(this);
-        mobileAcademyService = new MobileAcademyServiceImpl(bookmarkDataService, courseDataService);
+        mobileAcademyService = new MobileAcademyServiceImpl(bookmarkDataService, courseDataService,
+                courseCompletionService);
     }
 
     @Test
@@ -39,4 +78,149 @@ public class MobileAcademyServiceUnitTest {
         when(courseDataService.findCourseByName("MobileAcademyCourse")).thenReturn(currentCourse);
         assertEquals(mobileAcademyService.getCourse(), currentCourse);
     }
+
+    @Test
+    public void getCourseCachedTest() {
+        Course currentCourse = new Course();
+        currentCourse.setName("MobileAcademyCourse");
+        when(courseDataService.findCourseByName("MobileAcademyCourse")).thenReturn(currentCourse);
+
+        CachedCourse cached = mobileAcademyService.getCachedCourse();
+        assertSame(cached, mobileAcademyService.getCachedCourse());
+        assertEquals("{\"name\":\"MobileAcademyCourse\",\"courseVersion\":0,\"chapters\":null}",
+                new String(cached.getJson(), Charset.forName("UTF-8")));
+        verify(courseDataService, times(1)).findCourseByName("MobileAcademyCourse");
+
+        // Setting the course drops the cached one
+        mobileAcademyService.setCourse(currentCourse);
+        assertNotSame(cached, mobileAcademyService.getCachedCourse());
+    }
+
+    @Test
+    public void setCourseVersionGrowsTest() {
+        // A version ahead of the clock, as after the clock was set back
+        Course existing = new Course();
+        existing.setName("MobileAcademyCourse");
+        existing.setVersion(Long.MAX_VALUE - 1);
+        when(courseDataService.findCourseByName("MobileAcademyCourse")).thenReturn(existing);
+
+        Course course = new Course();
+        course.setName("MobileAcademyCourse");
+        mobileAcademyService.setCourse(course);
+
+        assertEquals(Long.MAX_VALUE, (long) course.getVersion());
+    }
+
+    @Test
+    public void importCourseTest() {
+        Course existing = buildCourse("Chapter01_Lesson01.wav", "Chapter01_Lesson02.wav");
+        existing.setVersion(1L);
+        Lesson unchangedLesson = existing.getChapters().get(0).getLessons().get(0);
+        when(courseDataService.findCourseByName("MobileAcademyCourse")).thenReturn(existing);
+        when(courseDataService.doInTransaction(any(TransactionCallback.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return ((TransactionCallback) invocation.getArguments()[0]).doInTransaction(null);
+            }
+        });
+
+        // Same content: nothing is written and the version stays
+        assertFalse(mobileAcademyService.importCourse(buildCourse("Chapter01_Lesson01.wav",
+                "Chapter01_Lesson02.wav")));
+        verify(courseDataService, never()).update(any(Course.class));
+        verify(courseDataService, never()).executeQuery(any(QueryExecution.class));
+        assertEquals(1L, (long) existing.getVersion());
+
+        // One lesson changed: only its content is replaced (and the replaced one deleted), and the version grows
+        LessonContent replacedContent = existing.getChapters().get(0).getLessons().get(1).getContent();
+        final PersistenceManager persistenceManager = mock(PersistenceManager.class);
+        when(courseDataService.executeQuery(any(QueryExecution.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                Query query = mock(Query.class);
+                when(query.getPersistenceManager()).thenReturn(persistenceManager);
+                return ((QueryExecution) invocation.getArguments()[0]).execute(query, null);
+            }
+        });
+        assertTrue(mobileAcademyService.importCourse(buildCourse("Chapter01_Lesson01.wav",
+                "Chapter01_Lesson02_v2.wav")));
+        verify(courseDataService, times(1)).update(existing);
+        assertSame(unchangedLesson, existing.getChapters().get(0).getLessons().get(0));
+        assertEquals("Chapter01_Lesson02_v2.wav",
+                existing.getChapters().get(0).getLessons().get(1).getContent().getLesson().getFile());
+        assertTrue(existing.getVersion() > 1L);
+
+        ArgumentCaptor<Collection> deleted = ArgumentCaptor.forClass(Collection.class);
+        verify(persistenceManager).deletePersistentAll(deleted.capture());
+        assertEquals(Arrays.asList(replacedContent, replacedContent.getLesson()), new ArrayList<>(deleted.getValue()));
+    }
+
+    private Course buildCourse(String... lessonFiles) {
+        List<Lesson> lessons = new ArrayList<>();
+        for (int i = 0; i < lessonFiles.length; i++) {
+            LessonContentLesson lessonFile = new LessonContentLesson();
+            lessonFile.setIdentifier(String.format("Chapter01_Lesson%02d", i + 1));
+            lessonFile.setFile(lessonFiles[i]);
+            LessonContent content = new LessonContent();
+            content.setLesson(lessonFile);
+            Lesson lesson = new Lesson();
+            lesson.setName(String.format("Lesson%02d", i + 1));
+            lesson.setContent(content);
+            lessons.add(lesson);
+        }
+
+        Chapter chapter = new Chapter();
+        chapter.setName("Chapter01");
+        chapter.setLessons(lessons);
+
+        Course course = new Course();
+        course.setName("MobileAcademyCourse");
+        course.setChapters(new ArrayList<>(Arrays.asList(chapter)));
+        return course;
+    }
+
+    @Test
+    public void setBookmarkCoalescedTest() {
+        when(bookmarkDataService.findBookmarksForUser("1234567890")).thenReturn(new ArrayList<Bookmark>());
+
+        Map<String, Integer> scores = new HashMap<>();
+        scores.put("Chapter01", 4);
+        mobileAcademyService.setBookmark(new MaBookmark(1234567890L, 123456789012345L, "Chapter01_Lesson01", null));
+        mobileAcademyService.setBookmark(new MaBookmark(1234567890L, 123456789012345L, "Chapter01_Quiz", scores));
+        mobileAcademyService.setBookmark(new MaBookmark(1234567890L, 123456789012345L, null, null));
+
+        // Read back before anything was written, then written once when the call ends
+        MaBookmark bookmark = mobileAcademyService.getBookmark(1234567890L, 123456789012345L);
+        assertEquals("Chapter01_Quiz", bookmark.getBookmark());
+        assertEquals(scores, bookmark.getScoresByChapter());
+        verify(bookmarkDataService, never()).create(any(Bookmark.class));
+
+        mobileAcademyService.flushBookmark(1234567890L);
+        mobileAcademyService.flushBookmark(1234567890L);
+        verify(bookmarkDataService, times(1)).create(any(Bookmark.class));
+        verify(courseCompletionService, times(1)).updateCompletion(1234567890L, scores, 11, 44);
+
+        // Served from the cache from now on
+        mobileAcademyService.getBookmark(1234567890L, 123456789012345L);
+        verify(bookmarkDataService, times(2)).findBookmarksForUser("1234567890");
+    }
+
+    @Test
+    public void setBookmarkKeptWhenSaveFailsTest() {
+        when(bookmarkDataService.findBookmarksForUser("1234567890")).thenReturn(new ArrayList<Bookmark>());
+        when(bookmarkDataService.create(any(Bookmark.class))).thenThrow(new IllegalStateException("Unable to connect"))
+                .thenReturn(new Bookmark());
+
+        mobileAcademyService.setBookmark(new MaBookmark(1234567890L, 123456789012345L, "Chapter01_Lesson01", null));
+        mobileAcademyService.flushBookmark(1234567890L);
+        verify(courseCompletionService, never()).updateCompletion(anyLong(), anyMap(), anyInt(), anyInt());
+
+        // Still pending: read back, and written by the next flush
+        MaBookmark bookmark = mobileAcademyService.getBookmark(1234567890L, 123456789012345L);
+        assertEquals("Chapter01_Lesson01", bookmark.getBookmark());
+
+        mobileAcademyService.flushBookmark(1234567890L);
+        verify(bookmarkDataService, times(2)).create(any(Bookmark.class));
+        verify(courseCompletionService, times(1)).updateCompletion(anyLong(), anyMap(), anyInt(), anyInt());
+    }
 }
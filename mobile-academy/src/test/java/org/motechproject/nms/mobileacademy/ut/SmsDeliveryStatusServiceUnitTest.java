@@ -0,0 +1,68 @@
+package org.motechproject.nms.mobileacademy.ut;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.motechproject.nms.mobileacademy.domain.DeliveryStatus;
+import org.motechproject.nms.mobileacademy.dto.SmsDeliveryReceipt;
+import org.motechproject.nms.mobileacademy.repository.SmsDeliveryRecordDataService;
+import org.motechproject.nms.mobileacademy.service.SmsDeliveryStatusService;
+import org.motechproject.nms.mobileacademy.service.impl.SmsDeliveryStatusServiceImpl;
+import org.springframework.transaction.support.TransactionCallback;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/**
+ * Unit tests for the SMS delivery status service. The service isn't started, so receipts are written on the
+ * caller's thread.
+ */
+public class SmsDeliveryStatusServiceUnitTest {
+
+    private SmsDeliveryStatusService smsDeliveryStatusService;
+
+    @Mock
+    private SmsDeliveryRecordDataService smsDeliveryRecordDataService;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+        smsDeliveryStatusService = new SmsDeliveryStatusServiceImpl(smsDeliveryRecordDataService);
+    }
+
+    private List<SmsDeliveryReceipt> receipt(DeliveryStatus status) {
+        return Collections.singletonList(new SmsDeliveryReceipt("message-1", 9810320300L, status,
+                System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testDuplicateReceiptDropped() {
+        smsDeliveryStatusService.enqueue(receipt(DeliveryStatus.DeliveredToNetwork));
+        smsDeliveryStatusService.enqueue(receipt(DeliveryStatus.DeliveredToNetwork));
+
+        verify(smsDeliveryRecordDataService, times(1)).doInTransaction(any(TransactionCallback.class));
+        assertEquals(1, smsDeliveryStatusService.getDuplicateCount());
+    }
+
+    @Test
+    public void testFailedReceiptNotTakenForDuplicate() {
+        when(smsDeliveryRecordDataService.doInTransaction(any(TransactionCallback.class)))
+                .thenThrow(new IllegalStateException("Unable to connect")).thenReturn(null);
+
+        smsDeliveryStatusService.enqueue(receipt(DeliveryStatus.DeliveredToTerminal));
+
+        // The gateway resends the receipt it got no answer for: this time it's written
+        smsDeliveryStatusService.enqueue(receipt(DeliveryStatus.DeliveredToTerminal));
+
+        verify(smsDeliveryRecordDataService, times(2)).doInTransaction(any(TransactionCallback.class));
+        assertEquals(0, smsDeliveryStatusService.getDuplicateCount());
+        assertEquals(0, smsDeliveryStatusService.getIngestionLag());
+    }
+}
@@ -0,0 +1,18 @@
+package org.motechproject.nms.outbounddialer.service;
+
+import java.util.Collection;
+
+/**
+ * Keeps the call retries in step with the Kilkari subscriptions they're for
+ */
+public interface CallRetryService {
+
+    /**
+     * Delete the call retries of the given subscriptions, in one statement. Runs for every batch of subscriptions
+     * Kilkari deactivates in bulk, public so that it can be tested.
+     *
+     * @param subscriptionIds the ids of the subscriptions whose call retries to delete
+     * @return the number of call retries deleted
+     */
+    long purgeCallRetries(Collection<String> subscriptionIds);
+}
@@ -0,0 +1,66 @@
+package org.motechproject.nms.outbounddialer.service.impl;
+
+import org.motechproject.event.MotechEvent;
+import org.motechproject.event.listener.annotations.MotechListener;
+import org.motechproject.mds.query.QueryExecution;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
+import org.motechproject.nms.kilkari.service.SubscriptionLifecycleService;
+import org.motechproject.nms.outbounddialer.repository.CallRetryDataService;
+import org.motechproject.nms.outbounddialer.service.CallRetryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.jdo.Query;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Implementation of the {@link CallRetryService} interface.
+ */
+@Service("callRetryService")
+public class CallRetryServiceImpl implements CallRetryService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CallRetryServiceImpl.class);
+
+    private CallRetryDataService callRetryDataService;
+
+
+    @Autowired
+    public CallRetryServiceImpl(CallRetryDataService callRetryDataService) {
+        this.callRetryDataService = callRetryDataService;
+    }
+
+
+    @Override
+    public long purgeCallRetries(final Collection<String> subscriptionIds) {
+        if (subscriptionIds.isEmpty()) {
+            return 0;
+        }
+
+        QueryExecution<Long> queryExecution = new QueryExecution<Long>() {
+            @Override
+            public Long execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("ids.contains(subscriptionId)");
+                query.declareParameters("java.util.Collection ids");
+
+                return query.deletePersistentAll(subscriptionIds);
+            }
+        };
+
+        return callRetryDataService.executeQuery(queryExecution);
+    }
+
+
+    @MotechListener(subjects = { SubscriptionLifecycleService.SUBSCRIPTIONS_DEACTIVATED_EVENT })
+    public void purgeCallRetries(MotechEvent event) {
+        @SuppressWarnings("unchecked")
+        List<String> subscriptionIds = (List<String>) event.getParameters().get(
+                SubscriptionLifecycleService.SUBSCRIPTION_IDS);
+
+        long purged = purgeCallRetries(subscriptionIds);
+        LOGGER.debug("Purged {} call retries of {} deactivated subscriptions", purged, subscriptionIds.size());
+    }
+}
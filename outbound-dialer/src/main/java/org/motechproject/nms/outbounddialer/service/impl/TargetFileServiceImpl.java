@@ -11,6 +11,7 @@ import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.motechproject.alerts.contract.AlertService;
@@ -18,13 +19,14 @@ import org.motechproject.alerts.domain.AlertStatus;
 import org.motechproject.alerts.domain.AlertType;
 import org.motechproject.event.MotechEvent;
 import org.motechproject.event.listener.annotations.MotechListener;
+import org.motechproject.mds.query.QueryExecution;
 import org.motechproject.mds.query.QueryParams;
-import org.motechproject.nms.kilkari.domain.Subscriber;
-import org.motechproject.nms.kilkari.domain.Subscription;
+import org.motechproject.mds.util.InstanceSecurityRestriction;
+import org.motechproject.nms.kilkari.domain.SubscriptionMode;
 import org.motechproject.nms.kilkari.domain.SubscriptionStatus;
-import org.motechproject.nms.kilkari.repository.SubscriberDataService;
+import org.motechproject.nms.kilkari.dto.InboxEntry;
 import org.motechproject.nms.kilkari.repository.SubscriptionDataService;
-import org.motechproject.nms.language.domain.Language;
+import org.motechproject.nms.kilkari.service.SubscriptionPackService;
 import org.motechproject.nms.outbounddialer.domain.AuditRecord;
 import org.motechproject.nms.outbounddialer.domain.CallRetry;
 import org.motechproject.nms.outbounddialer.domain.DayOfTheWeek;
@@ -44,6 +46,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
+import javax.jdo.Query;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -73,7 +76,7 @@ public class TargetFileServiceImpl implements TargetFileService {
     private MotechSchedulerService schedulerService;
     private AlertService alertService;
     private SubscriptionDataService subscriptionDataService;
-    private SubscriberDataService subscriberDataService;
+    private SubscriptionPackService subscriptionPackService;
     private CallRetryDataService callRetryDataService;
     private FileAuditDataService fileAuditDataService;
 
@@ -121,14 +124,14 @@ public class TargetFileServiceImpl implements TargetFileService {
                                  MotechSchedulerService schedulerService, AlertService alertService,
                                  SubscriptionDataService subscriptionDataService,
                                  CallRetryDataService callRetryDataService,
-                                 SubscriberDataService subscriberDataService,
+                                 SubscriptionPackService subscriptionPackService,
                                  FileAuditDataService fileAuditDataService) {
         this.schedulerService = schedulerService;
         this.settingsFacade = settingsFacade;
         this.alertService = alertService;
         this.subscriptionDataService = subscriptionDataService;
         this.callRetryDataService = callRetryDataService;
-        this.subscriberDataService = subscriberDataService;
+        this.subscriptionPackService = subscriptionPackService;
         this.fileAuditDataService = fileAuditDataService;
 
         scheduleTargetFileGeneration();
@@ -170,7 +173,7 @@ public class TargetFileServiceImpl implements TargetFileService {
 
 
     private void writeSubscriptionRow(String requestId, String serviceId, String msisdn, String priority,
-                                      String callFlowUrl, String contentFileName, int weekId,
+                                      String callFlowUrl, String contentFileName, String weekId,
                                       String languageLocationCode, String circle, String subscriptionMode,
                                       OutputStreamWriter writer) throws IOException {
         /*
@@ -228,7 +231,6 @@ public class TargetFileServiceImpl implements TargetFileService {
          *
          * Content file to be played
          */
-        //todo: call a function on subscription that returns the content file name to be played using today's date
         writer.write(contentFileName);
         writer.write(",");
 
@@ -237,8 +239,7 @@ public class TargetFileServiceImpl implements TargetFileService {
          *
          * Week id of the messaged delivered in OBD
          */
-        //todo: call a function on subscription that returns the week id name to be played using today's date
-        writer.write(Integer.toString(weekId));
+        writer.write(weekId);
         writer.write(",");
 
         /*
@@ -307,6 +308,7 @@ public class TargetFileServiceImpl implements TargetFileService {
 
             //figure out which day to work with
             final DayOfTheWeek today = DayOfTheWeek.today();
+            final LocalDate todayDate = LocalDate.now();
 
             int maxQueryBlock = Integer.parseInt(settingsFacade.getProperty(MAX_QUERY_BLOCK));
 
@@ -319,36 +321,38 @@ public class TargetFileServiceImpl implements TargetFileService {
             }
 
             //FRESH calls
-            int page = 1;
-            int numBlockRecord;
+            long lastId = 0;
+            List<Object[]> rows;
             do {
-                List<Subscription> subscriptions = subscriptionDataService.findByStatus(SubscriptionStatus.ACTIVE,
-                    new QueryParams(page, maxQueryBlock));
-                numBlockRecord = subscriptions.size();
-
-                for (Subscription subscription : subscriptions) {
-
-                    Subscriber subscriber = subscription.getSubscriber();
-
-                    //todo: don't understand why subscriber.getLanguage() doesn't work here...
-                    Language language = (Language) subscriberDataService.getDetachedField(subscriber, "language");
-                    writer.write(language.getCode());
-
-                    writeSubscriptionRow(requestId(fileIdentifier, subscription.getSubscriptionId()), imiServiceId,
-                            subscriber.getCallingNumber().toString(), NORMAL_PRIORITY, callFlowUrl,
-                            "???ContentFileName???", //todo: get that from lauren when it's ready
-                            1, //todo: and that too
-                            language.getCode(), subscriber.getCircle(),
-                            subscription.getMode().getCode(), writer);
+                rows = findActiveSubscriptions(lastId, maxQueryBlock);
+
+                for (Object[] row : rows) {
+                    lastId = (Long) row[0];
+                    String subscriptionId = (String) row[1];
+                    String languageCode = (String) row[3];
+                    String packName = (String) row[5];
+
+                    //which message plays today, from the in memory pack registry
+                    InboxEntry message = subscriptionPackService.getRegistry().getMessage(subscriptionId,
+                            packName, (LocalDate) row[6], todayDate);
+                    if (message == null) {
+                        LOGGER.debug("Subscription {} has no message today, not calling it", subscriptionId);
+                        continue;
+                    }
+
+                    writer.write(languageCode);
+                    writeSubscriptionRow(requestId(fileIdentifier, subscriptionId), imiServiceId,
+                            row[2].toString(), NORMAL_PRIORITY, callFlowUrl, message.getContentFileName(),
+                            message.getWeekId(), languageCode, (String) row[4], ((SubscriptionMode) row[7]).getCode(),
+                            writer);
+                    recordCount++;
                 }
 
-                page++;
-                recordCount += numBlockRecord;
-
-            } while (numBlockRecord > 0);
+            } while (rows.size() == maxQueryBlock);
 
             //Retry calls
-            page = 1;
+            int page = 1;
+            int numBlockRecord;
             do {
                 List<CallRetry> callRetries = callRetryDataService.findByDayOfTheWeek(today,
                         new QueryParams(page, maxQueryBlock));
@@ -358,7 +362,7 @@ public class TargetFileServiceImpl implements TargetFileService {
                     writeSubscriptionRow(requestId(fileIdentifier, callRetry.getSubscriptionId()), imiServiceId,
                             callRetry.getMsisdn().toString(), NORMAL_PRIORITY, callFlowUrl,
                             "???ContentFileName???", //todo: get that from lauren when it's ready
-                            1, //todo: and that too
+                            "1", //todo: and that too
                             callRetry.getLanguageLocationCode(), callRetry.getCircle(),
                             callRetry.getSubscriptionModeCode(), writer);
                 }
@@ -390,6 +394,33 @@ public class TargetFileServiceImpl implements TargetFileService {
     }
 
 
+    /*
+     * One block of active subscriptions, projected to what goes in the target file so that neither the
+     * subscriptions nor their subscribers and packs are loaded:
+     * id, subscriptionId, callingNumber, language code, circle, pack name, startDate, mode
+     */
+    private List<Object[]> findActiveSubscriptions(final long lastId, final int maxQueryBlock) {
+        @SuppressWarnings("unchecked")
+        QueryExecution<List<Object[]>> queryExecution = new QueryExecution<List<Object[]>>() {
+            @Override
+            public List<Object[]> execute(Query query, InstanceSecurityRestriction restriction) {
+
+                query.setFilter("status == active && id > lastId");
+                query.declareParameters("org.motechproject.nms.kilkari.domain.SubscriptionStatus active, " +
+                        "Long lastId");
+                query.setResult("id, subscriptionId, subscriber.callingNumber, subscriber.language.code, " +
+                        "subscriber.circle, subscriptionPack.name, startDate, mode");
+                query.setOrdering("id ascending");
+                query.setRange(0, maxQueryBlock);
+
+                return (List<Object[]>) query.execute(SubscriptionStatus.ACTIVE, lastId);
+            }
+        };
+
+        return subscriptionDataService.executeQuery(queryExecution);
+    }
+
+
     private void sendNotificationRequest(TargetFileNotification tfn) {
         String notificationUrl = settingsFacade.getProperty(TARGET_FILE_NOTIFICATION_URL);
         LOGGER.info("Sending {} to {}", tfn, notificationUrl);
@@ -1,17 +1,20 @@
 package org.motechproject.nms.outbounddialer.it;
 
 import org.apache.commons.codec.binary.Hex;
+import org.joda.time.LocalDate;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.motechproject.nms.kilkari.domain.Subscriber;
 import org.motechproject.nms.kilkari.domain.Subscription;
 import org.motechproject.nms.kilkari.domain.SubscriptionMode;
 import org.motechproject.nms.kilkari.domain.SubscriptionPack;
+import org.motechproject.nms.kilkari.domain.SubscriptionPackMessage;
 import org.motechproject.nms.kilkari.domain.SubscriptionPackType;
 import org.motechproject.nms.kilkari.domain.SubscriptionStatus;
 import org.motechproject.nms.kilkari.repository.SubscriberDataService;
 import org.motechproject.nms.kilkari.repository.SubscriptionDataService;
 import org.motechproject.nms.kilkari.repository.SubscriptionPackDataService;
+import org.motechproject.nms.kilkari.service.SubscriptionPackService;
 import org.motechproject.nms.language.domain.Language;
 import org.motechproject.nms.language.repository.LanguageDataService;
 import org.motechproject.nms.outbounddialer.domain.CallRetry;
@@ -38,6 +41,8 @@ import java.nio.file.Files;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -60,6 +65,9 @@ public class TargetFileServiceBundleIT extends BasePaxIT {
     @Inject
     SubscriptionPackDataService subscriptionPackDataService;
 
+    @Inject
+    SubscriptionPackService subscriptionPackService;
+
     @Inject
     CallRetryDataService callRetryDataService;
 
@@ -69,6 +77,17 @@ public class TargetFileServiceBundleIT extends BasePaxIT {
     @Inject
     SettingsService settingsService;
 
+    private List<SubscriptionPackMessage> messages(String packName, int messagesPerWeek) {
+        List<SubscriptionPackMessage> messages = new ArrayList<>();
+        for (int week = 1; week <= 4; week++) {
+            for (int message = 1; message <= messagesPerWeek; message++) {
+                messages.add(new SubscriptionPackMessage(week, String.format("%s-week%s-%s.wav", packName, week,
+                        message)));
+            }
+        }
+        return messages;
+    }
+
     private void setupDatabase() {
         subscriptionDataService.deleteAll();
         subscriptionPackDataService.deleteAll();
@@ -80,29 +99,42 @@ public class TargetFileServiceBundleIT extends BasePaxIT {
         Language urdu = languageDataService.create(new Language("Urdu", "UR"));
 
         SubscriptionPack pack1 = subscriptionPackDataService.create(new SubscriptionPack("one",
-                SubscriptionPackType.CHILD, 1, null));
+                SubscriptionPackType.CHILD, 1, messages("one", 1)));
         SubscriptionPack pack2 = subscriptionPackDataService.create(new SubscriptionPack("two",
-                SubscriptionPackType.PREGNANCY, 2, null));
+                SubscriptionPackType.PREGNANCY, 2, messages("two", 2)));
+
+        // The packs were replaced behind the registry's back
+        subscriptionPackService.refresh();
 
         Subscriber subscriber1 = subscriberDataService.create(new Subscriber(1111111111L, hindi, "AA"));
         Subscriber subscriber2 = subscriberDataService.create(new Subscriber(2222222222L, urdu, "BB"));
+        Subscriber subscriber3 = subscriberDataService.create(new Subscriber(3333333333L, urdu, "BB"));
 
         Subscription s = new Subscription(subscriber1, pack1, SubscriptionMode.IVR);
         s.setStatus(SubscriptionStatus.ACTIVE);
+        s.setStartDate(LocalDate.now());
         Subscription subscription11 = subscriptionDataService.create(s);
 
         s = new Subscription(subscriber1, pack2, SubscriptionMode.IVR);
         s.setStatus(SubscriptionStatus.ACTIVE);
+        s.setStartDate(LocalDate.now().minusDays(7));
         Subscription subscription12 = subscriptionDataService.create(s);
 
         s = new Subscription(subscriber2, pack1, SubscriptionMode.IVR);
         s.setStatus(SubscriptionStatus.ACTIVE);
+        s.setStartDate(LocalDate.now());
         Subscription subscription21 = subscriptionDataService.create(s);
 
         s = new Subscription(subscriber2, pack2, SubscriptionMode.IVR);
         s.setStatus(SubscriptionStatus.COMPLETED);
+        s.setStartDate(LocalDate.now());
         Subscription subscription22 = subscriptionDataService.create(s);
 
+        // No start date, so no message to play today
+        s = new Subscription(subscriber3, pack1, SubscriptionMode.IVR);
+        s.setStatus(SubscriptionStatus.ACTIVE);
+        Subscription subscription31 = subscriptionDataService.create(s);
+
         CallRetry callRetry1 = callRetryDataService.create(new CallRetry("123", 3333333333L, DayOfTheWeek.today(),
                 CallStage.RETRY_1, "HI", "AA", "I"));
         CallRetry callRetry2 = callRetryDataService.create(new CallRetry("546", 4444444444L, DayOfTheWeek.today(),
@@ -116,7 +148,8 @@ public class TargetFileServiceBundleIT extends BasePaxIT {
         TargetFileNotification tfn = targetFileService.generateTargetFile();
         assertNotNull(tfn);
 
-        // Should not pickup subscription22 because its status is COMPLETED
+        // Should not pickup subscription22 because its status is COMPLETED, nor subscription31 because it has no
+        // start date
         assertEquals(5, (int) tfn.getRecordCount());
 
         //read the file to get checksum & record count
@@ -0,0 +1,62 @@
+package org.motechproject.nms.props.csv;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the lines of the CSV files the bulk imports read: comma separated values, any of which may be double quoted
+ * to hold commas ("" being a quote within a quoted value).
+ */
+public final class CsvParser {
+
+    private CsvParser() { }
+
+    /**
+     * @param line the header line, null if the file is empty
+     * @return the index of each column, by its trimmed name; empty if there is no header
+     */
+    public static Map<String, Integer> parseHeader(String line) {
+        if (line == null) {
+            return Collections.emptyMap();
+        }
+
+        // Spreadsheets like to start their CSV exports with a byte order mark
+        String[] names = parseLine(line.startsWith("\uFEFF") ? line.substring(1) : line);
+        Map<String, Integer> header = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            header.put(names[i].trim(), i);
+        }
+        return header;
+    }
+
+    /**
+     * Splits a line on commas, honouring double quoted values
+     *
+     * @return the values, unquoted but not trimmed
+     */
+    public static String[] parseLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i++);
+            if (quoted && c == '"' && i < line.length() && line.charAt(i) == '"') {
+                value.append(c);
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values.toArray(new String[values.size()]);
+    }
+}
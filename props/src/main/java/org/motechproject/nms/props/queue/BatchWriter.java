@@ -0,0 +1,27 @@
+package org.motechproject.nms.props.queue;
+
+import java.util.List;
+
+/**
+ * Writes the batches drained from a {@link WriteBehindQueue}
+ *
+ * @param <T> type of the queued items
+ */
+public interface BatchWriter<T> {
+
+    /**
+     * Write the items, typically in one transaction. Throwing means none of them was written: the queue then retries
+     * each of them on its own.
+     *
+     * @param batch the items to write, in the order they were queued
+     */
+    void write(List<T> batch);
+
+    /**
+     * Called for each item which couldn't be written even on its own, after which the queue gives up on it
+     *
+     * @param item the item which wasn't written
+     * @param e what its last write attempt failed with
+     */
+    void failed(T item, RuntimeException e);
+}
@@ -0,0 +1,336 @@
+package org.motechproject.nms.props.queue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue drained by a single background writer, which hands what it drains to a {@link BatchWriter} in
+ * batches of up to maxBatchSize items. A batch is written as soon as it's full, or maxBatchDelayMs after its first
+ * item was picked up, whichever comes first (with no delay, whatever is queued is written straight away).
+ *
+ * The writer waits for items without holding the write lock, and only takes it to write the batch it has drained, so
+ * that flush() and synchronous writes don't wait behind an idle poll. When the queue is full, or once it's stopped,
+ * items are written on the caller's thread instead, which slows producers down rather than dropping data. A batch
+ * which fails is retried one item at a time, so one bad item doesn't take the others down with it.
+ *
+ * @param <T> type of the queued items
+ */
+public class WriteBehindQueue<T> {
+
+    public static final long POLL_INTERVAL_MS = 250;
+    public static final long ENQUEUE_TIMEOUT_MS = 100;
+    public static final long SHUTDOWN_TIMEOUT_MS = 30000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    private final String name;
+    private final int maxBatchSize;
+    private final long maxBatchDelayMs;
+    private final BatchWriter<T> batchWriter;
+
+    private final BlockingQueue<T> queue;
+
+    // Held by whoever is writing a batch, so the writer, flush() and synchronous writes never write at the same time
+    private final Lock writeLock = new ReentrantLock(true);
+
+    // Signalled whenever a batch taken off the queue has been written (or given up on)
+    private final Condition batchWritten = writeLock.newCondition();
+
+    // Items accepted by the queue, and items taken off it which have been written since: flush() compares them to
+    // wait for the items the writer has drained but not written yet
+    private final AtomicLong queuedCount = new AtomicLong();
+    private long writtenCount;
+
+    // First item of the batch being written, null if none is
+    private volatile T writing;
+
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong totalWriteLatency = new AtomicLong();
+    private volatile long lastWriteLatency;
+
+    private ExecutorService writer;
+    private volatile boolean running;
+
+    /**
+     * @param name name of the queue, used to name its writer thread (nms-[name]-writer) and in logs
+     * @param capacity how many items the queue holds before producers write synchronously
+     * @param maxBatchSize most items written in one batch
+     * @param maxBatchDelayMs how long a batch waits to fill up once its first item was picked up, 0 not to wait
+     * @param batchWriter writes the batches
+     */
+    public WriteBehindQueue(String name, int capacity, int maxBatchSize, long maxBatchDelayMs,
+                            BatchWriter<T> batchWriter) {
+        this.name = name;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayMs = maxBatchDelayMs;
+        this.batchWriter = batchWriter;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Start the background writer
+     */
+    public void start() {
+        running = true;
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, String.format("nms-%s-writer", name));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        });
+    }
+
+    /**
+     * Stop the background writer, and write whatever is still queued. Items queued from now on are written
+     * synchronously.
+     */
+    public void stop() {
+        running = false;
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                if (!writer.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    LOGGER.warn("{} writer did not stop within {}ms", name, SHUTDOWN_TIMEOUT_MS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Queue an item for writing, or write it on the caller's thread if the queue is full or stopped
+     */
+    public void enqueue(T item) {
+        enqueue(Collections.singletonList(item));
+    }
+
+    /**
+     * Queue items for writing. If the queue runs out of room, or is stopped, the items it hasn't taken yet are written
+     * on the caller's thread as one batch, after the batch being written if there is one. Each item is offered for up
+     * to ENQUEUE_TIMEOUT_MS, but once one times out the rest aren't offered, so a large batch waits at most once.
+     */
+    public void enqueue(Collection<? extends T> items) {
+        List<T> overflow = null;
+
+        for (T item : items) {
+            if (overflow == null) {
+                if (offer(item)) {
+                    continue;
+                }
+                overflow = new ArrayList<>();
+            }
+            overflow.add(item);
+        }
+
+        if (overflow != null) {
+            LOGGER.debug("{} queue full, writing {} items synchronously", name, overflow.size());
+            writeLock.lock();
+            try {
+                writeBatch(overflow);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Write everything queued so far on the caller's thread, and wait for the batch the writer is busy with
+     */
+    public void flush() {
+        long queued = queuedCount.get();
+
+        writeLock.lock();
+        try {
+            List<T> batch = new ArrayList<>(maxBatchSize);
+            while (queue.drainTo(batch, maxBatchSize) > 0) {
+                try {
+                    writeBatch(batch);
+                } finally {
+                    markWritten(batch.size());
+                    batch.clear();
+                }
+            }
+
+            // The writer may still hold items it took off the queue before we got here
+            while (writtenCount < queued) {
+                if (!batchWritten.await(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    LOGGER.warn("{} writer did not write its batch within {}ms", name, SHUTDOWN_TIMEOUT_MS);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of items waiting to be written, not counting the batch being written
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the oldest item not written yet: the first item of the batch being written, else the head of the queue;
+     * null if there is none
+     */
+    public T getOldest() {
+        T oldest = writing;
+        return oldest == null ? queue.peek() : oldest;
+    }
+
+    /**
+     * @return how long, in milliseconds, the most recent batch took to write
+     */
+    public long getLastWriteLatency() {
+        return lastWriteLatency;
+    }
+
+    /**
+     * @return the average time, in milliseconds, taken to write a batch since the queue started
+     */
+    public long getAverageWriteLatency() {
+        long count = writeCount.get();
+        return count == 0 ? 0 : totalWriteLatency.get() / count;
+    }
+
+    private boolean offer(T item) {
+        try {
+            if (running && queue.offer(item, ENQUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                queuedCount.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void writeLoop() {
+        List<T> batch = new ArrayList<>(maxBatchSize);
+
+        while (running) {
+            // Wait for items without the lock, so flush() and synchronous writes don't queue up behind an idle poll
+            boolean interrupted = false;
+            try {
+                T first = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fill(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                interrupted = true;
+            }
+
+            if (!batch.isEmpty()) {
+                writeLock.lock();
+                try {
+                    writeBatch(batch);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Unexpected error in {} writer", name, e);
+                } finally {
+                    markWritten(batch.size());
+                    batch.clear();
+                    writeLock.unlock();
+                }
+            }
+
+            if (interrupted) {
+                return;
+            }
+        }
+    }
+
+    // Keep filling the batch until it's full or its first item has waited long enough
+    private void fill(List<T> batch) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxBatchDelayMs;
+        long remaining = maxBatchDelayMs;
+
+        while (batch.size() < maxBatchSize) {
+            if (queue.drainTo(batch, maxBatchSize - batch.size()) == 0) {
+                if (remaining <= 0) {
+                    return;
+                }
+                T next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                if (next == null) {
+                    return;
+                }
+                batch.add(next);
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+
+    // Must be called holding the write lock
+    private void markWritten(int size) {
+        writtenCount += size;
+        batchWritten.signalAll();
+    }
+
+    // Must be called holding the write lock
+    private void writeBatch(List<T> batch) {
+        writing = batch.get(0);
+        long startTime = System.currentTimeMillis();
+        try {
+            batchWriter.write(batch);
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                failed(batch.get(0), e);
+                return;
+            }
+
+            // Don't let one bad item take the whole batch down with it
+            LOGGER.warn("Unable to write batch of {} {} items, retrying one by one", batch.size(), name, e);
+            for (T item : batch) {
+                try {
+                    batchWriter.write(Collections.singletonList(item));
+                } catch (RuntimeException re) {
+                    failed(item, re);
+                }
+            }
+        } finally {
+            writing = null;
+            lastWriteLatency = System.currentTimeMillis() - startTime;
+            totalWriteLatency.addAndGet(lastWriteLatency);
+            writeCount.incrementAndGet();
+            LOGGER.debug("Wrote {} {} items in {}ms", batch.size(), name, lastWriteLatency);
+        }
+    }
+
+    private void failed(T item, RuntimeException e) {
+        try {
+            batchWriter.failed(item, e);
+        } catch (RuntimeException fe) {
+            LOGGER.error("Unable to handle failed {} item {}", name, item, fe);
+        }
+    }
+}
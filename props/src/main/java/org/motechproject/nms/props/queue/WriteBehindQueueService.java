@@ -0,0 +1,65 @@
+package org.motechproject.nms.props.queue;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * Base class of the services which write behind a {@link WriteBehindQueue}. The queue's writer starts with the bean
+ * and stops with it, writing whatever is still queued before the bundle goes away. Subclasses only write the batches
+ * and handle the items which couldn't be written.
+ *
+ * @param <T> type of the queued items
+ */
+public abstract class WriteBehindQueueService<T> implements BatchWriter<T> {
+
+    private final WriteBehindQueue<T> queue;
+
+    /**
+     * @see WriteBehindQueue#WriteBehindQueue(String, int, int, long, BatchWriter)
+     */
+    protected WriteBehindQueueService(String name, int capacity, int maxBatchSize, long maxBatchDelayMs) {
+        this.queue = new WriteBehindQueue<>(name, capacity, maxBatchSize, maxBatchDelayMs, this);
+    }
+
+    @PostConstruct
+    public void start() {
+        queue.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        queue.stop();
+    }
+
+    /**
+     * Synchronously write everything currently queued, including any batch the background writer is busy with.
+     */
+    public void flush() {
+        queue.flush();
+    }
+
+    /**
+     * @return the number of items waiting to be written
+     */
+    public int getQueueDepth() {
+        return queue.getQueueDepth();
+    }
+
+    /**
+     * @return how long, in milliseconds, the most recent batch took to write
+     */
+    public long getLastFlushLatency() {
+        return queue.getLastWriteLatency();
+    }
+
+    /**
+     * @return the average time, in milliseconds, taken to write a batch since the service started
+     */
+    public long getAverageFlushLatency() {
+        return queue.getAverageWriteLatency();
+    }
+
+    protected WriteBehindQueue<T> getQueue() {
+        return queue;
+    }
+}
@@ -0,0 +1,52 @@
+package org.motechproject.nms.props.ut;
+
+import org.junit.Test;
+import org.motechproject.nms.props.csv.CsvParser;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the CSV parser shared by the bulk imports
+ */
+public class CsvParserUnitTest {
+
+    @Test
+    public void testPlainValues() {
+        assertArrayEquals(new String[] {"1", "Name", " padded "}, CsvParser.parseLine("1,Name, padded "));
+    }
+
+    @Test
+    public void testEmptyValues() {
+        assertArrayEquals(new String[] {"", "", ""}, CsvParser.parseLine(",,"));
+        assertArrayEquals(new String[] {""}, CsvParser.parseLine(""));
+    }
+
+    @Test
+    public void testQuotedComma() {
+        assertArrayEquals(new String[] {"1", "Bhopal, Huzur", "2"}, CsvParser.parseLine("1,\"Bhopal, Huzur\",2"));
+    }
+
+    @Test
+    public void testEscapedQuote() {
+        assertArrayEquals(new String[] {"say \"hi\"", "x"}, CsvParser.parseLine("\"say \"\"hi\"\"\",x"));
+    }
+
+    @Test
+    public void testHeader() {
+        Map<String, Integer> header = CsvParser.parseHeader("\uFEFFcallingNumber, lmp ,\"circle\"");
+
+        assertEquals(3, header.size());
+        assertEquals(Integer.valueOf(0), header.get("callingNumber"));
+        assertEquals(Integer.valueOf(1), header.get("lmp"));
+        assertEquals(Integer.valueOf(2), header.get("circle"));
+    }
+
+    @Test
+    public void testNoHeader() {
+        assertTrue(CsvParser.parseHeader(null).isEmpty());
+    }
+}
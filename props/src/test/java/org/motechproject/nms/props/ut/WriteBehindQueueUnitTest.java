@@ -0,0 +1,292 @@
+package org.motechproject.nms.props.ut;
+
+import org.junit.After;
+import org.junit.Test;
+import org.motechproject.nms.props.queue.BatchWriter;
+import org.motechproject.nms.props.queue.WriteBehindQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the write-behind queue
+ */
+public class WriteBehindQueueUnitTest {
+
+    private static final long WAIT_MS = 5000;
+
+    private WriteBehindQueue<String> queue;
+
+    @After
+    public void tearDown() {
+        if (queue != null) {
+            queue.stop();
+        }
+    }
+
+    /**
+     * Records what it's asked to write, failing any batch which holds an item starting with "bad"
+     */
+    private static class RecordingWriter implements BatchWriter<String> {
+
+        private final List<List<String>> batches = new ArrayList<>();
+        private final List<String> written = new ArrayList<>();
+        private final List<String> failed = new ArrayList<>();
+        private final List<String> threads = new ArrayList<>();
+
+        @Override
+        public synchronized void write(List<String> batch) {
+            threads.add(Thread.currentThread().getName());
+            for (String item : batch) {
+                if (item.startsWith("bad")) {
+                    throw new IllegalStateException("Unable to write " + item);
+                }
+            }
+            batches.add(new ArrayList<>(batch));
+            written.addAll(batch);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void failed(String item, RuntimeException e) {
+            failed.add(item);
+        }
+
+        synchronized List<List<String>> getBatches() {
+            return new ArrayList<>(batches);
+        }
+
+        synchronized List<String> getWritten() {
+            return new ArrayList<>(written);
+        }
+
+        synchronized List<String> getFailed() {
+            return new ArrayList<>(failed);
+        }
+
+        synchronized List<String> getThreads() {
+            return new ArrayList<>(threads);
+        }
+
+        // Wait for the background writer, without flushing
+        synchronized void awaitWritten(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + WAIT_MS;
+            while (written.size() < count && System.currentTimeMillis() < deadline) {
+                wait(deadline - System.currentTimeMillis());
+            }
+        }
+    }
+
+    private List<String> items(String prefix, int count) {
+        List<String> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(prefix + i);
+        }
+        return items;
+    }
+
+    @Test
+    public void testBatchesLimitedToMaxBatchSize() {
+        RecordingWriter writer = new RecordingWriter();
+        queue = new WriteBehindQueue<>("test", 100, 10, 0, writer);
+        queue.start();
+
+        List<String> items = items("item", 25);
+        for (String item : items) {
+            queue.enqueue(item);
+        }
+        queue.flush();
+
+        // flush() may write what's left in the queue before the batch the writer has just taken off it
+        assertEquals(new HashSet<>(items), new HashSet<>(writer.getWritten()));
+        assertEquals(items.size(), writer.getWritten().size());
+        for (List<String> batch : writer.getBatches()) {
+            assertTrue(batch.size() <= 10);
+        }
+        assertEquals(0, queue.getQueueDepth());
+    }
+
+    @Test
+    public void testBatchWaitsForMoreItems() throws InterruptedException {
+        RecordingWriter writer = new RecordingWriter();
+        queue = new WriteBehindQueue<>("test", 100, 100, 1000, writer);
+        queue.start();
+
+        queue.enqueue("first");
+        Thread.sleep(100);
+        queue.enqueue("second");
+        writer.awaitWritten(2);
+
+        assertEquals(Collections.singletonList(Arrays.asList("first", "second")), writer.getBatches());
+        assertEquals("nms-test-writer", writer.getThreads().get(0));
+    }
+
+    @Test
+    public void testFullBatchWrittenWithoutWaiting() throws InterruptedException {
+        RecordingWriter writer = new RecordingWriter();
+        queue = new WriteBehindQueue<>("test", 100, 3, TimeUnit.MINUTES.toMillis(1), writer);
+        queue.start();
+
+        queue.enqueue(items("item", 3));
+        writer.awaitWritten(3);
+
+        assertEquals(items("item", 3), writer.getWritten());
+    }
+
+    @Test
+    public void testStopWritesEverythingQueued() {
+        RecordingWriter writer = new RecordingWriter();
+        queue = new WriteBehindQueue<>("test", 1000, 10, 1000, writer);
+        queue.start();
+
+        queue.enqueue(items("item", 50));
+        queue.stop();
+
+        assertEquals(items("item", 50), writer.getWritten());
+        assertEquals(0, queue.getQueueDepth());
+        assertNull(queue.getOldest());
+    }
+
+    @Test
+    public void testWrittenSynchronouslyOnceStopped() {
+        RecordingWriter writer = new RecordingWriter();
+        queue = new WriteBehindQueue<>("test", 100, 10, 0, writer);
+        queue.start();
+        queue.stop();
+
+        queue.enqueue("late");
+
+        assertEquals(Collections.singletonList("late"), writer.getWritten());
+        assertEquals(Thread.currentThread().getName(), writer.getThreads().get(0));
+    }
+
+    @Test
+    public void testOverflowWrittenInOneBatchAfterFirstTimeout() throws InterruptedException {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingWriter writer = new RecordingWriter() {
+            @Override
+            public void write(List<String> batch) {
+                if (batch.contains("slow")) {
+                    writing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.write(batch);
+            }
+        };
+        queue = new WriteBehindQueue<>("test", 1, 100, 0, writer);
+        queue.start();
+
+        // The writer is stuck on the first item, the second fills the queue
+        queue.enqueue("slow");
+        assertTrue(writing.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        queue.enqueue("queued");
+
+        // Let the writer go once the items below have had time to wait for room a few times over
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(WriteBehindQueue.ENQUEUE_TIMEOUT_MS * 3);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                release.countDown();
+            }
+        }).start();
+
+        queue.enqueue(items("item", 10));
+
+        // Once the first item timed out, none of the others were offered: they were all written together
+        List<List<String>> batches = writer.getBatches();
+        int index = batches.indexOf(items("item", 10));
+        assertTrue(index >= 0);
+        assertEquals(Thread.currentThread().getName(), writer.getThreads().get(index));
+    }
+
+    @Test
+    public void testFailedBatchRetriedOneByOne() {
+        RecordingWriter writer = new RecordingWriter();
+        queue = new WriteBehindQueue<>("test", 100, 10, 0, writer);
+
+        // Not started: written synchronously, as one batch
+        queue.enqueue(Arrays.asList("good0", "bad1", "good2"));
+
+        assertEquals(Arrays.asList(Collections.singletonList("good0"), Collections.singletonList("good2")),
+                writer.getBatches());
+        assertEquals(Collections.singletonList("bad1"), writer.getFailed());
+    }
+
+    @Test
+    public void testWriterKeepsGoingAfterFailure() throws InterruptedException {
+        RecordingWriter writer = new RecordingWriter();
+        queue = new WriteBehindQueue<>("test", 100, 10, 0, writer);
+        queue.start();
+
+        queue.enqueue("bad0");
+        queue.enqueue("good1");
+        writer.awaitWritten(1);
+        queue.flush();
+
+        assertEquals(Collections.singletonList("good1"), writer.getWritten());
+        assertEquals(Collections.singletonList("bad0"), writer.getFailed());
+    }
+
+    @Test
+    public void testFlushWaitsForBatchBeingWritten() throws InterruptedException {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+
+        queue = new WriteBehindQueue<>("test", 100, 10, 0, new BatchWriter<String>() {
+            @Override
+            public void write(List<String> batch) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                written.addAll(batch);
+            }
+
+            @Override
+            public void failed(String item, RuntimeException e) {
+            }
+        });
+        queue.start();
+
+        queue.enqueue("item");
+        assertTrue(writing.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals("item", queue.getOldest());
+
+        final CountDownLatch flushed = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.flush();
+                flushed.countDown();
+            }
+        }).start();
+
+        // flush() can't return before the writer is done with the item it took off the queue
+        assertFalse(flushed.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(flushed.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singletonList("item"), written);
+    }
+}